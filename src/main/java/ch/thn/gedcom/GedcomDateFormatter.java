@@ -0,0 +1,457 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom;
+
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import ch.thn.gedcom.GedcomFormatter.GedcomDateFormat;
+
+
+/**
+ * The same date and time helpers as in {@link GedcomFormatter}, but based on
+ * the immutable java.time classes. All formatters are immutable and shared,
+ * thus none of the methods are synchronized and many threads (like the
+ * workers of a parallel import) can format and parse dates at the same time.<br />
+ * <br />
+ * Gedcom month names are always the uppercase english abbreviations (JAN, FEB, ...),
+ * independent of the default locale.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public final class GedcomDateFormatter {
+
+  private static final Pattern gedcomDateFormatYear = Pattern.compile("[0-9]{4}");
+  private static final Pattern gedcomDateFormatYearMonth = Pattern.compile("[A-Z]{3} [0-9]{4}");
+  private static final Pattern gedcomDateFormatYearMonthDay = Pattern.compile("[0-3]{0,1}[0-9]{1} [A-Z]{3} [0-9]{4}");
+
+  private static final Map<Long, String> gedcomMonths = new HashMap<>();
+
+  static {
+    String[] months = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+        "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    for (int i = 0; i < months.length; i++) {
+      gedcomMonths.put(Long.valueOf(i + 1), months[i]);
+    }
+  }
+
+  private static final DateTimeFormatter gedcomTime = DateTimeFormatter.ofPattern("HH:mm:ss", Locale.ENGLISH);
+
+  //Formatters for printing. The day always has two digits
+  private static final DateTimeFormatter gedcomDateYearMonthDay = dateFormatter(true, true, 2, false);
+  private static final DateTimeFormatter gedcomDateYearMonth = dateFormatter(true, false, 2, false);
+  private static final DateTimeFormatter gedcomDateYear = dateFormatter(false, false, 2, false);
+  private static final DateTimeFormatter gedcomDateTimeYearMonthDay = dateFormatter(true, true, 2, true);
+  private static final DateTimeFormatter gedcomDateTimeYearMonth = dateFormatter(true, false, 2, true);
+  private static final DateTimeFormatter gedcomDateTimeYear = dateFormatter(false, false, 2, true);
+
+  //Formatters for parsing. The day can have one or two digits
+  private static final DateTimeFormatter parseDateYearMonthDay = dateFormatter(true, true, 1, false);
+  private static final DateTimeFormatter parseDateTimeYearMonthDay = dateFormatter(true, true, 1, true);
+
+  /** The formatters created from user given patterns, by pattern */
+  private static final ConcurrentHashMap<String, DateTimeFormatter> patternFormatters = new ConcurrentHashMap<>();
+
+
+  private GedcomDateFormatter() {
+
+  }
+
+  /**
+   * Creates a gedcom date (and time) formatter. The missing date pieces are
+   * set to 1 (first day and first month) when parsing.
+   *
+   * @param month Include the month?
+   * @param day Include the day (only possible if the month is included)?
+   * @param minDayWidth The minimum number of digits of the day
+   * @param time Include the time (HH:mm:ss)?
+   * @return
+   */
+  private static DateTimeFormatter dateFormatter(boolean month, boolean day,
+      int minDayWidth, boolean time) {
+    DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+
+    if (month) {
+      if (day) {
+        builder.appendValue(ChronoField.DAY_OF_MONTH, minDayWidth, 2, SignStyle.NOT_NEGATIVE);
+        builder.appendLiteral(' ');
+      }
+
+      builder.appendText(ChronoField.MONTH_OF_YEAR, gedcomMonths);
+      builder.appendLiteral(' ');
+    }
+
+    builder.appendValue(ChronoField.YEAR, 4, 9, SignStyle.NOT_NEGATIVE);
+
+    if (time) {
+      builder.appendLiteral(' ');
+      builder.append(gedcomTime);
+    }
+
+    builder.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1);
+    builder.parseDefaulting(ChronoField.DAY_OF_MONTH, 1);
+
+    //Invalid dates (like 31 FEB) are not adjusted but rejected
+    return builder.toFormatter(Locale.ENGLISH).withResolverStyle(ResolverStyle.STRICT);
+  }
+
+  /**
+   * Returns todays date in the format needed for gedcom files.
+   *
+   * @return
+   */
+  public static String getGedcomDateNow() {
+    return gedcomDateYearMonthDay.format(LocalDate.now());
+  }
+
+  /**
+   * Returns todays time in the format needed for gedcom files.
+   *
+   * @return
+   */
+  public static String getGedcomTimeNow() {
+    return gedcomTime.format(LocalTime.now());
+  }
+
+  /**
+   * Returns the given time in the format needed for gedcom files.
+   *
+   * @param time Any time (like {@link LocalTime} or {@link LocalDateTime})
+   * @return The time as string, or <code>null</code> if <code>time=null</code>
+   */
+  public static String getGedcomTime(TemporalAccessor time) {
+    if (time == null) {
+      return null;
+    }
+
+    return gedcomTime.format(time);
+  }
+
+  /**
+   * Returns the given date in the format needed for gedcom files. It has to
+   * be specified if the day and the month should be included in the returned
+   * date string.
+   *
+   * @param date Any date (like {@link LocalDate} or {@link LocalDateTime})
+   * @param month Include the month?
+   * @param day Include the day (only possible if the month is included)?
+   * @return The date as string, or <code>null</code> if <code>date=null</code>
+   */
+  public static String getGedcomDate(TemporalAccessor date, boolean month, boolean day) {
+    if (date == null) {
+      return null;
+    }
+
+    if (month) {
+      if (!day) {
+        return gedcomDateYearMonth.format(date);
+      } else {
+        return gedcomDateYearMonthDay.format(date);
+      }
+    } else {
+      return gedcomDateYear.format(date);
+    }
+  }
+
+  /**
+   * Returns the given date and time in the format needed for gedcom files. It has to
+   * be specified if the day and the month should be included in the returned
+   * date-time string.
+   *
+   * @param dateTime
+   * @param month Include the month?
+   * @param day Include the day (only possible if the month is included)?
+   * @return The date and time as string, or <code>null</code> if <code>dateTime=null</code>
+   */
+  public static String getGedcomDateTime(LocalDateTime dateTime, boolean month, boolean day) {
+    if (dateTime == null) {
+      return null;
+    }
+
+    if (month) {
+      if (!day) {
+        return gedcomDateTimeYearMonth.format(dateTime);
+      } else {
+        return gedcomDateTimeYearMonthDay.format(dateTime);
+      }
+    } else {
+      return gedcomDateTimeYear.format(dateTime);
+    }
+  }
+
+  /**
+   * Returns the date from the given gedcom date string. Gedcom dates
+   * can be in the following three patterns:<br>
+   * 1. "dd MMM yyyy"<br>
+   * 2. "MMM yyyy"<br>
+   * 3. "yyyy"
+   * <br>
+   * The missing pieces are set to 01 (first day and first month), like in
+   * {@link GedcomFormatter#getDateFromGedcom(String)}.
+   *
+   * @param gedcomDateString
+   * @return The date, or <code>null</code> if the string is not a valid gedcom date
+   */
+  public static LocalDate getDateFromGedcom(String gedcomDateString) {
+    if (gedcomDateString == null || gedcomDateString.length() == 0) {
+      return null;
+    }
+
+    DateTimeFormatter formatter = getParseFormatter(getGedcomDateFormat(gedcomDateString), false);
+
+    if (formatter == null) {
+      return null;
+    }
+
+    try {
+      return LocalDate.parse(gedcomDateString, formatter);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Converts the given gedcom time (HH:mm:ss) string to a time object.
+   *
+   * @param gedcomTimeString
+   * @return The time, or <code>null</code> if the string is not a valid gedcom time
+   */
+  public static LocalTime getTimeFromGedcom(String gedcomTimeString) {
+    if (gedcomTimeString == null || gedcomTimeString.length() == 0) {
+      return null;
+    }
+
+    try {
+      return LocalTime.parse(gedcomTimeString, gedcomTime);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the date and time from the given gedcom date-time string. It is
+   * expected that the given string contains the date and the time part, like
+   * in {@link GedcomFormatter#getDateTimeFromGedcom(String)}.
+   *
+   * @param gedcomDateTimeString
+   * @return The date and time, or <code>null</code> if the string is not valid
+   */
+  public static LocalDateTime getDateTimeFromGedcom(String gedcomDateTimeString) {
+    if (gedcomDateTimeString == null || gedcomDateTimeString.length() == 0) {
+      return null;
+    }
+
+    int timeStart = gedcomDateTimeString.lastIndexOf(' ');
+
+    if (timeStart == -1) {
+      return null;
+    }
+
+    //Only analyze the date part
+    DateTimeFormatter formatter = getParseFormatter(
+        getGedcomDateFormat(gedcomDateTimeString.substring(0, timeStart)), true);
+
+    if (formatter == null) {
+      return null;
+    }
+
+    try {
+      return LocalDateTime.parse(gedcomDateTimeString, formatter);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the formatter which parses the given gedcom date format
+   *
+   * @param format
+   * @param time
+   * @return The formatter, or <code>null</code> if the format is unknown
+   */
+  private static DateTimeFormatter getParseFormatter(GedcomDateFormat format, boolean time) {
+    switch (format) {
+      case YEAR_MONTH_DAY:
+        return time ? parseDateTimeYearMonthDay : parseDateYearMonthDay;
+      case YEAR_MONTH:
+        return time ? gedcomDateTimeYearMonth : gedcomDateYearMonth;
+      case YEAR:
+        return time ? gedcomDateTimeYear : gedcomDateYear;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Checks if the given date string is in a valid gedcom date format
+   *
+   * @param gedcomDate
+   * @return
+   */
+  public static boolean isGedcomDate(String gedcomDate) {
+    return getGedcomDateFormat(gedcomDate) != GedcomDateFormat.UNKNOWN;
+  }
+
+  /**
+   * Analyzes the format of the given date string and returns if the date contains only
+   * the year, the year and month or year, month and day in gedcom format.
+   *
+   * @param gedcomDate
+   * @return
+   */
+  public static GedcomDateFormat getGedcomDateFormat(String gedcomDate) {
+    if (gedcomDate == null) {
+      return GedcomDateFormat.UNKNOWN;
+    }
+
+    if (gedcomDateFormatYearMonthDay.matcher(gedcomDate).matches()) {
+      return GedcomDateFormat.YEAR_MONTH_DAY;
+    } else if (gedcomDateFormatYearMonth.matcher(gedcomDate).matches()) {
+      return GedcomDateFormat.YEAR_MONTH;
+    } else if (gedcomDateFormatYear.matcher(gedcomDate).matches()) {
+      return GedcomDateFormat.YEAR;
+    }
+
+    return GedcomDateFormat.UNKNOWN;
+  }
+
+  /**
+   * Converts the given gedcom date into a date string with one of the given formats. Since the
+   * gedcom date format can occur in three ways (with "day month year", "month year"
+   * or "year"), three possibilities of output formats have to be given. The
+   * formats are {@link DateTimeFormatter} patterns and are formatted with the
+   * default locale.
+   *
+   * @param gedcomDate
+   * @param dateFormatYear
+   * @param dateFormatYearMonth
+   * @param dateFormatYearMonthDay
+   * @return The converted date, or <code>null</code> if the string is not a valid gedcom date
+   */
+  public static String convertGedcomDate(String gedcomDate,
+      String dateFormatYear, String dateFormatYearMonth, String dateFormatYearMonthDay) {
+
+    GedcomDateFormat format = getGedcomDateFormat(gedcomDate);
+    String pattern = null;
+
+    switch (format) {
+      case YEAR_MONTH_DAY:
+        pattern = dateFormatYearMonthDay;
+        break;
+      case YEAR_MONTH:
+        pattern = dateFormatYearMonth;
+        break;
+      case YEAR:
+        pattern = dateFormatYear;
+        break;
+      default:
+        return null;
+    }
+
+    try {
+      LocalDate date = LocalDate.parse(gedcomDate, getParseFormatter(format, false));
+      return getPatternFormatter(pattern).format(date);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Tries to parse the given date string with the given dateFormatPatterns. The
+   * order of trying is exactly the order of the patterns given with dateFormatPatterns.
+   * The first pattern which works to parse the date string returns its date.
+   * If none of the patterns work, null is returned. The date parsing starts
+   * at the beginning of the given date string and parses until it fails. It might
+   * not use the whole date string, thus, longer format patterns should appear
+   * first. Missing pieces are set to 01 (first day and first month).
+   *
+   * @param dateString
+   * @param dateFormatPatterns One or more date formats as used in {@link DateTimeFormatter}
+   * @return
+   */
+  public static LocalDate extractDate(String dateString, String... dateFormatPatterns) {
+    if (dateString == null || dateString.length() == 0) {
+      return null;
+    }
+
+    for (int i = 0; i < dateFormatPatterns.length; i++) {
+      DateTimeFormatter formatter = getPatternFormatter(dateFormatPatterns[i]);
+      ParsePosition position = new ParsePosition(0);
+
+      try {
+        TemporalAccessor parsed = formatter.parseUnresolved(dateString, position);
+
+        if (parsed == null || position.getErrorIndex() != -1) {
+          continue;
+        }
+
+        //Only the parsed part, without the rest of the string
+        return LocalDate.from(formatter.parse(dateString.substring(0, position.getIndex())));
+      } catch (DateTimeException e) {
+        continue;
+      }
+    }
+
+    //Parsing the date with any given pattern failed
+    return null;
+  }
+
+  /**
+   * Returns the (shared) formatter for the given pattern. The missing date
+   * pieces are set to 1 (first day and first month) when parsing.
+   *
+   * @param pattern
+   * @return
+   */
+  private static DateTimeFormatter getPatternFormatter(String pattern) {
+    DateTimeFormatter formatter = patternFormatters.get(pattern);
+
+    if (formatter == null) {
+      formatter = new DateTimeFormatterBuilder()
+          .parseCaseInsensitive()
+          .appendPattern(pattern)
+          .parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+          .parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+          .toFormatter();
+
+      DateTimeFormatter existing = patternFormatters.putIfAbsent(pattern, formatter);
+
+      if (existing != null) {
+        formatter = existing;
+      }
+    }
+
+    return formatter;
+  }
+
+}
@@ -0,0 +1,951 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom;
+
+
+/**
+ * Parses gedcom DATE_VALUE strings and encodes them in a single, sortable
+ * <code>long</code>. Supported are all the forms of the gedcom 5.5.1 grammar:
+ * <pre>
+ * [@#DCALENDAR@] [[day] month] year[/dual year] [B.C.]
+ * ABT date, CAL date, EST date
+ * BEF date, AFT date, BET date AND date
+ * FROM date, TO date, FROM date TO date
+ * INT date (phrase), (phrase)
+ * </pre>
+ * The calendars GREGORIAN, JULIAN, HEBREW and FRENCH R are converted to days.
+ * ROMAN and UNKNOWN dates are accepted, but their range is unbounded.<br />
+ * <br />
+ * The encoded value holds the earliest and the latest possible day (as epoch days,
+ * like {@link java.time.LocalDate#toEpochDay()}), the {@link Qualifier} and the
+ * {@link Calendar} of the first date. A date without day covers the whole month,
+ * a date without month the whole year. Open ends (like with BEF or AFT) are
+ * {@link #MIN_EPOCH_DAY} or {@link #MAX_EPOCH_DAY}. Sorting the encoded values
+ * sorts the dates by their earliest day, then by their latest day.
+ * Invalid date values are encoded as {@link #INVALID}, which sorts before all
+ * valid dates.<br />
+ * <br />
+ * Parsing does not create any objects. Each thread uses its own parser.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public final class GedcomDateValue {
+
+  /**
+   * How the date range of a date value has to be read
+   */
+  public static enum Qualifier {
+    EXACT, ABOUT, CALCULATED, ESTIMATED, BEFORE, AFTER, BETWEEN, FROM, TO, FROM_TO, INTERPRETED, PHRASE
+  }
+
+  /**
+   * The calendar escapes
+   */
+  public static enum Calendar {
+    GREGORIAN, JULIAN, HEBREW, FRENCH_R, ROMAN, UNKNOWN
+  }
+
+  /** The encoded value of a date value which could not be parsed */
+  public static final long INVALID = -1L;
+
+  private static final int DAY_BITS = 24;
+  private static final int DAY_OFFSET = 1 << (DAY_BITS - 1);
+  private static final long DAY_MASK = (1L << DAY_BITS) - 1;
+  private static final int EARLIEST_SHIFT = 39;
+  private static final int LATEST_SHIFT = 15;
+  private static final int CALENDAR_SHIFT = 4;
+  private static final long QUALIFIER_MASK = 0xF;
+  private static final long CALENDAR_MASK = 0x7;
+
+  /** The smallest epoch day which can be encoded. Used for an open start */
+  public static final int MIN_EPOCH_DAY = -DAY_OFFSET;
+  /** The biggest epoch day which can be encoded. Used for an open end */
+  public static final int MAX_EPOCH_DAY = DAY_OFFSET - 1;
+
+  private static final int MAX_YEAR = 9999;
+
+  /** Rata die (day 1 = 1 JAN 0001 gregorian) of the epoch day 0 */
+  private static final int RATA_DIE_EPOCH = 719163;
+  /** Offset from the hebrew day count to rata die */
+  private static final int HEBREW_EPOCH = -1373429;
+  /** Epoch day of 1 VEND 1 (22 SEP 1792 gregorian) */
+  private static final int FRENCH_EPOCH = -64748;
+
+  private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+      "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+  private static final String[] HEBREW_MONTHS = {"TSH", "CSH", "KSL", "TVT", "SHV", "ADR",
+      "ADS", "NSN", "IYR", "SVN", "TMZ", "AAV", "ELL"};
+  private static final String[] FRENCH_MONTHS = {"VEND", "BRUM", "FRIM", "NIVO", "PLUV", "VENT",
+      "GERM", "FLOR", "PRAI", "MESS", "THER", "FRUC", "COMP"};
+
+  private static final Qualifier[] QUALIFIERS = Qualifier.values();
+  private static final Calendar[] CALENDARS = Calendar.values();
+
+  private static final ThreadLocal<Parser> parser = new ThreadLocal<Parser>() {
+    @Override
+    protected Parser initialValue() {
+      return new Parser();
+    }
+  };
+
+
+  private GedcomDateValue() {
+
+  }
+
+  /**
+   * Parses the given date value
+   *
+   * @param dateValue
+   * @return The encoded date value, or {@link #INVALID}
+   */
+  public static long parse(CharSequence dateValue) {
+    if (dateValue == null) {
+      return INVALID;
+    }
+
+    return parse(dateValue, 0, dateValue.length());
+  }
+
+  /**
+   * Parses the date value between start (inclusive) and end (exclusive) of
+   * the given characters
+   *
+   * @param text
+   * @param start
+   * @param end
+   * @return The encoded date value, or {@link #INVALID}
+   */
+  public static long parse(CharSequence text, int start, int end) {
+    return parser.get().parse(text, start, end);
+  }
+
+  /**
+   * Encodes the given range
+   *
+   * @param earliestEpochDay
+   * @param latestEpochDay
+   * @param qualifier
+   * @param calendar
+   * @return
+   */
+  public static long encode(int earliestEpochDay, int latestEpochDay,
+      Qualifier qualifier, Calendar calendar) {
+    return encode(earliestEpochDay, latestEpochDay, qualifier.ordinal(), calendar.ordinal());
+  }
+
+  /**
+   *
+   *
+   * @param earliestEpochDay
+   * @param latestEpochDay
+   * @param qualifier
+   * @param calendar
+   * @return
+   */
+  private static long encode(int earliestEpochDay, int latestEpochDay, int qualifier, int calendar) {
+    if (earliestEpochDay < MIN_EPOCH_DAY || latestEpochDay > MAX_EPOCH_DAY
+        || earliestEpochDay > latestEpochDay) {
+      return INVALID;
+    }
+
+    return ((long)(earliestEpochDay + DAY_OFFSET) << EARLIEST_SHIFT)
+        | ((long)(latestEpochDay + DAY_OFFSET) << LATEST_SHIFT)
+        | ((long)calendar << CALENDAR_SHIFT)
+        | qualifier;
+  }
+
+  /**
+   * Returns <code>true</code> if the given encoded value is a valid date value
+   *
+   * @param encoded
+   * @return
+   */
+  public static boolean isValid(long encoded) {
+    return encoded >= 0;
+  }
+
+  /**
+   * Returns the earliest possible day of the encoded date value,
+   * or {@link #MIN_EPOCH_DAY} if it has an open start
+   *
+   * @param encoded
+   * @return
+   */
+  public static int getEarliestEpochDay(long encoded) {
+    return (int)((encoded >>> EARLIEST_SHIFT) & DAY_MASK) - DAY_OFFSET;
+  }
+
+  /**
+   * Returns the latest possible day of the encoded date value,
+   * or {@link #MAX_EPOCH_DAY} if it has an open end
+   *
+   * @param encoded
+   * @return
+   */
+  public static int getLatestEpochDay(long encoded) {
+    return (int)((encoded >>> LATEST_SHIFT) & DAY_MASK) - DAY_OFFSET;
+  }
+
+  /**
+   *
+   *
+   * @param encoded
+   * @return The qualifier, or <code>null</code> if the value is invalid
+   */
+  public static Qualifier getQualifier(long encoded) {
+    if (!isValid(encoded)) {
+      return null;
+    }
+
+    return QUALIFIERS[(int)(encoded & QUALIFIER_MASK)];
+  }
+
+  /**
+   *
+   *
+   * @param encoded
+   * @return The calendar of the first date, or <code>null</code> if the value is invalid
+   */
+  public static Calendar getCalendar(long encoded) {
+    if (!isValid(encoded)) {
+      return null;
+    }
+
+    return CALENDARS[(int)((encoded >>> CALENDAR_SHIFT) & CALENDAR_MASK)];
+  }
+
+  /**
+   * Returns <code>true</code> if the range of the encoded date value overlaps
+   * with the given range (both inclusive)
+   *
+   * @param encoded
+   * @param fromEpochDay
+   * @param toEpochDay
+   * @return
+   */
+  public static boolean overlaps(long encoded, int fromEpochDay, int toEpochDay) {
+    return isValid(encoded)
+        && getEarliestEpochDay(encoded) <= toEpochDay
+        && getLatestEpochDay(encoded) >= fromEpochDay;
+  }
+
+
+  /**
+   * Epoch day of the given (proleptic) gregorian or julian date
+   *
+   * @param julian
+   * @param year Astronomical year (1 B.C. is year 0)
+   * @param month 1-12
+   * @param day 1-31
+   * @return
+   */
+  private static int civilToEpochDay(boolean julian, int year, int month, int day) {
+    //Count the years from march, so that the leap day is the last day of a year
+    int y = month <= 2 ? year - 1 : year;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+
+    if (julian) {
+      int cycle = Math.floorDiv(y, 4);
+      int yearOfCycle = y - cycle * 4;
+      return cycle * 1461 + yearOfCycle * 365 + dayOfYear - 719470;
+    } else {
+      int era = Math.floorDiv(y, 400);
+      int yearOfEra = y - era * 400;
+      int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097 + dayOfEra - 719468;
+    }
+  }
+
+  /**
+   *
+   *
+   * @param julian
+   * @param year
+   * @param month
+   * @return
+   */
+  private static int civilMonthLength(boolean julian, int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leap = (year & 3) == 0 && (julian || year % 100 != 0 || year % 400 == 0);
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the given hebrew year has the additional
+   * month ADS
+   *
+   * @param year
+   * @return
+   */
+  private static boolean isHebrewLeapYear(int year) {
+    return (7 * year + 1) % 19 < 7;
+  }
+
+  /**
+   * The number of days from the hebrew epoch to 1 TSH of the given year
+   *
+   * @param year
+   * @return
+   */
+  private static int hebrewElapsedDays(int year) {
+    long monthsElapsed = 235L * ((year - 1) / 19) + 12 * ((year - 1) % 19)
+        + (7 * ((year - 1) % 19) + 1) / 19;
+    long partsElapsed = 204 + 793 * (monthsElapsed % 1080);
+    long hoursElapsed = 5 + 12 * monthsElapsed + 793 * (monthsElapsed / 1080)
+        + partsElapsed / 1080;
+    long day = 1 + 29 * monthsElapsed + hoursElapsed / 24;
+    long parts = 1080 * (hoursElapsed % 24) + partsElapsed % 1080;
+
+    //The postponement rules
+    if (parts >= 19440
+        || (day % 7 == 2 && parts >= 9924 && !isHebrewLeapYear(year))
+        || (day % 7 == 1 && parts >= 16789 && isHebrewLeapYear(year - 1))) {
+      day++;
+    }
+
+    if (day % 7 == 0 || day % 7 == 3 || day % 7 == 5) {
+      day++;
+    }
+
+    return (int)day;
+  }
+
+  /**
+   *
+   *
+   * @param year
+   * @param month 1 (TSH) - 13 (ELL)
+   * @return
+   */
+  private static int hebrewMonthLength(int year, int month) {
+    switch (month) {
+      case 2:
+        //CSH is long in complete years
+        return (hebrewElapsedDays(year + 1) - hebrewElapsedDays(year)) % 10 == 5 ? 30 : 29;
+      case 3:
+        //KSL is short in deficient years
+        return (hebrewElapsedDays(year + 1) - hebrewElapsedDays(year)) % 10 == 3 ? 29 : 30;
+      case 6:
+        return isHebrewLeapYear(year) ? 30 : 29;
+      case 7:
+        return isHebrewLeapYear(year) ? 29 : 0;
+      case 1:
+      case 5:
+      case 8:
+      case 10:
+      case 12:
+        return 30;
+      default:
+        return 29;
+    }
+  }
+
+  /**
+   *
+   *
+   * @param year
+   * @param month 1 (TSH) - 13 (ELL)
+   * @param day
+   * @return
+   */
+  private static int hebrewToEpochDay(int year, int month, int day) {
+    int days = HEBREW_EPOCH + hebrewElapsedDays(year) - RATA_DIE_EPOCH;
+
+    for (int m = 1; m < month; m++) {
+      days += hebrewMonthLength(year, m);
+    }
+
+    return days + day;
+  }
+
+  /**
+   * Epoch day of the given french republican date. Every fourth year,
+   * starting with year 3, is a leap year.
+   *
+   * @param year
+   * @param month 1 (VEND) - 13 (COMP)
+   * @param day
+   * @return
+   */
+  private static int frenchToEpochDay(int year, int month, int day) {
+    return FRENCH_EPOCH + 365 * (year - 1) + year / 4 + 30 * (month - 1) + day - 1;
+  }
+
+  /**
+   *
+   *
+   * @param year
+   * @param month
+   * @return
+   */
+  private static int frenchMonthLength(int year, int month) {
+    if (month == 13) {
+      return year % 4 == 3 ? 6 : 5;
+    }
+
+    return 30;
+  }
+
+
+
+  /*****************************************************************************
+   * A hand written parser for one date value at a time. It keeps its
+   * position and the last parsed date in fields, thus it does not create
+   * any objects while parsing.
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static class Parser {
+
+    private CharSequence text = null;
+    private int pos = 0;
+    private int end = 0;
+
+    //The last parsed date
+    private int calendar = 0;
+    private int firstDay = 0;
+    private int lastDay = 0;
+
+    /**
+     *
+     *
+     * @param text
+     * @param start
+     * @param end
+     * @return
+     */
+    protected long parse(CharSequence text, int start, int end) {
+      this.text = text;
+      this.pos = start;
+      this.end = end;
+
+      try {
+        return parseDateValue();
+      } finally {
+        this.text = null;
+      }
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    private long parseDateValue() {
+      skipSpaces();
+
+      if (pos == end) {
+        return INVALID;
+      }
+
+      if (text.charAt(pos) == '(') {
+        return skipPhrase() && atEnd() ?
+            encode(MIN_EPOCH_DAY, MAX_EPOCH_DAY, Qualifier.PHRASE.ordinal(), Calendar.GREGORIAN.ordinal()) : INVALID;
+      }
+
+      int wordStart = pos;
+      int wordEnd = wordEnd(pos);
+      pos = wordEnd;
+
+      if (matches(wordStart, wordEnd, "FROM")) {
+        if (!parseDate()) {
+          return INVALID;
+        }
+
+        int from = firstDay;
+        int fromCalendar = calendar;
+
+        skipSpaces();
+        int toStart = pos;
+        int toEnd = wordEnd(pos);
+
+        if (matches(toStart, toEnd, "TO")) {
+          pos = toEnd;
+          return parseDate() && atEnd() ?
+              encode(from, lastDay, Qualifier.FROM_TO.ordinal(), fromCalendar) : INVALID;
+        }
+
+        return atEnd() ? encode(from, MAX_EPOCH_DAY, Qualifier.FROM.ordinal(), fromCalendar) : INVALID;
+      } else if (matches(wordStart, wordEnd, "TO")) {
+        return parseDate() && atEnd() ?
+            encode(MIN_EPOCH_DAY, lastDay, Qualifier.TO.ordinal(), calendar) : INVALID;
+      } else if (matches(wordStart, wordEnd, "BEF")) {
+        return parseDate() && atEnd() ?
+            encode(MIN_EPOCH_DAY, firstDay - 1, Qualifier.BEFORE.ordinal(), calendar) : INVALID;
+      } else if (matches(wordStart, wordEnd, "AFT")) {
+        return parseDate() && atEnd() ?
+            encode(lastDay + 1, MAX_EPOCH_DAY, Qualifier.AFTER.ordinal(), calendar) : INVALID;
+      } else if (matches(wordStart, wordEnd, "BET")) {
+        if (!parseDate()) {
+          return INVALID;
+        }
+
+        int from = firstDay;
+        int fromCalendar = calendar;
+
+        skipSpaces();
+        int andStart = pos;
+        int andEnd = wordEnd(pos);
+
+        if (!matches(andStart, andEnd, "AND")) {
+          return INVALID;
+        }
+
+        pos = andEnd;
+        return parseDate() && atEnd() ?
+            encode(from, lastDay, Qualifier.BETWEEN.ordinal(), fromCalendar) : INVALID;
+      } else if (matches(wordStart, wordEnd, "ABT")) {
+        return parseSingleDate(Qualifier.ABOUT);
+      } else if (matches(wordStart, wordEnd, "CAL")) {
+        return parseSingleDate(Qualifier.CALCULATED);
+      } else if (matches(wordStart, wordEnd, "EST")) {
+        return parseSingleDate(Qualifier.ESTIMATED);
+      } else if (matches(wordStart, wordEnd, "INT")) {
+        if (!parseDate()) {
+          return INVALID;
+        }
+
+        skipSpaces();
+
+        //The phrase is mandatory, but it is not needed for the date
+        if (pos < end && text.charAt(pos) == '(' && !skipPhrase()) {
+          return INVALID;
+        }
+
+        return atEnd() ? encode(firstDay, lastDay, Qualifier.INTERPRETED.ordinal(), calendar) : INVALID;
+      }
+
+      //No keyword. A plain date
+      pos = wordStart;
+      return parseSingleDate(Qualifier.EXACT);
+    }
+
+    /**
+     *
+     *
+     * @param qualifier
+     * @return
+     */
+    private long parseSingleDate(Qualifier qualifier) {
+      return parseDate() && atEnd() ?
+          encode(firstDay, lastDay, qualifier.ordinal(), calendar) : INVALID;
+    }
+
+    /**
+     * Parses one date with an optional calendar escape and sets the first
+     * and last day and the calendar.
+     *
+     * @return <code>false</code> if there is no valid date at the current position
+     */
+    private boolean parseDate() {
+      skipSpaces();
+      calendar = Calendar.GREGORIAN.ordinal();
+
+      if (pos < end && text.charAt(pos) == '@') {
+        if (!parseCalendarEscape()) {
+          return false;
+        }
+
+        skipSpaces();
+      }
+
+      int day = 0;
+      int month = 0;
+      int year = 0;
+
+      int wordStart = pos;
+      int wordEnd = wordEnd(pos);
+
+      if (wordStart == wordEnd) {
+        return false;
+      }
+
+      if (isDigit(text.charAt(wordStart))) {
+        int number = parseNumber(wordStart, wordEnd);
+        pos = wordEnd;
+
+        //A day, if a month follows
+        skipSpaces();
+        int monthEnd = wordEnd(pos);
+        int monthNumber = parseMonth(pos, monthEnd);
+
+        if (monthNumber != 0) {
+          if (number < 1) {
+            return false;
+          }
+
+          day = number;
+          month = monthNumber;
+          pos = monthEnd;
+          skipSpaces();
+          wordEnd = wordEnd(pos);
+          year = parseYear(pos, wordEnd);
+        } else {
+          //No month. It was the year
+          pos = wordStart;
+          year = parseYear(wordStart, wordEnd);
+        }
+      } else {
+        month = parseMonth(wordStart, wordEnd);
+
+        if (month == 0) {
+          return false;
+        }
+
+        pos = wordEnd;
+        skipSpaces();
+        wordEnd = wordEnd(pos);
+        year = parseYear(pos, wordEnd);
+      }
+
+      if (year == Integer.MIN_VALUE) {
+        return false;
+      }
+
+      return setRange(year, month, day);
+    }
+
+    /**
+     * Sets the first and last day of the given date in the current calendar
+     *
+     * @param year
+     * @param month 0 if there is no month
+     * @param day 0 if there is no day
+     * @return <code>false</code> if the date does not exist
+     */
+    private boolean setRange(int year, int month, int day) {
+      if (calendar == Calendar.ROMAN.ordinal() || calendar == Calendar.UNKNOWN.ordinal()) {
+        firstDay = MIN_EPOCH_DAY;
+        lastDay = MAX_EPOCH_DAY;
+        return true;
+      }
+
+      if (calendar == Calendar.HEBREW.ordinal()) {
+        if (year < 1) {
+          return false;
+        }
+
+        //ADS only exists in leap years. Read it as ADR otherwise
+        if (month == 7 && !isHebrewLeapYear(year)) {
+          month = 6;
+        }
+
+        if (month == 0) {
+          firstDay = hebrewToEpochDay(year, 1, 1);
+          lastDay = hebrewToEpochDay(year + 1, 1, 1) - 1;
+          return true;
+        }
+
+        int length = hebrewMonthLength(year, month);
+
+        if (day > length) {
+          return false;
+        }
+
+        firstDay = hebrewToEpochDay(year, month, day == 0 ? 1 : day);
+        lastDay = day == 0 ? firstDay + length - 1 : firstDay;
+        return true;
+      }
+
+      if (calendar == Calendar.FRENCH_R.ordinal()) {
+        if (year < 1) {
+          return false;
+        }
+
+        if (month == 0) {
+          firstDay = frenchToEpochDay(year, 1, 1);
+          lastDay = frenchToEpochDay(year + 1, 1, 1) - 1;
+          return true;
+        }
+
+        int length = frenchMonthLength(year, month);
+
+        if (day > length) {
+          return false;
+        }
+
+        firstDay = frenchToEpochDay(year, month, day == 0 ? 1 : day);
+        lastDay = day == 0 ? firstDay + length - 1 : firstDay;
+        return true;
+      }
+
+      boolean julian = calendar == Calendar.JULIAN.ordinal();
+
+      if (month == 0) {
+        firstDay = civilToEpochDay(julian, year, 1, 1);
+        lastDay = civilToEpochDay(julian, year, 12, 31);
+        return true;
+      }
+
+      int length = civilMonthLength(julian, year, month);
+
+      if (day > length) {
+        return false;
+      }
+
+      firstDay = civilToEpochDay(julian, year, month, day == 0 ? 1 : day);
+      lastDay = day == 0 ? firstDay + length - 1 : firstDay;
+      return true;
+    }
+
+    /**
+     * Parses the year with an optional dual year ("1699/00") and an optional
+     * B.C. and moves the position behind it
+     *
+     * @param start
+     * @param wordEnd
+     * @return The astronomical year, or {@link Integer#MIN_VALUE} if it is not
+     * a valid year
+     */
+    private int parseYear(int start, int wordEnd) {
+      int slash = start;
+
+      while (slash < wordEnd && text.charAt(slash) != '/') {
+        slash++;
+      }
+
+      int year = parseNumber(start, slash);
+
+      if (year <= 0 || year > MAX_YEAR) {
+        return Integer.MIN_VALUE;
+      }
+
+      if (slash < wordEnd) {
+        //A dual year. The date belongs to the following year
+        if (parseNumber(slash + 1, wordEnd) < 0 || calendar > Calendar.JULIAN.ordinal()) {
+          return Integer.MIN_VALUE;
+        }
+
+        year++;
+      }
+
+      pos = wordEnd;
+
+      //B.C. (also BC and B.C), only as separate word
+      int saved = pos;
+      skipSpaces();
+      int bcEnd = wordEnd(pos);
+
+      if (matches(pos, bcEnd, "B.C.") || matches(pos, bcEnd, "B.C") || matches(pos, bcEnd, "BC")) {
+        pos = bcEnd;
+        return 1 - year;
+      }
+
+      pos = saved;
+      return year;
+    }
+
+    /**
+     * Parses the calendar escape (like @#DJULIAN@) at the current position
+     *
+     * @return
+     */
+    private boolean parseCalendarEscape() {
+      if (pos + 3 >= end || text.charAt(pos + 1) != '#' || text.charAt(pos + 2) != 'D') {
+        return false;
+      }
+
+      int nameStart = pos + 3;
+      int nameEnd = nameStart;
+
+      while (nameEnd < end && text.charAt(nameEnd) != '@') {
+        nameEnd++;
+      }
+
+      if (nameEnd == end) {
+        return false;
+      }
+
+      if (matches(nameStart, nameEnd, "GREGORIAN")) {
+        calendar = Calendar.GREGORIAN.ordinal();
+      } else if (matches(nameStart, nameEnd, "JULIAN")) {
+        calendar = Calendar.JULIAN.ordinal();
+      } else if (matches(nameStart, nameEnd, "HEBREW")) {
+        calendar = Calendar.HEBREW.ordinal();
+      } else if (matches(nameStart, nameEnd, "FRENCH R")) {
+        calendar = Calendar.FRENCH_R.ordinal();
+      } else if (matches(nameStart, nameEnd, "ROMAN")) {
+        calendar = Calendar.ROMAN.ordinal();
+      } else if (matches(nameStart, nameEnd, "UNKNOWN")) {
+        calendar = Calendar.UNKNOWN.ordinal();
+      } else {
+        return false;
+      }
+
+      pos = nameEnd + 1;
+      return true;
+    }
+
+    /**
+     * Returns the number of the month in the current calendar
+     *
+     * @param start
+     * @param wordEnd
+     * @return The month (starting with 1), or 0 if it is not a month
+     */
+    private int parseMonth(int start, int wordEnd) {
+      String[] months = null;
+
+      if (calendar == Calendar.HEBREW.ordinal()) {
+        months = HEBREW_MONTHS;
+      } else if (calendar == Calendar.FRENCH_R.ordinal()) {
+        months = FRENCH_MONTHS;
+      } else {
+        months = MONTHS;
+      }
+
+      for (int i = 0; i < months.length; i++) {
+        if (matches(start, wordEnd, months[i])) {
+          return i + 1;
+        }
+      }
+
+      return 0;
+    }
+
+    /**
+     *
+     *
+     * @param start
+     * @param wordEnd
+     * @return The number, or -1 if there are no digits or other characters
+     */
+    private int parseNumber(int start, int wordEnd) {
+      if (start == wordEnd || wordEnd - start > 6) {
+        return -1;
+      }
+
+      int number = 0;
+
+      for (int i = start; i < wordEnd; i++) {
+        char c = text.charAt(i);
+
+        if (!isDigit(c)) {
+          return -1;
+        }
+
+        number = number * 10 + (c - '0');
+      }
+
+      return number;
+    }
+
+    /**
+     * Skips the phrase in parentheses at the current position
+     *
+     * @return <code>false</code> if the phrase is not closed
+     */
+    private boolean skipPhrase() {
+      int close = end - 1;
+
+      while (close > pos && text.charAt(close) != ')') {
+        close--;
+      }
+
+      if (close <= pos) {
+        return false;
+      }
+
+      pos = close + 1;
+      return true;
+    }
+
+    /**
+     * Returns <code>true</code> if only spaces are left
+     *
+     * @return
+     */
+    private boolean atEnd() {
+      skipSpaces();
+      return pos == end;
+    }
+
+    /**
+     *
+     *
+     */
+    private void skipSpaces() {
+      while (pos < end && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t')) {
+        pos++;
+      }
+    }
+
+    /**
+     * Returns the end (exclusive) of the word which starts at the given position
+     *
+     * @param start
+     * @return
+     */
+    private int wordEnd(int start) {
+      int i = start;
+
+      while (i < end && text.charAt(i) != ' ' && text.charAt(i) != '\t') {
+        i++;
+      }
+
+      return i;
+    }
+
+    /**
+     * Compares the characters between start and wordEnd with the given
+     * (uppercase) word, ignoring the case
+     *
+     * @param start
+     * @param wordEnd
+     * @param word
+     * @return
+     */
+    private boolean matches(int start, int wordEnd, String word) {
+      if (wordEnd - start != word.length()) {
+        return false;
+      }
+
+      for (int i = 0; i < word.length(); i++) {
+        if (Character.toUpperCase(text.charAt(start + i)) != word.charAt(i)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     *
+     *
+     * @param c
+     * @return
+     */
+    private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+    }
+
+  }
+
+}
@@ -32,7 +32,8 @@ import ch.thn.stringutil.StringUtil;
  * in gedcom files.<br />
  * <br />
  * All the methods are synchronized for thread save access since many objects (like
- * the date formats) are shared.
+ * the date formats) are shared. See {@link GedcomDateFormatter} for the same
+ * date methods without locking, based on java.time.
  *
  * @author Thomas Naeff (github.com/thnaeff)
  *
@@ -0,0 +1,620 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ch.thn.gedcom.store.GedcomStore;
+import ch.thn.gedcom.store.GedcomStoreLine;
+import ch.thn.gedcom.store.GedcomStoreStructure;
+import ch.thn.gedcom.store.GedcomSymbolTable;
+
+/**
+ * A read only copy of a {@link GedcomTree}, which keeps the lines in parallel
+ * arrays instead of one {@link GedcomNode} object per line. The lines are
+ * accessed by their index in this tree. The index 0 ({@link #ROOT}) is the
+ * head of the tree, the other lines follow in the order of the tree (each
+ * line before its child lines).<br>
+ * <br>
+ * For each line, only the indexes of the parent, the first child and the next
+ * sibling, the ID of the store line, the symbols of the names and the flags
+ * are kept. The values and xrefs are kept in a pool, which contains each
+ * distinct string of the tree only once.<br>
+ * <br>
+ * The navigation methods work like the methods of {@link GedcomNode}, but
+ * they take and return line indexes. A line which does not exist is
+ * returned as {@link #NO_LINE}. Use {@link #toTree()} to get a
+ * {@link GedcomTree} again, for example to change it.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class CompactGedcomTree {
+
+  /** The index of the head of the tree */
+  public static final int ROOT = 0;
+  /** Returned if a line does not exist */
+  public static final int NO_LINE = -1;
+
+  /** Used for the root, which does not have a store line */
+  static final int NO_STORE_LINE = -1;
+  /** Used for a value or xref which is <code>null</code> */
+  static final int NO_STRING = -1;
+
+  static final byte FLAG_TAG_LINE = 0x01;
+  static final byte FLAG_LOOK_FOR_VARIATION = 0x02;
+  static final byte FLAG_WITH_XREF = 0x04;
+  static final byte FLAG_WITH_VALUE = 0x08;
+  static final byte FLAG_XREF_SET = 0x10;
+  static final byte FLAG_VALUE_SET = 0x20;
+
+  private final GedcomStoreStructure storeStructure;
+  private final GedcomStore store;
+
+  private final int[] parent;
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  private final int[] storeLineId;
+  private final int[] nameSymbol;
+  private final int[] tagSymbol;
+  private final byte[] flags;
+  private final int[] xref;
+  private final int[] value;
+
+  private final String[] pool;
+
+  /** Only used while copying the tree */
+  private int numberOfLines = 0;
+
+  /**
+   * Copies the given tree
+   *
+   * @param tree
+   * @throws GedcomError If a line has a name which is not a name of the store
+   */
+  public CompactGedcomTree(GedcomTree tree) {
+    this.storeStructure = tree.getStoreStructure();
+    this.store = storeStructure.getStore();
+
+    int lines = countLines(tree);
+
+    parent = new int[lines];
+    firstChild = new int[lines];
+    nextSibling = new int[lines];
+    storeLineId = new int[lines];
+    nameSymbol = new int[lines];
+    tagSymbol = new int[lines];
+    flags = new byte[lines];
+    xref = new int[lines];
+    value = new int[lines];
+
+    HashMap<String, Integer> poolIndexes = new HashMap<String, Integer>();
+    ArrayList<String> poolStrings = new ArrayList<String>();
+
+    numberOfLines = 1;
+    parent[ROOT] = NO_LINE;
+    nextSibling[ROOT] = NO_LINE;
+    storeLineId[ROOT] = NO_STORE_LINE;
+    nameSymbol[ROOT] = store.getNameId(tree.getStructureName());
+    tagSymbol[ROOT] = GedcomSymbolTable.NO_SYMBOL;
+    xref[ROOT] = NO_STRING;
+    value[ROOT] = NO_STRING;
+
+    copyChildLines(tree, ROOT, poolIndexes, poolStrings);
+
+    pool = poolStrings.toArray(new String[poolStrings.size()]);
+  }
+
+  /**
+   * Creates a tree of lines which have been decoded by the
+   * {@link GedcomTreeCodec} (see {@link GedcomTreeCodec#decodeCompact(byte[])}).
+   * The arrays are used as they are, they have one entry per line.
+   *
+   * @param storeStructure
+   * @param parent
+   * @param firstChild
+   * @param nextSibling
+   * @param storeLineId
+   * @param nameSymbol
+   * @param tagSymbol
+   * @param flags
+   * @param xref
+   * @param value
+   * @param pool The distinct values and xrefs
+   */
+  CompactGedcomTree(GedcomStoreStructure storeStructure, int[] parent,
+      int[] firstChild, int[] nextSibling, int[] storeLineId, int[] nameSymbol,
+      int[] tagSymbol, byte[] flags, int[] xref, int[] value, String[] pool) {
+    this.storeStructure = storeStructure;
+    this.store = storeStructure.getStore();
+
+    this.parent = parent;
+    this.firstChild = firstChild;
+    this.nextSibling = nextSibling;
+    this.storeLineId = storeLineId;
+    this.nameSymbol = nameSymbol;
+    this.tagSymbol = tagSymbol;
+    this.flags = flags;
+    this.xref = xref;
+    this.value = value;
+    this.pool = pool;
+
+    numberOfLines = parent.length;
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @return
+   */
+  private static int countLines(GedcomNode node) {
+    int count = 1;
+
+    for (GedcomNode child : node.getChildNodes()) {
+      count += countLines(child);
+    }
+
+    return count;
+  }
+
+  /**
+   * Copies the child lines of the given node, which have been copied to the
+   * given index
+   *
+   * @param node
+   * @param index
+   * @param poolIndexes
+   * @param poolStrings
+   */
+  private void copyChildLines(GedcomNode node, int index,
+      HashMap<String, Integer> poolIndexes, ArrayList<String> poolStrings) {
+    int previous = NO_LINE;
+    firstChild[index] = NO_LINE;
+
+    for (GedcomNode child : node.getChildNodes()) {
+      int childIndex = numberOfLines++;
+
+      if (previous == NO_LINE) {
+        firstChild[index] = childIndex;
+      } else {
+        nextSibling[previous] = childIndex;
+      }
+
+      parent[childIndex] = index;
+      nextSibling[childIndex] = NO_LINE;
+      copyLine(child, childIndex, poolIndexes, poolStrings);
+      copyChildLines(child, childIndex, poolIndexes, poolStrings);
+
+      previous = childIndex;
+    }
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param index
+   * @param poolIndexes
+   * @param poolStrings
+   */
+  private void copyLine(GedcomNode node, int index,
+      HashMap<String, Integer> poolIndexes, ArrayList<String> poolStrings) {
+    storeLineId[index] = node.getStoreLine().getLineId();
+    nameSymbol[index] = getSymbol(node.getTagOrStructureName());
+    tagSymbol[index] = node.getTag() == null ? GedcomSymbolTable.NO_SYMBOL : getSymbol(node.getTag());
+
+    byte lineFlags = 0;
+
+    if (node.getLookForXRefAndValueVariation()) {
+      lineFlags |= FLAG_LOOK_FOR_VARIATION;
+    }
+
+    if (node.getWithXRef()) {
+      lineFlags |= FLAG_WITH_XREF;
+    }
+
+    if (node.getWithValue()) {
+      lineFlags |= FLAG_WITH_VALUE;
+    }
+
+    xref[index] = NO_STRING;
+    value[index] = NO_STRING;
+
+    if (node.getNodeValue().isTagLine()) {
+      GedcomTagLine tagLine = node.getNodeValue().getAsTagLine();
+      lineFlags |= FLAG_TAG_LINE;
+
+      if (tagLine.isXRefSet()) {
+        lineFlags |= FLAG_XREF_SET;
+      }
+
+      if (tagLine.isValueSet()) {
+        lineFlags |= FLAG_VALUE_SET;
+      }
+
+      xref[index] = addToPool(tagLine.getXRef(), poolIndexes, poolStrings);
+      value[index] = addToPool(tagLine.getValue(), poolIndexes, poolStrings);
+    }
+
+    flags[index] = lineFlags;
+  }
+
+  /**
+   *
+   *
+   * @param name
+   * @return
+   */
+  private int getSymbol(String name) {
+    int symbol = store.getNameId(name);
+
+    if (symbol == GedcomSymbolTable.NO_SYMBOL) {
+      throw new GedcomError("The name " + name + " is not a name of the store of the tree.");
+    }
+
+    return symbol;
+  }
+
+  /**
+   * Returns the index of the given string in the pool. The string is added
+   * if it is not in the pool yet.
+   *
+   * @param string
+   * @param poolIndexes
+   * @param poolStrings
+   * @return
+   */
+  private static int addToPool(String string, HashMap<String, Integer> poolIndexes,
+      ArrayList<String> poolStrings) {
+    if (string == null) {
+      return NO_STRING;
+    }
+
+    Integer index = poolIndexes.get(string);
+
+    if (index == null) {
+      index = poolStrings.size();
+      poolIndexes.put(string, index);
+      poolStrings.add(string);
+    }
+
+    return index;
+  }
+
+  /**
+   * Creates a new {@link GedcomTree} with all the lines of this tree
+   *
+   * @return
+   */
+  public GedcomTree toTree() {
+    GedcomTree tree = new GedcomTree(storeStructure);
+    addChildLines(tree, ROOT);
+
+    return tree;
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param index
+   */
+  private void addChildLines(GedcomNode node, int index) {
+    for (int child = firstChild[index]; child != NO_LINE; child = nextSibling[child]) {
+      byte lineFlags = flags[child];
+
+      GedcomNode childNode = node.createChildLine(getStoreLine(child),
+          store.getName(nameSymbol[child]), nameSymbol[child],
+          store.getName(tagSymbol[child]), tagSymbol[child],
+          (lineFlags & FLAG_LOOK_FOR_VARIATION) != 0,
+          (lineFlags & FLAG_WITH_XREF) != 0, (lineFlags & FLAG_WITH_VALUE) != 0);
+
+      if (childNode.getNodeValue().isTagLine()) {
+        childNode.getNodeValue().getAsTagLine().restore(getTagLineXRef(child),
+            (lineFlags & FLAG_XREF_SET) != 0, getTagLineValue(child),
+            (lineFlags & FLAG_VALUE_SET) != 0);
+      }
+
+      node.addChildLine(childNode);
+      addChildLines(childNode, child);
+    }
+  }
+
+  /**
+   * Returns the structure of this tree
+   *
+   * @return
+   */
+  public GedcomStoreStructure getStoreStructure() {
+    return storeStructure;
+  }
+
+  /**
+   * Returns the number of lines of this tree, including the head of the tree
+   *
+   * @return
+   */
+  public int getNumberOfLines() {
+    return parent.length;
+  }
+
+  /**
+   * Returns the number of distinct values and xrefs of this tree
+   *
+   * @return
+   */
+  public int getPoolSize() {
+    return pool.length;
+  }
+
+  /**
+   * Returns the index of the parent line, or {@link #NO_LINE} for the root
+   *
+   * @param line
+   * @return
+   */
+  public int getParentLine(int line) {
+    return parent[line];
+  }
+
+  /**
+   * Returns the index of the first child line, or {@link #NO_LINE} if the
+   * line does not have child lines
+   *
+   * @param line
+   * @return
+   */
+  public int getFirstChildLine(int line) {
+    return firstChild[line];
+  }
+
+  /**
+   * Returns the index of the next line with the same parent line, or
+   * {@link #NO_LINE} if the line is the last child line
+   *
+   * @param line
+   * @return
+   */
+  public int getNextSiblingLine(int line) {
+    return nextSibling[line];
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @return
+   */
+  public boolean hasChildLines(int line) {
+    return firstChild[line] != NO_LINE;
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @return
+   */
+  public int getNumberOfChildLines(int line) {
+    int count = 0;
+
+    for (int child = firstChild[line]; child != NO_LINE; child = nextSibling[child]) {
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the store line of the given line, or <code>null</code> for the root
+   *
+   * @param line
+   * @return
+   */
+  public GedcomStoreLine getStoreLine(int line) {
+    if (storeLineId[line] == NO_STORE_LINE) {
+      return null;
+    }
+
+    return store.getStoreLine(storeLineId[line]);
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @return
+   */
+  public String getTagOrStructureName(int line) {
+    return store.getName(nameSymbol[line]);
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @return
+   */
+  public String getTag(int line) {
+    return store.getName(tagSymbol[line]);
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @return
+   */
+  public boolean isTagLine(int line) {
+    return (flags[line] & FLAG_TAG_LINE) != 0;
+  }
+
+  /**
+   * Returns the value of the given line
+   *
+   * @param line
+   * @return
+   */
+  public String getTagLineValue(int line) {
+    return value[line] == NO_STRING ? null : pool[value[line]];
+  }
+
+  /**
+   * Returns the xref of the given line
+   *
+   * @param line
+   * @return
+   */
+  public String getTagLineXRef(int line) {
+    return xref[line] == NO_STRING ? null : pool[xref[line]];
+  }
+
+  /**
+   * Returns the child line with the given tag or structure name. Since there
+   * can be more than one line with the same tag or structure name, its line
+   * number has to be given.
+   *
+   * @param line
+   * @param tagOrStructureName
+   * @param lineNumber
+   * @return The index of the child line, or {@link #NO_LINE}
+   */
+  public int getChildLine(int line, String tagOrStructureName, int lineNumber) {
+    return getChildLine(line, tagOrStructureName, null, false, false, false, false, lineNumber);
+  }
+
+  /**
+   * Returns the child line with the given structure name and tag variation
+   *
+   * @param line
+   * @param structureName
+   * @param tag
+   * @param lineNumber
+   * @return The index of the child line, or {@link #NO_LINE}
+   */
+  public int getChildLine(int line, String structureName, String tag, int lineNumber) {
+    return getChildLine(line, structureName, tag, true, false, false, false, lineNumber);
+  }
+
+  /**
+   * Returns the child line with the given structure name and variation
+   *
+   * @param line
+   * @param structureName
+   * @param tag
+   * @param withXRef
+   * @param withValue
+   * @param lineNumber
+   * @return The index of the child line, or {@link #NO_LINE}
+   */
+  public int getChildLine(int line, String structureName, String tag,
+      boolean withXRef, boolean withValue, int lineNumber) {
+    return getChildLine(line, structureName, tag, true, true, withXRef, withValue, lineNumber);
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @param tagOrStructureName
+   * @param tag
+   * @param matchTag
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   * @param lineNumber The line number, or -1 for the first matching line
+   * @return
+   */
+  private int getChildLine(int line, String tagOrStructureName, String tag, boolean matchTag,
+      boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue, int lineNumber) {
+    int nameId = store.getNameId(tagOrStructureName);
+    int tagId = store.getNameId(tag);
+    int count = -1;
+
+    if (lineNumber == -1) {
+      lineNumber = 0;
+    }
+
+    for (int child = firstChild[line]; child != NO_LINE; child = nextSibling[child]) {
+      if (!GedcomSymbolTable.equals(nameId, tagOrStructureName,
+          nameSymbol[child], store.getName(nameSymbol[child]))) {
+        continue;
+      }
+
+      if (matchTag && !GedcomSymbolTable.equals(tagId, tag,
+          tagSymbol[child], store.getName(tagSymbol[child]))) {
+        continue;
+      }
+
+      if (lookForXRefAndValueVariation
+          && (withXRef != ((flags[child] & FLAG_WITH_XREF) != 0)
+          || withValue != ((flags[child] & FLAG_WITH_VALUE) != 0))) {
+        continue;
+      }
+
+      if (++count == lineNumber) {
+        return child;
+      }
+    }
+
+    return NO_LINE;
+  }
+
+  /**
+   * Follows the given path, starting at the given line. The path has the
+   * same format as for {@link GedcomNode#followPath(String...)}.
+   *
+   * @param line
+   * @param path
+   * @return The index of the last line of the path, or {@link #NO_LINE} if
+   * the path does not exist
+   */
+  public int followPath(int line, String... path) {
+    return followPath(line, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #followPath(int, String...)}, but with a path which has
+   * already been parsed or compiled
+   *
+   * @param line
+   * @param path
+   * @return The index of the last line of the path, or {@link #NO_LINE} if
+   * the path does not exist
+   */
+  public int followPath(int line, GedcomPath path) {
+    if (path == null) {
+      return line;
+    }
+
+    for (int stepIndex = 0; stepIndex < path.getNumberOfSteps() && line != NO_LINE; stepIndex++) {
+      GedcomPath.Step step = path.getStep(stepIndex);
+
+      if (step.tag == null) {
+        line = getChildLine(line, step.tagOrStructureName, step.lineNumber);
+      } else {
+        line = getChildLine(line, step.tagOrStructureName, step.tag, true,
+            step.lookForXRefAndValueVariation, step.withXRef, step.withValue, step.lineNumber);
+      }
+    }
+
+    return line;
+  }
+
+}
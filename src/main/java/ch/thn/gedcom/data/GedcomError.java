@@ -27,4 +27,8 @@ public class GedcomError extends Error {
 		super(message);
 	}
 
+	public GedcomError(String message, Throwable cause) {
+		super(message, cause);
+	}
+
 }
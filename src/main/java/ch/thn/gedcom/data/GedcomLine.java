@@ -17,6 +17,7 @@
 package ch.thn.gedcom.data;
 
 import ch.thn.gedcom.store.GedcomStoreLine;
+import ch.thn.gedcom.store.GedcomSymbolTable;
 
 /**
  * @author Thomas Naeff (github.com/thnaeff)
@@ -32,7 +33,11 @@ public abstract class GedcomLine {
 
 	private GedcomStoreLine storeLine = null;
 	
-	private String tag = null;
+	/** The symbol of the tag in the symbol table of the store */
+	private int tagSymbol = GedcomSymbolTable.NO_SYMBOL;
+	
+	/** Only set if the tag is not in the symbol table of the store */
+	private String unknownTag = null;
 	
 	/**
 	 * 
@@ -41,8 +46,26 @@ public abstract class GedcomLine {
 	 * @param tag
 	 */
 	public GedcomLine(GedcomStoreLine storeLine, String tag) {
+		this(storeLine, tag, storeLine.getSymbolTable() == null ? 
+				GedcomSymbolTable.NO_SYMBOL : storeLine.getSymbolTable().getSymbol(tag));
+	}
+	
+	/**
+	 * Creates a line with the symbol of the tag already looked up in the 
+	 * symbol table of the store
+	 * 
+	 * @param storeLine
+	 * @param tag
+	 * @param tagSymbol The symbol of the tag, or {@link GedcomSymbolTable#NO_SYMBOL} 
+	 * if the tag is not in the symbol table
+	 */
+	protected GedcomLine(GedcomStoreLine storeLine, String tag, int tagSymbol) {
 		this.storeLine = storeLine;
-		this.tag = tag;
+		this.tagSymbol = tagSymbol;
+		
+		if (tagSymbol == GedcomSymbolTable.NO_SYMBOL) {
+			unknownTag = tag;
+		}
 	}
 	
 	/**
@@ -75,7 +98,22 @@ public abstract class GedcomLine {
 	 * @return
 	 */
 	public String getTag() {
-		return tag;
+		if (tagSymbol != GedcomSymbolTable.NO_SYMBOL) {
+			return storeLine.getSymbolTable().getName(tagSymbol);
+		}
+		
+		return unknownTag;
+	}
+	
+	/**
+	 * Returns the symbol of the tag (see {@link GedcomSymbolTable}), or 
+	 * {@link GedcomSymbolTable#NO_SYMBOL} if this line does not have a tag or 
+	 * if the tag is not in the symbol table of the store
+	 * 
+	 * @return
+	 */
+	public int getTagSymbol() {
+		return tagSymbol;
 	}
 	
 	/**
@@ -117,7 +155,7 @@ public abstract class GedcomLine {
 	
 	@Override
 	public String toString() {
-		return storeLine.getId() + " (" + tag + ")";
+		return storeLine.getId() + " (" + getTag() + ")";
 	}
 	
 }
@@ -16,17 +16,21 @@
  */
 package ch.thn.gedcom.data;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import ch.thn.datatree.onoff.core.GenericOnOffKeySetTreeNode;
 import ch.thn.datatree.onoff.core.OnOffTreeNodeModifier;
 import ch.thn.gedcom.GedcomFormatter;
+import ch.thn.gedcom.store.GedcomStore;
 import ch.thn.gedcom.store.GedcomStoreBlock;
 import ch.thn.gedcom.store.GedcomStoreLine;
 import ch.thn.gedcom.store.GedcomStoreStructure;
+import ch.thn.gedcom.store.GedcomSymbolTable;
 
 /**
  *
@@ -50,10 +54,13 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
   private static NodeKeyComparator nodeKeyComparator = new NodeKeyComparator();
   private static NodeValueComparator nodeValueComparator = new NodeValueComparator();
 
-  /** The tag->NodeKey links */
-  private HashMap<String, NodeKey> nodeKeys = null;
-
-  private NodeKey nullNodeKey = null;
+  /**
+   * A null node key. Since the used map of the tree node is a TreeMultiMap,
+   * it does not accept null keys and fails with an NPE when looking up
+   * null keys. Thus, this NodeKey is always returned for a null tag or
+   * structure name
+   */
+  private static final NodeKey NULL_NODE_KEY = new NodeKey("", -1);
 
   /**The block with the information about any child lines*/
   private GedcomStoreBlock storeBlock = null;
@@ -63,10 +70,22 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
   private String tagOrStructureName = null;
   private String tag = null;
 
+  /** The symbols of the tag or structure name and the tag, for integer compares */
+  private int tagOrStructureNameSymbol = GedcomSymbolTable.NO_SYMBOL;
+  private int tagSymbol = GedcomSymbolTable.NO_SYMBOL;
+
   private boolean lookForXRefAndValueVariation = false;
   private boolean withXRef = false;
   private boolean withValue = false;
 
+  /**
+   * The child lines in the order they have been added, by name, by name and
+   * tag and by name, tag and xref/value variation. Only used if indexed child
+   * lines are turned on (see {@link #setIndexedChildLines(boolean)}), otherwise
+   * <code>null</code>.
+   */
+  private HashMap<ChildKey, ArrayList<GedcomNode>> childIndex = null;
+
   /**
    * Creates a new {@link GedcomNode} with the given information. The new node
    * has to be available in the given store block.
@@ -90,7 +109,14 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     this.withXRef = withXRef;
     this.withValue = withValue;
 
-    if (!storeBlock.hasStoreLine(tagOrStructureName)) {
+    GedcomStore store = storeBlock.getStoreStructure().getStore();
+    int nameId = store.getNameId(tagOrStructureName);
+    storeLine = storeBlock.getStoreLine(nameId);
+
+    this.tagOrStructureNameSymbol = nameId;
+    this.tagSymbol = store.getNameId(tag);
+
+    if (storeLine == null) {
       //Line with that tag or structure name does not exist in the given block
       String s = "";
 
@@ -105,22 +131,68 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
           GedcomFormatter.makeOrList(storeBlock.getAllLineIDs(), null, null));
     }
 
-    storeLine = storeBlock.getStoreLine(tagOrStructureName);
+    if (storeLine.hasStructureName() && tag != null && tagSymbol == -1) {
+      //Unknown tag. Let the lookup by name report the problem
+      store.getGedcomStructure(tagOrStructureName, tag,
+          lookForXRefAndValueVariation, withXRef, withValue);
+    }
+
+    initLine(store);
+  }
+
+  /**
+   * Creates a new {@link GedcomNode} for the given store line, with the
+   * symbols of the tag or structure name and the tag already resolved.
+   *
+   * @param key
+   * @param storeLine
+   * @param tagOrStructureName
+   * @param tagOrStructureNameSymbol
+   * @param tag
+   * @param tagSymbol
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   */
+  private GedcomNode(NodeKey key, GedcomStoreLine storeLine, String tagOrStructureName,
+      int tagOrStructureNameSymbol, String tag, int tagSymbol,
+      boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
+    this(key, (GedcomLine)null);
+
+    this.storeLine = storeLine;
+    this.tagOrStructureName = tagOrStructureName;
+    this.tag = tag;
+    this.tagOrStructureNameSymbol = tagOrStructureNameSymbol;
+    this.tagSymbol = tagSymbol;
+    this.lookForXRefAndValueVariation = lookForXRefAndValueVariation;
+    this.withXRef = withXRef;
+    this.withValue = withValue;
+
+    initLine(storeLine.getParentBlock().getStoreStructure().getStore());
+  }
 
+  /**
+   * Sets the store block and creates the line of this node, once the store
+   * line and the symbols are known
+   *
+   * @param store
+   */
+  private void initLine(GedcomStore store) {
     if (storeLine.hasStructureName()) {
       //It is a structure line, thus it does not have a child block but it
       //is only a "link" to the structure
-      this.storeBlock = storeBlock.getStoreStructure().getStore()
-          .getGedcomStructure(tagOrStructureName, tag,
-              lookForXRefAndValueVariation, withXRef, withValue).getStoreBlock();
+      this.storeBlock = store.getGedcomStructure(tagOrStructureNameSymbol, tagSymbol,
+          lookForXRefAndValueVariation, withXRef, withValue).getStoreBlock();
     } else {
       this.storeBlock = storeLine.getChildBlock();
     }
 
     if (storeLine.hasStructureName()) {
-      setNodeValue(new GedcomStructureLine(storeLine, tag));
+      setNodeValue(new GedcomStructureLine(storeLine, tag, tagSymbol));
     } else {
-      setNodeValue(new GedcomTagLine(storeLine, tagOrStructureName));
+      GedcomTagLine tagLine = new GedcomTagLine(storeLine, tagOrStructureName, tagOrStructureNameSymbol);
+      tagLine.setNode(this);
+      setNodeValue(tagLine);
     }
 
   }
@@ -136,6 +208,7 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     //		this(new NodeKey(storeStructure.getStoreBlock().getStoreStructure().getStructureName(), null), null);
     this.storeBlock = storeStructure.getStoreBlock();
     this.tagOrStructureName = storeStructure.getStructureName();
+    this.tagOrStructureNameSymbol = storeStructure.getStore().getNameId(tagOrStructureName);
   }
 
   /**
@@ -147,15 +220,6 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    */
   private GedcomNode(NodeKey key, GedcomLine value) {
     super(nodeKeyComparator, nodeValueComparator, key, value);
-
-    nodeKeys = new HashMap<>();
-
-    //A null node key. Since the used map of the tree node is a TreeMultiMap,
-    //it does not accept null keys and fails with an NPE when looking up
-    //null keys. Thus, this NodeKey is always returned for a null tag or
-    //structure name
-    nullNodeKey = new NodeKey("", -1);
-
   }
 
   @Override
@@ -171,8 +235,7 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     //It should not be called from anywhere else since it adjusts the node key
     //ordering
     //!!!
-    node.getNodeKey().setAsSimpleTreeKey(node);
-    return new GedcomNode(node.getNodeKey(), node.getNodeValue());
+    return new GedcomNode(node.getNodeKey().getSimpleTreeKey(node), node.getNodeValue());
   }
 
   @Override
@@ -190,6 +253,26 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     return (GedcomTree)super.getHeadNode();
   }
 
+  /**
+   * Returns the {@link ReverseXrefIndex} of the record this node belongs to
+   *
+   * @return The index, or <code>null</code> if the record is not in a reverse
+   * index or if this node is not part of a record
+   */
+  public ReverseXrefIndex getReverseXrefIndex() {
+    GedcomNode head = this;
+
+    while (head.getParentNode() != null) {
+      head = head.getParentNode();
+    }
+
+    if (head == this) {
+      return null;
+    }
+
+    return head.getReverseXrefIndex();
+  }
+
   /**
    *
    *
@@ -198,16 +281,31 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    */
   private NodeKey getNodeKey(String tagOrStructureName) {
     if (tagOrStructureName == null) {
-      return nullNodeKey;
+      return NULL_NODE_KEY;
     }
 
-    if (!nodeKeys.containsKey(tagOrStructureName)) {
-      NodeKey newNodeKey = new NodeKey(tagOrStructureName, storeBlock.getStoreLine(tagOrStructureName));
-      nodeKeys.put(tagOrStructureName, newNodeKey);
-      return newNodeKey;
+    return getNodeKey(tagOrStructureName, storeBlock.getStoreLine(tagOrStructureName));
+  }
+
+  /**
+   * Returns the node key for the child lines of the given store line, with
+   * the given tag or structure name. The keys are shared by all nodes of a
+   * compiled store line. A new key is only created for a name which is not
+   * in the store block, which is only used to look up child lines which do
+   * not exist.
+   *
+   * @param tagOrStructureName
+   * @param storeLine
+   * @return
+   */
+  private NodeKey getNodeKey(String tagOrStructureName, GedcomStoreLine storeLine) {
+    NodeKey nodeKey = storeLine == null ? null : storeLine.getNodeKey(tagOrStructureName);
+
+    if (nodeKey == null) {
+      nodeKey = new NodeKey(tagOrStructureName, storeLine);
     }
 
-    return nodeKeys.get(tagOrStructureName);
+    return nodeKey;
   }
 
   /**
@@ -288,9 +386,256 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
 
     addChildNode(newNode);
 
+    if (childIndex != null) {
+      newNode.childIndex = new HashMap<ChildKey, ArrayList<GedcomNode>>();
+
+      if (newNode.getParentNode() == this) {
+        indexChildLine(newNode);
+      }
+    }
+
     return newNode;
   }
 
+  /**
+   * <i>For internal use only!</i><br>
+   * <br>
+   * Creates a child line for the given store line, which has to be a line of the
+   * store block of this node. The tag or structure name and the tag are
+   * given with their symbols, thus nothing has to be looked up by name. The
+   * new line is not added yet, so that its xref and value can be set before
+   * it is sorted in (see {@link #addChildLine(GedcomNode)}). The maximum
+   * number of lines is not checked, this method is used to restore
+   * trees which have been valid before (see {@link GedcomTreeCodec}).
+   *
+   * @param storeLine
+   * @param tagOrStructureName
+   * @param tagOrStructureNameSymbol
+   * @param tag
+   * @param tagSymbol
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   * @return
+   */
+  protected GedcomNode createChildLine(GedcomStoreLine storeLine, String tagOrStructureName,
+      int tagOrStructureNameSymbol, String tag, int tagSymbol,
+      boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
+    if (storeLine.getParentBlock() != storeBlock) {
+      throw new GedcomCreationError("Line " + tagOrStructureName + " is not a line of " + this + ".");
+    }
+
+    NodeKey nodeKey = storeLine.getNodeKey(tagOrStructureNameSymbol);
+
+    if (nodeKey == null) {
+      nodeKey = getNodeKey(tagOrStructureName, storeLine);
+    }
+
+    return new GedcomNode(nodeKey, storeLine,
+        tagOrStructureName, tagOrStructureNameSymbol, tag, tagSymbol,
+        lookForXRefAndValueVariation, withXRef, withValue);
+  }
+
+  /**
+   * <i>For internal use only!</i><br>
+   * <br>
+   * Adds a child line which has been created with {@link #createChildLine(GedcomStoreLine, String, int, String, int, boolean, boolean, boolean)}
+   *
+   * @param newNode
+   * @return
+   */
+  protected GedcomNode addChildLine(GedcomNode newNode) {
+    addChildNode(newNode);
+
+    if (childIndex != null) {
+      newNode.childIndex = new HashMap<ChildKey, ArrayList<GedcomNode>>();
+
+      if (newNode.getParentNode() == this) {
+        indexChildLine(newNode);
+      }
+    }
+
+    return newNode;
+  }
+
+  /**
+   * Takes this line out of the child lines of its parent before the xref or
+   * value of its tag line changes (see {@link GedcomTagLine}). A line which is
+   * the only line with its key does not have to be sorted in again and stays
+   * in its parent.
+   *
+   * @return The parent, or <code>null</code> if the line has not been taken out
+   */
+  protected GedcomNode detachForChange() {
+    GedcomNode parent = getParentNode();
+
+    if (parent == null || parent.getChildNodesCount(getNodeKey()) <= 1) {
+      return null;
+    }
+
+    removeNode();
+
+    if (parent.childIndex != null) {
+      parent.unindexChildLine(this);
+    }
+
+    return parent;
+  }
+
+  /**
+   * Sorts this line in again after it has been taken out with
+   * {@link #detachForChange()}
+   *
+   * @param parent
+   * @return <code>false</code> if the line could not be added, because the
+   * parent already has a line with the same key and unique ID
+   */
+  protected boolean attachAfterChange(GedcomNode parent) {
+    parent.addChildNode(this);
+
+    if (getParentNode() != parent) {
+      return false;
+    }
+
+    if (parent.childIndex != null) {
+      parent.indexChildLine(this);
+    }
+
+    return true;
+  }
+
+  /**
+   * Turns indexed child lines on or off for this node and all its child nodes.
+   * Nodes which are added to a node with indexed child lines also have indexed
+   * child lines.<br>
+   * <br>
+   * With indexed child lines, each node keeps lists of its child lines by
+   * name, by name and tag and by name, tag and xref/value variation. Accessing
+   * a child line by its line number (like {@link #getChildLine(String, int)})
+   * and counting child lines (like {@link #getNumberOfChildLines(String, String)})
+   * then does not have to iterate over all the child lines. The line numbers
+   * are the same as without index, the lines are kept in the order of the
+   * sorted child lines.<br>
+   * The index is only kept up to date if the lines are added and removed with
+   * the methods of this class (like {@link #addChildLine(String)} and
+   * {@link #removeLine()}).
+   *
+   * @param indexed
+   */
+  public void setIndexedChildLines(boolean indexed) {
+    if (indexed) {
+      childIndex = new HashMap<ChildKey, ArrayList<GedcomNode>>();
+    } else {
+      childIndex = null;
+    }
+
+    for (GedcomNode child : getChildNodes()) {
+      if (indexed) {
+        indexChildLine(child);
+      }
+
+      child.setIndexedChildLines(indexed);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if this node has indexed child lines
+   * (see {@link #setIndexedChildLines(boolean)})
+   *
+   * @return
+   */
+  public boolean hasIndexedChildLines() {
+    return childIndex != null;
+  }
+
+  /**
+   * Adds the given child line to the child index
+   *
+   * @param child
+   */
+  private void indexChildLine(GedcomNode child) {
+    insertSorted(getIndexedChildLines(ChildKey.byName(child.tagOrStructureName)), child);
+    insertSorted(getIndexedChildLines(ChildKey.byTag(child.tagOrStructureName, child.tag)), child);
+    insertSorted(getIndexedChildLines(ChildKey.byVariation(child.tagOrStructureName, child.tag,
+        child.withXRef, child.withValue)), child);
+  }
+
+  /**
+   * Inserts the given child line into the given list of indexed child lines,
+   * at the position it has in the sorted child lines of this node (see
+   * {@link NodeValueComparator}). The line numbers of the indexed lines are
+   * thus the same as without index.
+   *
+   * @param childLines
+   * @param child
+   */
+  private static void insertSorted(ArrayList<GedcomNode> childLines, GedcomNode child) {
+    int index = Collections.binarySearch(childLines, child, nodeValueComparator);
+    childLines.add(index < 0 ? -index - 1 : index, child);
+  }
+
+  /**
+   * Removes the given child line from the child index
+   *
+   * @param child
+   */
+  private void unindexChildLine(GedcomNode child) {
+    getIndexedChildLines(ChildKey.byName(child.tagOrStructureName)).remove(child);
+    getIndexedChildLines(ChildKey.byTag(child.tagOrStructureName, child.tag)).remove(child);
+    getIndexedChildLines(ChildKey.byVariation(child.tagOrStructureName, child.tag,
+        child.withXRef, child.withValue)).remove(child);
+  }
+
+  /**
+   * Returns the indexed child lines with the given key. The list is created
+   * if there is none yet.
+   *
+   * @param key
+   * @return
+   */
+  private ArrayList<GedcomNode> getIndexedChildLines(ChildKey key) {
+    ArrayList<GedcomNode> childLines = childIndex.get(key);
+
+    if (childLines == null) {
+      childLines = new ArrayList<GedcomNode>();
+      childIndex.put(key, childLines);
+    }
+
+    return childLines;
+  }
+
+  /**
+   * Returns the indexed child line with the given key and line number
+   *
+   * @param key
+   * @param lineNumber The line number, or -1 for the first line
+   * @return The line, or <code>null</code> if there is no such line
+   */
+  private GedcomNode getIndexedChildLine(ChildKey key, int lineNumber) {
+    ArrayList<GedcomNode> childLines = childIndex.get(key);
+
+    if (lineNumber == -1) {
+      lineNumber = 0;
+    }
+
+    if (childLines == null || lineNumber < 0 || lineNumber >= childLines.size()) {
+      return null;
+    }
+
+    return childLines.get(lineNumber);
+  }
+
+  /**
+   * Returns the number of indexed child lines with the given key
+   *
+   * @param key
+   * @return
+   */
+  private int getNumberOfIndexedChildLines(ChildKey key) {
+    ArrayList<GedcomNode> childLines = childIndex.get(key);
+    return childLines == null ? 0 : childLines.size();
+  }
+
   /**
    * Returns the child node with the given tag or structure name. Since there
    * can be more than one line with the same tag or structure name, its line number
@@ -301,6 +646,10 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * @return
    */
   public GedcomNode getChildLine(String tagOrStructureName, int lineNumber) {
+    if (childIndex != null) {
+      return getIndexedChildLine(ChildKey.byName(tagOrStructureName), lineNumber);
+    }
+
     if (!hasChildNodes(getNodeKey(tagOrStructureName))
         || getChildNodesCount(getNodeKey(tagOrStructureName)) <= lineNumber) {
       return null;
@@ -364,6 +713,14 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
   private GedcomNode getChildLine(String structureName, String tag,
       boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue, int lineNumber) {
 
+    if (childIndex != null) {
+      if (lookForXRefAndValueVariation) {
+        return getIndexedChildLine(ChildKey.byVariation(structureName, tag, withXRef, withValue), lineNumber);
+      } else {
+        return getIndexedChildLine(ChildKey.byTag(structureName, tag), lineNumber);
+      }
+    }
+
     if (isLeafNode()) {
       //Nothing to do
       return null;
@@ -372,6 +729,75 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     return searchForNode(getChildNodes(getNodeKey(structureName)).iterator(), structureName, tag, lookForXRefAndValueVariation, withXRef, withValue, lineNumber);
   }
 
+  /**
+   * Returns the child line of the given compiled path step. The store line
+   * and the node key of the step have already been resolved, thus no names
+   * have to be looked up.
+   *
+   * @param step
+   * @return
+   */
+  private GedcomNode getChildLine(GedcomPath.Step step) {
+    if (childIndex != null) {
+      if (step.tag == null) {
+        return getIndexedChildLine(ChildKey.byName(step.tagOrStructureName), step.lineNumber);
+      } else if (step.lookForXRefAndValueVariation) {
+        return getIndexedChildLine(ChildKey.byVariation(step.tagOrStructureName, step.tag,
+            step.withXRef, step.withValue), step.lineNumber);
+      } else {
+        return getIndexedChildLine(ChildKey.byTag(step.tagOrStructureName, step.tag), step.lineNumber);
+      }
+    }
+
+    if (!hasChildNodes(step.nodeKey)) {
+      return null;
+    }
+
+    int lineIndexCount = -1;
+
+    //All the child lines with the node key of the step have its tag or
+    //structure name, only the tag and the variation have to be checked
+    for (GedcomNode node : getChildNodes(step.nodeKey)) {
+      if (step.tag != null) {
+        if (!GedcomSymbolTable.equals(step.tagSymbol, step.tag, node.tagSymbol, node.getTag())) {
+          continue;
+        }
+
+        if (step.lookForXRefAndValueVariation
+            && (step.withXRef != node.getWithXRef() || step.withValue != node.getWithValue())) {
+          continue;
+        }
+      }
+
+      lineIndexCount++;
+
+      if (step.lineNumber == -1 || lineIndexCount == step.lineNumber) {
+        return node;
+      }
+    }
+
+    //Line number not found
+    return null;
+  }
+
+  /**
+   * Adds a child line for the given compiled path step, created from the
+   * resolved store line of the step
+   *
+   * @param step
+   * @return The new line, or <code>null</code> if the maximum number of lines
+   * has been reached
+   */
+  private GedcomNode addChildLine(GedcomPath.Step step) {
+    if (maxNumberOfLinesReached(step)) {
+      return null;
+    }
+
+    return addChildLine(createChildLine(step.storeLine,
+        step.tagOrStructureName, step.tagOrStructureNameSymbol, step.tag, step.tagSymbol,
+        step.lookForXRefAndValueVariation, step.withXRef, step.withValue));
+  }
+
   /**
    * Searches the matching node in the list of given nodes. It loops through the
    * given nodes list and checks if they match the structure name, tag and value/xref
@@ -392,12 +818,17 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
       boolean withXRef, boolean withValue, int lineNumber) {
     int lineIndexCount = -1;
 
+    GedcomStore store = storeBlock.getStoreStructure().getStore();
+    int structureNameSymbol = store.getNameId(structureName);
+    int tagSymbol = store.getNameId(tag);
+
     //Search for the child node which matches the parameters
     while (nodeIterator.hasNext()) {
       GedcomNode node = nodeIterator.next();
 
-      if (structureName.equals(node.getTagOrStructureName())
-          && tag.equals(node.getTag())) {
+      if (GedcomSymbolTable.equals(structureNameSymbol, structureName,
+          node.tagOrStructureNameSymbol, node.getTagOrStructureName())
+          && GedcomSymbolTable.equals(tagSymbol, tag, node.tagSymbol, node.getTag())) {
 
         if (lookForXRefAndValueVariation) {
           if (withXRef == node.getWithXRef()
@@ -413,7 +844,8 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
         if (lineIndexCount == lineNumber) {
           return node;
         }
-      } else {
+      } else if (lineIndexCount == 0) {
+        //The first matching node
         return node;
       }
     }
@@ -440,12 +872,17 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
       boolean withXRef, boolean withValue) {
     int matchCount = 0;
 
+    GedcomStore store = storeBlock.getStoreStructure().getStore();
+    int structureNameSymbol = store.getNameId(structureName);
+    int tagSymbol = store.getNameId(tag);
+
     //Search for the child node which matches the parameters
     while (nodeIterator.hasNext()) {
       GedcomNode node = nodeIterator.next();
 
-      if (structureName.equals(node.getTagOrStructureName())
-          && tag.equals(node.getTag())) {
+      if (GedcomSymbolTable.equals(structureNameSymbol, structureName,
+          node.tagOrStructureNameSymbol, node.getTagOrStructureName())
+          && GedcomSymbolTable.equals(tagSymbol, tag, node.tagSymbol, node.getTag())) {
 
         if (lookForXRefAndValueVariation) {
           if (withXRef == node.getWithXRef()
@@ -467,7 +904,19 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    *
    */
   public void removeAllChildLines() {
+    ReverseXrefIndex reverseXrefIndex = getReverseXrefIndex();
+
+    if (reverseXrefIndex != null) {
+      for (GedcomNode child : getChildNodes()) {
+        reverseXrefIndex.removeReferences(child);
+      }
+    }
+
     removeChildNodes();
+
+    if (childIndex != null) {
+      childIndex.clear();
+    }
   }
 
   /**
@@ -476,7 +925,19 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * @return
    */
   public boolean removeLine() {
-    return removeNode();
+    GedcomNode parent = getParentNode();
+    ReverseXrefIndex reverseXrefIndex = getReverseXrefIndex();
+    boolean removed = removeNode();
+
+    if (removed && parent != null && parent.childIndex != null) {
+      parent.unindexChildLine(this);
+    }
+
+    if (removed && reverseXrefIndex != null) {
+      reverseXrefIndex.removeReferences(this);
+    }
+
+    return removed;
   }
 
   /**
@@ -509,7 +970,27 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    *
    */
   public GedcomNode replace(GedcomNode replacementNode) {
+    GedcomNode parent = getParentNode();
+    ReverseXrefIndex reverseXrefIndex = getReverseXrefIndex();
+
     replaceNode(replacementNode);
+
+    if (reverseXrefIndex != null) {
+      reverseXrefIndex.removeReferences(this);
+
+      if (replacementNode.getReverseXrefIndex() == reverseXrefIndex) {
+        reverseXrefIndex.addReferences(replacementNode);
+      }
+    }
+
+    if (parent != null && parent.childIndex != null) {
+      parent.unindexChildLine(this);
+
+      if (replacementNode.getParentNode() == parent) {
+        parent.indexChildLine(replacementNode);
+      }
+    }
+
     return replacementNode;
   }
 
@@ -540,6 +1021,10 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * @return
    */
   public int getNumberOfChildLines(String tagOrStructureName) {
+    if (childIndex != null) {
+      return getNumberOfIndexedChildLines(ChildKey.byName(tagOrStructureName));
+    }
+
     return getChildNodesCount(getNodeKey(tagOrStructureName));
   }
 
@@ -555,6 +1040,10 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
       return getNumberOfChildLines(structureName);
     }
 
+    if (childIndex != null) {
+      return getNumberOfIndexedChildLines(ChildKey.byTag(structureName, tag));
+    }
+
     if (isLeafNode()) {
       //Nothing to do
       return 0;
@@ -578,6 +1067,10 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
       return getNumberOfChildLines(structureName);
     }
 
+    if (childIndex != null) {
+      return getNumberOfIndexedChildLines(ChildKey.byVariation(structureName, tag, withXRef, withValue));
+    }
+
     if (isLeafNode()) {
       //Nothing to do
       return 0;
@@ -783,6 +1276,23 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     return max != 0 && lineCount >= max;
   }
 
+  /**
+   * Like {@link #maxNumberOfLinesReached(String)}, with the store line and
+   * the node key of a compiled path step
+   *
+   * @param step
+   * @return
+   */
+  private boolean maxNumberOfLinesReached(GedcomPath.Step step) {
+    if (!hasChildNodes(step.nodeKey)) {
+      return false;
+    }
+
+    int max = step.storeLine.getMax();
+
+    return max != 0 && getChildNodesCount(step.nodeKey) >= max;
+  }
+
   /**
    * Returns the store block which holds the all the information about the
    * possible child lines of this node
@@ -892,7 +1402,7 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
       return;
     }
 
-    LinkedList<GedcomStoreLine> allLines = storeBlock.getStoreLines();
+    List<GedcomStoreLine> allLines = storeBlock.getStoreLines();
     for (GedcomStoreLine line : allLines) {
       try {
         if (recursive) {
@@ -925,7 +1435,7 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
       return;
     }
 
-    LinkedList<GedcomStoreLine> mandatoryLines = storeBlock.getMandatoryLines();
+    List<GedcomStoreLine> mandatoryLines = storeBlock.getMandatoryLines();
     for (GedcomStoreLine line : mandatoryLines) {
       try {
         if (recursive) {
@@ -1000,6 +1510,19 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
     return skipLinePrint(modifier, this, false, false);
   }
 
+  /**
+   * Checks if this line is skipped when it is printed, with the same rules as
+   * they are used for hiding the line in the printers. See
+   * {@link #skipLinePrint(OnOffTreeNodeModifier, GedcomNode, boolean, boolean)}
+   *
+   * @param printEmptyLines
+   * @param printLinesWithNoValueSet
+   * @return
+   */
+  public boolean skipLinePrint(boolean printEmptyLines, boolean printLinesWithNoValueSet) {
+    return skipLinePrint(null, this, printEmptyLines, printLinesWithNoValueSet);
+  }
+
   /**
    * Checks if the line has to be skipped. A line has to be skipped if value/xref
    * are required but not set/empty (depending on the given flags). However,
@@ -1081,14 +1604,26 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * it.<br>
    * <br>
    * For more information about how to use the path array, read
-   * {@link #followPath(boolean, boolean, boolean, String...)}
+   * {@link #followPath(boolean, boolean, boolean, GedcomPath)}
    *
    * @param path The path to follow.
    * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
    * following the path did not work.
-   * @see #followPath(boolean, boolean, boolean, String...)
+   * @see #followPath(boolean, boolean, boolean, GedcomPath)
    */
   public GedcomNode followPath(String... path) {
+    return followPath(false, false, false, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #followPath(String...)}, but with a path which has already
+   * been parsed or compiled
+   *
+   * @param path The path to follow.
+   * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
+   * following the path did not work.
+   */
+  public GedcomNode followPath(GedcomPath path) {
     return followPath(false, false, false, path);
   }
 
@@ -1097,14 +1632,26 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * create the path.<br>
    * <br>
    * For more information about how to use the path array, read
-   * {@link #followPath(boolean, boolean, boolean, String...)}
+   * {@link #followPath(boolean, boolean, boolean, GedcomPath)}
    *
    * @param path The path to follow.
    * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
    * following the path did not work.
-   * @see #followPath(boolean, boolean, boolean, String...)
+   * @see #followPath(boolean, boolean, boolean, GedcomPath)
    */
   public GedcomNode followPathCreate(String... path) {
+    return followPath(true, false, false, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #followPathCreate(String...)}, but with a path which has already
+   * been parsed or compiled
+   *
+   * @param path The path to follow.
+   * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
+   * following the path did not work.
+   */
+  public GedcomNode followPathCreate(GedcomPath path) {
     return followPath(true, false, false, path);
   }
 
@@ -1114,14 +1661,26 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * it just tries to create the path.<br>
    * <br>
    * For more information about how to use the path array, read
-   * {@link #followPath(boolean, boolean, boolean, String...)}
+   * {@link #followPath(boolean, boolean, boolean, GedcomPath)}
    *
    * @param path The path to follow.
    * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
    * following the path did not work.
-   * @see #followPath(boolean, boolean, boolean, String...)
+   * @see #followPath(boolean, boolean, boolean, GedcomPath)
    */
   public GedcomNode createPathEnd(String... path) {
+    return followPath(false, true, false, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #createPathEnd(String...)}, but with a path which has already
+   * been parsed or compiled
+   *
+   * @param path The path to follow.
+   * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
+   * following the path did not work.
+   */
+  public GedcomNode createPathEnd(GedcomPath path) {
     return followPath(false, true, false, path);
   }
 
@@ -1129,14 +1688,26 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * Tries to create the given path.<br>
    * <br>
    * For more information about how to use the path array, read
-   * {@link #followPath(boolean, boolean, boolean, String...)}
+   * {@link #followPath(boolean, boolean, boolean, GedcomPath)}
    *
    * @param path The path to create.
    * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
    * following the path did not work.
-   * @see #followPath(boolean, boolean, boolean, String...)
+   * @see #followPath(boolean, boolean, boolean, GedcomPath)
    */
   public GedcomNode createPath(String... path) {
+    return followPath(false, false, true, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #createPath(String...)}, but with a path which has already
+   * been parsed or compiled
+   *
+   * @param path The path to create.
+   * @return The {@link GedcomNode} of the last object in the path, or <code>null</code> if
+   * following the path did not work.
+   */
+  public GedcomNode createPath(GedcomPath path) {
     return followPath(false, false, true, path);
   }
 
@@ -1181,36 +1752,44 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * node which can have another line added).
    */
   private GedcomNode followPath(boolean createNewIfNotExisting, boolean createNewEnd,
-      boolean createPath, String... path) {
+      boolean createPath, GedcomPath gedcomPath) {
 
-    if (path == null || path.length == 0) {
+    if (gedcomPath == null || gedcomPath.getNumberOfSteps() == 0) {
       //Nothing to do
       return this;
     }
 
+    String[] path = gedcomPath.getPathInternal();
+
+    if (gedcomPath.isCompiled() && gedcomPath.getStartBlock() != storeBlock) {
+      throw new GedcomPathAccessError(path, 0, "The path " + gedcomPath +
+          " has been compiled for another store block and can not be used on '" + this + "'.");
+    }
+
     GedcomNode currentNode = this;
     GedcomNode lastNodeWithSplitPossibility = null;
 
     int lastIndexWithSplitPossibility = -1;
-    int pathIndex = 0;
+    int lastStepWithSplitPossibility = -1;
 
-    for (; pathIndex < path.length; pathIndex++) {
-      PathStepPieces pp = new PathStepPieces();
-      if (path[pathIndex] == null || path[pathIndex].length() == 0 || !pp.parse(path[pathIndex])) {
-        //Nothing to do
-        continue;
-      }
+    for (int stepIndex = 0; stepIndex < gedcomPath.getNumberOfSteps(); stepIndex++) {
+      GedcomPath.Step pp = gedcomPath.getStep(stepIndex);
+      int pathIndex = pp.pathIndex;
+      //A compiled step already knows its store line and node key
+      boolean resolved = pp.isResolved();
+      boolean maxReached = resolved ? currentNode.maxNumberOfLinesReached(pp)
+          : currentNode.maxNumberOfLinesReached(pp.tagOrStructureName);
 
-      if ((createNewEnd || createNewIfNotExisting)
-          && !currentNode.maxNumberOfLinesReached(pp.tagOrStructureName)) {
+      if ((createNewEnd || createNewIfNotExisting) && !maxReached) {
         lastNodeWithSplitPossibility = currentNode;
         lastIndexWithSplitPossibility = pathIndex;
+        lastStepWithSplitPossibility = stepIndex;
       }
 
       GedcomNode lastNode = currentNode;
 
       if (createPath) {
-        if (currentNode.maxNumberOfLinesReached(pp.tagOrStructureName)) {
+        if (maxReached) {
           throw new GedcomPathCreationError(path, pathIndex,
               "Can not add another path '" + path[pathIndex] +
               "' as child of '" + lastNode.getNodeKey() + "'. " +
@@ -1218,7 +1797,9 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
         }
 
         //Create path
-        if (pp.tag == null) {
+        if (resolved) {
+          currentNode = currentNode.addChildLine(pp);
+        } else if (pp.tag == null) {
           currentNode = currentNode.addChildLine(pp.tagOrStructureName);
         } else {
           currentNode = currentNode.addChildLine(pp.tagOrStructureName, pp.tag,
@@ -1232,7 +1813,9 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
         }
       } else {
         //Follow path
-        if (pp.tag == null) {
+        if (resolved) {
+          currentNode = currentNode.getChildLine(pp);
+        } else if (pp.tag == null) {
           currentNode = currentNode.getChildLine(pp.tagOrStructureName, pp.lineNumber);
         } else {
           currentNode = currentNode.getChildLine(pp.tagOrStructureName, pp.tag,
@@ -1266,13 +1849,11 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
 
       if (lastNodeWithSplitPossibility == null) {
         throw new GedcomPathCreationError(path, lastIndexWithSplitPossibility,
-            "Can not create a new path " + Arrays.toString(path) +
+            "Can not create a new path " + gedcomPath +
             " in " + this + ". The maximum number of lines has been reached.");
       } else {
         //Create new path, starting at the last possible split point
-        String[] newPath = new String[path.length - lastIndexWithSplitPossibility];
-        System.arraycopy(path, lastIndexWithSplitPossibility, newPath, 0, newPath.length);
-        return lastNodeWithSplitPossibility.createPath(newPath);
+        return lastNodeWithSplitPossibility.createPath(gedcomPath.subPath(lastStepWithSplitPossibility));
       }
     }
 
@@ -1286,6 +1867,17 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * @return
    */
   public GedcomNode removePathEnd(String... path) {
+    return removePath(false, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #removePathEnd(String...)}, but with a path which has already
+   * been parsed or compiled
+   *
+   * @param path
+   * @return
+   */
+  public GedcomNode removePathEnd(GedcomPath path) {
     return removePath(false, path);
   }
 
@@ -1299,6 +1891,17 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * @return
    */
   public GedcomNode removePath(String... path) {
+    return removePath(true, GedcomPath.parse(path));
+  }
+
+  /**
+   * Like {@link #removePath(String...)}, but with a path which has already
+   * been parsed or compiled
+   *
+   * @param path
+   * @return
+   */
+  public GedcomNode removePath(GedcomPath path) {
     return removePath(true, path);
   }
 
@@ -1312,7 +1915,7 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
    * @return The node which has been removed. If any empty parents are removed,
    * it returns the top most removed parent.
    */
-  private GedcomNode removePath(boolean branchCleanup, String... path) {
+  private GedcomNode removePath(boolean branchCleanup, GedcomPath path) {
 
     GedcomNode node = followPath(path);
 
@@ -1459,6 +2062,72 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
 
 
 
+  /**************************************************************************
+   * The key of the indexed child lines
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static final class ChildKey {
+
+    /** Only the name is used, any tag and variation */
+    private static final int BY_NAME = -1;
+    /** Name and tag, any variation */
+    private static final int BY_TAG = 0;
+
+    private final String name;
+    private final String tag;
+    private final int variation;
+
+    /**
+     *
+     *
+     * @param name
+     * @param tag
+     * @param variation
+     */
+    private ChildKey(String name, String tag, int variation) {
+      this.name = name;
+      this.tag = tag;
+      this.variation = variation;
+    }
+
+    private static ChildKey byName(String name) {
+      return new ChildKey(name, null, BY_NAME);
+    }
+
+    private static ChildKey byTag(String name, String tag) {
+      return new ChildKey(name, tag, BY_TAG);
+    }
+
+    private static ChildKey byVariation(String name, String tag, boolean withXRef, boolean withValue) {
+      return new ChildKey(name, tag, 1 | (withXRef ? 2 : 0) | (withValue ? 4 : 0));
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = name == null ? 0 : name.hashCode();
+      hash = 31 * hash + (tag == null ? 0 : tag.hashCode());
+      return 31 * hash + variation;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ChildKey)) {
+        return false;
+      }
+
+      ChildKey other = (ChildKey)obj;
+      return variation == other.variation
+          && (name == null ? other.name == null : name.equals(other.name))
+          && (tag == null ? other.tag == null : tag.equals(other.tag));
+    }
+
+  }
+
+
+
   /**************************************************************************
    * A class to parse one piece of the gedcom path and split it in its pieces
    *
@@ -1482,52 +2151,18 @@ public class GedcomNode extends GenericOnOffKeySetTreeNode<NodeKey, GedcomLine,
      * @return
      */
     public boolean parse(String pathPiece) {
-      String[] pathPieceParts = pathPiece.split(PATH_OPTION_DELIMITER);
+      GedcomPath.Step step = GedcomPath.Step.parse(pathPiece, 0);
 
-      if (pathPieceParts.length == 0) {
+      if (step == null) {
         return false;
       }
 
-      tagOrStructureName = pathPieceParts[0];
-
-      //There is more than just a structure name or tag
-      if (pathPieceParts.length > 1) {
-        try {
-          lineNumber = Integer.parseInt(pathPieceParts[1]);
-          //No variation
-          return true;
-        } catch (NumberFormatException e) {
-          //If it is not a line number, it must be a tag for the
-          //variation
-          tag = pathPieceParts[1];
-        }
-
-        //Continues if there is more than just the structure name and
-        //variation tag
-        if (pathPieceParts.length > 2) {
-          lookForXRefAndValueVariation = true;
-
-          int lineNumberIncrease = 0;
-          try {
-            lineNumber = Integer.parseInt(pathPieceParts[2]);
-            lineNumberIncrease = 1;
-          } catch (NumberFormatException e) {
-
-          }
-
-          if (pathPieceParts.length > 2 + lineNumberIncrease) {
-            withXRef = Boolean.parseBoolean(pathPieceParts[2 + lineNumberIncrease]);
-          }
-
-          if (pathPieceParts.length > 3 + lineNumberIncrease) {
-            withValue = Boolean.parseBoolean(pathPieceParts[3 + lineNumberIncrease]);
-          }
-
-          if (pathPieceParts.length > 4 + lineNumberIncrease) {
-            lineNumber = Integer.parseInt(pathPieceParts[4 + lineNumberIncrease]);
-          }
-        }
-      }
+      tagOrStructureName = step.tagOrStructureName;
+      tag = step.tag;
+      lookForXRefAndValueVariation = step.lookForXRefAndValueVariation;
+      withXRef = step.withXRef;
+      withValue = step.withValue;
+      lineNumber = step.lineNumber;
 
       return true;
     }
@@ -0,0 +1,464 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import java.util.Arrays;
+
+import ch.thn.gedcom.store.GedcomStore;
+import ch.thn.gedcom.store.GedcomStoreBlock;
+import ch.thn.gedcom.store.GedcomStoreLine;
+import ch.thn.gedcom.store.GedcomStoreStructure;
+import ch.thn.gedcom.store.GedcomSymbolTable;
+
+/**
+ * A gedcom path which is parsed once and can then be followed or created on
+ * any number of nodes with {@link GedcomNode#followPath(GedcomPath)},
+ * {@link GedcomNode#createPath(GedcomPath)} etc., without parsing the path
+ * steps again. The path steps are given in the same format as for
+ * {@link GedcomNode#followPath(String...)}.<br>
+ * <br>
+ * A path which is compiled against a store block with {@link #compile(GedcomStoreBlock, String...)}
+ * is also checked against the grammar: every step has to exist in the grammar,
+ * and all store lines and structure variations of the path are resolved up
+ * front. Following and creating such a path then uses the resolved store lines
+ * and their node keys, without looking up any names. Such a path can only be
+ * used on nodes with that same store block.<br>
+ * A step with only the name of a structure which has several variations (for
+ * example "NOTE_STRUCTURE") does not tell which variation the path continues
+ * in. Only the store line of such a step is resolved, and the steps after it
+ * are looked up by name when the path is used.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomPath {
+
+  private final String[] path;
+  private final Step[] steps;
+  private final GedcomStoreBlock startBlock;
+
+  /**
+   *
+   *
+   * @param path
+   * @param steps
+   * @param startBlock
+   */
+  private GedcomPath(String[] path, Step[] steps, GedcomStoreBlock startBlock) {
+    this.path = path;
+    this.steps = steps;
+    this.startBlock = startBlock;
+  }
+
+  /**
+   * Parses the given path without checking it against the grammar. The path
+   * can be used on any node.
+   *
+   * @param path
+   * @return
+   */
+  public static GedcomPath parse(String... path) {
+    if (path == null) {
+      path = new String[0];
+    }
+
+    Step[] steps = new Step[path.length];
+    int count = 0;
+
+    for (int i = 0; i < path.length; i++) {
+      Step step = Step.parse(path[i], i);
+
+      if (step != null) {
+        steps[count++] = step;
+      }
+    }
+
+    return new GedcomPath(path.clone(), Arrays.copyOf(steps, count), null);
+  }
+
+  /**
+   * Parses the given path and resolves all its steps in the grammar, starting
+   * at the store block of the given node. The path can be used on all nodes
+   * which have the same store block (for example on all trees of the same
+   * structure).
+   *
+   * @param startNode
+   * @param path
+   * @return
+   * @throws GedcomPathAccessError If a step of the path does not exist in the grammar
+   */
+  public static GedcomPath compile(GedcomNode startNode, String... path) {
+    return compile(startNode.getStoreBlock(), path);
+  }
+
+  /**
+   * Parses the given path and resolves all its steps in the grammar, starting
+   * at the given store block. The path can be used on all nodes which have
+   * the given store block.
+   *
+   * @param startBlock
+   * @param path
+   * @return
+   * @throws GedcomPathAccessError If a step of the path does not exist in the grammar
+   */
+  public static GedcomPath compile(GedcomStoreBlock startBlock, String... path) {
+    GedcomPath parsedPath = parse(path);
+    Step[] steps = parsedPath.steps;
+    GedcomStoreBlock block = startBlock;
+
+    for (int i = 0; i < steps.length; i++) {
+      Step step = steps[i];
+
+      if (block == null) {
+        throw new GedcomPathAccessError(parsedPath.path, step.pathIndex,
+            "Can not resolve path '" + parsedPath.path[step.pathIndex] +
+            "'. The previous line can not have any child lines.");
+      }
+
+      GedcomStoreLine storeLine = block.getStoreLine(step.tagOrStructureName);
+
+      if (storeLine == null) {
+        throw new GedcomPathAccessError(parsedPath.path, step.pathIndex,
+            "Can not resolve path '" + parsedPath.path[step.pathIndex] +
+            "'. There is no line " + step.tagOrStructureName + " in " + block.getStoreStructure().getStructureName() + ".");
+      }
+
+      GedcomStore store = block.getStoreStructure().getStore();
+      int tagOrStructureNameSymbol = store.getNameId(step.tagOrStructureName);
+      steps[i] = new Step(step, block, storeLine, tagOrStructureNameSymbol,
+          store.getNameId(step.tag), storeLine.getNodeKey(tagOrStructureNameSymbol));
+
+      if (!storeLine.hasStructureName()) {
+        block = storeLine.getChildBlock();
+      } else if (step.tag == null && store.structureHasVariations(step.tagOrStructureName)) {
+        //The variation is only known from the lines the path is used on. The
+        //following steps stay unresolved.
+        break;
+      } else {
+        GedcomStoreStructure structure = null;
+
+        try {
+          structure = store.getGedcomStructure(
+              step.tagOrStructureName, step.tag, step.lookForXRefAndValueVariation,
+              step.withXRef, step.withValue);
+        } catch (GedcomError e) {
+          throw new GedcomPathAccessError(parsedPath.path, step.pathIndex,
+              "Can not resolve path '" + parsedPath.path[step.pathIndex] + "'. " + e.getMessage());
+        }
+
+        if (structure == null) {
+          throw new GedcomPathAccessError(parsedPath.path, step.pathIndex,
+              "Can not resolve path '" + parsedPath.path[step.pathIndex] +
+              "'. There is no such variation of " + step.tagOrStructureName + ".");
+        }
+
+        block = structure.getStoreBlock();
+      }
+    }
+
+    return new GedcomPath(parsedPath.path, steps, startBlock);
+  }
+
+  /**
+   * Returns the part of this path which starts with the step at the given
+   * step index
+   *
+   * @param stepIndex
+   * @return
+   */
+  protected GedcomPath subPath(int stepIndex) {
+    int offset = steps[stepIndex].pathIndex;
+    String[] newPath = Arrays.copyOfRange(path, offset, path.length);
+    Step[] newSteps = new Step[steps.length - stepIndex];
+
+    for (int i = 0; i < newSteps.length; i++) {
+      newSteps[i] = new Step(steps[stepIndex + i], steps[stepIndex + i].pathIndex - offset);
+    }
+
+    return new GedcomPath(newPath, newSteps, steps[stepIndex].parentBlock);
+  }
+
+  /**
+   * Returns the path as it has been given, including any empty steps
+   *
+   * @return
+   */
+  public String[] getPath() {
+    return path.clone();
+  }
+
+  /**
+   * Returns the number of the (non-empty) steps in this path
+   *
+   * @return
+   */
+  public int getNumberOfSteps() {
+    return steps.length;
+  }
+
+  /**
+   * Returns <code>true</code> if this path has been compiled against the
+   * grammar with {@link #compile(GedcomStoreBlock, String...)}
+   *
+   * @return
+   */
+  public boolean isCompiled() {
+    return startBlock != null;
+  }
+
+  /**
+   * Returns the store block against which this path has been compiled, or
+   * <code>null</code> if it has only been parsed
+   *
+   * @return
+   */
+  public GedcomStoreBlock getStartBlock() {
+    return startBlock;
+  }
+
+  /**
+   * Returns the store line of the step with the given index, or <code>null</code>
+   * if this path has not been compiled
+   *
+   * @param stepIndex
+   * @return
+   */
+  public GedcomStoreLine getStoreLine(int stepIndex) {
+    return steps[stepIndex].storeLine;
+  }
+
+  /**
+   *
+   *
+   * @param stepIndex
+   * @return
+   */
+  protected Step getStep(int stepIndex) {
+    return steps[stepIndex];
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  protected String[] getPathInternal() {
+    return path;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(path);
+  }
+
+
+  /************************************************************************
+   * One parsed step of the path
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  protected static final class Step {
+
+    protected final String tagOrStructureName;
+    protected final String tag;
+    protected final boolean lookForXRefAndValueVariation;
+    protected final boolean withXRef;
+    protected final boolean withValue;
+    protected final int lineNumber;
+
+    /** The index of this step in the given path, which may contain empty steps */
+    protected final int pathIndex;
+
+    /** The block which contains the line of this step, if compiled */
+    protected final GedcomStoreBlock parentBlock;
+    /** The store line of this step, if compiled */
+    protected final GedcomStoreLine storeLine;
+    /** The symbols of the names, if compiled */
+    protected final int tagOrStructureNameSymbol;
+    protected final int tagSymbol;
+    /** The node key of the lines of this step, if compiled */
+    protected final NodeKey nodeKey;
+
+    /**
+     *
+     *
+     * @param tagOrStructureName
+     * @param tag
+     * @param lookForXRefAndValueVariation
+     * @param withXRef
+     * @param withValue
+     * @param lineNumber
+     * @param pathIndex
+     * @param parentBlock
+     * @param storeLine
+     * @param tagOrStructureNameSymbol
+     * @param tagSymbol
+     * @param nodeKey
+     */
+    private Step(String tagOrStructureName, String tag, boolean lookForXRefAndValueVariation,
+        boolean withXRef, boolean withValue, int lineNumber, int pathIndex,
+        GedcomStoreBlock parentBlock, GedcomStoreLine storeLine,
+        int tagOrStructureNameSymbol, int tagSymbol, NodeKey nodeKey) {
+      this.tagOrStructureName = tagOrStructureName;
+      this.tag = tag;
+      this.lookForXRefAndValueVariation = lookForXRefAndValueVariation;
+      this.withXRef = withXRef;
+      this.withValue = withValue;
+      this.lineNumber = lineNumber;
+      this.pathIndex = pathIndex;
+      this.parentBlock = parentBlock;
+      this.storeLine = storeLine;
+      this.tagOrStructureNameSymbol = tagOrStructureNameSymbol;
+      this.tagSymbol = tagSymbol;
+      this.nodeKey = nodeKey;
+    }
+
+    /**
+     * Returns <code>true</code> if the store line and the node key of this
+     * step have been resolved, thus the step can be followed and created
+     * without looking up any names
+     *
+     * @return
+     */
+    protected boolean isResolved() {
+      return storeLine != null && nodeKey != null;
+    }
+
+    /**
+     * A copy of the given step with the resolved grammar information
+     *
+     * @param step
+     * @param parentBlock
+     * @param storeLine
+     * @param tagOrStructureNameSymbol
+     * @param tagSymbol
+     * @param nodeKey
+     */
+    private Step(Step step, GedcomStoreBlock parentBlock, GedcomStoreLine storeLine,
+        int tagOrStructureNameSymbol, int tagSymbol, NodeKey nodeKey) {
+      this(step.tagOrStructureName, step.tag, step.lookForXRefAndValueVariation,
+          step.withXRef, step.withValue, step.lineNumber, step.pathIndex, parentBlock, storeLine,
+          tagOrStructureNameSymbol, tagSymbol, nodeKey);
+    }
+
+    /**
+     * A copy of the given step with a different path index
+     *
+     * @param step
+     * @param pathIndex
+     */
+    private Step(Step step, int pathIndex) {
+      this(step.tagOrStructureName, step.tag, step.lookForXRefAndValueVariation,
+          step.withXRef, step.withValue, step.lineNumber, pathIndex, step.parentBlock, step.storeLine,
+          step.tagOrStructureNameSymbol, step.tagSymbol, step.nodeKey);
+    }
+
+    /**
+     * Parses one path step. The step values have to be separated with
+     * {@link GedcomNode#PATH_OPTION_DELIMITER}.
+     *
+     * @param pathStep
+     * @param pathIndex
+     * @return The parsed step, or <code>null</code> if the step is empty
+     */
+    protected static Step parse(String pathStep, int pathIndex) {
+      if (pathStep == null || pathStep.length() == 0) {
+        return null;
+      }
+
+      String[] parts = pathStep.split(GedcomNode.PATH_OPTION_DELIMITER);
+
+      if (parts.length == 0) {
+        return null;
+      }
+
+      String tagOrStructureName = parts[0];
+      String tag = null;
+      boolean lookForXRefAndValueVariation = false;
+      boolean withXRef = false;
+      boolean withValue = false;
+      int lineNumber = 0;
+
+      //There is more than just a structure name or tag
+      if (parts.length > 1) {
+        if (isNumber(parts[1])) {
+          //No variation
+          lineNumber = Integer.parseInt(parts[1]);
+        } else {
+          //If it is not a line number, it must be a tag for the variation
+          tag = parts[1];
+
+          //Continues if there is more than just the structure name and
+          //variation tag
+          if (parts.length > 2) {
+            lookForXRefAndValueVariation = true;
+
+            int lineNumberIncrease = 0;
+            if (isNumber(parts[2])) {
+              lineNumber = Integer.parseInt(parts[2]);
+              lineNumberIncrease = 1;
+            }
+
+            if (parts.length > 2 + lineNumberIncrease) {
+              withXRef = Boolean.parseBoolean(parts[2 + lineNumberIncrease]);
+            }
+
+            if (parts.length > 3 + lineNumberIncrease) {
+              withValue = Boolean.parseBoolean(parts[3 + lineNumberIncrease]);
+            }
+
+            if (parts.length > 4 + lineNumberIncrease) {
+              lineNumber = Integer.parseInt(parts[4 + lineNumberIncrease]);
+            }
+          }
+        }
+      }
+
+      return new Step(tagOrStructureName, tag, lookForXRefAndValueVariation,
+          withXRef, withValue, lineNumber, pathIndex, null, null,
+          GedcomSymbolTable.NO_SYMBOL, GedcomSymbolTable.NO_SYMBOL, null);
+    }
+
+    /**
+     * Checks if the given string is a number which can be parsed with
+     * {@link Integer#parseInt(String)}
+     *
+     * @param s
+     * @return
+     */
+    private static boolean isNumber(String s) {
+      int length = s.length();
+      int start = length > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+') ? 1 : 0;
+
+      if (length == start || length - start > 9) {
+        //Longer numbers are not needed as line numbers
+        return false;
+      }
+
+      for (int i = start; i < length; i++) {
+        if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+  }
+
+}
@@ -16,6 +16,8 @@
  */
 package ch.thn.gedcom.data;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import ch.thn.gedcom.store.GedcomStoreLine;
 
 /**
@@ -24,8 +26,25 @@ import ch.thn.gedcom.store.GedcomStoreLine;
  */
 public class GedcomStructureLine extends GedcomLine {
 	
-	private static long uniqueIdCount = 0;
+	/** The number of IDs a thread reserves at once from the shared counter */
+	private static final int ID_BLOCK_SIZE = 1024;
+	
+	/** Shared by all threads which build trees (like the parallel import). 
+	 * Only touched once per block of IDs, not for every new line. */
+	private static final AtomicLong uniqueIdCount = new AtomicLong();
+	
+	/** The range of IDs reserved by the current thread. [0] is the next free 
+	 * ID, [1] is the end of the range (exclusive) */
+	private static final ThreadLocal<long[]> idBlock = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
+	
+	private final long uniqueId;
 	
+	/** Built on demand */
 	private String uniqueIdString = null;
 	private String toString = null;
 
@@ -43,30 +62,59 @@ public class GedcomStructureLine extends GedcomLine {
 					" is not a structure line");
 		}
 		
-		if (getTag() != null) {
-			toString = getStructureName() + " (" + getTag() + ")";
-		} else {
-			toString = getStructureName();
+		uniqueId = generateUniqueId();
+	}
+	
+	/**
+	 * Creates a structure line with the symbol of the tag already looked up
+	 * 
+	 * @param storeLine
+	 * @param tag
+	 * @param tagSymbol
+	 */
+	protected GedcomStructureLine(GedcomStoreLine storeLine, String tag, int tagSymbol) {
+		super(storeLine, tag, tagSymbol);
+		
+		if (!storeLine.hasStructureName()) {
+			throw new GedcomAccessError("The store line " + storeLine.getId() + 
+					" is not a structure line");
 		}
 		
-		uniqueIdString = String.valueOf(generateUniqueId());
+		uniqueId = generateUniqueId();
 	}
 	
 	/**
-	 * 
+	 * Returns the next ID out of the block of IDs reserved by the current 
+	 * thread. A new block is reserved from the shared counter when the block 
+	 * is used up, thus threads which build trees in parallel do not compete 
+	 * for the counter on every new structure line. IDs are unique across all 
+	 * threads, but they are only ascending within one thread.
 	 * 
 	 * @return
 	 */
-	private long generateUniqueId() {
-		if (++uniqueIdCount == Long.MAX_VALUE) {
-			throw new GedcomStructureLineError("Unique ID overflow!");
+	private static long generateUniqueId() {
+		long[] block = idBlock.get();
+		
+		if (block[0] == block[1]) {
+			long start = uniqueIdCount.getAndAdd(ID_BLOCK_SIZE);
+			
+			if (start > Long.MAX_VALUE - 2 * ID_BLOCK_SIZE) {
+				throw new GedcomStructureLineError("Unique ID overflow!");
+			}
+			
+			block[0] = start + 1;
+			block[1] = start + 1 + ID_BLOCK_SIZE;
 		}
 		
-		return uniqueIdCount;
+		return block[0]++;
 	}
 	
 	@Override
 	protected String getUniqueId() {
+		if (uniqueIdString == null) {
+			uniqueIdString = String.valueOf(uniqueId);
+		}
+		
 		return uniqueIdString;
 	}
 	
@@ -83,6 +131,14 @@ public class GedcomStructureLine extends GedcomLine {
 	
 	@Override
 	public String toString() {
+		if (toString == null) {
+			if (getTag() != null) {
+				toString = getStructureName() + " (" + getTag() + ")";
+			} else {
+				toString = getStructureName();
+			}
+		}
+		
 		return toString;
 	}
 
@@ -107,7 +163,7 @@ public class GedcomStructureLine extends GedcomLine {
 	 * @author Thomas Naeff (github.com/thnaeff)
 	 *
 	 */
-	private class GedcomStructureLineError extends Error {
+	private static class GedcomStructureLineError extends Error {
 		
 		/**
 		 * 
@@ -29,17 +29,18 @@ import ch.thn.gedcom.store.GedcomStoreLine;
  */
 public class GedcomTagLine extends GedcomLine {
 	
-	private String tag1 = null;
-	private String tag2 = null;
 	private String xref = null;
 	private String value = null;
 	
+	/** Built on demand, <code>null</code> if it has to be built again */
 	private String uniqueIdString = null;
-	private String toString = null;
 	
 	private boolean isValueSet = false;
 	private boolean isXRefSet = false;
 	
+	/** The node which has been created for this line */
+	private GedcomNode node = null;
+	
 
 	/**
 	 * 
@@ -49,17 +50,80 @@ public class GedcomTagLine extends GedcomLine {
 	 */
 	public GedcomTagLine(GedcomStoreLine storeLine, String tag) {
 		super(storeLine, tag);
-				
-		if (getStoreLine().hasTagBeforeXRef()) {
-			tag1 = tag;
-		} else {
-			tag2 = tag;
+	}
+	
+	/**
+	 * Creates a tag line with the symbol of the tag already looked up
+	 * 
+	 * @param storeLine
+	 * @param tag
+	 * @param tagSymbol
+	 */
+	protected GedcomTagLine(GedcomStoreLine storeLine, String tag, int tagSymbol) {
+		super(storeLine, tag, tagSymbol);
+	}
+	
+	/**
+	 * Sets the node which has been created for this line
+	 * 
+	 * @param node
+	 */
+	protected void setNode(GedcomNode node) {
+		this.node = node;
+	}
+	
+	/**
+	 * Returns the node which has been created for this line
+	 * 
+	 * @return The node, or <code>null</code> if the line has been created without node
+	 */
+	protected GedcomNode getNode() {
+		return node;
+	}
+	
+	/**
+	 * Returns <code>true</code> if this line points to a record (like 
+	 * "1 FAMS @F1@"). The xref of a record line itself (like "0 @I1@ INDI") is 
+	 * not a pointer.
+	 * 
+	 * @return
+	 */
+	public boolean isPointer() {
+		return xref != null && hasTagBeforeXRef();
+	}
+	
+	/**
+	 * Updates the {@link ReverseXrefIndex} of the record of this line after 
+	 * the xref has changed
+	 * 
+	 * @param oldXRef
+	 */
+	private void xrefChanged(String oldXRef) {
+		if (node == null || (oldXRef == null && xref == null) || !hasTagBeforeXRef()) {
+			return;
 		}
 		
-		updateMetadata();
+		ReverseXrefIndex index = node.getReverseXrefIndex();
+		
+		if (index != null) {
+			index.xrefChanged(this, oldXRef, xref);
+		}
 	}
 	
+	/**
+	 * Resets the unique ID after the xref or value has changed. The unique ID 
+	 * is only built again when it is needed (see {@link #getUniqueId()}).
+	 */
 	private void updateMetadata() {
+		uniqueIdString = null;
+	}
+	
+	/**
+	 * 
+	 * 
+	 * @return
+	 */
+	private String buildUniqueId() {
 		
 		//Since a TreeMultiMap is used as GedcomNode, the key-value pairs have to 
 		//be unique to be added (no double key-value pairs allowed). There might 
@@ -68,11 +132,25 @@ public class GedcomTagLine extends GedcomLine {
 		//has to be unique. The GedcomTagLine gives this uniqueness through 
 		//its value or xref.
 		
-		StringBuilder sb = new StringBuilder();
+		String tag = getTag();
+		//Both tags, three delimiters, the @ around the xref and "null" for 
+		//an xref or value which is not set
+		int length = 2 * tag.length() + 13;
+		
+		if (xref != null) {
+			length += xref.length();
+		}
+		
+		if (value != null) {
+			length += value.length();
+		}
+		
+		//Large enough for all the parts, thus it does not have to grow
+		StringBuilder sb = new StringBuilder(length);
 		
 		//TAG before XREF
 		if (getStoreLine().hasTagBeforeXRef()) {
-			sb.append(getTag());
+			sb.append(tag);
 		}
 		
 		// XREF
@@ -81,7 +159,7 @@ public class GedcomTagLine extends GedcomLine {
 				sb.append(DELIM);
 			}
 			
-			sb.append("@" + xref + "@");
+			sb.append('@').append(xref).append('@');
 		}
 		
 		//TAG after XREF
@@ -90,7 +168,7 @@ public class GedcomTagLine extends GedcomLine {
 				sb.append(DELIM);
 			}
 			
-			sb.append(getTag());
+			sb.append(tag);
 		}
 		
 		//VALUE
@@ -103,23 +181,16 @@ public class GedcomTagLine extends GedcomLine {
 		}
 				
 		
-		uniqueIdString = sb.toString();
-		toString = uniqueIdString;
-		
+		return sb.toString();
 	}
 	
 	@Override
 	protected String getUniqueId() {
-		return uniqueIdString;
-	}
-	
-	@Override
-	public String getTag() {
-		if (tag1 != null) {
-			return tag1;
-		} else {
-			return tag2;
+		if (uniqueIdString == null) {
+			uniqueIdString = buildUniqueId();
 		}
+		
+		return uniqueIdString;
 	}
 	
 	/**
@@ -243,7 +314,7 @@ public class GedcomTagLine extends GedcomLine {
 	 * @return
 	 */
 	public boolean hasTagBeforeXRef() {
-		return (tag1 != null);
+		return getStoreLine().hasTagBeforeXRef() && getTag() != null;
 	}
 	
 	/**
@@ -254,7 +325,7 @@ public class GedcomTagLine extends GedcomLine {
 	 * @return
 	 */
 	public boolean hasTagAfterXRef() {
-		return (tag2 != null);
+		return !getStoreLine().hasTagBeforeXRef() && getTag() != null;
 	}
 	
 	/**
@@ -300,9 +371,7 @@ public class GedcomTagLine extends GedcomLine {
 			}
 		}
 		
-		this.value = value;
-		isValueSet(true);
-		updateMetadata();
+		changeLine(xref, isXRefSet, value, true);
 		return this;
 	}
 	
@@ -341,23 +410,76 @@ public class GedcomTagLine extends GedcomLine {
 			}
 		}
 		
-		this.xref = xref;
-		isXRefSet(true);
-		updateMetadata();
+		changeLine(xref, true, value, isValueSet);
 		return this;
 	}
 	
 	
+	/**
+	 * Sets the xref and value of this line as they have been before, without 
+	 * validating them again (used when a line is restored, like by the 
+	 * {@link GedcomTreeCodec}).
+	 * 
+	 * @param xref
+	 * @param isXRefSet
+	 * @param value
+	 * @param isValueSet
+	 */
+	protected void restore(String xref, boolean isXRefSet, String value, boolean isValueSet) {
+		changeLine(xref, isXRefSet, value, isValueSet);
+	}
+	
+	
 	/**
 	 * Clears all the values of this tag line and resets the flag which indicates 
 	 * if a value for this line has been set.
 	 */
 	public void clear() {
-		xref = null;
-		value = null;
-		isValueSet(false);
-		isXRefSet(false);
+		changeLine(null, false, null, false);
+	}
+	
+	/**
+	 * Sets the xref and the value of this line. The unique ID of the line 
+	 * changes with the xref and the value, and the child lines of a node are 
+	 * sorted by the unique ID (see {@link NodeValueComparator}). If the node 
+	 * of this line is one of multiple lines with the same key, it is therefore 
+	 * taken out of its parent before the change and sorted in again afterwards.
+	 * 
+	 * @param xref
+	 * @param isXRefSet
+	 * @param value
+	 * @param isValueSet
+	 * @throws GedcomAccessError If the parent already has a line with the 
+	 * same xref and value. The line is left unchanged.
+	 */
+	private void changeLine(String xref, boolean isXRefSet, String value, boolean isValueSet) {
+		GedcomNode parent = node == null ? null : node.detachForChange();
+		
+		String oldXRef = this.xref;
+		String oldValue = this.value;
+		boolean oldXRefSet = this.isXRefSet;
+		boolean oldValueSet = this.isValueSet;
+		
+		this.xref = xref;
+		this.value = value;
+		isXRefSet(isXRefSet);
+		isValueSet(isValueSet);
 		updateMetadata();
+		
+		if (parent != null && !node.attachAfterChange(parent)) {
+			//Two lines with the same key and unique ID can not be in the same parent
+			this.xref = oldXRef;
+			this.value = oldValue;
+			isXRefSet(oldXRefSet);
+			isValueSet(oldValueSet);
+			updateMetadata();
+			node.attachAfterChange(parent);
+			
+			throw new GedcomAccessError("Line " + getTag() + " with the same xref and value " + 
+					"already exists in " + parent + ".");
+		}
+		
+		xrefChanged(oldXRef);
 	}
 	
 	
@@ -373,7 +495,7 @@ public class GedcomTagLine extends GedcomLine {
 	
 	@Override
 	public String toString() {
-		return toString;
+		return getUniqueId();
 	}
 
 
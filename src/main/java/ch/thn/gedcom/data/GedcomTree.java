@@ -28,6 +28,9 @@ public class GedcomTree extends GedcomNode {
 		
 	private String structureName = null;
 	
+	/** The reverse index this record has been added to */
+	private ReverseXrefIndex reverseXrefIndex = null;
+	
 	
 	/**
 	 * 
@@ -61,6 +64,55 @@ public class GedcomTree extends GedcomNode {
 		return structureName;
 	}
 	
+	/**
+	 * Returns the level 0 line of this record (like the INDI line of an 
+	 * individual record)
+	 * 
+	 * @return The record line, or <code>null</code> if the line has not been added yet
+	 */
+	public GedcomNode getRecordLine() {
+		if (!hasChildLines()) {
+			return null;
+		}
+		
+		return getChildNodes().iterator().next();
+	}
+	
+	/**
+	 * Returns the xref of the record line (like I1 of "0 @I1@ INDI")
+	 * 
+	 * @return The xref, or <code>null</code> if the record does not have an xref
+	 */
+	public String getRecordXRef() {
+		GedcomNode recordLine = getRecordLine();
+		
+		if (recordLine == null || !recordLine.getNodeValue().isTagLine()) {
+			return null;
+		}
+		
+		return recordLine.getNodeValue().getAsTagLine().getXRef();
+	}
+	
+	
+	/**
+	 * 
+	 * 
+	 * @param reverseXrefIndex
+	 */
+	protected void setReverseXrefIndex(ReverseXrefIndex reverseXrefIndex) {
+		this.reverseXrefIndex = reverseXrefIndex;
+	}
+	
+	/**
+	 * Returns the reverse index this record has been added to
+	 * 
+	 * @return The index, or <code>null</code> if the record is not in a reverse index
+	 */
+	@Override
+	public ReverseXrefIndex getReverseXrefIndex() {
+		return reverseXrefIndex;
+	}
+	
 	
 	@Override
 	public GedcomNode nodeFactory(GedcomNode node) {
@@ -0,0 +1,1112 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+import ch.thn.gedcom.store.GedcomStoreBlock;
+import ch.thn.gedcom.store.GedcomStoreLine;
+import ch.thn.gedcom.store.GedcomStoreStructure;
+import ch.thn.gedcom.store.GedcomSymbolTable;
+
+/**
+ * Encodes a {@link GedcomTree} in a compact binary form and decodes it again
+ * to an identical tree of the same {@link GedcomStore}. Unlike reading the
+ * gedcom text again, decoding does not have to tokenize any lines or to
+ * resolve the structure lines between the tags, since every node is written
+ * with its store line.<br>
+ * <br>
+ * An encoded tree has the following format (numbers are written with 7 bits
+ * per byte):
+ * <pre>
+ * version, grammar fingerprint (8 bytes, see {@link GedcomStore#getGrammarFingerprint()}),
+ * structure index (in {@link GedcomStore#getStructures()}),
+ * number of lines (all lines without the head of the tree),
+ * number of distinct xrefs and values
+ * number of child lines, child lines
+ *
+ * line: store line ID (see {@link GedcomStoreLine#getLineId()}), flags,
+ *       [tag name symbol] (only tag lines with multiple tag names),
+ *       [tag symbol] (only lines with a tag, like structure lines of a variation),
+ *       [xref], [value] (each as string),
+ *       number of child lines, child lines
+ *
+ * string: 0, length and UTF-8 bytes, the first time the string is written,
+ *         or the index + 1 of the string when it is written again
+ * </pre>
+ * Since the numbers of lines and strings are known before the lines, a
+ * {@link CompactGedcomTree} is decoded without growing its arrays and
+ * without looking up its strings.
+ * The tag symbols and store line IDs are only valid for the store which
+ * has been used to encode the tree, or a store which has parsed the same
+ * grammar (or loaded its snapshot). Trees of any other grammar are rejected
+ * by the fingerprint of the grammar.<br>
+ * <br>
+ * A tree which is only read can also be decoded straight into a
+ * {@link CompactGedcomTree} with {@link #decodeCompact(byte[])}. This skips
+ * creating and sorting in a {@link GedcomNode} for each line, which is most
+ * of the time of {@link #decode(byte[])}.<br>
+ * <br>
+ * A codec can be used by multiple threads.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomTreeCodec {
+
+  private static final int VERSION = 3;
+
+  private static final int FLAG_TAG = 0x80;
+  private static final int FLAG_LOOK_FOR_VARIATION = 0x01;
+  private static final int FLAG_WITH_XREF = 0x02;
+  private static final int FLAG_WITH_VALUE = 0x04;
+  private static final int FLAG_XREF_SET = 0x08;
+  private static final int FLAG_VALUE_SET = 0x10;
+  private static final int FLAG_XREF = 0x20;
+  private static final int FLAG_VALUE = 0x40;
+
+  private GedcomStore store = null;
+
+  /** The fingerprint of the grammar of the store, when the codec has been created */
+  private long grammarFingerprint = 0;
+
+  /** The structures of the store, by their index */
+  private GedcomStoreStructure[] structures = null;
+
+  /** The index of each structure */
+  private IdentityHashMap<GedcomStoreStructure, Integer> structureIndexes = null;
+
+  /**
+   * Creates a codec for the trees of the given store. The store has to
+   * be parsed already.
+   *
+   * @param store
+   */
+  public GedcomTreeCodec(GedcomStore store) {
+    this.store = store;
+    this.grammarFingerprint = store.getGrammarFingerprint();
+
+    List<GedcomStoreStructure> storeStructures = store.getStructures();
+    structures = storeStructures.toArray(new GedcomStoreStructure[storeStructures.size()]);
+    structureIndexes = new IdentityHashMap<GedcomStoreStructure, Integer>();
+
+    for (int i = 0; i < structures.length; i++) {
+      structureIndexes.put(structures[i], i);
+    }
+  }
+
+  /**
+   * Returns the store of this codec
+   *
+   * @return
+   */
+  public GedcomStore getStore() {
+    return store;
+  }
+
+  /**
+   * Encodes the given tree
+   *
+   * @param tree
+   * @return
+   */
+  public byte[] encode(GedcomTree tree) {
+    Output out = new Output();
+    encode(tree, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes the given tree to the given stream, prefixed with the length of
+   * the encoded tree. Multiple trees can be written to the same stream and
+   * read one by one with {@link #read(InputStream)}. The stream is not closed.
+   *
+   * @param tree
+   * @param output
+   * @throws IOException
+   */
+  public void write(GedcomTree tree, OutputStream output) throws IOException {
+    Output out = new Output();
+    //Reserve the space for the longest length
+    out.size = 5;
+    encode(tree, out);
+
+    int length = out.size - 5;
+    int start = 5 - getVarIntSize(length);
+    out.size = start;
+    out.writeVarInt(length);
+
+    output.write(out.buffer, start, length + 5 - start);
+  }
+
+  /**
+   * Decodes a tree which has been encoded with {@link #encode(GedcomTree)}
+   *
+   * @param data
+   * @return
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public GedcomTree decode(byte[] data) throws GedcomParseException {
+    return decode(data, 0, data.length);
+  }
+
+  /**
+   * Decodes a tree which has been encoded with {@link #encode(GedcomTree)}
+   *
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public GedcomTree decode(byte[] data, int offset, int length) throws GedcomParseException {
+    Input in = new Input(data, offset, offset + length);
+
+    try {
+      GedcomTree tree = decode(in);
+
+      if (in.pos != in.end) {
+        throw new GedcomParseException("The encoded tree has " + (in.end - in.pos) + " bytes too many.");
+      }
+
+      return tree;
+    } catch (IndexOutOfBoundsException e) {
+      throw new GedcomParseException("The encoded tree is not complete or has invalid references.");
+    } catch (GedcomError e) {
+      throw new GedcomParseException("The encoded tree is not valid for this store. " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the structure of an encoded tree (the record structure, like
+   * INDIVIDUAL_RECORD), without decoding the tree
+   *
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public GedcomStoreStructure getStoreStructure(byte[] data, int offset, int length) throws GedcomParseException {
+    Input in = new Input(data, offset, offset + length);
+
+    try {
+      return decodeStructure(in);
+    } catch (IndexOutOfBoundsException e) {
+      throw new GedcomParseException("The encoded tree is not complete.");
+    }
+  }
+
+  /**
+   * Decodes a tree which has been encoded with {@link #encode(GedcomTree)}
+   * into a {@link CompactGedcomTree}. No {@link GedcomNode} is created for
+   * the lines, thus this is much faster than {@link #decode(byte[])} if
+   * the tree is only read. Use {@link CompactGedcomTree#toTree()} to get a
+   * {@link GedcomTree} of it later.
+   *
+   * @param data
+   * @return
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public CompactGedcomTree decodeCompact(byte[] data) throws GedcomParseException {
+    return decodeCompact(data, 0, data.length);
+  }
+
+  /**
+   * Like {@link #decodeCompact(byte[])}
+   *
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public CompactGedcomTree decodeCompact(byte[] data, int offset, int length) throws GedcomParseException {
+    Input in = new Input(data, offset, offset + length);
+
+    try {
+      GedcomStoreStructure storeStructure = decodeStructure(in);
+      CompactLines lines = new CompactLines(decodeCounts(in) + 1);
+      lines.nameSymbol[CompactGedcomTree.ROOT] = store.getNameId(storeStructure.getStructureName());
+
+      decodeCompactChildLines(lines, CompactGedcomTree.ROOT, storeStructure.getStoreBlock(), in);
+      in.checkStrings();
+
+      if (in.pos != in.end) {
+        throw new GedcomParseException("The encoded tree has " + (in.end - in.pos) + " bytes too many.");
+      }
+
+      if (lines.size != lines.parent.length) {
+        throw new GedcomParseException("The encoded tree has " + (lines.size - 1)
+            + " lines instead of " + (lines.parent.length - 1) + ".");
+      }
+
+      return lines.toTree(storeStructure, in.strings);
+    } catch (IndexOutOfBoundsException e) {
+      throw new GedcomParseException("The encoded tree is not complete or has invalid references.");
+    } catch (GedcomError e) {
+      throw new GedcomParseException("The encoded tree is not valid for this store. " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the next tree from the given stream, which has been written with
+   * {@link #write(GedcomTree, OutputStream)}
+   *
+   * @param input
+   * @return The tree, or <code>null</code> if the end of the stream has been reached
+   * @throws IOException
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public GedcomTree read(InputStream input) throws IOException, GedcomParseException {
+    byte[] data = readData(input);
+
+    if (data == null) {
+      return null;
+    }
+
+    return decode(data);
+  }
+
+  /**
+   * Like {@link #read(InputStream)}, but the tree is decoded into a
+   * {@link CompactGedcomTree} (see {@link #decodeCompact(byte[])})
+   *
+   * @param input
+   * @return The tree, or <code>null</code> if the end of the stream has been reached
+   * @throws IOException
+   * @throws GedcomParseException If the data is not a valid encoded tree of the store of this codec
+   */
+  public CompactGedcomTree readCompact(InputStream input) throws IOException, GedcomParseException {
+    byte[] data = readData(input);
+
+    if (data == null) {
+      return null;
+    }
+
+    return decodeCompact(data);
+  }
+
+  /**
+   * Reads the length and the data of the next tree from the given stream
+   *
+   * @param input
+   * @return The encoded tree, or <code>null</code> if the end of the stream has been reached
+   * @throws IOException
+   */
+  private static byte[] readData(InputStream input) throws IOException {
+    int length = 0;
+    int shift = 0;
+    int b = 0;
+
+    do {
+      b = input.read();
+
+      if (b == -1) {
+        if (shift == 0) {
+          return null;
+        }
+
+        throw new EOFException("The stream ended within the length of a tree.");
+      }
+
+      length |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    byte[] data = new byte[length];
+    int read = 0;
+
+    while (read < length) {
+      int count = input.read(data, read, length - read);
+
+      if (count == -1) {
+        throw new EOFException("The stream ended within a tree.");
+      }
+
+      read += count;
+    }
+
+    return data;
+  }
+
+  /**
+   * Writes the header and the lines of the given tree. The lines are
+   * encoded first, since the header has the number of lines and strings.
+   *
+   * @param tree
+   * @param out
+   */
+  private void encode(GedcomTree tree, Output out) {
+    Integer structureIndex = structureIndexes.get(tree.getStoreStructure());
+
+    if (structureIndex == null) {
+      throw new GedcomError("The structure " + tree.getStructureName()
+          + " of the tree is not a structure of the store of this codec.");
+    }
+
+    Output lines = new Output();
+    HashMap<String, Integer> strings = new HashMap<String, Integer>();
+    int numberOfLines = encodeChildLines(tree, lines, strings);
+
+    out.writeVarInt(VERSION);
+    out.writeLong(grammarFingerprint);
+    out.writeVarInt(structureIndex);
+    out.writeVarInt(numberOfLines);
+    out.writeVarInt(strings.size());
+    out.writeBytes(lines.buffer, lines.size);
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param out
+   * @param strings The index of each distinct xref and value which has been written
+   * @return The number of lines which have been written, with all their child lines
+   */
+  private int encodeChildLines(GedcomNode node, Output out, HashMap<String, Integer> strings) {
+    int numberOfLines = 0;
+    out.writeVarInt(node.getNumberOfChildLines());
+
+    for (GedcomNode child : node.getChildNodes()) {
+      numberOfLines += encodeLine(child, out, strings);
+    }
+
+    return numberOfLines;
+  }
+
+  /**
+   * Writes the given node and all its child nodes
+   *
+   * @param node
+   * @param out
+   * @param strings
+   * @return The number of lines which have been written
+   */
+  private int encodeLine(GedcomNode node, Output out, HashMap<String, Integer> strings) {
+    GedcomStoreLine storeLine = node.getStoreLine();
+    int flags = 0;
+
+    if (node.getTag() != null) {
+      flags |= FLAG_TAG;
+    }
+
+    if (node.getLookForXRefAndValueVariation()) {
+      flags |= FLAG_LOOK_FOR_VARIATION;
+    }
+
+    if (node.getWithXRef()) {
+      flags |= FLAG_WITH_XREF;
+    }
+
+    if (node.getWithValue()) {
+      flags |= FLAG_WITH_VALUE;
+    }
+
+    GedcomTagLine tagLine = null;
+
+    if (node.getNodeValue().isTagLine()) {
+      tagLine = node.getNodeValue().getAsTagLine();
+
+      if (tagLine.isXRefSet()) {
+        flags |= FLAG_XREF_SET;
+      }
+
+      if (tagLine.isValueSet()) {
+        flags |= FLAG_VALUE_SET;
+      }
+
+      if (tagLine.getXRef() != null) {
+        flags |= FLAG_XREF;
+      }
+
+      if (tagLine.getValue() != null) {
+        flags |= FLAG_VALUE;
+      }
+    }
+
+    out.writeVarInt(storeLine.getLineId());
+    out.writeByte(flags);
+
+    if (!storeLine.hasStructureName() && storeLine.hasMultipleTagNames()) {
+      out.writeVarInt(getSymbol(node.getTagOrStructureName()));
+    }
+
+    if ((flags & FLAG_TAG) != 0) {
+      out.writeVarInt(getSymbol(node.getTag()));
+    }
+
+    if ((flags & FLAG_XREF) != 0) {
+      encodeString(tagLine.getXRef(), out, strings);
+    }
+
+    if ((flags & FLAG_VALUE) != 0) {
+      encodeString(tagLine.getValue(), out, strings);
+    }
+
+    return 1 + encodeChildLines(node, out, strings);
+  }
+
+  /**
+   * Writes a string which has not been written for this tree yet as 0 and
+   * the string. A string which has been written before is only written as
+   * its index + 1.
+   *
+   * @param string
+   * @param out
+   * @param strings
+   */
+  private static void encodeString(String string, Output out, HashMap<String, Integer> strings) {
+    Integer index = strings.get(string);
+
+    if (index != null) {
+      out.writeVarInt(index + 1);
+      return;
+    }
+
+    strings.put(string, strings.size());
+    out.writeVarInt(0);
+    out.writeString(string);
+  }
+
+  /**
+   *
+   *
+   * @param name
+   * @return
+   */
+  private int getSymbol(String name) {
+    int symbol = store.getNameId(name);
+
+    if (symbol == -1) {
+      throw new GedcomError("The name " + name + " is not a name of the store of this codec.");
+    }
+
+    return symbol;
+  }
+
+  /**
+   *
+   *
+   * @param in
+   * @return
+   * @throws GedcomParseException
+   */
+  private GedcomTree decode(Input in) throws GedcomParseException {
+    GedcomTree tree = new GedcomTree(decodeStructure(in));
+    decodeCounts(in);
+    decodeChildLines(tree, in);
+    in.checkStrings();
+
+    return tree;
+  }
+
+  /**
+   * Reads the header of an encoded tree
+   *
+   * @param in
+   * @return The structure of the tree
+   * @throws GedcomParseException
+   */
+  private GedcomStoreStructure decodeStructure(Input in) throws GedcomParseException {
+    int version = in.readVarInt();
+
+    if (version != VERSION) {
+      throw new GedcomParseException("The encoded tree has the version " + version
+          + ". Only version " + VERSION + " is supported.");
+    }
+
+    if (in.readLong() != grammarFingerprint) {
+      throw new GedcomParseException("The encoded tree has been encoded with another grammar.");
+    }
+
+    int structureIndex = in.readVarInt();
+
+    if (structureIndex >= structures.length) {
+      throw new GedcomParseException("Invalid structure index " + structureIndex + ".");
+    }
+
+    return structures[structureIndex];
+  }
+
+  /**
+   * Reads the number of lines and strings from the header, after the
+   * structure (see {@link #decodeStructure(Input)})
+   *
+   * @param in
+   * @return The number of lines, without the head of the tree
+   * @throws GedcomParseException
+   */
+  private int decodeCounts(Input in) throws GedcomParseException {
+    int numberOfLines = in.readVarInt();
+    int numberOfStrings = in.readVarInt();
+
+    //Each line has at least three bytes (the store line ID, the flags and the
+    //number of child lines) and each string at least two bytes
+    if (numberOfLines < 0 || numberOfLines > (in.end - in.pos) / 3
+        || numberOfStrings < 0 || numberOfStrings > (in.end - in.pos) / 2) {
+      throw new GedcomParseException("Invalid number of lines " + numberOfLines
+          + " or strings " + numberOfStrings + ".");
+    }
+
+    in.strings = new String[numberOfStrings];
+
+    return numberOfLines;
+  }
+
+  /**
+   *
+   *
+   * @param parent
+   * @param in
+   * @throws GedcomParseException
+   */
+  private void decodeChildLines(GedcomNode parent, Input in) throws GedcomParseException {
+    int count = in.readVarInt();
+
+    for (int i = 0; i < count; i++) {
+      decodeLine(parent, in);
+    }
+  }
+
+  /**
+   * Reads a line, adds it to the given parent and reads its child lines. The
+   * line is created with its store line, thus without looking up its names.
+   *
+   * @param parent
+   * @param in
+   * @throws GedcomParseException
+   */
+  private void decodeLine(GedcomNode parent, Input in) throws GedcomParseException {
+    GedcomStoreLine storeLine = store.getStoreLine(in.readVarInt());
+    int flags = in.readByte();
+    int nameSymbol = decodeNameSymbol(storeLine, in);
+    int tagSymbol = GedcomSymbolTable.NO_SYMBOL;
+
+    if ((flags & FLAG_TAG) != 0) {
+      tagSymbol = in.readVarInt();
+    }
+
+    GedcomNode node = parent.createChildLine(storeLine, store.getName(nameSymbol), nameSymbol,
+        store.getName(tagSymbol), tagSymbol, (flags & FLAG_LOOK_FOR_VARIATION) != 0,
+        (flags & FLAG_WITH_XREF) != 0, (flags & FLAG_WITH_VALUE) != 0);
+
+    if (node.getNodeValue().isTagLine()) {
+      String xref = (flags & FLAG_XREF) != 0 ? in.strings[in.readStringIndex()] : null;
+      String value = (flags & FLAG_VALUE) != 0 ? in.strings[in.readStringIndex()] : null;
+
+      node.getNodeValue().getAsTagLine().restore(xref, (flags & FLAG_XREF_SET) != 0,
+          value, (flags & FLAG_VALUE_SET) != 0);
+    }
+
+    //Added with its xref and value, thus the line is sorted in only once
+    parent.addChildLine(node);
+
+    decodeChildLines(node, in);
+  }
+
+  /**
+   * Returns the symbol of the tag or structure name of the given line. It is
+   * only written for tag lines with multiple tag names.
+   *
+   * @param storeLine
+   * @param in
+   * @return
+   * @throws GedcomParseException
+   */
+  private int decodeNameSymbol(GedcomStoreLine storeLine, Input in) throws GedcomParseException {
+    if (storeLine.hasStructureName()) {
+      return storeLine.getStructureNameSymbol();
+    }
+
+    if (!storeLine.hasMultipleTagNames()) {
+      return storeLine.getTagSymbols()[0];
+    }
+
+    int nameSymbol = in.readVarInt();
+
+    if (!storeLine.hasTag(nameSymbol)) {
+      throw new GedcomParseException("Invalid tag " + store.getName(nameSymbol)
+          + " for line " + storeLine.getId() + ".");
+    }
+
+    return nameSymbol;
+  }
+
+  /**
+   * Reads the child lines of the given line into the given lines
+   *
+   * @param lines
+   * @param parentLine
+   * @param block The block of the parent line, which has the store lines of
+   * its child lines
+   * @param in
+   * @throws GedcomParseException
+   */
+  private void decodeCompactChildLines(CompactLines lines, int parentLine, GedcomStoreBlock block,
+      Input in) throws GedcomParseException {
+    int count = in.readVarInt();
+    int previous = CompactGedcomTree.NO_LINE;
+
+    for (int i = 0; i < count; i++) {
+      int line = decodeCompactLine(lines, parentLine, block, in);
+
+      if (previous == CompactGedcomTree.NO_LINE) {
+        lines.firstChild[parentLine] = line;
+      } else {
+        lines.nextSibling[previous] = line;
+      }
+
+      previous = line;
+    }
+  }
+
+  /**
+   * Reads a line and its child lines into the given lines. Like
+   * {@link #decodeLine(GedcomNode, Input)}, but without creating a node.
+   *
+   * @param lines
+   * @param parentLine
+   * @param block
+   * @param in
+   * @return The index of the line
+   * @throws GedcomParseException
+   */
+  private int decodeCompactLine(CompactLines lines, int parentLine, GedcomStoreBlock block,
+      Input in) throws GedcomParseException {
+    GedcomStoreLine storeLine = store.getStoreLine(in.readVarInt());
+
+    if (storeLine.getParentBlock() != block) {
+      throw new GedcomParseException("The line " + storeLine.getId()
+          + " is not a child line of its parent line.");
+    }
+
+    int flags = in.readByte();
+    int nameSymbol = decodeNameSymbol(storeLine, in);
+    int tagSymbol = GedcomSymbolTable.NO_SYMBOL;
+
+    if ((flags & FLAG_TAG) != 0) {
+      tagSymbol = in.readVarInt();
+    }
+
+    boolean lookForXRefAndValueVariation = (flags & FLAG_LOOK_FOR_VARIATION) != 0;
+    boolean withXRef = (flags & FLAG_WITH_XREF) != 0;
+    boolean withValue = (flags & FLAG_WITH_VALUE) != 0;
+    byte lineFlags = 0;
+
+    if (lookForXRefAndValueVariation) {
+      lineFlags |= CompactGedcomTree.FLAG_LOOK_FOR_VARIATION;
+    }
+
+    if (withXRef) {
+      lineFlags |= CompactGedcomTree.FLAG_WITH_XREF;
+    }
+
+    if (withValue) {
+      lineFlags |= CompactGedcomTree.FLAG_WITH_VALUE;
+    }
+
+    GedcomStoreBlock childBlock = null;
+    int xref = CompactGedcomTree.NO_STRING;
+    int value = CompactGedcomTree.NO_STRING;
+
+    if (storeLine.hasStructureName()) {
+      childBlock = store.getGedcomStructure(nameSymbol, tagSymbol,
+          lookForXRefAndValueVariation, withXRef, withValue).getStoreBlock();
+    } else {
+      childBlock = storeLine.getChildBlock();
+      lineFlags |= CompactGedcomTree.FLAG_TAG_LINE;
+
+      if ((flags & FLAG_XREF_SET) != 0) {
+        lineFlags |= CompactGedcomTree.FLAG_XREF_SET;
+      }
+
+      if ((flags & FLAG_VALUE_SET) != 0) {
+        lineFlags |= CompactGedcomTree.FLAG_VALUE_SET;
+      }
+
+      if ((flags & FLAG_XREF) != 0) {
+        xref = in.readStringIndex();
+      }
+
+      if ((flags & FLAG_VALUE) != 0) {
+        value = in.readStringIndex();
+      }
+    }
+
+    int line = lines.add(parentLine, storeLine.getLineId(), nameSymbol, tagSymbol,
+        lineFlags, xref, value);
+
+    decodeCompactChildLines(lines, line, childBlock, in);
+
+    return line;
+  }
+
+  /**
+   * Returns the number of bytes of the given number, with 7 bits per byte
+   *
+   * @param value
+   * @return
+   */
+  private static int getVarIntSize(int value) {
+    int size = 1;
+
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+
+    return size;
+  }
+
+
+
+  /**************************************************************************
+   * The lines of a tree which is decoded with
+   * {@link GedcomTreeCodec#decodeCompact(byte[])}, in the arrays of a
+   * {@link CompactGedcomTree}
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static class CompactLines {
+
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] storeLineId;
+    private final int[] nameSymbol;
+    private final int[] tagSymbol;
+    private final byte[] flags;
+    private final int[] xref;
+    private final int[] value;
+
+    private int size = 1;
+
+    /**
+     * Creates the arrays for the given number of lines, with the head of the
+     * tree as first line
+     *
+     * @param lines
+     */
+    private CompactLines(int lines) {
+      parent = new int[lines];
+      firstChild = new int[lines];
+      nextSibling = new int[lines];
+      storeLineId = new int[lines];
+      nameSymbol = new int[lines];
+      tagSymbol = new int[lines];
+      flags = new byte[lines];
+      xref = new int[lines];
+      value = new int[lines];
+
+      parent[CompactGedcomTree.ROOT] = CompactGedcomTree.NO_LINE;
+      firstChild[CompactGedcomTree.ROOT] = CompactGedcomTree.NO_LINE;
+      nextSibling[CompactGedcomTree.ROOT] = CompactGedcomTree.NO_LINE;
+      storeLineId[CompactGedcomTree.ROOT] = CompactGedcomTree.NO_STORE_LINE;
+      tagSymbol[CompactGedcomTree.ROOT] = GedcomSymbolTable.NO_SYMBOL;
+      xref[CompactGedcomTree.ROOT] = CompactGedcomTree.NO_STRING;
+      value[CompactGedcomTree.ROOT] = CompactGedcomTree.NO_STRING;
+    }
+
+    /**
+     * Adds a line without child lines
+     *
+     * @param parentLine
+     * @param lineId
+     * @param lineNameSymbol
+     * @param lineTagSymbol
+     * @param lineFlags
+     * @param lineXRef The index of the xref in the strings of the tree
+     * @param lineValue The index of the value in the strings of the tree
+     * @return The index of the new line
+     */
+    private int add(int parentLine, int lineId, int lineNameSymbol, int lineTagSymbol,
+        byte lineFlags, int lineXRef, int lineValue) {
+      int line = size++;
+
+      parent[line] = parentLine;
+      firstChild[line] = CompactGedcomTree.NO_LINE;
+      nextSibling[line] = CompactGedcomTree.NO_LINE;
+      storeLineId[line] = lineId;
+      nameSymbol[line] = lineNameSymbol;
+      tagSymbol[line] = lineTagSymbol;
+      flags[line] = lineFlags;
+      xref[line] = lineXRef;
+      value[line] = lineValue;
+
+      return line;
+    }
+
+    /**
+     *
+     *
+     * @param storeStructure
+     * @param strings The distinct strings of the tree, which are the pool of the tree
+     * @return
+     */
+    private CompactGedcomTree toTree(GedcomStoreStructure storeStructure, String[] strings) {
+      return new CompactGedcomTree(storeStructure, parent, firstChild, nextSibling,
+          storeLineId, nameSymbol, tagSymbol, flags, xref, value, strings);
+    }
+
+  }
+
+  /**************************************************************************
+   * A growing byte array to encode a tree
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static class Output {
+
+    private byte[] buffer = new byte[256];
+    private int size = 0;
+
+    /**
+     *
+     *
+     * @param length
+     */
+    private void ensureCapacity(int length) {
+      if (size + length > buffer.length) {
+        byte[] newBuffer = new byte[Math.max(buffer.length * 2, size + length)];
+        System.arraycopy(buffer, 0, newBuffer, 0, size);
+        buffer = newBuffer;
+      }
+    }
+
+    /**
+     *
+     *
+     * @param value
+     */
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[size++] = (byte)value;
+    }
+
+    /**
+     * Writes a positive number with 7 bits per byte
+     *
+     * @param value
+     */
+    private void writeVarInt(int value) {
+      ensureCapacity(5);
+
+      while ((value & ~0x7F) != 0) {
+        buffer[size++] = (byte)((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+
+      buffer[size++] = (byte)value;
+    }
+
+    /**
+     *
+     *
+     * @param bytes
+     * @param length
+     */
+    private void writeBytes(byte[] bytes, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, 0, buffer, size, length);
+      size += length;
+    }
+
+    /**
+     *
+     *
+     * @param value
+     */
+    private void writeLong(long value) {
+      ensureCapacity(8);
+
+      for (int i = 56; i >= 0; i -= 8) {
+        buffer[size++] = (byte)(value >>> i);
+      }
+    }
+
+    /**
+     * Writes the length of the UTF-8 bytes and the bytes
+     *
+     * @param value
+     */
+    private void writeString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    private byte[] toByteArray() {
+      byte[] bytes = new byte[size];
+      System.arraycopy(buffer, 0, bytes, 0, size);
+      return bytes;
+    }
+
+  }
+
+  /**************************************************************************
+   * Reads the pieces of an encoded tree from a byte array. Reading beyond
+   * the end throws an {@link IndexOutOfBoundsException}.
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static class Input {
+
+    private final byte[] buffer;
+    private final int end;
+    private int pos = 0;
+
+    /** The distinct strings of the tree, in the order they have been read */
+    private String[] strings = null;
+    private int numberOfStrings = 0;
+
+    /**
+     *
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     */
+    private Input(byte[] buffer, int start, int end) {
+      this.buffer = buffer;
+      this.pos = start;
+      this.end = end;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    private int readByte() {
+      if (pos >= end) {
+        throw new ArrayIndexOutOfBoundsException(pos);
+      }
+
+      return buffer[pos++] & 0xFF;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      int b = 0;
+
+      do {
+        b = readByte();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+
+      return value;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    private long readLong() {
+      long value = 0;
+
+      for (int i = 0; i < 8; i++) {
+        value = (value << 8) | readByte();
+      }
+
+      return value;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    private String readString() {
+      int length = readVarInt();
+
+      if (length > end - pos) {
+        throw new ArrayIndexOutOfBoundsException(pos + length);
+      }
+
+      String value = new String(buffer, pos, length, StandardCharsets.UTF_8);
+      pos += length;
+      return value;
+    }
+
+    /**
+     * Reads a string which has been written with
+     * {@link GedcomTreeCodec#encodeString(String, Output, HashMap)}. A new
+     * string is added to the strings of the tree.
+     *
+     * @return The index of the string in the strings of the tree
+     */
+    private int readStringIndex() {
+      int index = readVarInt() - 1;
+
+      if (index == -1) {
+        index = numberOfStrings;
+        //Fails with an index out of bounds if there are more strings than given
+        strings[numberOfStrings++] = readString();
+      } else if (index >= numberOfStrings) {
+        throw new ArrayIndexOutOfBoundsException(index);
+      }
+
+      return index;
+    }
+
+    /**
+     * Checks that all the strings of the tree have been read
+     *
+     * @throws GedcomParseException
+     */
+    private void checkStrings() throws GedcomParseException {
+      if (numberOfStrings != strings.length) {
+        throw new GedcomParseException("The encoded tree has " + numberOfStrings
+            + " strings instead of " + strings.length + ".");
+      }
+    }
+
+  }
+
+}
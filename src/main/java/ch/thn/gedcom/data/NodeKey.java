@@ -17,23 +17,32 @@
 package ch.thn.gedcom.data;
 
 import ch.thn.gedcom.store.GedcomStoreLine;
+import ch.thn.gedcom.store.GedcomSymbolTable;
 import ch.thn.numberutil.NumberUtil;
 
 /**
- * The node key as object, to allow ordering of the keys
+ * The node key as object, to allow ordering of the keys. A node key does not
+ * change once it has been created. The keys of the lines of a compiled store
+ * are created once per store line and shared by all nodes (see
+ * {@link GedcomStoreLine#getNodeKey(String)}).
  *
  * @author Thomas Naeff (github.com/thnaeff)
  *
  */
 public class NodeKey {
 
-  private String key = null;
+  private final String key;
+  /** The symbol of the key, used for comparing keys with integer compares */
+  private final int symbol;
+  /** Created on demand, only used for printing */
   private String orderingString = null;
+  /** The ordering and the symbol packed in one long, see {@link #pack(int, int)} */
+  private final long packedKey;
 
-  private int ordering = 0;
-  private int originalOrdering = 0;
+  private final int ordering;
+  private final int originalOrdering;
 
-  private boolean simpleTree = false;
+  private final boolean simpleTree;
 
   /**
    *
@@ -42,7 +51,7 @@ public class NodeKey {
    * @param storeLine
    */
   public NodeKey(String key, GedcomStoreLine storeLine) {
-    this(key, storeLine == null ? 0 : storeLine.getPos());
+    this(key, getSymbol(key, storeLine), storeLine == null ? 0 : storeLine.getPos());
   }
 
   /**
@@ -52,48 +61,96 @@ public class NodeKey {
    * @param ordering
    */
   public NodeKey(String key, int ordering) {
+    this(key, GedcomSymbolTable.NO_SYMBOL, ordering);
+  }
+
+  /**
+   *
+   *
+   * @param key
+   * @param symbol The symbol of the key (see {@link GedcomSymbolTable})
+   * @param ordering
+   */
+  public NodeKey(String key, int symbol, int ordering) {
+    this(key, symbol, ordering, ordering, false);
+  }
+
+  /**
+   *
+   *
+   * @param key
+   * @param symbol
+   * @param ordering
+   * @param originalOrdering
+   * @param simpleTree
+   */
+  private NodeKey(String key, int symbol, int ordering, int originalOrdering, boolean simpleTree) {
     this.key = key;
+    this.symbol = symbol;
     this.ordering = ordering;
-    originalOrdering = ordering;
-
-    updateOrderingString();
+    this.originalOrdering = originalOrdering;
+    this.simpleTree = simpleTree;
 
+    packedKey = pack(ordering, symbol);
   }
 
   /**
+   * Looks up the symbol of the given key in the symbol table of the store
+   * which contains the given store line
    *
+   * @param key
+   * @param storeLine
+   * @return
+   */
+  private static int getSymbol(String key, GedcomStoreLine storeLine) {
+    if (storeLine == null || storeLine.getSymbolTable() == null) {
+      return GedcomSymbolTable.NO_SYMBOL;
+    }
+
+    return storeLine.getSymbolTable().getSymbol(key);
+  }
+
+  /**
+   * Packs the given ordering and symbol in one long. The ordering is in the
+   * upper 32 bits and the symbol (+1, so that {@link GedcomSymbolTable#NO_SYMBOL}
+   * becomes 0) in the lower 32 bits. Comparing two packed keys as longs gives
+   * the same result as comparing the ordering first and then the symbol.
    *
+   * @param ordering
+   * @param symbol
+   * @return
    */
-  private void updateOrderingString() {
-    orderingString = NumberUtil.formatNumber(ordering, 2, 0, true, false) + key;
+  public static long pack(int ordering, int symbol) {
+    return ((long)ordering << 32) | ((symbol + 1) & 0xFFFFFFFFL);
   }
 
   /**
    * When creating the simple tree (without any invisible structures), the ordering
    * has to be different since now the lower child nodes have to be ordered
-   * next to each other. This method sets the ordering of the structure line
-   * above the tag line as the ordering of the tag line.
+   * next to each other. This method returns a new key for the given node in
+   * the simple tree, with the ordering of the structure line above the tag
+   * line as ordering. This key is not changed, since it is shared by all
+   * nodes of its store line.
    *
    * @param node
+   * @return
    */
-  public void setAsSimpleTreeKey(GedcomNode node) {
-    simpleTree = true;
+  public NodeKey getSimpleTreeKey(GedcomNode node) {
+    int simpleTreeOrdering = 0;
 
-    if (node.isRootNode()) {
-      ordering = 0;
-    }
+    if (!node.isRootNode()) {
+      while (node.getParentNode().getNodeValue() != null && node.getParentNode().getNodeValue().isStructureLine()) {
+        node = node.getParentNode();
+      }
 
-    while (node != null && node.getParentNode().getNodeValue() != null &&node.getParentNode().getNodeValue().isStructureLine()) {
-      node = node.getParentNode();
+      simpleTreeOrdering = node.getStoreLine().getPos();
     }
 
-    ordering = node == null ? 0 : node.getStoreLine().getPos();
-
-    updateOrderingString();
+    return new NodeKey(key, symbol, simpleTreeOrdering, originalOrdering, true);
   }
 
   /**
-   * Returns <code>true</code> if this key has been adjusted as simple tree
+   * Returns <code>true</code> if this key is a key of a simple tree
    *
    * @return
    */
@@ -102,8 +159,8 @@ public class NodeKey {
   }
 
   /**
-   * Returns the original ordering of this key, before it has been adjusted
-   * as simple tree
+   * Returns the original ordering of this key, which is different from the
+   * ordering for a key of a simple tree
    *
    * @return
    */
@@ -120,6 +177,16 @@ public class NodeKey {
     return key;
   }
 
+  /**
+   * Returns the symbol of the key, or {@link GedcomSymbolTable#NO_SYMBOL} if
+   * the key is not in the symbol table
+   *
+   * @return
+   */
+  public int getSymbol() {
+    return symbol;
+  }
+
   /**
    *
    *
@@ -130,11 +197,27 @@ public class NodeKey {
   }
 
   /**
+   * Returns the ordering and the symbol of this key, packed in one long
+   * (see {@link #pack(int, int)})
    *
+   * @return
+   */
+  public long getPackedKey() {
+    return packedKey;
+  }
+
+  /**
+   * Returns the ordering as string, which is the formatted ordering number
+   * followed by the key. The keys are not compared by this string anymore
+   * (see {@link NodeKeyComparator}).
    *
    * @return
    */
   public String getOrderingString() {
+    if (orderingString == null) {
+      orderingString = NumberUtil.formatNumber(ordering, 2, 0, true, false) + key;
+    }
+
     return orderingString;
   }
 
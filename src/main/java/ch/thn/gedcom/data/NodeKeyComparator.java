@@ -18,6 +18,8 @@ package ch.thn.gedcom.data;
 
 import java.util.Comparator;
 
+import ch.thn.gedcom.store.GedcomSymbolTable;
+
 /**
  *
  * @author Thomas Naeff (github.com/thnaeff)
@@ -48,10 +50,38 @@ public class NodeKeyComparator implements Comparator<NodeKey> {
 		 * indicates that SEX must be between those two other entries (since it 
 		 * is a sorted list) and it stops looking. This results in containsKey 
 		 * returning FALSE when looking up SEX.
+		 * 
+		 * The keys are therefore compared by ordering first and then by key. 
+		 * Both are packed in one long (see NodeKey#pack), thus most compares 
+		 * are a single long compare. The symbols have the same order as the 
+		 * key names. Only if the key is not in the symbol table, the key names 
+		 * are compared.
 		 */
-
 		
-		return key1.getOrderingString().compareTo(key2.getOrderingString());
+		if (key1 == key2) {
+			//The keys are shared per store line (see GedcomStoreLine#getNodeKey), 
+			//thus child lines of the same line mostly have the same key object
+			return 0;
+		}
+		
+		if (key1.getOrdering() == key2.getOrdering() 
+				&& (key1.getSymbol() == GedcomSymbolTable.NO_SYMBOL 
+				|| key2.getSymbol() == GedcomSymbolTable.NO_SYMBOL)) {
+			return key1.getKey().compareTo(key2.getKey());
+		}
+		
+		return compare(key1.getPackedKey(), key2.getPackedKey());
+	}
+	
+	/**
+	 * Compares two packed keys (see {@link NodeKey#getPackedKey()})
+	 * 
+	 * @param packedKey1
+	 * @param packedKey2
+	 * @return
+	 */
+	public static int compare(long packedKey1, long packedKey2) {
+		return packedKey1 < packedKey2 ? -1 : (packedKey1 == packedKey2 ? 0 : 1);
 	}
 
 }
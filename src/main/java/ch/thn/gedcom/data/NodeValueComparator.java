@@ -27,6 +27,12 @@ public class NodeValueComparator implements Comparator<GedcomNode> {
 
 	@Override
 	public int compare(GedcomNode node1, GedcomNode node2) {
+		if (node1 == node2) {
+			//The sorted sets compare a node with itself when it is the first 
+			//node added. No unique IDs have to be built for that
+			return 0;
+		}
+		
 		return node1.getNodeValue().getUniqueId().compareTo(node2.getNodeValue().getUniqueId());
 	}
 
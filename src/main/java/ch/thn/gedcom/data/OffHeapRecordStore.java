@@ -0,0 +1,630 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import java.nio.ByteBuffer;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStoreStructure;
+
+/**
+ * Keeps records outside of the java heap, in the binary encoding of the
+ * {@link GedcomTreeCodec}. The records are written into direct byte buffers
+ * (segments) and a record is only decoded to a {@link GedcomTree} when it is
+ * requested with {@link #get(int)}, or when a {@link RecordCursor} is moved
+ * over it. The trees are not kept, thus they can be collected again right after
+ * they have been used.<br>
+ * <br>
+ * The capacity (in bytes) and the maximum number of records are given when
+ * the store is created. The segments are allocated when they are needed, and
+ * the table of the records is also kept outside of the heap. Thus the heap
+ * usage of the store does not grow with the number of records.<br>
+ * <br>
+ * Each record gets an ID when it is added. The ID stays the same until the
+ * record is removed, after that it can be given to a new record. Removed
+ * records leave a gap in the segments, which is only reused after
+ * {@link #compact()} has moved all the records together. Compacting is done
+ * automatically if a new record does not fit into the store anymore.<br>
+ * <br>
+ * All methods which change or read the segments are synchronized. The trees
+ * are decoded outside of the lock.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class OffHeapRecordStore {
+
+  /** The default size of one segment (64MB) */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /** Each record in a segment starts with its ID and its length */
+  private static final int RECORD_HEADER_SIZE = 8;
+  /** Each record in the table has its position and its length */
+  private static final int TABLE_ENTRY_SIZE = 12;
+
+  /** The ID in the header of a removed record */
+  private static final int REMOVED = -1;
+  /** The position in the table of an unused ID */
+  private static final long NO_POSITION = -1;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final GedcomTreeCodec codec;
+  private final long capacity;
+  private final int segmentSize;
+  private final int maxRecords;
+
+  private final ByteBuffer[] segments;
+  /** The number of bytes written to each segment */
+  private final int[] segmentUsed;
+  /** The segment which new records are added to */
+  private int writeSegment = 0;
+
+  /**
+   * The position (in all segments, see {@link #getPosition(int, int)}) and
+   * length of each record, by record ID. The length of an unused ID is the
+   * next unused ID.
+   */
+  private final ByteBuffer table;
+  /** The number of IDs which have been given out */
+  private int numberOfIds = 0;
+  /** The first unused ID below {@link #numberOfIds}, or -1 */
+  private int unusedId = -1;
+
+  private int size = 0;
+  private long usedBytes = 0;
+  private long removedBytes = 0;
+
+  /** Used to move the records when compacting */
+  private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+
+  /**
+   * Creates a store with the given capacity in bytes, for up to the given
+   * number of records. The segments have the default size, or the size of
+   * the capacity if it is smaller.
+   *
+   * @param codec
+   * @param capacity
+   * @param maxRecords
+   */
+  public OffHeapRecordStore(GedcomTreeCodec codec, long capacity, int maxRecords) {
+    this(codec, capacity, maxRecords, (int)Math.min(capacity, DEFAULT_SEGMENT_SIZE));
+  }
+
+  /**
+   * Creates a store with the given capacity in bytes, for up to the given
+   * number of records. The capacity is split into segments of the given
+   * size. A record can not be larger than a segment.
+   *
+   * @param codec
+   * @param capacity
+   * @param maxRecords
+   * @param segmentSize
+   */
+  public OffHeapRecordStore(GedcomTreeCodec codec, long capacity, int maxRecords, int segmentSize) {
+    if (capacity <= 0 || segmentSize <= RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity + " or segment size " + segmentSize + ".");
+    }
+
+    if (maxRecords <= 0 || maxRecords > Integer.MAX_VALUE / TABLE_ENTRY_SIZE) {
+      throw new IllegalArgumentException("The maximum number of records has to be between 1 and "
+          + (Integer.MAX_VALUE / TABLE_ENTRY_SIZE) + ".");
+    }
+
+    long numberOfSegments = (capacity + segmentSize - 1) / segmentSize;
+
+    if (numberOfSegments > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many segments. Use a larger segment size.");
+    }
+
+    this.codec = codec;
+    this.capacity = capacity;
+    this.segmentSize = segmentSize;
+    this.maxRecords = maxRecords;
+
+    segments = new ByteBuffer[(int)numberOfSegments];
+    segmentUsed = new int[segments.length];
+    table = ByteBuffer.allocateDirect(maxRecords * TABLE_ENTRY_SIZE);
+  }
+
+  /**
+   * Encodes the given tree and adds it to the store
+   *
+   * @param tree
+   * @return The ID of the record
+   * @throws GedcomError If there is no space for the record
+   */
+  public int add(GedcomTree tree) {
+    byte[] data = codec.encode(tree);
+    return add(data, 0, data.length);
+  }
+
+  /**
+   * Adds an encoded tree (see {@link GedcomTreeCodec#encode(GedcomTree)})
+   * to the store. If the record does not fit into the store anymore, the
+   * store is compacted first.
+   *
+   * @param data
+   * @param offset
+   * @param length
+   * @return The ID of the record
+   * @throws GedcomError If there is no space for the record
+   */
+  public synchronized int add(byte[] data, int offset, int length) {
+    if (unusedId == -1 && numberOfIds == maxRecords) {
+      throw new GedcomError("The store is full. It can not hold more than " + maxRecords + " records.");
+    }
+
+    int recordSize = RECORD_HEADER_SIZE + length;
+
+    if (recordSize > segmentSize) {
+      throw new GedcomError("The record with " + length + " bytes does not fit into a segment of "
+          + segmentSize + " bytes.");
+    }
+
+    long position = allocate(recordSize);
+
+    if (position == NO_POSITION && removedBytes > 0) {
+      compact();
+      position = allocate(recordSize);
+    }
+
+    if (position == NO_POSITION) {
+      throw new GedcomError("The store is full. The record with " + length
+          + " bytes does not fit into the capacity of " + capacity + " bytes.");
+    }
+
+    int id = 0;
+
+    if (unusedId != -1) {
+      id = unusedId;
+      unusedId = table.getInt(id * TABLE_ENTRY_SIZE + 8);
+    } else {
+      id = numberOfIds++;
+    }
+
+    ByteBuffer segment = getSegment(position);
+    int segmentOffset = getSegmentOffset(position);
+    segment.putInt(segmentOffset, id);
+    segment.putInt(segmentOffset + 4, length);
+    segment.position(segmentOffset + RECORD_HEADER_SIZE);
+    segment.put(data, offset, length);
+
+    table.putLong(id * TABLE_ENTRY_SIZE, position);
+    table.putInt(id * TABLE_ENTRY_SIZE + 8, length);
+
+    size++;
+    usedBytes += recordSize;
+
+    return id;
+  }
+
+  /**
+   * Reserves the given number of bytes at the end of the written segments
+   *
+   * @param recordSize
+   * @return The position, or {@link #NO_POSITION} if there is no space left
+   */
+  private long allocate(int recordSize) {
+    for (int i = writeSegment; i < segments.length; i++) {
+      if (segmentUsed[i] + recordSize <= getSegmentCapacity(i)) {
+        //The rest of the segments before is left empty until the next compaction
+        writeSegment = i;
+
+        long position = getPosition(i, segmentUsed[i]);
+        segmentUsed[i] += recordSize;
+        return position;
+      }
+    }
+
+    return NO_POSITION;
+  }
+
+  /**
+   * Removes the record with the given ID. The space of the record is only
+   * reused after the store has been compacted.
+   *
+   * @param id
+   * @return <code>true</code> if the record has been removed, <code>false</code>
+   * if there is no record with the given ID
+   */
+  public synchronized boolean remove(int id) {
+    if (!contains(id)) {
+      return false;
+    }
+
+    long position = table.getLong(id * TABLE_ENTRY_SIZE);
+    int length = table.getInt(id * TABLE_ENTRY_SIZE + 8);
+
+    getSegment(position).putInt(getSegmentOffset(position), REMOVED);
+
+    table.putLong(id * TABLE_ENTRY_SIZE, NO_POSITION);
+    table.putInt(id * TABLE_ENTRY_SIZE + 8, unusedId);
+    unusedId = id;
+
+    size--;
+    usedBytes -= RECORD_HEADER_SIZE + length;
+    removedBytes += RECORD_HEADER_SIZE + length;
+
+    return true;
+  }
+
+  /**
+   * Returns <code>true</code> if there is a record with the given ID
+   *
+   * @param id
+   * @return
+   */
+  public synchronized boolean contains(int id) {
+    return id >= 0 && id < numberOfIds && table.getLong(id * TABLE_ENTRY_SIZE) != NO_POSITION;
+  }
+
+  /**
+   * Decodes the record with the given ID. Each call decodes a new tree.
+   *
+   * @param id
+   * @return The tree, or <code>null</code> if there is no record with the given ID
+   * @throws GedcomParseException If the record can not be decoded
+   */
+  public GedcomTree get(int id) throws GedcomParseException {
+    byte[] data = getEncoded(id);
+
+    if (data == null) {
+      return null;
+    }
+
+    return codec.decode(data);
+  }
+
+  /**
+   * Returns a copy of the encoded record with the given ID
+   *
+   * @param id
+   * @return The encoded record, or <code>null</code> if there is no record with the given ID
+   */
+  public synchronized byte[] getEncoded(int id) {
+    if (!contains(id)) {
+      return null;
+    }
+
+    byte[] data = new byte[table.getInt(id * TABLE_ENTRY_SIZE + 8)];
+    read(table.getLong(id * TABLE_ENTRY_SIZE), data);
+    return data;
+  }
+
+  /**
+   * Reads the data of the record at the given position into the given array
+   *
+   * @param position
+   * @param data
+   */
+  private void read(long position, byte[] data) {
+    ByteBuffer segment = getSegment(position);
+    segment.position(getSegmentOffset(position) + RECORD_HEADER_SIZE);
+    segment.get(data);
+  }
+
+  /**
+   * Moves all the records together at the beginning of the segments, so that
+   * the space of the removed records can be used again. The IDs of the
+   * records do not change. The segments which are not used anymore afterwards
+   * are released.
+   */
+  public synchronized void compact() {
+    int toSegment = 0;
+    int toOffset = 0;
+
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] == null) {
+        continue;
+      }
+
+      ByteBuffer segment = segments[i];
+      int offset = 0;
+
+      while (offset < segmentUsed[i]) {
+        int id = segment.getInt(offset);
+        int recordSize = RECORD_HEADER_SIZE + segment.getInt(offset + 4);
+
+        if (id != REMOVED) {
+          //Records are only moved towards the start, thus the target segment
+          //is never after the current segment
+          if (toOffset + recordSize > getSegmentCapacity(toSegment)) {
+            segmentUsed[toSegment] = toOffset;
+            toSegment++;
+            toOffset = 0;
+          }
+
+          if (toSegment != i || toOffset != offset) {
+            move(i, offset, toSegment, toOffset, recordSize);
+            table.putLong(id * TABLE_ENTRY_SIZE, getPosition(toSegment, toOffset));
+          }
+
+          toOffset += recordSize;
+        }
+
+        offset += recordSize;
+      }
+    }
+
+    segmentUsed[toSegment] = toOffset;
+
+    for (int i = toSegment + 1; i < segments.length; i++) {
+      segments[i] = null;
+      segmentUsed[i] = 0;
+    }
+
+    writeSegment = toSegment;
+    removedBytes = 0;
+  }
+
+  /**
+   * Copies the given number of bytes. The target has to be before the source,
+   * then the bytes can be copied from the start even if they overlap.
+   *
+   * @param fromSegment
+   * @param fromOffset
+   * @param toSegment
+   * @param toOffset
+   * @param length
+   */
+  private void move(int fromSegment, int fromOffset, int toSegment, int toOffset, int length) {
+    ByteBuffer from = segments[fromSegment];
+    ByteBuffer to = segments[toSegment];
+
+    for (int i = 0; i < length; i += copyBuffer.length) {
+      int chunk = Math.min(copyBuffer.length, length - i);
+
+      from.position(fromOffset + i);
+      from.get(copyBuffer, 0, chunk);
+      to.position(toOffset + i);
+      to.put(copyBuffer, 0, chunk);
+    }
+  }
+
+  /**
+   * Removes all records and releases all segments
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = null;
+      segmentUsed[i] = 0;
+    }
+
+    writeSegment = 0;
+    numberOfIds = 0;
+    unusedId = -1;
+    size = 0;
+    usedBytes = 0;
+    removedBytes = 0;
+  }
+
+  /**
+   * Returns the segment which contains the given position. The segment is
+   * allocated if it does not exist yet.
+   *
+   * @param position
+   * @return
+   */
+  private ByteBuffer getSegment(long position) {
+    int index = (int)(position / segmentSize);
+
+    if (segments[index] == null) {
+      segments[index] = ByteBuffer.allocateDirect(getSegmentCapacity(index));
+    }
+
+    return segments[index];
+  }
+
+  /**
+   * The last segment only holds the rest of the capacity
+   *
+   * @param index
+   * @return
+   */
+  private int getSegmentCapacity(int index) {
+    return (int)Math.min(segmentSize, capacity - (long)index * segmentSize);
+  }
+
+  /**
+   *
+   *
+   * @param segment
+   * @param offset
+   * @return
+   */
+  private long getPosition(int segment, int offset) {
+    return (long)segment * segmentSize + offset;
+  }
+
+  /**
+   *
+   *
+   * @param position
+   * @return
+   */
+  private int getSegmentOffset(long position) {
+    return (int)(position % segmentSize);
+  }
+
+  /**
+   * Returns the number of records in this store
+   *
+   * @return
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the maximum number of records this store can hold
+   *
+   * @return
+   */
+  public int getMaxRecords() {
+    return maxRecords;
+  }
+
+  /**
+   * Returns the capacity of this store in bytes
+   *
+   * @return
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of bytes used by the records in this store
+   *
+   * @return
+   */
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /**
+   * Returns the number of bytes of the removed records, which can be used
+   * again after compacting the store
+   *
+   * @return
+   */
+  public synchronized long getRemovedBytes() {
+    return removedBytes;
+  }
+
+  /**
+   * Returns the number of bytes of the segments which are allocated at the moment
+   *
+   * @return
+   */
+  public synchronized long getAllocatedBytes() {
+    long allocated = 0;
+
+    for (ByteBuffer segment : segments) {
+      if (segment != null) {
+        allocated += segment.capacity();
+      }
+    }
+
+    return allocated;
+  }
+
+  /**
+   * Returns a new cursor, which is positioned before the first record
+   *
+   * @return
+   */
+  public RecordCursor cursor() {
+    return new RecordCursor();
+  }
+
+
+
+  /**************************************************************************
+   * Moves over all the records of the store, in the order of their IDs. The
+   * cursor copies the encoded record into its own buffer, which is reused
+   * for all the records. Thus the record can be checked (like with
+   * {@link #getStoreStructure()}) without decoding the whole tree.<br>
+   * Records which are added while the cursor is used are only seen if
+   * their ID is after the current record.
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  public class RecordCursor {
+
+    private int id = -1;
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+
+    private RecordCursor() {
+
+    }
+
+    /**
+     * Moves to the next record
+     *
+     * @return <code>false</code> if there are no more records
+     */
+    public boolean next() {
+      synchronized (OffHeapRecordStore.this) {
+        while (++id < numberOfIds) {
+          long position = table.getLong(id * TABLE_ENTRY_SIZE);
+
+          if (position != NO_POSITION) {
+            length = table.getInt(id * TABLE_ENTRY_SIZE + 8);
+
+            if (buffer.length < length) {
+              buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+
+            ByteBuffer segment = getSegment(position);
+            segment.position(getSegmentOffset(position) + RECORD_HEADER_SIZE);
+            segment.get(buffer, 0, length);
+            return true;
+          }
+        }
+
+        id = numberOfIds;
+        length = 0;
+        return false;
+      }
+    }
+
+    /**
+     * Returns the ID of the current record
+     *
+     * @return
+     */
+    public int getId() {
+      return id;
+    }
+
+    /**
+     * Returns the length of the current encoded record in bytes
+     *
+     * @return
+     */
+    public int getLength() {
+      return length;
+    }
+
+    /**
+     * Returns the structure of the current record, without decoding the record
+     *
+     * @return
+     * @throws GedcomParseException
+     */
+    public GedcomStoreStructure getStoreStructure() throws GedcomParseException {
+      return codec.getStoreStructure(buffer, 0, length);
+    }
+
+    /**
+     * Decodes the current record. Each call decodes a new tree.
+     *
+     * @return
+     * @throws GedcomParseException
+     */
+    public GedcomTree getTree() throws GedcomParseException {
+      return codec.decode(buffer, 0, length);
+    }
+
+  }
+
+}
@@ -0,0 +1,237 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Finds all the lines which point to a record (like "1 FAMS @F1@" and
+ * "1 HUSB @I1@"), by the xref of the record. The opposite of an {@link XrefIndex}.<br />
+ * <br />
+ * Records are added with {@link #add(GedcomTree)}. From then on, the index
+ * follows the changes of the record: {@link GedcomTagLine#setXRef(String)},
+ * {@link GedcomTagLine#clear()}, {@link GedcomNode#removeLine()},
+ * {@link GedcomNode#removeAllChildLines()} and {@link GedcomNode#replace(GedcomNode)}
+ * update the references. A record can only be in one reverse index at a time.<br />
+ * <br />
+ * The index is not synchronized.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class ReverseXrefIndex {
+
+  /** The pointer lines, by the xref they point to */
+  private HashMap<String, LinkedHashSet<GedcomTagLine>> references = new HashMap<>();
+
+  private int numberOfReferences = 0;
+
+  /**
+   * Adds all the pointers of the given record to this index. The record is
+   * removed from any other reverse index.
+   *
+   * @param record
+   */
+  public void add(GedcomTree record) {
+    ReverseXrefIndex previous = record.getReverseXrefIndex();
+
+    if (previous == this) {
+      return;
+    }
+
+    if (previous != null) {
+      previous.remove(record);
+    }
+
+    record.setReverseXrefIndex(this);
+    addReferences(record);
+  }
+
+  /**
+   * Adds all the given records
+   *
+   * @param records
+   */
+  public void addAll(Iterable<GedcomTree> records) {
+    for (GedcomTree record : records) {
+      add(record);
+    }
+  }
+
+  /**
+   * Removes all the pointers of the given record from this index
+   *
+   * @param record
+   * @return <code>false</code> if the record is not in this index
+   */
+  public boolean remove(GedcomTree record) {
+    if (record.getReverseXrefIndex() != this) {
+      return false;
+    }
+
+    removeReferences(record);
+    record.setReverseXrefIndex(null);
+    return true;
+  }
+
+  /**
+   * Returns the nodes of all the lines which point to the given xref
+   *
+   * @param xref The xref without the enclosing @
+   * @return The nodes, in the order they have been added to the index. Use
+   * {@link GedcomNode#getHeadNode()} to get their records.
+   */
+  public List<GedcomNode> getReferences(String xref) {
+    LinkedHashSet<GedcomTagLine> lines = references.get(xref);
+
+    if (lines == null) {
+      return new ArrayList<>(0);
+    }
+
+    List<GedcomNode> nodes = new ArrayList<>(lines.size());
+
+    for (GedcomTagLine line : lines) {
+      nodes.add(line.getNode());
+    }
+
+    return nodes;
+  }
+
+  /**
+   * Returns the number of lines which point to the given xref
+   *
+   * @param xref
+   * @return
+   */
+  public int getNumberOfReferences(String xref) {
+    LinkedHashSet<GedcomTagLine> lines = references.get(xref);
+    return lines == null ? 0 : lines.size();
+  }
+
+  /**
+   * Returns <code>true</code> if at least one line points to the given xref
+   *
+   * @param xref
+   * @return
+   */
+  public boolean isReferenced(String xref) {
+    return references.containsKey(xref);
+  }
+
+  /**
+   * The number of pointer lines in this index
+   *
+   * @return
+   */
+  public int size() {
+    return numberOfReferences;
+  }
+
+  /**
+   * Adds the pointers of the given node and all its sub-lines
+   *
+   * @param node
+   */
+  protected void addReferences(GedcomNode node) {
+    GedcomLine line = node.getNodeValue();
+
+    if (line != null && line.isTagLine() && line.getAsTagLine().isPointer()) {
+      addReference(line.getAsTagLine().getXRef(), line.getAsTagLine());
+    }
+
+    for (GedcomNode child : node.getChildNodes()) {
+      addReferences(child);
+    }
+  }
+
+  /**
+   * Removes the pointers of the given node and all its sub-lines
+   *
+   * @param node
+   */
+  protected void removeReferences(GedcomNode node) {
+    GedcomLine line = node.getNodeValue();
+
+    if (line != null && line.isTagLine() && line.getAsTagLine().isPointer()) {
+      removeReference(line.getAsTagLine().getXRef(), line.getAsTagLine());
+    }
+
+    for (GedcomNode child : node.getChildNodes()) {
+      removeReferences(child);
+    }
+  }
+
+  /**
+   * Moves the given pointer line from the old to the new xref
+   *
+   * @param line
+   * @param oldXRef
+   * @param newXRef
+   */
+  protected void xrefChanged(GedcomTagLine line, String oldXRef, String newXRef) {
+    if (oldXRef != null) {
+      removeReference(oldXRef, line);
+    }
+
+    if (newXRef != null) {
+      addReference(newXRef, line);
+    }
+  }
+
+  /**
+   *
+   *
+   * @param xref
+   * @param line
+   */
+  private void addReference(String xref, GedcomTagLine line) {
+    LinkedHashSet<GedcomTagLine> lines = references.get(xref);
+
+    if (lines == null) {
+      lines = new LinkedHashSet<>();
+      references.put(xref, lines);
+    }
+
+    if (lines.add(line)) {
+      numberOfReferences++;
+    }
+  }
+
+  /**
+   *
+   *
+   * @param xref
+   * @param line
+   */
+  private void removeReference(String xref, GedcomTagLine line) {
+    LinkedHashSet<GedcomTagLine> lines = references.get(xref);
+
+    if (lines == null || !lines.remove(line)) {
+      return;
+    }
+
+    numberOfReferences--;
+
+    if (lines.isEmpty()) {
+      references.remove(xref);
+    }
+  }
+
+}
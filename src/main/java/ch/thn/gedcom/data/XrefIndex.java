@@ -0,0 +1,351 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the xrefs of records (like I1 of "0 @I1@ INDI") to their {@link GedcomTree},
+ * so that pointers (like "1 FAMS @F1@") can be resolved without searching
+ * through all the records.<br />
+ * <br />
+ * The index is an open addressing hash table with linear probing on two
+ * arrays: a 64 bit hash of the xref and the record. The xref strings are not
+ * kept, a match of the hash is confirmed with the xref of the record itself.
+ * With a maximum load of 75% and the expected number of records given, a
+ * record takes 12 bytes per slot (16 bytes without compressed references),
+ * thus about 16-21 bytes per record.<br />
+ * <br />
+ * Adding and removing records is synchronized, so the index can be built by
+ * the reading threads of a {@link ch.thn.gedcom.io.GedcomParallelReader} (see
+ * {@link ch.thn.gedcom.io.GedcomParallelReader#setXrefIndex(XrefIndex)}). Resolving
+ * is not synchronized and should only be done when the index is not changed anymore.
+ * The xref of a record must not be changed while the record is in the index.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class XrefIndex {
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  /** Marks an empty slot. A hash which is 0 is changed to 1 */
+  private static final long EMPTY = 0;
+
+  private long[] hashes = null;
+  private GedcomTree[] records = null;
+
+  private int size = 0;
+  private int mask = 0;
+  private int maxSize = 0;
+
+  /**
+   *
+   *
+   */
+  public XrefIndex() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   *
+   *
+   * @param expectedRecords The number of records the index will hold. The
+   * index grows if there are more records.
+   */
+  public XrefIndex(int expectedRecords) {
+    int capacity = Integer.highestOneBit(Math.max(16, (int)(expectedRecords / 0.75f) + 1) - 1) << 1;
+    allocate(capacity);
+  }
+
+  /**
+   *
+   *
+   * @param capacity A power of 2
+   */
+  private void allocate(int capacity) {
+    hashes = new long[capacity];
+    records = new GedcomTree[capacity];
+    mask = capacity - 1;
+    maxSize = (int)(capacity * 0.75f);
+  }
+
+  /**
+   * Adds the given record with the xref of its record line. A record which
+   * is already in the index with the same xref is replaced.
+   *
+   * @param record
+   * @return <code>false</code> if the record does not have an xref (like the
+   * HEAD record) and has not been added
+   */
+  public synchronized boolean add(GedcomTree record) {
+    String xref = record.getRecordXRef();
+
+    if (xref == null) {
+      return false;
+    }
+
+    if (size >= maxSize) {
+      grow();
+    }
+
+    long hash = hash(xref);
+    int slot = findSlot(hash, xref);
+
+    if (hashes[slot] == EMPTY) {
+      hashes[slot] = hash;
+      size++;
+    }
+
+    records[slot] = record;
+    return true;
+  }
+
+  /**
+   * Adds all the given records
+   *
+   * @param records
+   */
+  public void addAll(Iterable<GedcomTree> records) {
+    for (GedcomTree record : records) {
+      add(record);
+    }
+  }
+
+  /**
+   * Removes the record with the given xref
+   *
+   * @param xref
+   * @return The removed record, or <code>null</code> if there is no record
+   * with the given xref
+   */
+  public synchronized GedcomTree remove(String xref) {
+    if (xref == null) {
+      return null;
+    }
+
+    int slot = findSlot(hash(xref), xref);
+
+    if (hashes[slot] == EMPTY) {
+      return null;
+    }
+
+    GedcomTree removed = records[slot];
+    size--;
+
+    //Move the following entries of the same probe sequence back into the gap
+    int gap = slot;
+    int next = (gap + 1) & mask;
+
+    while (hashes[next] != EMPTY) {
+      int home = (int)hashes[next] & mask;
+
+      //Only move the entry if the gap lies between its home slot and its slot
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        hashes[gap] = hashes[next];
+        records[gap] = records[next];
+        gap = next;
+      }
+
+      next = (next + 1) & mask;
+    }
+
+    hashes[gap] = EMPTY;
+    records[gap] = null;
+
+    return removed;
+  }
+
+  /**
+   * Returns the record with the given xref (without the enclosing @)
+   *
+   * @param xref
+   * @return The record, or <code>null</code> if there is no record with the given xref
+   */
+  public GedcomTree get(String xref) {
+    if (xref == null) {
+      return null;
+    }
+
+    return records[findSlot(hash(xref), xref)];
+  }
+
+  /**
+   * Returns <code>true</code> if there is a record with the given xref
+   *
+   * @param xref
+   * @return
+   */
+  public boolean contains(String xref) {
+    return get(xref) != null;
+  }
+
+  /**
+   * Returns the record the xref of the given line points to
+   *
+   * @param line A pointer line (like "1 FAMS @F1@")
+   * @return The record, or <code>null</code> if the line does not have an xref
+   * or if there is no record with its xref
+   */
+  public GedcomTree resolve(GedcomTagLine line) {
+    return get(line.getXRef());
+  }
+
+  /**
+   * Resolves all the given lines at once
+   *
+   * @param lines
+   * @return The records in the order of the lines. An element is <code>null</code>
+   * if the line could not be resolved.
+   */
+  public GedcomTree[] resolve(List<GedcomTagLine> lines) {
+    GedcomTree[] resolved = new GedcomTree[lines.size()];
+
+    for (int i = 0; i < resolved.length; i++) {
+      resolved[i] = resolve(lines.get(i));
+    }
+
+    return resolved;
+  }
+
+  /**
+   * Resolves all the pointers (like "1 FAMS @F1@" or "2 SOUR @S1@") of the
+   * given node and all its sub-lines. The xref of a record line itself is not
+   * a pointer.
+   *
+   * @param node
+   * @return The records which could be resolved, in the order of the lines
+   */
+  public List<GedcomTree> resolveAll(GedcomNode node) {
+    List<GedcomTree> resolved = new ArrayList<>();
+    resolveAll(node, resolved);
+    return resolved;
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param resolved
+   */
+  private void resolveAll(GedcomNode node, List<GedcomTree> resolved) {
+    GedcomLine line = node.getNodeValue();
+
+    if (line != null && line.isTagLine()) {
+      GedcomTagLine tagLine = line.getAsTagLine();
+
+      if (tagLine.isPointer()) {
+        GedcomTree record = resolve(tagLine);
+
+        if (record != null) {
+          resolved.add(record);
+        }
+      }
+    }
+
+    for (GedcomNode child : node.getChildNodes()) {
+      resolveAll(child, resolved);
+    }
+  }
+
+  /**
+   * The number of records in this index
+   *
+   * @return
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all records
+   */
+  public synchronized void clear() {
+    allocate(hashes.length);
+    size = 0;
+  }
+
+  /**
+   * Returns the slot of the given xref, or the empty slot where it would be added
+   *
+   * @param hash
+   * @param xref
+   * @return
+   */
+  private int findSlot(long hash, String xref) {
+    long[] hashes = this.hashes;
+    GedcomTree[] records = this.records;
+    int slot = (int)hash & mask;
+
+    while (hashes[slot] != EMPTY) {
+      if (hashes[slot] == hash && xref.equals(records[slot].getRecordXRef())) {
+        return slot;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  /**
+   * Doubles the capacity
+   */
+  private void grow() {
+    long[] oldHashes = hashes;
+    GedcomTree[] oldRecords = records;
+
+    allocate(oldHashes.length * 2);
+
+    for (int i = 0; i < oldHashes.length; i++) {
+      if (oldHashes[i] != EMPTY) {
+        int slot = (int)oldHashes[i] & mask;
+
+        while (hashes[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = oldHashes[i];
+        records[slot] = oldRecords[i];
+      }
+    }
+  }
+
+  /**
+   * A 64 bit hash of the given xref (FNV-1a, with a final mix so that the
+   * lower bits are well distributed)
+   *
+   * @param xref
+   * @return
+   */
+  private static long hash(String xref) {
+    long hash = 0xcbf29ce484222325L;
+
+    for (int i = 0; i < xref.length(); i++) {
+      hash ^= xref.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+
+    return hash == EMPTY ? 1 : hash;
+  }
+
+}
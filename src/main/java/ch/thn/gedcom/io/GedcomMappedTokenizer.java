@@ -0,0 +1,469 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import ch.thn.gedcom.store.GedcomParseException;
+
+/**
+ * A {@link GedcomTokenizer} which reads the gedcom lines directly from a
+ * {@link ByteBuffer}, usually a memory-mapped file. The pieces of a line are
+ * only kept as offset/length slices into the buffer. Strings are only created
+ * when a piece is actually requested with one of the getter methods, and the
+ * tags (which repeat all the time) are cached.<br>
+ * <br>
+ * The lines are split on byte level, thus the charset has to encode all the
+ * ASCII characters as single bytes (like UTF-8, ASCII or ISO-8859-1). Lines
+ * can be terminated by CR, LF or CR LF.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomMappedTokenizer extends GedcomTokenizer {
+
+  private static final int TAG_CACHE_SIZE = 256;
+
+  private ByteBuffer buffer = null;
+  private Charset charset = null;
+  private RandomAccessFile file = null;
+
+  private int position = 0;
+  private int limit = 0;
+
+  private int lineNumber = 0;
+  private int lineStart = 0;
+  private int lineEnd = 0;
+
+  private int level = 0;
+  private int xrefOffset = 0;
+  private int xrefLength = -1;
+  private int tagOffset = 0;
+  private int tagLength = 0;
+  private int valueOffset = 0;
+  private int valueLength = -1;
+
+  private String xref = null;
+  private String tag = null;
+  private String value = null;
+
+  private String[] tagCache = null;
+
+  /** Reused to copy the bytes out of the buffer when creating a string */
+  private byte[] bytes = null;
+
+  /**
+   * Memory-maps the given UTF-8 encoded file and reads the lines from it.
+   * The file can not be larger than 2GB, use {@link GedcomParallelReader}
+   * or {@link GedcomStreamTokenizer} for larger files.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public GedcomMappedTokenizer(File file) throws IOException {
+    this(file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Memory-maps the given file and reads the lines from it with the given charset.
+   * The file can not be larger than 2GB, use {@link GedcomParallelReader}
+   * or {@link GedcomStreamTokenizer} for larger files.
+   *
+   * @param file
+   * @param charset
+   * @throws IOException
+   */
+  public GedcomMappedTokenizer(File file, Charset charset) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = this.file.getChannel();
+
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File " + file + " is too large to be mapped at once.");
+      }
+
+      init(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), charset);
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the lines from the remaining bytes of the given buffer
+   *
+   * @param buffer
+   * @param charset
+   */
+  public GedcomMappedTokenizer(ByteBuffer buffer, Charset charset) {
+    init(buffer, charset);
+  }
+
+  /**
+   *
+   *
+   * @param buffer
+   * @param charset
+   */
+  private void init(ByteBuffer buffer, Charset charset) {
+    this.buffer = buffer;
+    this.charset = charset;
+
+    position = buffer.position();
+    limit = buffer.limit();
+
+    tagCache = new String[TAG_CACHE_SIZE];
+    bytes = new byte[256];
+
+    //Skip a UTF-8 byte order mark
+    if (limit - position >= 3 && buffer.get(position) == (byte)0xEF
+        && buffer.get(position + 1) == (byte)0xBB && buffer.get(position + 2) == (byte)0xBF) {
+      position += 3;
+    }
+  }
+
+  @Override
+  public boolean next() throws IOException, GedcomParseException {
+    while (position < limit) {
+      lineStart = position;
+
+      while (position < limit) {
+        byte b = buffer.get(position);
+
+        if (b == '\n' || b == '\r') {
+          break;
+        }
+
+        position++;
+      }
+
+      lineEnd = position;
+
+      //Skip the line terminator (CR, LF or CR LF)
+      if (position < limit && buffer.get(position) == '\r') {
+        position++;
+      }
+
+      if (position < limit && buffer.get(position) == '\n') {
+        position++;
+      }
+
+      lineNumber++;
+
+      if (tokenize()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Splits the current line in its pieces.
+   *
+   * @return <code>false</code> if the line is empty
+   * @throws GedcomParseException
+   */
+  private boolean tokenize() throws GedcomParseException {
+    int pos = lineStart;
+
+    xref = null;
+    tag = null;
+    value = null;
+
+    //Skip leading white space
+    while (pos < lineEnd && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')) {
+      pos++;
+    }
+
+    if (pos == lineEnd) {
+      return false;
+    }
+
+    //Level
+    level = 0;
+    int levelStart = pos;
+    byte b = 0;
+    while (pos < lineEnd && (b = buffer.get(pos)) >= '0' && b <= '9') {
+      level = level * 10 + (b - '0');
+      pos++;
+    }
+
+    if (pos == levelStart || pos - levelStart > 2) {
+      throw new GedcomParseException("On line " + lineNumber + " '" + getLine() + "'. " +
+          "The line has to start with a level number 0-99.");
+    }
+
+    pos = skipDelimiter(pos);
+
+    //Optional xref before the tag
+    xrefLength = -1;
+    if (pos < lineEnd && buffer.get(pos) == '@') {
+      int xrefEnd = pos + 1;
+      while (xrefEnd < lineEnd && buffer.get(xrefEnd) != '@') {
+        xrefEnd++;
+      }
+
+      if (xrefEnd == lineEnd) {
+        throw new GedcomParseException("On line " + lineNumber + " '" + getLine() + "'. " +
+            "The xref is not terminated with @.");
+      }
+
+      xrefOffset = pos + 1;
+      xrefLength = xrefEnd - xrefOffset;
+      pos = skipDelimiter(xrefEnd + 1);
+    }
+
+    //Tag
+    tagOffset = pos;
+    while (pos < lineEnd && buffer.get(pos) != ' ') {
+      pos++;
+    }
+
+    tagLength = pos - tagOffset;
+
+    if (tagLength == 0) {
+      throw new GedcomParseException("On line " + lineNumber + " '" + getLine() + "'. " +
+          "The line does not have a tag.");
+    }
+
+    //Optional value. Only the one delimiter after the tag is skipped, all
+    //the other characters belong to the value
+    valueLength = -1;
+    if (pos + 1 < lineEnd) {
+      valueOffset = pos + 1;
+      valueLength = lineEnd - valueOffset;
+    }
+
+    return true;
+  }
+
+  /**
+   * Skips all the delimiter spaces, starting at the given position
+   *
+   * @param pos
+   * @return The position of the first byte after the delimiter
+   */
+  private int skipDelimiter(int pos) {
+    while (pos < lineEnd && buffer.get(pos) == ' ') {
+      pos++;
+    }
+
+    return pos;
+  }
+
+  /**
+   * Creates a string from the given slice of the buffer
+   *
+   * @param offset
+   * @param length
+   * @return
+   */
+  private String createString(int offset, int length) {
+    if (bytes.length < length) {
+      bytes = new byte[Math.max(length, bytes.length * 2)];
+    }
+
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+
+    return new String(bytes, 0, length, charset);
+  }
+
+  /**
+   * Returns the whole current line as string. Only used for error messages.
+   *
+   * @return
+   */
+  private String getLine() {
+    return createString(lineStart, lineEnd - lineStart);
+  }
+
+  /**
+   * Checks if the given slice of the buffer contains the same (ASCII)
+   * characters as the given string
+   *
+   * @param offset
+   * @param length
+   * @param string
+   * @return
+   */
+  private boolean sliceEquals(int offset, int length, String string) {
+    if (string.length() != length) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(offset + i) != string.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public int getLevel() {
+    return level;
+  }
+
+  @Override
+  public String getXRef() {
+    if (xref == null && xrefLength != -1) {
+      xref = createString(xrefOffset, xrefLength);
+    }
+
+    return xref;
+  }
+
+  @Override
+  public String getTag() {
+    if (tag == null) {
+      int hash = 0;
+      for (int i = 0; i < tagLength; i++) {
+        hash = 31 * hash + buffer.get(tagOffset + i);
+      }
+
+      int index = hash & (TAG_CACHE_SIZE - 1);
+      String cached = tagCache[index];
+
+      if (cached != null && sliceEquals(tagOffset, tagLength, cached)) {
+        tag = cached;
+      } else {
+        tag = createString(tagOffset, tagLength);
+        tagCache[index] = tag;
+      }
+    }
+
+    return tag;
+  }
+
+  @Override
+  public String getValue() {
+    if (value == null && valueLength != -1) {
+      value = createString(valueOffset, valueLength);
+    }
+
+    return value;
+  }
+
+  @Override
+  public boolean hasValue() {
+    return valueLength != -1;
+  }
+
+  @Override
+  public boolean isPointerValue() {
+    return valueLength > 2
+        && buffer.get(valueOffset) == '@'
+        && buffer.get(valueOffset + valueLength - 1) == '@'
+        && buffer.get(valueOffset + 1) != '#';
+  }
+
+  @Override
+  public String getPointerValue() {
+    if (!isPointerValue()) {
+      return null;
+    }
+
+    return createString(valueOffset + 1, valueLength - 2);
+  }
+
+  @Override
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Returns the buffer which the slice offsets refer to
+   *
+   * @return
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Returns the offset of the xref in the buffer
+   *
+   * @return
+   */
+  public int getXRefOffset() {
+    return xrefOffset;
+  }
+
+  /**
+   * Returns the length of the xref in bytes, or -1 if there is no xref
+   *
+   * @return
+   */
+  public int getXRefLength() {
+    return xrefLength;
+  }
+
+  /**
+   * Returns the offset of the tag in the buffer
+   *
+   * @return
+   */
+  public int getTagOffset() {
+    return tagOffset;
+  }
+
+  /**
+   * Returns the length of the tag in bytes
+   *
+   * @return
+   */
+  public int getTagLength() {
+    return tagLength;
+  }
+
+  /**
+   * Returns the offset of the value in the buffer
+   *
+   * @return
+   */
+  public int getValueOffset() {
+    return valueOffset;
+  }
+
+  /**
+   * Returns the length of the value in bytes, or -1 if there is no value
+   *
+   * @return
+   */
+  public int getValueLength() {
+    return valueLength;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+  }
+
+}
@@ -0,0 +1,416 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.data.XrefIndex;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Reads a gedcom data file with multiple threads. The file is memory-mapped
+ * and split into sections at record boundaries (a line break followed by
+ * "0 "). Each section is read by its own {@link GedcomReader} in a
+ * {@link ForkJoinPool}, all of them sharing the same {@link GedcomStore}.<br>
+ * <br>
+ * The store is only read while the records are built, thus the same store
+ * can be used by all threads. If a {@link ch.thn.gedcom.data.GedcomDataValidator}
+ * is set in the store, it has to be thread-safe.<br>
+ * <br>
+ * The section boundaries are searched on byte level, thus the charset of the
+ * file has to encode the line break, '0' and ' ' as single bytes which do not
+ * appear within other characters (like UTF-8, ASCII or ISO-8859-1).
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomParallelReader {
+
+  /** The minimum size of a section if the section size is chosen automatically */
+  public static final int MIN_SECTION_SIZE = 1024 * 1024;
+
+  /**
+   * The maximum size of a section if the section size is chosen automatically.
+   * A section is mapped in one buffer, and it ends only at the next record
+   * boundary after its size, thus there is some space left below 2GB.
+   */
+  public static final int MAX_SECTION_SIZE = Integer.MAX_VALUE / 2;
+
+  /** The number of sections per thread if the section size is chosen automatically */
+  private static final int SECTIONS_PER_THREAD = 4;
+
+  /**
+   * The number of sections per thread which are read at the same time. The
+   * records of the sections which are read ahead have to be kept until they
+   * are passed to the consumer.
+   */
+  private static final int SECTIONS_AHEAD_PER_THREAD = 2;
+
+  private static final int SCAN_WINDOW_SIZE = 64 * 1024;
+
+  private GedcomStore store = null;
+  private File file = null;
+  private Charset charset = null;
+
+  private ForkJoinPool pool = null;
+
+  private boolean preserveOrder = false;
+  private boolean skipInvalidLines = false;
+  private int sectionSize = 0;
+  private XrefIndex xrefIndex = null;
+
+  /**
+   * Reads the given UTF-8 encoded file
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param file
+   */
+  public GedcomParallelReader(GedcomStore store, File file) {
+    this(store, file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the given file with the given charset
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param file
+   * @param charset
+   */
+  public GedcomParallelReader(GedcomStore store, File file, Charset charset) {
+    this.store = store;
+    this.file = file;
+    this.charset = charset;
+
+    pool = ForkJoinPool.commonPool();
+  }
+
+  /**
+   * Sets the pool which is used to read the sections. By default, the
+   * common pool is used.
+   *
+   * @param pool
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * If set to <code>true</code>, the records are passed to the consumer in
+   * the order of the file, from the thread which calls {@link #read(Consumer)}.
+   * If set to <code>false</code> (the default), the records are passed to the
+   * consumer by the reading threads as soon as they are built, thus the
+   * consumer has to be thread-safe.
+   *
+   * @param preserveOrder
+   */
+  public void preserveOrder(boolean preserveOrder) {
+    this.preserveOrder = preserveOrder;
+  }
+
+  /**
+   * See {@link GedcomReader#skipInvalidLines(boolean)}
+   *
+   * @param skip
+   */
+  public void skipInvalidLines(boolean skip) {
+    skipInvalidLines = skip;
+  }
+
+  /**
+   * Sets an index to which all the records are added while they are read.
+   * The records are added by the reading threads, before they are passed to
+   * the consumer. See {@link GedcomReader#setXrefIndex(XrefIndex)}
+   *
+   * @param xrefIndex
+   */
+  public void setXrefIndex(XrefIndex xrefIndex) {
+    this.xrefIndex = xrefIndex;
+  }
+
+  /**
+   * Sets the approximate size of a section in bytes. A section always ends
+   * at a record boundary. If set to 0 (the default), the size is chosen
+   * automatically based on the file size and the parallelism of the pool.
+   *
+   * @param sectionSize
+   */
+  public void setSectionSize(int sectionSize) {
+    this.sectionSize = sectionSize;
+  }
+
+  /**
+   * Reads all the records of the file and returns them in the order of the file
+   *
+   * @return
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  public List<GedcomTree> readAll() throws IOException, GedcomParseException {
+    final ArrayList<GedcomTree> records = new ArrayList<GedcomTree>();
+
+    read(new Consumer<GedcomTree>() {
+      @Override
+      public void accept(GedcomTree record) {
+        records.add(record);
+      }
+    }, true);
+
+    return records;
+  }
+
+  /**
+   * Reads all the records of the file and passes them to the given consumer.
+   * See {@link #preserveOrder(boolean)} for the order and the threads in which
+   * the consumer is called.
+   *
+   * @param consumer
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  public void read(Consumer<GedcomTree> consumer) throws IOException, GedcomParseException {
+    read(consumer, preserveOrder);
+  }
+
+  /**
+   *
+   *
+   * @param consumer
+   * @param preserveOrder
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  private void read(Consumer<GedcomTree> consumer, boolean preserveOrder)
+      throws IOException, GedcomParseException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    AtomicBoolean stop = new AtomicBoolean(false);
+    ArrayDeque<SectionTask> tasks = new ArrayDeque<SectionTask>();
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      List<long[]> sections = getSections(channel);
+      int maxTasks = Math.max(1, pool.getParallelism() * SECTIONS_AHEAD_PER_THREAD);
+      int nextSection = 0;
+
+      try {
+        while (nextSection < sections.size() || !tasks.isEmpty()) {
+          //Only a limited number of sections is read ahead of the section
+          //which is passed to the consumer next
+          while (nextSection < sections.size() && tasks.size() < maxTasks) {
+            long[] section = sections.get(nextSection++);
+            SectionTask task = new SectionTask(channel, section[0], section[1],
+                preserveOrder ? null : consumer, stop);
+            tasks.add(task);
+            pool.execute(task);
+          }
+
+          List<GedcomTree> records = tasks.peek().join();
+          //Release the records of the section
+          tasks.poll();
+
+          if (preserveOrder) {
+            for (GedcomTree record : records) {
+              consumer.accept(record);
+            }
+          }
+        }
+      } catch (GedcomReadError e) {
+        if (e.getCause() instanceof GedcomParseException) {
+          throw (GedcomParseException)e.getCause();
+        } else if (e.getCause() instanceof IOException) {
+          throw (IOException)e.getCause();
+        }
+
+        throw e;
+      }
+    } finally {
+      //The sections which are still read map the file, thus they have to
+      //stop before the file is closed
+      stop.set(true);
+
+      for (SectionTask task : tasks) {
+        task.quietlyJoin();
+      }
+
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Splits the file into sections which start at a record boundary
+   *
+   * @param channel
+   * @return A list with the start and end position of each section
+   * @throws IOException
+   */
+  private List<long[]> getSections(FileChannel channel) throws IOException {
+    long size = channel.size();
+    long sectionSize = this.sectionSize;
+
+    if (sectionSize <= 0) {
+      sectionSize = Math.min(MAX_SECTION_SIZE, Math.max(MIN_SECTION_SIZE,
+          size / (pool.getParallelism() * SECTIONS_PER_THREAD)));
+    }
+
+    ArrayList<long[]> sections = new ArrayList<long[]>();
+    long start = 0;
+
+    while (start < size) {
+      long end = size;
+
+      if (start + sectionSize < size) {
+        end = findRecordStart(channel, start + sectionSize, size);
+      }
+
+      if (end - start > Integer.MAX_VALUE) {
+        throw new IOException("The section starting at byte " + start
+            + " is larger than 2GB. Use a smaller section size.");
+      }
+
+      sections.add(new long[] {start, end});
+      start = end;
+    }
+
+    return sections;
+  }
+
+  /**
+   * Searches for the first record which starts at or after the given position.
+   *
+   * @param channel
+   * @param position
+   * @param size
+   * @return The position of the level number of the record, or the size of
+   * the file if there is no more record
+   * @throws IOException
+   */
+  private static long findRecordStart(FileChannel channel, long position, long size)
+      throws IOException {
+    //Start one byte before the position to find a line break right before it
+    long windowStart = position - 1;
+
+    while (windowStart < size - 2) {
+      long windowLength = Math.min(SCAN_WINDOW_SIZE, size - windowStart);
+      MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+          windowStart, windowLength);
+
+      for (int i = 0; i < windowLength - 2; i++) {
+        byte b = window.get(i);
+
+        if ((b == '\n' || b == '\r') && window.get(i + 1) == '0' && window.get(i + 2) == ' ') {
+          return windowStart + i + 1;
+        }
+      }
+
+      //Overlap the windows, in case the boundary is split between them
+      windowStart += windowLength - 2;
+    }
+
+    return size;
+  }
+
+
+  /**************************************************************************
+   * Reads the records of one section of the file
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private class SectionTask extends RecursiveTask<List<GedcomTree>> {
+    private static final long serialVersionUID = 6514409235958853812L;
+
+    private FileChannel channel = null;
+    private long start = 0;
+    private long end = 0;
+    private Consumer<GedcomTree> consumer = null;
+    private AtomicBoolean stop = null;
+
+    /**
+     *
+     *
+     * @param channel
+     * @param start
+     * @param end
+     * @param consumer The consumer to pass the records to right away, or
+     * <code>null</code> to collect and return the records
+     * @param stop Stops reading the section if set
+     */
+    public SectionTask(FileChannel channel, long start, long end, Consumer<GedcomTree> consumer,
+        AtomicBoolean stop) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.consumer = consumer;
+      this.stop = stop;
+    }
+
+    @Override
+    protected List<GedcomTree> compute() {
+      ArrayList<GedcomTree> records = new ArrayList<GedcomTree>();
+
+      if (stop.get()) {
+        return records;
+      }
+
+      try {
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+
+        GedcomReader reader = new GedcomReader(store, new GedcomMappedTokenizer(bytes, charset));
+        reader.skipInvalidLines(skipInvalidLines);
+        reader.setXrefIndex(xrefIndex);
+
+        GedcomTree record = null;
+
+        while (!stop.get() && (record = reader.readRecord()) != null) {
+          if (consumer == null) {
+            records.add(record);
+          } else {
+            consumer.accept(record);
+          }
+        }
+
+        reader.close();
+      } catch (IOException e) {
+        throw new GedcomReadError("Failed to read the section starting at byte " + start
+            + ". " + e.getMessage(), e);
+      } catch (GedcomParseException e) {
+        throw new GedcomReadError(e.getMessage(), new GedcomParseException(
+            "In the section starting at byte " + start + ". " + e.getMessage()));
+      }
+
+      return records;
+    }
+
+  }
+
+}
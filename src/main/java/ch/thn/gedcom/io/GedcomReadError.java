@@ -0,0 +1,42 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import ch.thn.gedcom.data.GedcomError;
+
+/**
+ * An error which occurred while reading gedcom data in a place where no
+ * checked exceptions can be thrown (like in an {@link java.util.Iterator}).
+ * The original exception is available as cause.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomReadError extends GedcomError {
+	private static final long serialVersionUID = -3406771393614557713L;
+
+	/**
+	 *
+	 *
+	 * @param message The error message
+	 * @param cause The exception which caused the error
+	 */
+	public GedcomReadError(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,720 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import ch.thn.gedcom.data.GedcomError;
+import ch.thn.gedcom.data.GedcomNode;
+import ch.thn.gedcom.data.GedcomTagLine;
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.data.XrefIndex;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+import ch.thn.gedcom.store.GedcomStoreBlock;
+import ch.thn.gedcom.store.GedcomStorePathStep;
+
+/**
+ * Reads gedcom data (a *.ged file) and builds one {@link GedcomTree} for each
+ * record (each level 0 line with all its sub-lines) according to the
+ * lineage-linked grammar loaded in the given {@link GedcomStore}.<br>
+ * <br>
+ * The records are read one by one with {@link #readRecord()}, thus only the
+ * record which is currently built is held in memory and files of any size
+ * can be read.<br>
+ * <br>
+ * Each data line is placed in the tree at the position defined by the grammar.
+ * Any structure lines in between (like the CHANGE_DATE structure between INDI
+ * and CHAN) are resolved with {@link GedcomStoreBlock#getPathStepsToStoreLine(String, boolean, boolean)}
+ * and created automatically.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomReader implements Closeable {
+
+  private GedcomStore store = null;
+  private GedcomTokenizer tokenizer = null;
+
+  /**
+   * The node of the last line on each level of the current record. The
+   * parent of a new line is the node one level above.
+   */
+  private ArrayList<GedcomNode> levelNodes = null;
+
+  /** The record structure names which have been looked up already, by tag */
+  private HashMap<String, String> recordStructureNames = null;
+
+  /** <code>true</code> if the tokenizer already holds the first line of the next record */
+  private boolean lineAvailable = false;
+
+  private boolean skipInvalidLines = false;
+  private int skippedLineCount = 0;
+
+  private boolean unfoldValues = true;
+
+  /** The line which gets the value of the following CONC/CONT lines */
+  private GedcomNode continuedNode = null;
+  private int continuedLevel = 0;
+  private boolean continued = false;
+
+  /** Collects the value of a line together with its CONC/CONT lines */
+  private StringBuilder valueBuffer = null;
+
+  /** The index to which the records are added, if set */
+  private XrefIndex xrefIndex = null;
+
+  /**
+   * Reads the gedcom data from the given stream (UTF-8 encoded)
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param input
+   */
+  public GedcomReader(GedcomStore store, InputStream input) {
+    this(store, new GedcomStreamTokenizer(input));
+  }
+
+  /**
+   * Reads the gedcom data from the given stream with the given charset
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param input
+   * @param charset
+   */
+  public GedcomReader(GedcomStore store, InputStream input, Charset charset) {
+    this(store, new GedcomStreamTokenizer(input, charset));
+  }
+
+  /**
+   * Reads the gedcom data lines from the given tokenizer
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param tokenizer
+   */
+  public GedcomReader(GedcomStore store, GedcomTokenizer tokenizer) {
+    this.store = store;
+    this.tokenizer = tokenizer;
+
+    levelNodes = new ArrayList<GedcomNode>();
+    recordStructureNames = new HashMap<String, String>();
+    valueBuffer = new StringBuilder();
+  }
+
+  /**
+   * If set to <code>true</code>, lines which can not be added to the record
+   * (because the tag is not defined in the grammar, the value is not valid,
+   * the maximum number of lines is reached etc.) are skipped together with all
+   * their sub-lines. If set to <code>false</code> (the default), reading fails with
+   * a {@link GedcomParseException} on such lines.
+   *
+   * @param skip
+   */
+  public void skipInvalidLines(boolean skip) {
+    skipInvalidLines = skip;
+  }
+
+  /**
+   * Returns whether or not invalid lines are skipped
+   *
+   * @return
+   */
+  public boolean skipInvalidLines() {
+    return skipInvalidLines;
+  }
+
+  /**
+   * If set to <code>true</code> (the default), the values of CONC and CONT
+   * lines are joined with the value of their parent line and the CONC/CONT
+   * lines are not added to the record. A CONT line starts a new line in the
+   * value ("\n"), a CONC line continues the value without a separator.
+   * If set to <code>false</code>, CONC and CONT lines are added to the
+   * record like any other line.<br>
+   * Only applies to the records which are read as {@link GedcomTree}.
+   *
+   * @param unfold
+   */
+  public void unfoldValues(boolean unfold) {
+    unfoldValues = unfold;
+  }
+
+  /**
+   * Returns whether or not the values of CONC/CONT lines are joined with
+   * their parent line
+   *
+   * @return
+   */
+  public boolean unfoldValues() {
+    return unfoldValues;
+  }
+
+  /**
+   * Sets an index to which each record which is read with {@link #readRecord()}
+   * is added, so that the pointers between the records can be resolved once
+   * all the records are read. Set to <code>null</code> (the default) to not
+   * add the records to an index.
+   *
+   * @param xrefIndex
+   */
+  public void setXrefIndex(XrefIndex xrefIndex) {
+    this.xrefIndex = xrefIndex;
+  }
+
+  /**
+   * Returns the index to which the records are added, or <code>null</code>
+   * if no index is set
+   *
+   * @return
+   */
+  public XrefIndex getXrefIndex() {
+    return xrefIndex;
+  }
+
+  /**
+   * Returns the number of lines which have been skipped so far
+   *
+   * @return
+   */
+  public int getSkippedLineCount() {
+    return skippedLineCount;
+  }
+
+  /**
+   * Reads the next record and returns it as {@link GedcomTree}.
+   *
+   * @return The next record, or <code>null</code> if there are no more records
+   * @throws IOException
+   * @throws GedcomParseException If the data can not be read, or if a line
+   * is invalid and invalid lines are not skipped
+   */
+  public GedcomTree readRecord() throws IOException, GedcomParseException {
+    GedcomTree tree = null;
+
+    while (tree == null) {
+      if (!lineAvailable && !tokenizer.next()) {
+        return null;
+      }
+
+      lineAvailable = false;
+
+      if (tokenizer.getLevel() != 0) {
+        //Only left over lines of a skipped record can get here
+        invalidLine("A record has to start with a level 0 line.");
+        continue;
+      }
+
+      tree = readRecordLines();
+    }
+
+    if (xrefIndex != null) {
+      xrefIndex.add(tree);
+    }
+
+    return tree;
+  }
+
+  /**
+   * Reads the next record and passes its lines to the given handler, without
+   * building a {@link GedcomTree}. Only the record structure is resolved, the
+   * sub-lines are not checked against the grammar.
+   *
+   * @param handler
+   * @return <code>true</code> if a record has been read, <code>false</code> if
+   * there are no more records
+   * @throws IOException
+   * @throws GedcomParseException If the data can not be read, or if a line
+   * is invalid and invalid lines are not skipped
+   */
+  public boolean readRecord(GedcomRecordHandler handler) throws IOException, GedcomParseException {
+    String structureName = null;
+
+    while (structureName == null) {
+      if (!lineAvailable && !tokenizer.next()) {
+        return false;
+      }
+
+      lineAvailable = false;
+
+      if (tokenizer.getLevel() != 0) {
+        invalidLine("A record has to start with a level 0 line.");
+        continue;
+      }
+
+      structureName = getRecordStructureName(tokenizer.getTag());
+
+      if (structureName == null) {
+        invalidLine("There is no record with the tag " + tokenizer.getTag() + ".");
+        //Skip all the sub-lines. The next level 0 line is kept
+        while (tokenizer.next()) {
+          if (tokenizer.getLevel() == 0) {
+            lineAvailable = true;
+            break;
+          }
+
+          skippedLineCount++;
+        }
+      }
+    }
+
+    handler.startRecord(structureName, tokenizer.getXRef(), tokenizer.getTag(), tokenizer.getValue());
+
+    int lastLevel = 0;
+    int skipLevel = -1;
+
+    while (tokenizer.next()) {
+      int level = tokenizer.getLevel();
+
+      if (level == 0) {
+        lineAvailable = true;
+        break;
+      }
+
+      if (skipLevel != -1) {
+        if (level > skipLevel) {
+          skippedLineCount++;
+          continue;
+        }
+
+        skipLevel = -1;
+      }
+
+      if (level > lastLevel + 1) {
+        invalidLine("Level " + level + " does not follow level " + lastLevel + ".");
+        skipLevel = level;
+        continue;
+      }
+
+      handler.line(level, tokenizer.getXRef(), tokenizer.getTag(), tokenizer.getValue());
+      lastLevel = level;
+    }
+
+    handler.endRecord(structureName);
+
+    return true;
+  }
+
+  /**
+   * Returns an iterator which reads the records one by one from this reader.
+   * Use {@link GedcomRecordIterator#spliterator()} to create a stream of records.
+   *
+   * @return
+   */
+  public GedcomRecordIterator records() {
+    return new GedcomRecordIterator(this);
+  }
+
+  /**
+   * Builds the record which starts with the current level 0 line of the
+   * tokenizer and reads all the lines up to the next level 0 line.
+   *
+   * @return The record, or <code>null</code> if the record has been skipped
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  private GedcomTree readRecordLines() throws IOException, GedcomParseException {
+    GedcomTree tree = null;
+    int skipLevel = -1;
+
+    levelNodes.clear();
+
+    continuedNode = null;
+
+    try {
+      tree = createRecord();
+      levelNodes.add(tree.getChildLine(tokenizer.getTag(), 0));
+      startContinuation(levelNodes.get(0), 0);
+    } catch (GedcomError e) {
+      invalidLine(e.getMessage());
+      tree = null;
+      skipLevel = 0;
+    }
+
+    while (tokenizer.next()) {
+      int level = tokenizer.getLevel();
+
+      if (level == 0) {
+        lineAvailable = true;
+        break;
+      }
+
+      if (skipLevel != -1) {
+        if (level > skipLevel) {
+          //A sub-line of a skipped line
+          skippedLineCount++;
+          continue;
+        }
+
+        skipLevel = -1;
+      }
+
+      if (continuedNode != null) {
+        if (level == continuedLevel + 1 && isContinuationLine()) {
+          continueValue();
+          continue;
+        }
+
+        finishContinuation();
+      }
+
+      if (level > levelNodes.size()) {
+        invalidLine("Level " + level + " does not follow level " + (levelNodes.size() - 1) + ".");
+        skipLevel = level;
+        continue;
+      }
+
+      GedcomNode node = null;
+
+      try {
+        node = addLine(levelNodes.get(level - 1));
+      } catch (GedcomError e) {
+        invalidLine(e.getMessage());
+        skipLevel = level;
+        continue;
+      }
+
+      while (levelNodes.size() > level) {
+        levelNodes.remove(levelNodes.size() - 1);
+      }
+
+      levelNodes.add(node);
+      startContinuation(node, level);
+    }
+
+    if (continuedNode != null) {
+      finishContinuation();
+    }
+
+    levelNodes.clear();
+
+    return tree;
+  }
+
+  /**
+   * Remembers the given line as the line which gets the values of any
+   * following CONC/CONT lines, if unfolding is enabled and if the line
+   * has a value field.
+   *
+   * @param node
+   * @param level
+   */
+  private void startContinuation(GedcomNode node, int level) {
+    if (!unfoldValues || !node.getNodeValue().isTagLine()
+        || !node.getNodeValue().getAsTagLine().requiresValue()) {
+      continuedNode = null;
+      return;
+    }
+
+    continuedNode = node;
+    continuedLevel = level;
+    continued = false;
+  }
+
+  /**
+   * Checks if the current line is a CONC or CONT line
+   *
+   * @return
+   */
+  private boolean isContinuationLine() {
+    String tag = tokenizer.getTag();
+    return tag.equals("CONC") || tag.equals("CONT");
+  }
+
+  /**
+   * Appends the value of the current CONC/CONT line to the value buffer
+   */
+  private void continueValue() {
+    if (!continued) {
+      //The first continuation. Start with the value of the continued line
+      valueBuffer.setLength(0);
+
+      String value = continuedNode.getNodeValue().getAsTagLine().getValue();
+      if (value != null) {
+        valueBuffer.append(value);
+      }
+
+      continued = true;
+    }
+
+    if (tokenizer.getTag().equals("CONT")) {
+      valueBuffer.append('\n');
+    }
+
+    if (tokenizer.hasValue()) {
+      valueBuffer.append(tokenizer.getValue());
+    }
+  }
+
+  /**
+   * Sets the joined value if there have been any CONC/CONT lines
+   *
+   * @throws GedcomParseException
+   */
+  private void finishContinuation() throws GedcomParseException {
+    GedcomNode node = continuedNode;
+    continuedNode = null;
+
+    if (!continued) {
+      return;
+    }
+
+    try {
+      setValue(node, valueBuffer.toString());
+    } catch (GedcomError e) {
+      invalidLine(e.getMessage());
+    }
+  }
+
+  /**
+   * Creates the tree for the current level 0 line
+   *
+   * @return
+   */
+  private GedcomTree createRecord() {
+    String tag = tokenizer.getTag();
+    String structureName = getRecordStructureName(tag);
+
+    if (structureName == null) {
+      throw new GedcomError("There is no record with the tag " + tag + ".");
+    }
+
+    GedcomTree tree = store.getGedcomTree(structureName, tag);
+    GedcomNode node = tree.addChildLine(tag);
+
+    if (tokenizer.getXRef() != null) {
+      setXRef(node, tokenizer.getXRef());
+    }
+
+    if (tokenizer.hasValue()) {
+      setValue(node, tokenizer.getValue());
+    }
+
+    return tree;
+  }
+
+  /**
+   * Returns the name of the record structure which starts with the given tag.
+   * The structure names are looked up only once per tag (the lookup in the
+   * store goes through all the structures).
+   *
+   * @param tag
+   * @return The structure name, or <code>null</code> if there is no record with the tag
+   */
+  private String getRecordStructureName(String tag) {
+    if (recordStructureNames.containsKey(tag)) {
+      return recordStructureNames.get(tag);
+    }
+
+    String structureName = store.getStructureNameForTag(tag);
+    recordStructureNames.put(tag, structureName);
+    return structureName;
+  }
+
+  /**
+   * Adds the current line of the tokenizer as child line of the given parent
+   * node. Structure lines between the parent and the new line are created
+   * if needed.
+   *
+   * @param parent
+   * @return The new node
+   */
+  private GedcomNode addLine(GedcomNode parent) {
+    String tag = tokenizer.getTag();
+    boolean withXRef = tokenizer.isPointerValue();
+    boolean withValue = !withXRef && tokenizer.hasValue();
+
+    if (parent.getStoreBlock() == null) {
+      throw new GedcomError("Line " + parent + " can not have any sub-lines.");
+    }
+
+    List<GedcomStorePathStep> steps = getPathToStoreLine(parent.getStoreBlock(), tag,
+        withXRef, withValue);
+
+    if (steps == null) {
+      throw new GedcomError("Line " + tag + " is not a possible sub-line of " + parent + ".");
+    }
+
+    GedcomNode node = parent;
+    GedcomNode firstNewNode = null;
+
+    try {
+      for (int i = 0; i < steps.size(); i++) {
+        if (i < steps.size() - 1) {
+          //A structure line in between. Use an existing one if the rest of
+          //the path can still be added to it
+          GedcomNode existing = getReusableLine(node, steps, i);
+
+          if (existing != null) {
+            node = existing;
+            continue;
+          }
+        }
+
+        GedcomNode newNode = steps.get(i).addChildLine(node);
+
+        if (newNode == null) {
+          throw new GedcomError("Can not add another line " + steps.get(i).getTagOrStructureName() + " to " + node
+              + ". Maximum number of lines reached.");
+        }
+
+        if (firstNewNode == null) {
+          firstNewNode = newNode;
+        }
+
+        node = newNode;
+      }
+
+      if (withXRef) {
+        setXRef(node, tokenizer.getPointerValue());
+      } else if (withValue) {
+        setValue(node, tokenizer.getValue());
+      }
+    } catch (GedcomError e) {
+      //Do not leave any unused lines behind
+      if (firstNewNode != null) {
+        firstNewNode.removeLine();
+      }
+
+      throw e;
+    }
+
+    return node;
+  }
+
+  /**
+   * Resolves the path from the given block to the line with the given tag.
+   * If the exact xref/value variation does not exist, the variations which
+   * only define an optional value (like BIRT [Y|&lt;NULL&gt;]) and then any
+   * variation with the tag are tried.
+   *
+   * @param block
+   * @param tag
+   * @param withXRef
+   * @param withValue
+   * @return The path steps (cached by the block, see {@link GedcomStoreBlock#getPathStepsToStoreLine(String, boolean, boolean)}),
+   * or <code>null</code> if there is no line with the given tag
+   */
+  private List<GedcomStorePathStep> getPathToStoreLine(GedcomStoreBlock block, String tag,
+      boolean withXRef, boolean withValue) {
+    List<GedcomStorePathStep> path = block.getPathStepsToStoreLine(tag, withXRef, withValue);
+
+    if (path == null && !withXRef && !withValue) {
+      path = block.getPathStepsToStoreLine(tag, false, true);
+    }
+
+    if (path == null) {
+      path = block.getPathStepsToStoreLine(tag);
+    }
+
+    return path;
+  }
+
+  /**
+   * Searches for an existing child line of the given node which matches the
+   * path step at the given index and to which the rest of the path can
+   * still be added.
+   *
+   * @param node
+   * @param steps
+   * @param index
+   * @return The existing line, or <code>null</code> if there is none
+   */
+  private static GedcomNode getReusableLine(GedcomNode node, List<GedcomStorePathStep> steps, int index) {
+    GedcomStorePathStep step = steps.get(index);
+    int count = step.getNumberOfChildLines(node);
+
+    for (int i = 0; i < count; i++) {
+      GedcomNode child = step.getChildLine(node, i);
+
+      if (child != null && canAddPath(child, steps, index + 1)) {
+        return child;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Checks if the path, starting with the step at the given index, can be
+   * added to the given node. Either because another line can be added for
+   * the step, or because there is an existing line which can be reused.
+   *
+   * @param node
+   * @param steps
+   * @param index
+   * @return
+   */
+  private static boolean canAddPath(GedcomNode node, List<GedcomStorePathStep> steps, int index) {
+    if (!node.maxNumberOfLinesReached(steps.get(index).getTagOrStructureName())) {
+      return true;
+    }
+
+    return index < steps.size() - 1 && getReusableLine(node, steps, index) != null;
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param xref
+   */
+  private static void setXRef(GedcomNode node, String xref) {
+    if (!node.getNodeValue().isTagLine()
+        || node.getNodeValue().getAsTagLine().setXRef(xref) == null) {
+      throw new GedcomError("Invalid xref " + xref + " for line " + node + ".");
+    }
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param value
+   */
+  private static void setValue(GedcomNode node, String value) {
+    GedcomTagLine tagLine = node.getNodeValue().getAsTagLine();
+
+    if (tagLine.setValue(value) == null) {
+      throw new GedcomError("Invalid value " + value + " for line " + node + ".");
+    }
+  }
+
+  /**
+   * Throws a {@link GedcomParseException} with the given message, or just
+   * counts the line if invalid lines are skipped.
+   *
+   * @param message
+   * @throws GedcomParseException
+   */
+  private void invalidLine(String message) throws GedcomParseException {
+    if (!skipInvalidLines) {
+      throw new GedcomParseException("On line " + tokenizer.getLineNumber() + ". " + message);
+    }
+
+    skippedLineCount++;
+  }
+
+  @Override
+  public void close() throws IOException {
+    tokenizer.close();
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+/**
+ * A handler which receives the lines of the gedcom data as events, without
+ * any {@link ch.thn.gedcom.data.GedcomTree} being built. Pass the handler to
+ * {@link GedcomReader#readRecord(GedcomRecordHandler)}.<br>
+ * <br>
+ * For each record, {@link #startRecord(String, String, String, String)} is called
+ * with the level 0 line, {@link #line(int, String, String, String)} is called
+ * for each sub-line in the order of the data and {@link #endRecord(String)}
+ * is called after the last sub-line.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public interface GedcomRecordHandler {
+
+  /**
+   * Called with the level 0 line of a record
+   *
+   * @param structureName The name of the record structure (like INDIVIDUAL_RECORD)
+   * @param xref The xref of the record (without the enclosing @), or <code>null</code>
+   * @param tag The tag of the record (like INDI)
+   * @param value The value of the level 0 line, or <code>null</code>
+   */
+  public void startRecord(String structureName, String xref, String tag, String value);
+
+  /**
+   * Called for each sub-line of the record
+   *
+   * @param level The level of the line (1 or higher)
+   * @param xref The xref before the tag (without the enclosing @), or <code>null</code>
+   * @param tag The tag of the line
+   * @param value The value as it is in the data (a pointer value with its
+   * enclosing @), or <code>null</code>
+   */
+  public void line(int level, String xref, String tag, String value);
+
+  /**
+   * Called after the last line of a record
+   *
+   * @param structureName The name of the record structure
+   */
+  public void endRecord(String structureName);
+
+}
@@ -0,0 +1,790 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * An index of the records (the level 0 lines) of a gedcom data file, with the
+ * xref, the structure name and the position of each record in the file. The
+ * index is built with one pass over the bytes of the file, without parsing the
+ * records, and it can be saved next to the file as sidecar index file.
+ * See {@link GedcomRecordLoader} to load single records with the index.<br>
+ * <br>
+ * Like with the {@link GedcomParallelReader}, the records are found on byte
+ * level (a line break followed by "0 "), thus the charset has to encode the
+ * ASCII characters as single bytes (like UTF-8, ASCII or ISO-8859-1).<br>
+ * <br>
+ * The index is kept in the same byte layout in memory and in the index file,
+ * thus loading an index file only maps the file into memory and reads its
+ * small header. After the header, the index has three parts:<br>
+ * - The records in the order of the file, with one long per record: the
+ * position in the lower 48 bits and the structure name (as number in a table
+ * of names) in the upper 16 bits. The records follow each other in the file,
+ * thus the length of a record is the distance to the next record.<br>
+ * - The xref lookup table, with fixed width entries of the hash of the xref,
+ * the record number and the position of the xref in the xref data. The entries
+ * are sorted by hash, thus the record of an xref is found with a binary
+ * search, and only the xrefs with the same hash have to be decoded to confirm
+ * the match.<br>
+ * - The xref data, with the length (2 bytes) and the UTF-8 bytes of each xref<br>
+ * <br>
+ * A record thus takes 8 bytes, plus 14 bytes and the length of its xref if it
+ * has one. For a typical xref like "I12345" this is 28 bytes per record. An
+ * index with variable length numbers would be about 3 times smaller, but it
+ * would have to be decoded into arrays and strings on the heap when it is
+ * loaded (about 60 bytes per record), and an xref could only be found through
+ * a hash map on the heap. With the fixed width entries, the index is used
+ * straight from the mapped file and only the pages which are used are read.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomRecordIndex {
+
+  /** "GDIX" */
+  private static final int MAGIC = 0x47444958;
+  private static final int VERSION = 3;
+
+  /** Position and structure name ID, packed in a long */
+  private static final int RECORD_ENTRY_SIZE = 8;
+  /** Hash, record number and xref position */
+  private static final int XREF_ENTRY_SIZE = 12;
+
+  /** The position takes the lower 48 bits of a record entry */
+  private static final int POSITION_BITS = 48;
+  private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+  /** The longest xref, since its length is written with 2 bytes */
+  private static final int MAX_XREF_LENGTH = 0xFFFF;
+
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+  private long fileSize = 0;
+  private long fileLastModified = 0;
+  private String charsetName = null;
+
+  private String[] structureNames = null;
+
+  private int size = 0;
+  private int xrefCount = 0;
+
+  /** The whole index, in the layout of the index file */
+  private ByteBuffer data = null;
+  private int recordTablePosition = 0;
+  private int xrefTablePosition = 0;
+  private int xrefDataPosition = 0;
+
+  /** The entry in the xref table of each record, only created by {@link #getXRef(int)} */
+  private volatile int[] xrefEntries = null;
+
+  /**
+   *
+   *
+   */
+  private GedcomRecordIndex() {
+
+  }
+
+  /**
+   * Builds the index of the given file
+   *
+   * @param store The store which knows the structure names of the record tags
+   * @param file
+   * @param charset
+   * @return
+   * @throws IOException
+   */
+  public static GedcomRecordIndex build(GedcomStore store, File file, Charset charset)
+      throws IOException {
+    GedcomRecordIndex index = new GedcomRecordIndex();
+    index.fileSize = file.length();
+    index.fileLastModified = file.lastModified();
+    index.charsetName = charset.name();
+
+    Builder builder = new Builder(store, charset);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      byte[] bytes = buffer.array();
+      long position = 0;
+      int read = 0;
+
+      while ((read = channel.read(buffer, position)) > 0) {
+        builder.scan(bytes, read, position);
+        position += read;
+        buffer.clear();
+      }
+
+      builder.finish();
+    } finally {
+      randomAccessFile.close();
+    }
+
+    index.structureNames = builder.structureNames.toArray(new String[builder.structureNames.size()]);
+    index.encode(builder);
+
+    return index;
+  }
+
+  /**
+   * Loads an index which has been saved with {@link #save(File)}. The index
+   * file is mapped into memory, only the header is read.
+   *
+   * @param indexFile
+   * @return
+   * @throws IOException
+   * @throws GedcomParseException If the file is not an index file
+   */
+  public static GedcomRecordIndex load(File indexFile) throws IOException, GedcomParseException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+    ByteBuffer data = null;
+
+    try {
+      long length = randomAccessFile.length();
+
+      if (length > Integer.MAX_VALUE) {
+        throw new GedcomParseException("The index file " + indexFile + " is too large.");
+      }
+
+      //The mapping stays valid after the file has been closed
+      data = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } finally {
+      randomAccessFile.close();
+    }
+
+    try {
+      if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+        throw new GedcomParseException("The file " + indexFile + " is not a record index file of this version.");
+      }
+
+      GedcomRecordIndex index = new GedcomRecordIndex();
+      index.fileSize = data.getLong();
+      index.fileLastModified = data.getLong();
+      index.charsetName = getString(data);
+
+      int structureNameCount = data.getInt();
+
+      if (structureNameCount < 0 || structureNameCount > data.remaining()) {
+        throw new GedcomParseException("The index file " + indexFile + " is incomplete.");
+      }
+
+      index.structureNames = new String[structureNameCount];
+
+      for (int i = 0; i < index.structureNames.length; i++) {
+        index.structureNames[i] = getString(data);
+      }
+
+      index.size = data.getInt();
+      index.xrefCount = data.getInt();
+      int xrefDataLength = data.getInt();
+
+      if (index.size < 0 || index.xrefCount < 0 || xrefDataLength < 0
+          || data.position() + (long)index.size * RECORD_ENTRY_SIZE
+          + (long)index.xrefCount * XREF_ENTRY_SIZE + xrefDataLength != data.limit()) {
+        throw new GedcomParseException("The index file " + indexFile + " is incomplete.");
+      }
+
+      index.data = data;
+      index.setTablePositions(data.position());
+
+      return index;
+    } catch (BufferUnderflowException e) {
+      throw new GedcomParseException("The index file " + indexFile + " is incomplete.");
+    }
+  }
+
+  /**
+   * Saves this index to the given file. The index is written to a temporary
+   * file next to it first, which then replaces the index file. An index
+   * which has been loaded from the file before (and which maps the file into
+   * memory) thus never sees a partly written file.
+   *
+   * @param indexFile
+   * @throws IOException
+   */
+  public void save(File indexFile) throws IOException {
+    File tempFile = File.createTempFile(indexFile.getName(), ".tmp",
+        indexFile.getAbsoluteFile().getParentFile());
+
+    try {
+      FileOutputStream out = new FileOutputStream(tempFile);
+
+      try {
+        FileChannel channel = out.getChannel();
+        ByteBuffer buffer = data.duplicate();
+        buffer.clear();
+
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } finally {
+        out.close();
+      }
+
+      try {
+        Files.move(tempFile.toPath(), indexFile.toPath(),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tempFile.toPath());
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if this index has been built from the given
+   * file in its current state (same size and last modification time)
+   *
+   * @param file
+   * @return
+   */
+  public boolean isUpToDate(File file) {
+    return file.length() == fileSize && file.lastModified() == fileLastModified;
+  }
+
+  /**
+   * Writes the records of the builder into the byte layout of the index file
+   *
+   * @param builder
+   * @throws IOException If the index does not fit into one buffer
+   */
+  private void encode(Builder builder) throws IOException {
+    size = builder.size;
+
+    byte[][] xrefBytes = new byte[size][];
+    long[] xrefKeys = new long[size];
+    long xrefDataLength = 0;
+
+    for (int i = 0; i < size; i++) {
+      String xref = builder.xrefs[i];
+
+      if (xref != null) {
+        xrefBytes[i] = xref.getBytes(StandardCharsets.UTF_8);
+
+        if (xrefBytes[i].length > MAX_XREF_LENGTH) {
+          throw new IOException("The xref of record " + i + " is too long.");
+        }
+
+        //Sorted by hash first, then by record number
+        xrefKeys[xrefCount++] = ((long)xref.hashCode() << 32) | i;
+        xrefDataLength += 2 + xrefBytes[i].length;
+      }
+    }
+
+    if (structureNames.length >= 0xFFFF
+        || (size > 0 && builder.offsets[size - 1] > POSITION_MASK)) {
+      throw new IOException("The file is too large to be indexed.");
+    }
+
+    byte[] charsetNameBytes = charsetName.getBytes(StandardCharsets.UTF_8);
+    byte[][] structureNameBytes = new byte[structureNames.length][];
+    long headerLength = 4 + 4 + 8 + 8 + 2 + charsetNameBytes.length + 4 + 4 + 4 + 4;
+
+    for (int i = 0; i < structureNames.length; i++) {
+      structureNameBytes[i] = structureNames[i].getBytes(StandardCharsets.UTF_8);
+      headerLength += 2 + structureNameBytes[i].length;
+    }
+
+    long length = headerLength + (long)size * RECORD_ENTRY_SIZE
+        + (long)xrefCount * XREF_ENTRY_SIZE + xrefDataLength;
+
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("The index with " + size + " records is too large.");
+    }
+
+    data = ByteBuffer.allocate((int)length);
+    data.putInt(MAGIC);
+    data.putInt(VERSION);
+    data.putLong(fileSize);
+    data.putLong(fileLastModified);
+    putString(data, charsetNameBytes);
+    data.putInt(structureNames.length);
+
+    for (byte[] structureName : structureNameBytes) {
+      putString(data, structureName);
+    }
+
+    data.putInt(size);
+    data.putInt(xrefCount);
+    data.putInt((int)xrefDataLength);
+    setTablePositions(data.position());
+
+    //The xref data, in the order of the records
+    int[] xrefPositions = new int[size];
+    data.position(xrefDataPosition);
+
+    for (int i = 0; i < size; i++) {
+      if (xrefBytes[i] == null) {
+        xrefPositions[i] = -1;
+      } else {
+        xrefPositions[i] = data.position() - xrefDataPosition;
+        data.putShort((short)xrefBytes[i].length);
+        data.put(xrefBytes[i]);
+      }
+    }
+
+    data.position(recordTablePosition);
+
+    for (int i = 0; i < size; i++) {
+      //The structure name ID + 1 in the upper bits, thus -1 becomes 0
+      data.putLong(builder.offsets[i]
+          | ((long)(builder.recordStructureNameIds[i] + 1) << POSITION_BITS));
+    }
+
+    Arrays.sort(xrefKeys, 0, xrefCount);
+
+    for (int i = 0; i < xrefCount; i++) {
+      int recordNumber = (int)xrefKeys[i];
+      data.putInt((int)(xrefKeys[i] >> 32));
+      data.putInt(recordNumber);
+      data.putInt(xrefPositions[recordNumber]);
+    }
+
+    data.clear();
+  }
+
+  /**
+   * Sets the positions of the parts of the index, which follow the header
+   *
+   * @param headerLength
+   */
+  private void setTablePositions(int headerLength) {
+    recordTablePosition = headerLength;
+    xrefTablePosition = recordTablePosition + size * RECORD_ENTRY_SIZE;
+    xrefDataPosition = xrefTablePosition + xrefCount * XREF_ENTRY_SIZE;
+  }
+
+  /**
+   * The number of records
+   *
+   * @return
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of the record with the given xref
+   *
+   * @param xref The xref without the enclosing @
+   * @return The record number, or -1 if there is no record with the given xref
+   */
+  public int getRecordNumber(String xref) {
+    if (xref == null) {
+      return -1;
+    }
+
+    int hash = xref.hashCode();
+
+    //The first entry with the hash
+    int low = 0;
+    int high = xrefCount;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (data.getInt(xrefTablePosition + middle * XREF_ENTRY_SIZE) < hash) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    int recordNumber = -1;
+
+    //Only the xrefs with the same hash have to be compared. With the same
+    //xref more than once, the last record is used
+    for (int i = low; i < xrefCount; i++) {
+      int entry = xrefTablePosition + i * XREF_ENTRY_SIZE;
+
+      if (data.getInt(entry) != hash) {
+        break;
+      }
+
+      if (xref.equals(getXRefAt(data.getInt(entry + 8)))) {
+        recordNumber = data.getInt(entry + 4);
+      }
+    }
+
+    return recordNumber;
+  }
+
+  /**
+   * Returns the byte position of the record in the file
+   *
+   * @param recordNumber
+   * @return
+   */
+  public long getOffset(int recordNumber) {
+    return data.getLong(getRecordEntry(recordNumber)) & POSITION_MASK;
+  }
+
+  /**
+   * Returns the number of bytes of the record, including all its sub-lines
+   *
+   * @param recordNumber
+   * @return
+   */
+  public int getLength(int recordNumber) {
+    long end = recordNumber + 1 < size ? getOffset(recordNumber + 1) : fileSize;
+    return (int)(end - getOffset(recordNumber));
+  }
+
+  /**
+   * Returns the xref of the given record. The xrefs are only kept in the xref
+   * table, which is sorted by hash. The first call thus creates a table with
+   * the xref entry of each record (4 bytes per record on the heap).
+   *
+   * @param recordNumber
+   * @return The xref, or <code>null</code> if the record does not have an xref
+   */
+  public String getXRef(int recordNumber) {
+    getRecordEntry(recordNumber);
+    int[] entries = xrefEntries;
+
+    if (entries == null) {
+      entries = new int[size];
+      Arrays.fill(entries, -1);
+
+      for (int i = 0; i < xrefCount; i++) {
+        entries[data.getInt(xrefTablePosition + i * XREF_ENTRY_SIZE + 4)] = i;
+      }
+
+      //Created again if another thread has not seen it yet, which does no harm
+      xrefEntries = entries;
+    }
+
+    int entry = entries[recordNumber];
+
+    if (entry == -1) {
+      return null;
+    }
+
+    return getXRefAt(data.getInt(xrefTablePosition + entry * XREF_ENTRY_SIZE + 8));
+  }
+
+  /**
+   *
+   *
+   * @param recordNumber
+   * @return The structure name, or <code>null</code> if there is no record
+   * structure for the tag of the record
+   */
+  public String getStructureName(int recordNumber) {
+    int id = (int)(data.getLong(getRecordEntry(recordNumber)) >>> POSITION_BITS) - 1;
+    return id == -1 ? null : structureNames[id];
+  }
+
+  /**
+   * The name of the charset the file has been indexed with
+   *
+   * @return
+   */
+  public String getCharsetName() {
+    return charsetName;
+  }
+
+  /**
+   * Decodes the xref at the given position of the xref data. The bytes are
+   * read with absolute positions, thus the index can be used by multiple
+   * threads at the same time.
+   *
+   * @param xrefPosition
+   * @return
+   */
+  private String getXRefAt(int xrefPosition) {
+    int position = xrefDataPosition + xrefPosition;
+    byte[] bytes = new byte[data.getShort(position) & 0xFFFF];
+
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = data.get(position + 2 + i);
+    }
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the position of the entry of the given record in the record table
+   *
+   * @param recordNumber
+   * @return
+   */
+  private int getRecordEntry(int recordNumber) {
+    if (recordNumber < 0 || recordNumber >= size) {
+      throw new IndexOutOfBoundsException("Record " + recordNumber + " does not exist. "
+          + "The index has " + size + " records.");
+    }
+
+    return recordTablePosition + recordNumber * RECORD_ENTRY_SIZE;
+  }
+
+  /**
+   * Writes a string with a length of 2 bytes
+   *
+   * @param buffer
+   * @param bytes
+   */
+  private static void putString(ByteBuffer buffer, byte[] bytes) {
+    buffer.putShort((short)bytes.length);
+    buffer.put(bytes);
+  }
+
+  /**
+   *
+   *
+   * @param buffer
+   * @return
+   */
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+
+
+  /**************************************************************************
+   * Finds the level 0 lines in the bytes of the file, which are passed in
+   * blocks. A level 0 line can be split between two blocks.
+   *
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static class Builder {
+
+    private GedcomStore store = null;
+    private Charset charset = null;
+
+    private int size = 0;
+    private long[] offsets = new long[1024];
+    private String[] xrefs = new String[1024];
+    private int[] recordStructureNameIds = new int[1024];
+
+    private List<String> structureNames = new ArrayList<>();
+    private HashMap<String, Integer> structureNameIds = new HashMap<>();
+
+    private boolean lineStart = true;
+    private boolean firstBlock = true;
+
+    /** The bytes of the current level 0 line, -1 if not in a level 0 line */
+    private byte[] line = new byte[256];
+    private int lineLength = -1;
+    private long lineOffset = 0;
+
+    /** A line which starts with "0", which is a level 0 line if a space follows */
+    private boolean zeroSeen = false;
+
+    /**
+     *
+     *
+     * @param store
+     * @param charset
+     */
+    public Builder(GedcomStore store, Charset charset) {
+      this.store = store;
+      this.charset = charset;
+    }
+
+    /**
+     *
+     *
+     * @param bytes
+     * @param length
+     * @param position The position of the first byte in the file
+     */
+    public void scan(byte[] bytes, int length, long position) {
+      int i = 0;
+
+      //Skip a UTF-8 byte order mark
+      if (firstBlock) {
+        firstBlock = false;
+
+        if (length >= 3 && bytes[0] == (byte)0xEF && bytes[1] == (byte)0xBB && bytes[2] == (byte)0xBF) {
+          i = 3;
+        }
+      }
+
+      for (; i < length; i++) {
+        byte b = bytes[i];
+
+        if (b == '\n' || b == '\r') {
+          if (lineLength != -1) {
+            endLine();
+          }
+
+          zeroSeen = false;
+          lineStart = true;
+          continue;
+        }
+
+        if (lineLength != -1) {
+          append(b);
+        } else if (zeroSeen) {
+          zeroSeen = false;
+
+          if (b == ' ') {
+            //A level 0 line
+            lineOffset = position + i - 1;
+            lineLength = 0;
+            append((byte)'0');
+            append(b);
+          }
+        } else if (lineStart && b == '0') {
+          zeroSeen = true;
+        }
+
+        lineStart = false;
+      }
+    }
+
+    /**
+     * Adds the last record if the file does not end with a line break
+     *
+     */
+    public void finish() {
+      if (lineLength != -1) {
+        endLine();
+      }
+    }
+
+    /**
+     * Adds a record
+     *
+     * @param offset
+     * @param xref
+     * @param structureNameId
+     */
+    private void addRecord(long offset, String xref, int structureNameId) {
+      if (size == offsets.length) {
+        int capacity = size * 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        xrefs = Arrays.copyOf(xrefs, capacity);
+        recordStructureNameIds = Arrays.copyOf(recordStructureNameIds, capacity);
+      }
+
+      offsets[size] = offset;
+      xrefs[size] = xref;
+      recordStructureNameIds[size] = structureNameId;
+      size++;
+    }
+
+    /**
+     *
+     *
+     * @param b
+     */
+    private void append(byte b) {
+      if (lineLength == line.length) {
+        line = Arrays.copyOf(line, line.length * 2);
+      }
+
+      line[lineLength++] = b;
+    }
+
+    /**
+     * Extracts the xref and the tag of the current level 0 line
+     * ("0 [@xref@ ]TAG [value]")
+     */
+    private void endLine() {
+      int pos = 2;
+      String xref = null;
+
+      while (pos < lineLength && line[pos] == ' ') {
+        pos++;
+      }
+
+      if (pos < lineLength && line[pos] == '@') {
+        int xrefEnd = pos + 1;
+
+        while (xrefEnd < lineLength && line[xrefEnd] != '@') {
+          xrefEnd++;
+        }
+
+        xref = new String(line, pos + 1, xrefEnd - pos - 1, charset);
+        pos = xrefEnd + 1;
+
+        while (pos < lineLength && line[pos] == ' ') {
+          pos++;
+        }
+      }
+
+      int tagEnd = pos;
+
+      while (tagEnd < lineLength && line[tagEnd] != ' ') {
+        tagEnd++;
+      }
+
+      String tag = new String(line, pos, tagEnd - pos, charset);
+
+      addRecord(lineOffset, xref, getStructureNameId(tag));
+      lineLength = -1;
+    }
+
+    /**
+     *
+     *
+     * @param tag
+     * @return
+     */
+    private int getStructureNameId(String tag) {
+      Integer id = structureNameIds.get(tag);
+
+      if (id == null) {
+        String structureName = store.getStructureNameForTag(tag);
+
+        if (structureName == null) {
+          id = -1;
+        } else {
+          id = structureNames.indexOf(structureName);
+
+          if (id == -1) {
+            id = structureNames.size();
+            structureNames.add(structureName);
+          }
+        }
+
+        structureNameIds.put(tag, id);
+      }
+
+      return id;
+    }
+
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.store.GedcomParseException;
+
+/**
+ * A pull-style iterator over the records of a {@link GedcomReader}. Each call
+ * to {@link #next()} reads one more record from the input, thus a record which
+ * is not referenced anymore by the caller can be garbage collected and files
+ * of any size can be processed.<br>
+ * <br>
+ * Since an {@link Iterator} can not throw checked exceptions, any
+ * {@link IOException} or {@link GedcomParseException} is thrown wrapped in a
+ * {@link GedcomReadError}.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomRecordIterator implements Iterator<GedcomTree> {
+
+  private GedcomReader reader = null;
+
+  private GedcomTree nextRecord = null;
+
+  private boolean endReached = false;
+
+  /**
+   *
+   *
+   * @param reader
+   */
+  public GedcomRecordIterator(GedcomReader reader) {
+    this.reader = reader;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextRecord == null && !endReached) {
+      try {
+        nextRecord = reader.readRecord();
+      } catch (IOException e) {
+        throw new GedcomReadError("Failed to read the next record. " + e.getMessage(), e);
+      } catch (GedcomParseException e) {
+        throw new GedcomReadError(e.getMessage(), e);
+      }
+
+      endReached = (nextRecord == null);
+    }
+
+    return nextRecord != null;
+  }
+
+  @Override
+  public GedcomTree next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException("No more records available");
+    }
+
+    GedcomTree record = nextRecord;
+    nextRecord = null;
+    return record;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Records can not be removed from the input");
+  }
+
+  /**
+   * Creates a {@link Spliterator} over the remaining records, for example to
+   * process the records with <code>StreamSupport.stream(iterator.spliterator(), false)</code>.
+   * The records are read sequentially from the input.
+   *
+   * @return
+   */
+  public Spliterator<GedcomTree> spliterator() {
+    return Spliterators.spliteratorUnknownSize(this,
+        Spliterator.ORDERED | Spliterator.NONNULL);
+  }
+
+}
@@ -0,0 +1,222 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Loads single records of a gedcom data file on demand, with the help of a
+ * {@link GedcomRecordIndex}. Only the bytes of the requested record are read
+ * from the file and parsed, thus the records do not have to be kept in memory
+ * and files of any size can be used.<br>
+ * <br>
+ * The index is kept in a sidecar file next to the data file (see
+ * {@link #getIndexFile(File)}). It is built with the first pass over the data
+ * file, and it is built again if the data file has changed since.<br>
+ * <br>
+ * Records are read with positional reads on the file channel, thus
+ * the loader can be used by multiple threads at the same time.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomRecordLoader implements Closeable {
+
+  /** The extension which is appended to the data file name for the index file */
+  public static final String INDEX_FILE_EXTENSION = ".gdx";
+
+  private GedcomStore store = null;
+  private Charset charset = null;
+  private GedcomRecordIndex index = null;
+
+  private RandomAccessFile file = null;
+  private FileChannel channel = null;
+
+  private boolean skipInvalidLines = false;
+
+  /**
+   * Opens the given UTF-8 encoded file
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param file
+   * @throws IOException
+   */
+  public GedcomRecordLoader(GedcomStore store, File file) throws IOException {
+    this(store, file, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Opens the given file, with the given charset. The index is loaded from
+   * the index file, or it is built (and saved) if there is no index file
+   * for the current state of the data file. If the index file can not be
+   * written (like in a read-only directory), the index is only kept in memory.
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param file
+   * @param charset
+   * @throws IOException
+   */
+  public GedcomRecordLoader(GedcomStore store, File file, Charset charset) throws IOException {
+    this.store = store;
+    this.charset = charset;
+
+    File indexFile = getIndexFile(file);
+
+    if (indexFile.exists()) {
+      try {
+        index = GedcomRecordIndex.load(indexFile);
+      } catch (GedcomParseException | IOException e) {
+        //Not a valid or not a readable index file. Build it again
+        index = null;
+      }
+
+      if (index != null && (!index.isUpToDate(file) || !charset.name().equals(index.getCharsetName()))) {
+        index = null;
+      }
+    }
+
+    if (index == null) {
+      index = GedcomRecordIndex.build(store, file, charset);
+
+      try {
+        index.save(indexFile);
+      } catch (IOException e) {
+        //The index can still be used, it only has to be built again the next time
+      }
+    }
+
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+  }
+
+  /**
+   * Opens the given file with an index which is already available
+   *
+   * @param store The store with the grammar of the gedcom data
+   * @param file
+   * @param charset
+   * @param index
+   * @throws IOException
+   */
+  public GedcomRecordLoader(GedcomStore store, File file, Charset charset,
+      GedcomRecordIndex index) throws IOException {
+    this.store = store;
+    this.charset = charset;
+    this.index = index;
+
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+  }
+
+  /**
+   * Returns the index file of the given data file
+   *
+   * @param file
+   * @return
+   */
+  public static File getIndexFile(File file) {
+    return new File(file.getPath() + INDEX_FILE_EXTENSION);
+  }
+
+  /**
+   * See {@link GedcomReader#skipInvalidLines(boolean)}
+   *
+   * @param skip
+   */
+  public void skipInvalidLines(boolean skip) {
+    this.skipInvalidLines = skip;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public GedcomRecordIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Loads the record with the given xref
+   *
+   * @param xref The xref without the enclosing @
+   * @return The record, or <code>null</code> if there is no record with the given xref
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  public GedcomTree load(String xref) throws IOException, GedcomParseException {
+    int recordNumber = index.getRecordNumber(xref);
+
+    if (recordNumber == -1) {
+      return null;
+    }
+
+    return load(recordNumber);
+  }
+
+  /**
+   * Loads the record with the given number (the records are numbered in the
+   * order of the file, starting with 0)
+   *
+   * @param recordNumber
+   * @return The record, or <code>null</code> if the record has been skipped
+   * because it is invalid and invalid lines are skipped
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  public GedcomTree load(int recordNumber) throws IOException, GedcomParseException {
+    long offset = index.getOffset(recordNumber);
+    ByteBuffer buffer = ByteBuffer.allocate(index.getLength(recordNumber));
+
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("The file ends within record " + recordNumber
+            + ". The index might be outdated.");
+      }
+    }
+
+    buffer.flip();
+
+    GedcomReader reader = new GedcomReader(store, new GedcomMappedTokenizer(buffer, charset));
+    reader.skipInvalidLines(skipInvalidLines);
+
+    try {
+      return reader.readRecord();
+    } catch (GedcomParseException e) {
+      throw new GedcomParseException("In record " + recordNumber + " at byte " + offset + ". " + e.getMessage());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+}
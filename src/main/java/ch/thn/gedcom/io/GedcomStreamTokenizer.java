@@ -0,0 +1,210 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import ch.thn.gedcom.store.GedcomParseException;
+
+/**
+ * A {@link GedcomTokenizer} which reads the gedcom lines from a character stream.
+ * The lines are split by hand (no regular expressions), and only the line
+ * itself and its pieces are created as strings.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomStreamTokenizer extends GedcomTokenizer {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private BufferedReader reader = null;
+
+  private int lineNumber = 0;
+  private int level = 0;
+  private String xref = null;
+  private String tag = null;
+  private String value = null;
+
+  /**
+   * Reads the gedcom lines from the given input stream, using UTF-8
+   *
+   * @param input
+   */
+  public GedcomStreamTokenizer(InputStream input) {
+    this(input, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the gedcom lines from the given input stream, using the given charset
+   *
+   * @param input
+   * @param charset
+   */
+  public GedcomStreamTokenizer(InputStream input, Charset charset) {
+    this(new InputStreamReader(input, charset));
+  }
+
+  /**
+   * Reads the gedcom lines from the given reader
+   *
+   * @param reader
+   */
+  public GedcomStreamTokenizer(Reader reader) {
+    this.reader = new BufferedReader(reader, BUFFER_SIZE);
+  }
+
+  @Override
+  public boolean next() throws IOException, GedcomParseException {
+    String line = null;
+
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+
+      if (tokenize(line)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Splits the given line in its pieces.
+   *
+   * @param line
+   * @return <code>false</code> if the line is empty
+   * @throws GedcomParseException
+   */
+  private boolean tokenize(String line) throws GedcomParseException {
+    int length = line.length();
+    int pos = 0;
+
+    //Skip leading white space (and a byte order mark on the first line)
+    while (pos < length && (line.charAt(pos) == ' ' || line.charAt(pos) == '\t'
+        || line.charAt(pos) == '\uFEFF')) {
+      pos++;
+    }
+
+    if (pos == length) {
+      return false;
+    }
+
+    //Level
+    level = 0;
+    int levelStart = pos;
+    while (pos < length && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+      level = level * 10 + (line.charAt(pos) - '0');
+      pos++;
+    }
+
+    if (pos == levelStart || pos - levelStart > 2) {
+      throw new GedcomParseException("On line " + lineNumber + " '" + line + "'. " +
+          "The line has to start with a level number 0-99.");
+    }
+
+    pos = skipDelimiter(line, pos);
+
+    //Optional xref before the tag
+    xref = null;
+    if (pos < length && line.charAt(pos) == '@') {
+      int xrefEnd = line.indexOf('@', pos + 1);
+
+      if (xrefEnd == -1) {
+        throw new GedcomParseException("On line " + lineNumber + " '" + line + "'. " +
+            "The xref is not terminated with @.");
+      }
+
+      xref = line.substring(pos + 1, xrefEnd);
+      pos = skipDelimiter(line, xrefEnd + 1);
+    }
+
+    //Tag
+    int tagStart = pos;
+    while (pos < length && line.charAt(pos) != ' ') {
+      pos++;
+    }
+
+    if (pos == tagStart) {
+      throw new GedcomParseException("On line " + lineNumber + " '" + line + "'. " +
+          "The line does not have a tag.");
+    }
+
+    tag = line.substring(tagStart, pos);
+
+    //Optional value. Only the one delimiter after the tag is skipped, all
+    //the other characters belong to the value
+    value = null;
+    if (pos + 1 < length) {
+      value = line.substring(pos + 1);
+    }
+
+    return true;
+  }
+
+  /**
+   * Skips all the delimiter spaces, starting at the given position
+   *
+   * @param line
+   * @param pos
+   * @return The position of the first character after the delimiter
+   */
+  private static int skipDelimiter(String line, int pos) {
+    while (pos < line.length() && line.charAt(pos) == ' ') {
+      pos++;
+    }
+
+    return pos;
+  }
+
+  @Override
+  public int getLevel() {
+    return level;
+  }
+
+  @Override
+  public String getXRef() {
+    return xref;
+  }
+
+  @Override
+  public String getTag() {
+    return tag;
+  }
+
+  @Override
+  public String getValue() {
+    return value;
+  }
+
+  @Override
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+}
@@ -0,0 +1,126 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import ch.thn.gedcom.store.GedcomParseException;
+
+/**
+ * A tokenizer splits the lines of a gedcom data file into their pieces. A gedcom
+ * data line looks like:
+ * <pre>
+ * level [@xref@] TAG [value]
+ * </pre>
+ * The tokenizer moves forward line by line with {@link #next()}. After each
+ * call, the pieces of the current line can be retrieved with the getter methods.
+ * Empty lines are skipped.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public abstract class GedcomTokenizer implements Closeable {
+
+  /**
+   * Moves to the next (non-empty) line.
+   *
+   * @return <code>true</code> if there is a next line, <code>false</code> if
+   * the end of the input has been reached
+   * @throws IOException
+   * @throws GedcomParseException If the line does not have a valid gedcom line format
+   */
+  public abstract boolean next() throws IOException, GedcomParseException;
+
+  /**
+   * Returns the level number of the current line
+   *
+   * @return
+   */
+  public abstract int getLevel();
+
+  /**
+   * Returns the xref (without the enclosing @) which appears before the tag,
+   * or <code>null</code> if the current line does not have an xref before the tag.
+   *
+   * @return
+   */
+  public abstract String getXRef();
+
+  /**
+   * Returns the tag of the current line
+   *
+   * @return
+   */
+  public abstract String getTag();
+
+  /**
+   * Returns the value of the current line, or <code>null</code> if the line
+   * does not have a value. The value is returned as it is in the file, thus
+   * a pointer value is returned with its enclosing @.
+   *
+   * @return
+   */
+  public abstract String getValue();
+
+  /**
+   * Returns <code>true</code> if the current line has a value. Unlike
+   * <code>getValue() != null</code>, this does not require the value to be
+   * created.
+   *
+   * @return
+   */
+  public boolean hasValue() {
+    return getValue() != null;
+  }
+
+  /**
+   * Returns the number of the current line in the input, starting with 1
+   *
+   * @return
+   */
+  public abstract int getLineNumber();
+
+  /**
+   * Returns <code>true</code> if the value of the current line is a pointer
+   * to another record (like @I1@ in "1 FAMS @I1@")
+   *
+   * @return
+   */
+  public boolean isPointerValue() {
+    String value = getValue();
+    return value != null && value.length() > 2
+        && value.charAt(0) == '@' && value.charAt(value.length() - 1) == '@'
+        && value.charAt(1) != '#';
+  }
+
+  /**
+   * Returns the pointer value without the enclosing @, or <code>null</code> if
+   * the value of the current line is not a pointer.
+   *
+   * @return
+   */
+  public String getPointerValue() {
+    if (!isPointerValue()) {
+      return null;
+    }
+
+    String value = getValue();
+    return value.substring(1, value.length() - 1);
+  }
+
+}
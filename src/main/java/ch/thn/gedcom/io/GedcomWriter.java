@@ -0,0 +1,476 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import ch.thn.gedcom.data.GedcomLine;
+import ch.thn.gedcom.data.GedcomNode;
+import ch.thn.gedcom.data.GedcomTagLine;
+
+/**
+ * Writes gedcom structures as gedcom data lines directly into a channel.
+ * Unlike the {@link ch.thn.gedcom.printer.GedcomStructureTextPrinter}, the
+ * tree is not copied and the output is not collected in memory. The lines are
+ * written while walking the tree depth-first.<br>
+ * <br>
+ * Structure lines are not written (their child lines are written on the level
+ * of the structure line), and lines without value/xref are skipped with the
+ * same rules as in the printers (see {@link GedcomNode#skipLinePrint(boolean, boolean)}).
+ * Long values and values with line breaks are split into CONC/CONT lines
+ * (see {@link #foldValues(boolean)}).
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomWriter implements Closeable, Flushable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The default maximum number of characters of a value on one line */
+  public static final int DEFAULT_MAX_VALUE_LENGTH = 248;
+
+  private WritableByteChannel channel = null;
+  private CharsetEncoder encoder = null;
+
+  private CharBuffer chars = null;
+  private ByteBuffer bytes = null;
+
+  private String lineSeparator = "\n";
+
+  private boolean printEmptyLines = false;
+  private boolean printLinesWithNoValueSet = false;
+
+  private boolean foldValues = true;
+  private int maxValueLength = DEFAULT_MAX_VALUE_LENGTH;
+
+  /**
+   * Writes UTF-8 encoded gedcom data to the given stream
+   *
+   * @param output
+   */
+  public GedcomWriter(OutputStream output) {
+    this(Channels.newChannel(output), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes gedcom data to the given stream, encoded with the given charset
+   *
+   * @param output
+   * @param charset
+   */
+  public GedcomWriter(OutputStream output, Charset charset) {
+    this(Channels.newChannel(output), charset);
+  }
+
+  /**
+   * Writes gedcom data to the given channel, encoded with the given charset
+   *
+   * @param channel
+   * @param charset
+   */
+  public GedcomWriter(WritableByteChannel channel, Charset charset) {
+    this.channel = channel;
+
+    encoder = charset.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    chars = CharBuffer.allocate(BUFFER_SIZE);
+    bytes = ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  /**
+   * Sets the line separator. The default is "\n".
+   *
+   * @param lineSeparator
+   */
+  public void setLineSeparator(String lineSeparator) {
+    this.lineSeparator = lineSeparator;
+  }
+
+  /**
+   * If set to <code>true</code>, lines which require a value/xref are also
+   * written if an empty value/xref has been set. The default is <code>false</code>.
+   *
+   * @param print
+   */
+  public void printEmptyLines(boolean print) {
+    printEmptyLines = print;
+  }
+
+  /**
+   * If set to <code>true</code>, lines which require a value/xref are also
+   * written if no value/xref has been set. The default is <code>false</code>.
+   *
+   * @param print
+   */
+  public void printLinesWithNoValueSet(boolean print) {
+    printLinesWithNoValueSet = print;
+  }
+
+  /**
+   * If set to <code>true</code> (the default), values with line breaks are
+   * split into CONT lines and values which are longer than the maximum
+   * value length are split into CONC lines. If set to <code>false</code>,
+   * all values are written as they are.
+   *
+   * @param fold
+   */
+  public void foldValues(boolean fold) {
+    foldValues = fold;
+  }
+
+  /**
+   * Sets the maximum number of characters of a value on one line, before the
+   * value is continued on a CONC line. The default is {@link #DEFAULT_MAX_VALUE_LENGTH}.
+   *
+   * @param maxValueLength
+   */
+  public void setMaxValueLength(int maxValueLength) {
+    if (maxValueLength < 2) {
+      throw new IllegalArgumentException("The maximum value length has to be at least 2");
+    }
+
+    this.maxValueLength = maxValueLength;
+  }
+
+  /**
+   * Writes the given node and all its child lines. The first written line
+   * gets level 0. The given node itself is never skipped.
+   *
+   * @param node
+   * @throws IOException
+   */
+  public void write(GedcomNode node) throws IOException {
+    write(node, 0, true);
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @param level
+   * @param first
+   * @throws IOException
+   */
+  private void write(GedcomNode node, int level, boolean first) throws IOException {
+    GedcomLine line = node.getNodeValue();
+
+    if (line == null || line.isStructureLine()) {
+      //Structure lines are invisible. Continue with the child lines on the same level
+      for (GedcomNode child : node.getChildNodes()) {
+        write(child, level, first);
+      }
+
+      return;
+    }
+
+    if (!first && node.skipLinePrint(printEmptyLines, printLinesWithNoValueSet)) {
+      return;
+    }
+
+    writeLine(level, line.getAsTagLine());
+
+    for (GedcomNode child : node.getChildNodes()) {
+      write(child, level + 1, false);
+    }
+  }
+
+  /**
+   * Writes one line in the form "level [@xref@] TAG [value]" (or
+   * "level TAG @xref@" for lines with a pointer)
+   *
+   * @param level
+   * @param tagLine
+   * @throws IOException
+   */
+  private void writeLine(int level, GedcomTagLine tagLine) throws IOException {
+    boolean writeXRef = tagLine.requiresXRef() && !tagLine.isXRefEmpty();
+
+    append(level);
+
+    if (tagLine.hasTagBeforeXRef()) {
+      append(' ');
+      append(tagLine.getTag());
+    }
+
+    if (writeXRef) {
+      append(' ');
+      append('@');
+      append(tagLine.getXRef());
+      append('@');
+    }
+
+    if (tagLine.hasTagAfterXRef()) {
+      append(' ');
+      append(tagLine.getTag());
+    }
+
+    if (tagLine.requiresValue() && !tagLine.isValueEmpty()) {
+      if (foldValues) {
+        appendFolded(level, tagLine.getValue());
+      } else {
+        append(' ');
+        append(tagLine.getValue());
+      }
+    }
+
+    append(lineSeparator);
+  }
+
+  /**
+   * Appends the given value. Line breaks in the value (\n, \r or \r\n)
+   * continue the value on a CONT line, and parts which are longer than the maximum value length are
+   * continued on CONC lines. The parts are written directly from the value,
+   * without creating any sub-strings.
+   *
+   * @param level The level of the line with the value
+   * @param value
+   * @throws IOException
+   */
+  private void appendFolded(int level, String value) throws IOException {
+    int length = value.length();
+    int start = 0;
+    boolean firstLine = true;
+
+    while (true) {
+      int end = indexOfLineBreak(value, start);
+      int nextLine = end + 1;
+
+      if (end == -1) {
+        end = length;
+        nextLine = -1;
+      } else if (value.charAt(end) == '\r' && nextLine < length && value.charAt(nextLine) == '\n') {
+        nextLine++;
+      }
+
+      boolean firstPart = true;
+
+      do {
+        int partEnd = end;
+
+        if (partEnd - start > maxValueLength) {
+          partEnd = getSplitPosition(value, start, start + maxValueLength);
+        }
+
+        if (!firstLine) {
+          append(lineSeparator);
+          append(level + 1);
+          append(firstPart ? " CONT" : " CONC");
+        }
+
+        if (partEnd > start) {
+          append(' ');
+          append(value, start, partEnd);
+        }
+
+        start = partEnd;
+        firstLine = false;
+        firstPart = false;
+      } while (start < end);
+
+      if (nextLine == -1) {
+        break;
+      }
+
+      start = nextLine;
+    }
+  }
+
+  /**
+   * Returns the position of the next line break (\n, \r or \r\n)
+   *
+   * @param value
+   * @param start
+   * @return The position, or -1 if there is no more line break
+   */
+  private static int indexOfLineBreak(String value, int start) {
+    for (int i = start; i < value.length(); i++) {
+      char c = value.charAt(i);
+
+      if (c == '\n' || c == '\r') {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Moves the given split position back so that the value is not split
+   * next to a space (some programs trim the values) or within a surrogate pair.
+   *
+   * @param value
+   * @param start
+   * @param split
+   * @return
+   */
+  private static int getSplitPosition(String value, int start, int split) {
+    int position = split;
+
+    while (position > start + 1 && (value.charAt(position - 1) == ' '
+        || value.charAt(position) == ' ')) {
+      position--;
+    }
+
+    if (position == start + 1) {
+      //Only spaces
+      position = split;
+    }
+
+    if (Character.isHighSurrogate(value.charAt(position - 1))) {
+      position--;
+    }
+
+    return position;
+  }
+
+  /**
+   *
+   *
+   * @param number
+   * @throws IOException
+   */
+  private void append(int number) throws IOException {
+    if (number >= 10) {
+      append(number / 10);
+    }
+
+    append((char)('0' + number % 10));
+  }
+
+  /**
+   *
+   *
+   * @param c
+   * @throws IOException
+   */
+  private void append(char c) throws IOException {
+    if (!chars.hasRemaining()) {
+      encode(false);
+    }
+
+    chars.put(c);
+  }
+
+  /**
+   *
+   *
+   * @param string
+   * @throws IOException
+   */
+  private void append(String string) throws IOException {
+    append(string, 0, string.length());
+  }
+
+  /**
+   *
+   *
+   * @param string
+   * @param start
+   * @param end
+   * @throws IOException
+   */
+  private void append(String string, int start, int end) throws IOException {
+    while (start < end) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+
+      int partEnd = Math.min(end, start + chars.remaining());
+      chars.put(string, start, partEnd);
+      start = partEnd;
+    }
+  }
+
+  /**
+   * Encodes the buffered characters and writes the bytes to the channel
+   *
+   * @param endOfInput
+   * @throws IOException
+   */
+  private void encode(boolean endOfInput) throws IOException {
+    chars.flip();
+
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, endOfInput);
+
+      if (result.isOverflow()) {
+        writeBytes();
+      } else {
+        break;
+      }
+    }
+
+    if (endOfInput) {
+      while (encoder.flush(bytes).isOverflow()) {
+        writeBytes();
+      }
+    }
+
+    //Keep any characters which could not be encoded yet (like half of a surrogate pair)
+    chars.compact();
+  }
+
+  /**
+   *
+   *
+   * @throws IOException
+   */
+  private void writeBytes() throws IOException {
+    bytes.flip();
+
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+
+    bytes.clear();
+  }
+
+  /**
+   * Writes all the buffered lines to the channel
+   */
+  @Override
+  public void flush() throws IOException {
+    encode(false);
+    writeBytes();
+  }
+
+  /**
+   * Writes all the buffered lines and closes the channel
+   */
+  @Override
+  public void close() throws IOException {
+    encode(true);
+    writeBytes();
+    channel.close();
+  }
+
+}
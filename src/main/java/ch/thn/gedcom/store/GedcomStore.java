@@ -16,16 +16,22 @@
  */
 package ch.thn.gedcom.store;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 
 import ch.thn.gedcom.GedcomFormatter;
 import ch.thn.gedcom.GedcomHelper;
@@ -103,6 +109,30 @@ public class GedcomStore {
    */
   private HashMap<String, LinkedList<GedcomStoreStructure>> variations = null;
 
+  /**
+   * The symbols of all the tag, xref, value and structure names, assigned
+   * by {@link #compile()}
+   */
+  private GedcomSymbolTable symbols = null;
+
+  /** All the store lines of all structures, by their line ID */
+  private ArrayList<GedcomStoreLine> compiledLines = null;
+
+  /** A hash of the compiled grammar, see {@link #getGrammarFingerprint()} */
+  private long grammarFingerprint = 0;
+
+  /**
+   * The compiled variations, indexed by the structure name ID. Each array contains
+   * {@link #VARIATION_TABLE_WIDTH} entries per tag ID (see {@link #getVariationTableIndex(int, boolean, boolean, boolean)}).
+   * The entries are <code>null</code> if there is no such variation.
+   */
+  private GedcomStoreStructure[][] variationTable = null;
+
+  /** The variation to use without a tag, by structure name ID. Only set if there is only one variation */
+  private GedcomStoreStructure[] defaultVariations = null;
+
+  private static final int VARIATION_TABLE_WIDTH = 5;
+
   private GedcomDataValidator validator = null;
 
   private String loadedFileVersion = null;
@@ -110,6 +140,7 @@ public class GedcomStore {
   private ArrayList<String> loadedFileDescription = null;
 
   private boolean showParsingOutput = true;
+  private boolean warmPathCache = false;
 
   /**
    * Creates a new empty store object which can be filled with structures by
@@ -121,6 +152,8 @@ public class GedcomStore {
     idToVariationsLinks = new HashMap<String, HashMap<String,LinkedList<GedcomStoreStructure>>>();
     variations = new HashMap<String, LinkedList<GedcomStoreStructure>>();
     loadedFileDescription = new ArrayList<String>();
+    symbols = GedcomSymbolTable.empty();
+    compiledLines = new ArrayList<GedcomStoreLine>();
   }
 
   /**
@@ -152,6 +185,10 @@ public class GedcomStore {
     loadedFileDescription.clear();
     loadedFileSource = null;
     loadedFileVersion = null;
+    symbols = GedcomSymbolTable.empty();
+    compiledLines.clear();
+    variationTable = null;
+    defaultVariations = null;
   }
 
   /**
@@ -222,7 +259,9 @@ public class GedcomStore {
    * @throws GedcomParseException
    */
   public void parse(InputStream grammarFile) throws GedcomParseException {
-    System.out.println("Adding gedcom grammar objects...\n");
+    if (showParsingOutput) {
+      System.out.println("Adding gedcom grammar objects...\n");
+    }
 
     BufferedReader br = new BufferedReader(new InputStreamReader(grammarFile));
     int lineCount = 0;
@@ -275,11 +314,13 @@ public class GedcomStore {
                   Arrays.toString(FileHeaderKeywords.values()));
             }
 
-            System.out.println("Gramps version: " + loadedFileVersion);
-            System.out.println("Source of gedcom grammar: " + loadedFileSource);
+            if (showParsingOutput) {
+              System.out.println("Gramps version: " + loadedFileVersion);
+              System.out.println("Source of gedcom grammar: " + loadedFileSource);
 
-            for (int i = 0; i < loadedFileDescription.size(); i++) {
-              System.out.println(loadedFileDescription.get(i));
+              for (int i = 0; i < loadedFileDescription.size(); i++) {
+                System.out.println(loadedFileDescription.get(i));
+              }
             }
 
             firstStructureFound = true;
@@ -328,7 +369,380 @@ public class GedcomStore {
       throw new GedcomParseException("Failed to read line " + lineCount);
     }
 
-    System.out.println("\nAdding objects done (" + structures.size() + " objects parsed)\n");
+    if (showParsingOutput) {
+      System.out.println("\nAdding objects done (" + structures.size() + " objects parsed)\n");
+    }
+
+    compile();
+
+    if (warmPathCache) {
+      warmPathCache();
+    }
+  }
+
+  /**
+   * Writes all the parsed structures of this store to the given file as
+   * binary snapshot (see {@link #loadSnapshot(String)}).
+   *
+   * @param snapshotFile
+   * @throws IOException
+   */
+  public void saveSnapshot(String snapshotFile) throws IOException {
+    OutputStream output = new BufferedOutputStream(new FileOutputStream(snapshotFile));
+
+    try {
+      saveSnapshot(output);
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Writes all the parsed structures of this store (with all their blocks and
+   * lines and the file header information) to the given {@link OutputStream}
+   * as binary snapshot. The stream is not closed.
+   *
+   * @param output
+   * @throws IOException
+   */
+  public void saveSnapshot(OutputStream output) throws IOException {
+    GedcomStoreSnapshot.write(this, output);
+  }
+
+  /**
+   * Loads the structures from the given binary snapshot file, which has been
+   * written with {@link #saveSnapshot(String)}. Loading a snapshot gives the
+   * same store as parsing the lineage-linked grammar file again, but without
+   * any of the text processing of the grammar lines.
+   *
+   * @param snapshotFile
+   * @throws GedcomParseException
+   */
+  public void loadSnapshot(String snapshotFile) throws GedcomParseException {
+    InputStream input = null;
+
+    try {
+      input = new BufferedInputStream(new FileInputStream(snapshotFile));
+      loadSnapshot(input);
+    } catch (FileNotFoundException e) {
+      throw new GedcomParseException("File " + snapshotFile + " not found!");
+    } finally {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) {
+          throw new GedcomParseException("Failed to close file reader for " + snapshotFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the structures from the given binary snapshot, which has been
+   * written with {@link #saveSnapshot(OutputStream)}. Like with {@link #parse(InputStream)},
+   * the structures are added to this store and the store is compiled
+   * afterwards. The stream is not closed.
+   *
+   * @param input
+   * @throws GedcomParseException
+   */
+  public void loadSnapshot(InputStream input) throws GedcomParseException {
+    try {
+      GedcomStoreSnapshot.read(this, input);
+    } catch (IOException e) {
+      throw new GedcomParseException("Failed to read the grammar snapshot. " + e.getMessage());
+    }
+
+    compile();
+
+    if (warmPathCache) {
+      warmPathCache();
+    }
+  }
+
+  /**
+   * Sets the header information of the loaded grammar file
+   *
+   * @param fileVersion
+   * @param fileSource
+   * @param fileDescription
+   */
+  protected void setFileHeader(String fileVersion, String fileSource, List<String> fileDescription) {
+    loadedFileVersion = fileVersion;
+    loadedFileSource = fileSource;
+    loadedFileDescription.clear();
+    loadedFileDescription.addAll(fileDescription);
+  }
+
+  /**
+   * Compiles the parsed structures for fast access. Every tag, xref, value and
+   * structure name is interned in a {@link GedcomSymbolTable} and gets an
+   * integer symbol, every store line gets an integer ID, and the blocks and variations
+   * get arrays which are indexed by those IDs. After compiling, creating
+   * lines with {@link GedcomStoreBlock#getStoreLine(int)} and
+   * {@link #getGedcomStructure(int, int, boolean, boolean, boolean)} only
+   * needs array indexing instead of looking up the names in multiple maps.<br>
+   * <br>
+   * Compiling is done automatically after parsing. It only has to be called
+   * again if the structures are changed in any other way.
+   */
+  public void compile() {
+    compiledLines.clear();
+
+    //Collect all the names and assign the line IDs
+    HashSet<String> allNames = new HashSet<String>();
+
+    for (GedcomStoreStructure structure : structures) {
+      allNames.add(structure.getStructureName());
+      compileLines(structure.getStoreBlock(), allNames);
+    }
+
+    GedcomSymbolTable symbols = new GedcomSymbolTable(allNames);
+
+    //Build the lookup arrays
+    for (GedcomStoreStructure structure : structures) {
+      compileBlock(structure.getStoreBlock(), symbols);
+    }
+
+    variationTable = new GedcomStoreStructure[symbols.size()][];
+    defaultVariations = new GedcomStoreStructure[symbols.size()];
+
+    for (String structureName : idToVariationsLinks.keySet()) {
+      int structureId = symbols.getSymbol(structureName);
+      HashMap<String, LinkedList<GedcomStoreStructure>> variationLinks = idToVariationsLinks.get(structureName);
+
+      if (variations.get(structureName).size() == 1) {
+        defaultVariations[structureId] = variations.get(structureName).get(0);
+      }
+
+      int maxTagId = -1;
+      for (String tag : variationLinks.keySet()) {
+        maxTagId = Math.max(maxTagId, symbols.getSymbol(tag));
+      }
+
+      GedcomStoreStructure[] table = new GedcomStoreStructure[(maxTagId + 1) * VARIATION_TABLE_WIDTH];
+
+      for (String tag : variationLinks.keySet()) {
+        int tagId = symbols.getSymbol(tag);
+        LinkedList<GedcomStoreStructure> tagVariations = variationLinks.get(tag);
+
+        table[getVariationTableIndex(tagId, false, false, false)] = tagVariations.get(0);
+
+        for (int i = 0; i < 4; i++) {
+          boolean withXRef = (i & 2) != 0;
+          boolean withValue = (i & 1) != 0;
+
+          for (GedcomStoreStructure variation : tagVariations) {
+            GedcomStoreLine storeLine = variation.getStoreBlock().getStoreLine(tag);
+
+            if (storeLine.hasTags() && storeLine.hasXRefNames() == withXRef
+                && storeLine.hasValueNames() == withValue) {
+              table[getVariationTableIndex(tagId, true, withXRef, withValue)] = variation;
+              break;
+            }
+          }
+        }
+      }
+
+      variationTable[structureId] = table;
+    }
+
+    this.symbols = symbols;
+    grammarFingerprint = computeGrammarFingerprint();
+  }
+
+  /**
+   * Hashes the names of the symbol table, the structures and all the store
+   * lines with their line IDs (FNV-1a, 64 bits)
+   *
+   * @return
+   */
+  private long computeGrammarFingerprint() {
+    long hash = 0xcbf29ce484222325L;
+
+    for (int i = 0; i < symbols.size(); i++) {
+      hash = fingerprint(hash, symbols.getName(i));
+    }
+
+    for (GedcomStoreStructure structure : structures) {
+      hash = fingerprint(hash, structure.getStructureName());
+    }
+
+    for (GedcomStoreLine storeLine : compiledLines) {
+      hash = fingerprint(hash, storeLine.getLineId());
+      hash = fingerprint(hash, storeLine.getId());
+      hash = fingerprint(hash, storeLine.getLevel());
+      hash = fingerprint(hash, storeLine.getPos());
+      hash = fingerprint(hash, storeLine.getStructureNameSymbol());
+
+      for (int tagSymbol : storeLine.getTagSymbols()) {
+        hash = fingerprint(hash, tagSymbol);
+      }
+
+      hash = fingerprint(hash, (storeLine.hasXRefNames() ? 1 : 0) | (storeLine.hasValueNames() ? 2 : 0)
+          | (storeLine.hasTagBeforeXRef() ? 4 : 0) | (storeLine.hasTagAfterXRef() ? 8 : 0));
+    }
+
+    return hash;
+  }
+
+  /**
+   *
+   *
+   * @param hash
+   * @param value
+   * @return
+   */
+  private static long fingerprint(long hash, int value) {
+    for (int i = 0; i < 4; i++) {
+      hash ^= (value >>> (i * 8)) & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+
+    return hash;
+  }
+
+  /**
+   *
+   *
+   * @param hash
+   * @param value
+   * @return
+   */
+  private static long fingerprint(long hash, String value) {
+    hash = fingerprint(hash, value.length());
+
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+
+    return hash;
+  }
+
+  /**
+   * Assigns the IDs to all the lines of the given block and its child blocks
+   * and collects all the names which are used in those lines
+   *
+   * @param block
+   * @param allNames
+   */
+  private void compileLines(GedcomStoreBlock block, HashSet<String> allNames) {
+    for (GedcomStoreLine storeLine : block.getStoreLines()) {
+      storeLine.setLineId(compiledLines.size());
+      compiledLines.add(storeLine);
+
+      if (storeLine.hasStructureName()) {
+        allNames.add(storeLine.getStructureName());
+      }
+
+      allNames.addAll(storeLine.getTagNames());
+      allNames.addAll(storeLine.getXRefNames());
+      allNames.addAll(storeLine.getValueNames());
+
+      if (storeLine.hasChildBlock()) {
+        compileLines(storeLine.getChildBlock(), allNames);
+      }
+    }
+  }
+
+  /**
+   * Compiles the given block and all its child blocks
+   *
+   * @param block
+   * @param symbols
+   */
+  private void compileBlock(GedcomStoreBlock block, GedcomSymbolTable symbols) {
+    block.compile(symbols);
+
+    for (GedcomStoreLine storeLine : block.getStoreLines()) {
+      if (storeLine.hasChildBlock()) {
+        compileBlock(storeLine.getChildBlock(), symbols);
+      }
+    }
+  }
+
+  /**
+   *
+   *
+   * @param tagId
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   * @return
+   */
+  private static int getVariationTableIndex(int tagId, boolean lookForXRefAndValueVariation,
+      boolean withXRef, boolean withValue) {
+    int index = tagId * VARIATION_TABLE_WIDTH;
+
+    if (lookForXRefAndValueVariation) {
+      index += 1 + (withXRef ? 2 : 0) + (withValue ? 1 : 0);
+    }
+
+    return index;
+  }
+
+  /**
+   * Returns the symbol table with all the tag, xref, value and structure names
+   * of this store, as built by {@link #compile()}
+   *
+   * @return
+   */
+  public GedcomSymbolTable getSymbolTable() {
+    return symbols;
+  }
+
+  /**
+   * Returns the integer ID (the symbol, see {@link #getSymbolTable()}) of the
+   * given tag or structure name, as assigned by {@link #compile()}
+   *
+   * @param tagOrStructureName
+   * @return The ID, or -1 if there is no tag or structure with that name
+   */
+  public int getNameId(String tagOrStructureName) {
+    return symbols.getSymbol(tagOrStructureName);
+  }
+
+  /**
+   * Returns the tag or structure name with the given ID
+   *
+   * @param nameId
+   * @return
+   */
+  public String getName(int nameId) {
+    return symbols.getName(nameId);
+  }
+
+  /**
+   * Returns a hash of the compiled grammar: the names of the symbol table,
+   * the structures and all the store lines with their line IDs. Two stores
+   * with the same fingerprint have the same symbols and line IDs, thus data
+   * which refers to them (like the trees of a {@link ch.thn.gedcom.data.GedcomTreeCodec}) can be
+   * used with either store.
+   *
+   * @return
+   */
+  public long getGrammarFingerprint() {
+    return grammarFingerprint;
+  }
+
+  /**
+   * Returns the number of the names which have an ID
+   *
+   * @return
+   */
+  public int getNumberOfNames() {
+    return symbols.size();
+  }
+
+  /**
+   * Returns the store line with the given line ID, as assigned by {@link #compile()}
+   *
+   * @param lineId
+   * @return
+   */
+  public GedcomStoreLine getStoreLine(int lineId) {
+    return compiledLines.get(lineId);
   }
 
 
@@ -388,40 +802,51 @@ public class GedcomStore {
 
     //Parse the sub block and build the new structure
     if (storeStructure.parse(subBlock)) {
-      //Create a simple list of all the available structures
-      structures.add(storeStructure);
-
+      addStructure(storeStructure);
+    }
 
-      //Link all the line ID's of the first block to their structure
+  }
 
-      if (!idToVariationsLinks.containsKey(structureName)) {
-        //Add a new structure
-        idToVariationsLinks.put(structureName, new HashMap<String, LinkedList<GedcomStoreStructure>>());
-      }
+  /**
+   * Adds the given (parsed or loaded) structure to the list of all structures
+   * and links it as variation of its structure name
+   *
+   * @param storeStructure
+   */
+  protected void addStructure(GedcomStoreStructure storeStructure) {
+    String structureName = storeStructure.getStructureName();
 
-      LinkedList<String> allIds = storeStructure.getStoreBlock().getAllLineIDs();
+    //Create a simple list of all the available structures
+    structures.add(storeStructure);
 
-      for (String id : allIds) {
-        if (!idToVariationsLinks.get(structureName).containsKey(id)) {
-          //Add all new line ID's
-          idToVariationsLinks.get(structureName).put(id, new LinkedList<GedcomStoreStructure>());
-        }
 
-        idToVariationsLinks.get(structureName).get(id).add(storeStructure);
-      }
+    //Link all the line ID's of the first block to their structure
 
+    if (!idToVariationsLinks.containsKey(structureName)) {
+      //Add a new structure
+      idToVariationsLinks.put(structureName, new HashMap<String, LinkedList<GedcomStoreStructure>>());
+    }
 
-      //Create the list of all the variations
+    LinkedList<String> allIds = storeStructure.getStoreBlock().getAllLineIDs();
 
-      if (!variations.containsKey(structureName)) {
-        variations.put(structureName, new LinkedList<GedcomStoreStructure>());
+    for (String id : allIds) {
+      if (!idToVariationsLinks.get(structureName).containsKey(id)) {
+        //Add all new line ID's
+        idToVariationsLinks.get(structureName).put(id, new LinkedList<GedcomStoreStructure>());
       }
 
-      variations.get(structureName).add(storeStructure);
+      idToVariationsLinks.get(structureName).get(id).add(storeStructure);
+    }
+
 
+    //Create the list of all the variations
 
+    if (!variations.containsKey(structureName)) {
+      variations.put(structureName, new LinkedList<GedcomStoreStructure>());
     }
 
+    variations.get(structureName).add(storeStructure);
+
   }
 
 
@@ -578,6 +1003,46 @@ public class GedcomStore {
   }
 
 
+  /**
+   * <i>For internal use only!</i><br>
+   * <br>
+   * The same as {@link #getGedcomStructure(String, String, boolean, boolean, boolean)},
+   * but with the IDs of the structure name and tag (see {@link #getNameId(String)}).
+   * The structure is retrieved from the compiled variations.
+   *
+   * @param structureNameId
+   * @param tagId The tag ID, or -1 if no tag is given
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   * @return
+   */
+  public GedcomStoreStructure getGedcomStructure(int structureNameId, int tagId,
+      boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
+    GedcomStoreStructure structure = null;
+
+    if (defaultVariations != null && structureNameId >= 0 && structureNameId < defaultVariations.length) {
+      if (tagId == -1) {
+        structure = defaultVariations[structureNameId];
+      } else {
+        GedcomStoreStructure[] table = variationTable[structureNameId];
+        int index = getVariationTableIndex(tagId, lookForXRefAndValueVariation, withXRef, withValue);
+
+        if (table != null && index < table.length) {
+          structure = table[index];
+        }
+      }
+    }
+
+    if (structure == null) {
+      //Not available. Let the lookup by name report the problem
+      return getGedcomStructure(structureNameId < 0 || structureNameId >= symbols.size() ? null : symbols.getName(structureNameId),
+          tagId < 0 || tagId >= symbols.size() ? null : symbols.getName(tagId), lookForXRefAndValueVariation, withXRef, withValue);
+    }
+
+    return structure;
+  }
+
   /**
    * This method loops through the given list of variations and looks for a match
    * of the given parameters withXRef and withValue.
@@ -734,6 +1199,52 @@ public class GedcomStore {
     showParsingOutput = show;
   }
 
+  /**
+   * Returns whether or not the path cache of all blocks is filled right
+   * after parsing
+   *
+   * @return
+   */
+  public boolean warmPathCacheOnLoad() {
+    return warmPathCache;
+  }
+
+  /**
+   * Turn filling the path cache of all blocks right after parsing on or off
+   * (see {@link #warmPathCache()}). Off by default.
+   *
+   * @param warm
+   */
+  public void warmPathCacheOnLoad(boolean warm) {
+    warmPathCache = warm;
+  }
+
+  /**
+   * Resolves and caches the paths to all the lines which are reachable from
+   * each block (see {@link GedcomStoreBlock#getPathToStoreLine(String)}).
+   * Without warming, the paths are cached when they are looked up the first time.
+   */
+  public void warmPathCache() {
+    for (GedcomStoreStructure structure : structures) {
+      warmPathCache(structure.getStoreBlock());
+    }
+  }
+
+  /**
+   * Warms the path cache of the given block and all its child blocks
+   *
+   * @param block
+   */
+  private void warmPathCache(GedcomStoreBlock block) {
+    block.warmPathCache();
+
+    for (GedcomStoreLine storeLine : block.getStoreLines()) {
+      if (storeLine.hasChildBlock()) {
+        warmPathCache(storeLine.getChildBlock());
+      }
+    }
+  }
+
 
   @Override
   public String toString() {
@@ -16,13 +16,19 @@
  */
 package ch.thn.gedcom.store;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ch.thn.gedcom.GedcomHelper;
 import ch.thn.gedcom.data.GedcomAccessError;
+import ch.thn.gedcom.data.GedcomCreationError;
 import ch.thn.gedcom.printer.GedcomStorePrinter;
 import ch.thn.stringutil.StringUtil;
 
@@ -42,14 +48,15 @@ public class GedcomStoreBlock {
 
   /**
    * All the lines of this block which are defined in the lineage-linked grammar
-   * in their parsing order.
+   * in their parsing order. The list can not be modified anymore after the
+   * store has been compiled.
    */
-  private LinkedList<GedcomStoreLine> storeLines = null;
+  private List<GedcomStoreLine> storeLines = null;
 
   /**
    * A sublist of the {@link #storeLines} which only contains the mandatory lines.
    */
-  private LinkedList<GedcomStoreLine> mandatoryLines = null;
+  private List<GedcomStoreLine> mandatoryLines = null;
 
   /**
    * The line ID's (tag or structure names) linked to their lines. If a line
@@ -58,6 +65,23 @@ public class GedcomStoreBlock {
    */
   private HashMap<String, GedcomStoreLine> idToLineLinks = null;
 
+  /**
+   * The same links as in {@link #idToLineLinks}, but indexed by the name IDs
+   * of the compiled store (see {@link GedcomStore#compile()}).
+   */
+  private GedcomStoreLine[] compiledLineLinks = null;
+
+  /**
+   * The resolved paths of {@link #getPathToStoreLine(String, String, boolean, boolean, boolean)},
+   * including the lookups which did not find a path (also if only the requested
+   * xref/value variation does not exist). Lookups of names which are not in
+   * the grammar are not cached, thus the cache can not grow beyond the names
+   * of the grammar. The cache is shared by all threads which use the store.
+   */
+  private final ConcurrentHashMap<PathKey, PathEntry> pathCache = new ConcurrentHashMap<PathKey, PathEntry>();
+
+  private static final PathEntry NO_PATH = new PathEntry(null);
+
   /**
    * The structure which contains this block. The structure is the starting point
    * which contains a block with all the structure lines
@@ -80,8 +104,8 @@ public class GedcomStoreBlock {
     this.storeStructure = storeStructrue;
     this.parentStoreLine = parentStoreLine;
 
-    storeLines = new LinkedList<GedcomStoreLine>();
-    mandatoryLines = new LinkedList<GedcomStoreLine>();
+    storeLines = new ArrayList<GedcomStoreLine>();
+    mandatoryLines = new ArrayList<GedcomStoreLine>();
     idToLineLinks = new LinkedHashMap<String, GedcomStoreLine>();
 
   }
@@ -188,7 +212,8 @@ public class GedcomStoreBlock {
    *
    * @param newLine
    */
-  private void addLine(GedcomStoreLine newLine) {
+  protected void addLine(GedcomStoreLine newLine) {
+    newLine.setPos(storeLines.size());
     storeLines.add(newLine);
 
     if (newLine.getMin() > 0) {
@@ -409,12 +434,104 @@ public class GedcomStoreBlock {
    */
   private LinkedList<String> getPathToStoreLine(String tagOrStructureName, String tag,
       boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
-    LinkedList<String> path = new LinkedList<String>();
+    PathEntry entry = getPathEntry(tagOrStructureName, tag, lookForXRefAndValueVariation, withXRef, withValue);
+
+    if (entry.path == null) {
+      return null;
+    }
+
+    return new LinkedList<String>(Arrays.asList(entry.path));
+  }
+
+  /**
+   * Returns the path to the child line with the given tag or structure name,
+   * like {@link #getPathToStoreLine(String)}, but as list of parsed steps. The
+   * returned list is cached and can not be modified.
+   *
+   * @param tagOrStructureName
+   * @return The steps, or <code>null</code> if there is no such child line
+   */
+  public List<GedcomStorePathStep> getPathStepsToStoreLine(String tagOrStructureName) {
+    return getPathEntry(tagOrStructureName, null, false, false, false).steps;
+  }
+
+  /**
+   * Returns the path to the child line with the given tag or structure name,
+   * like {@link #getPathToStoreLine(String, boolean, boolean)}, but as list
+   * of parsed steps. The returned list is cached and can not be modified.
+   *
+   * @param tagOrStructureName
+   * @param withXRef
+   * @param withValue
+   * @return The steps, or <code>null</code> if there is no such child line
+   */
+  public List<GedcomStorePathStep> getPathStepsToStoreLine(String tagOrStructureName,
+      boolean withXRef, boolean withValue) {
+    return getPathEntry(tagOrStructureName, null, true, withXRef, withValue).steps;
+  }
+
+  /**
+   * Returns the cached path entry, or resolves and caches it if it has not
+   * been looked up before.
+   *
+   * @param tagOrStructureName
+   * @param tag
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   * @return
+   */
+  private PathEntry getPathEntry(String tagOrStructureName, String tag,
+      boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
+    if (tagOrStructureName == null) {
+      return NO_PATH;
+    }
 
     if (tag == null) {
       tag = tagOrStructureName;
     }
 
+    GedcomStore store = storeStructure.getStore();
+
+    if (store.getNameId(tagOrStructureName) == GedcomSymbolTable.NO_SYMBOL
+        || store.getNameId(tag) == GedcomSymbolTable.NO_SYMBOL) {
+      //Not in the grammar (for example a tag from the data). Not cached, since
+      //any number of such names can be looked up
+      return new PathEntry(resolvePathToStoreLine(tagOrStructureName, tag,
+          lookForXRefAndValueVariation, withXRef, withValue));
+    }
+
+    PathKey key = new PathKey(tagOrStructureName, tag, lookForXRefAndValueVariation, withXRef, withValue);
+    PathEntry entry = pathCache.get(key);
+
+    if (entry == null) {
+      entry = new PathEntry(resolvePathToStoreLine(tagOrStructureName, tag,
+          lookForXRefAndValueVariation, withXRef, withValue));
+
+      PathEntry existing = pathCache.putIfAbsent(key, entry);
+      if (existing != null) {
+        entry = existing;
+      }
+    }
+
+    return entry;
+  }
+
+  /**
+   * Resolves the path for {@link #getPathToStoreLine(String, String, boolean, boolean, boolean)}
+   * without using the cache of this block.
+   *
+   * @param tagOrStructureName
+   * @param tag
+   * @param lookForXRefAndValueVariation
+   * @param withXRef
+   * @param withValue
+   * @return
+   */
+  private LinkedList<String> resolvePathToStoreLine(String tagOrStructureName, String tag,
+      boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
+    LinkedList<String> path = new LinkedList<String>();
+
     if (hasStoreLine(tagOrStructureName)) {
       String variation = "";
 
@@ -454,8 +571,12 @@ public class GedcomStoreBlock {
           } else {
             structure = storeStructure.getStore().getGedcomStructure(storeLine.getStructureName(), null, false, false, false);
           }
-        } catch (GedcomAccessError e) {
-          //Structure and/or variation does not exist
+        } catch (GedcomAccessError | GedcomCreationError e) {
+          //Structure and/or variation does not exist. The store throws a
+          //creation error if the structure exists but not with the requested
+          //xref/value variation (like BIRT without a value). The grammar does
+          //not change once compiled, thus this result can be cached like any
+          //other lookup which did not find a path.
           continue;
         }
 
@@ -466,7 +587,7 @@ public class GedcomStoreBlock {
             path.add(tagOrStructureName);
             return path;
           } else {
-            LinkedList<String> path2 = structure.getStoreBlock().getPathToStoreLine(tagOrStructureName, tag, lookForXRefAndValueVariation, withXRef, withValue);
+            String[] path2 = structure.getStoreBlock().getPathEntry(tagOrStructureName, tag, lookForXRefAndValueVariation, withXRef, withValue).path;
 
             if (path2 == null) {
               //Not found in the path
@@ -474,7 +595,7 @@ public class GedcomStoreBlock {
             }
 
             path.add(storeLine.getStructureName() + variation);
-            path.addAll(path2);
+            path.addAll(Arrays.asList(path2));
             return path;
           }
         } else {
@@ -498,11 +619,119 @@ public class GedcomStoreBlock {
   }
 
   /**
-   * Returns a list of all the store lines which are in this store block
+   * Returns the line from this block which has the given tag or structure
+   * name ID (see {@link GedcomStore#getNameId(String)})
+   *
+   * @param nameId
+   * @return The line, or <code>null</code> if there is no line with the given name
+   */
+  public GedcomStoreLine getStoreLine(int nameId) {
+    if (compiledLineLinks == null || nameId < 0 || nameId >= compiledLineLinks.length) {
+      return null;
+    }
+
+    return compiledLineLinks[nameId];
+  }
+
+  /**
+   * Builds the array with the links from the name IDs to the lines and
+   * compiles the lines of this block. The lists of lines are frozen, since
+   * no lines are added after parsing.
+   *
+   * @param symbols
+   */
+  protected void compile(GedcomSymbolTable symbols) {
+    pathCache.clear();
+
+    storeLines = Collections.unmodifiableList(new ArrayList<GedcomStoreLine>(storeLines));
+    mandatoryLines = Collections.unmodifiableList(new ArrayList<GedcomStoreLine>(mandatoryLines));
+
+    //Only as large as needed for the highest ID in this block
+    int maxId = -1;
+    for (String id : idToLineLinks.keySet()) {
+      maxId = Math.max(maxId, symbols.getSymbol(id));
+    }
+
+    compiledLineLinks = new GedcomStoreLine[maxId + 1];
+
+    for (String id : idToLineLinks.keySet()) {
+      compiledLineLinks[symbols.getSymbol(id)] = idToLineLinks.get(id);
+    }
+
+    for (GedcomStoreLine storeLine : storeLines) {
+      storeLine.compile(symbols);
+    }
+  }
+
+  /**
+   * Resolves and caches the paths to all the lines which can be reached from
+   * this block, for all the xref/value variations. Lookups of names which are
+   * not reachable are still cached when they are done the first time.
+   */
+  protected void warmPathCache() {
+    GedcomStore store = storeStructure.getStore();
+    HashSet<String> names = new HashSet<String>();
+    collectReachableNames(names, new HashSet<GedcomStoreBlock>());
+
+    for (String name : names) {
+      LinkedList<String> tags = new LinkedList<String>();
+      tags.add(name);
+
+      if (store.hasStructure(name)) {
+        tags.addAll(store.getVariationTags(name));
+      }
+
+      for (String tag : tags) {
+        getPathEntry(name, tag, false, false, false);
+        getPathEntry(name, tag, true, false, false);
+        getPathEntry(name, tag, true, false, true);
+        getPathEntry(name, tag, true, true, false);
+        getPathEntry(name, tag, true, true, true);
+      }
+    }
+  }
+
+  /**
+   * Collects the names of all the lines of this block and of all the blocks
+   * of the structures which are linked from this block
+   *
+   * @param names
+   * @param visited
+   */
+  private void collectReachableNames(HashSet<String> names, HashSet<GedcomStoreBlock> visited) {
+    if (!visited.add(this)) {
+      return;
+    }
+
+    names.addAll(idToLineLinks.keySet());
+
+    GedcomStore store = storeStructure.getStore();
+
+    for (GedcomStoreLine storeLine : storeLines) {
+      if (storeLine.hasStructureName() && store.hasStructure(storeLine.getStructureName())) {
+        for (GedcomStoreStructure structure : store.getVariations(storeLine.getStructureName())) {
+          structure.getStoreBlock().collectReachableNames(names, visited);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of path lookups which are cached in this block
    *
    * @return
    */
-  public LinkedList<GedcomStoreLine> getStoreLines() {
+  public int getPathCacheSize() {
+    return pathCache.size();
+  }
+
+  /**
+   * Returns a list of all the store lines which are in this store block.
+   * The list has random access and it can not be modified.
+   *
+   * @return
+   */
+  public List<GedcomStoreLine> getStoreLines() {
     return storeLines;
   }
 
@@ -534,11 +763,12 @@ public class GedcomStoreBlock {
   }
 
   /**
-   * Returns a list of all the mandatory lines in this block
+   * Returns a list of all the mandatory lines in this block. The list has
+   * random access and it can not be modified.
    *
    * @return
    */
-  public LinkedList<GedcomStoreLine> getMandatoryLines() {
+  public List<GedcomStoreLine> getMandatoryLines() {
     return mandatoryLines;
   }
 
@@ -592,4 +822,99 @@ public class GedcomStoreBlock {
     return GedcomStorePrinter.preparePrint(this, 1, false).toString();
   }
 
+
+  /************************************************************************
+   * The key of a cached path lookup
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static final class PathKey {
+
+    private final String tagOrStructureName;
+    private final String tag;
+    private final int flags;
+    private final int hash;
+
+    /**
+     *
+     *
+     * @param tagOrStructureName
+     * @param tag
+     * @param lookForXRefAndValueVariation
+     * @param withXRef
+     * @param withValue
+     */
+    private PathKey(String tagOrStructureName, String tag,
+        boolean lookForXRefAndValueVariation, boolean withXRef, boolean withValue) {
+      this.tagOrStructureName = tagOrStructureName;
+      this.tag = tag;
+
+      //The xref/value flags are only used when looking for the variation
+      if (lookForXRefAndValueVariation) {
+        flags = 1 | (withXRef ? 2 : 0) | (withValue ? 4 : 0);
+      } else {
+        flags = 0;
+      }
+
+      hash = (31 * tagOrStructureName.hashCode() + tag.hashCode()) * 8 + flags;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+
+      if (!(obj instanceof PathKey)) {
+        return false;
+      }
+
+      PathKey other = (PathKey)obj;
+      return flags == other.flags && tagOrStructureName.equals(other.tagOrStructureName)
+          && tag.equals(other.tag);
+    }
+
+  }
+
+  /************************************************************************
+   * A cached path lookup. The path and the steps are <code>null</code> if
+   * there is no path.
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static final class PathEntry {
+
+    private final String[] path;
+    private final List<GedcomStorePathStep> steps;
+
+    /**
+     *
+     *
+     * @param path
+     */
+    private PathEntry(LinkedList<String> path) {
+      if (path == null) {
+        this.path = null;
+        this.steps = null;
+      } else {
+        this.path = path.toArray(new String[path.size()]);
+        GedcomStorePathStep[] pathSteps = new GedcomStorePathStep[this.path.length];
+
+        for (int i = 0; i < this.path.length; i++) {
+          pathSteps[i] = new GedcomStorePathStep(this.path[i]);
+        }
+
+        this.steps = Collections.unmodifiableList(Arrays.asList(pathSteps));
+      }
+    }
+
+  }
+
 }
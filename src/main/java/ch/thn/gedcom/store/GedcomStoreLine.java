@@ -21,6 +21,7 @@ import java.util.LinkedList;
 
 import ch.thn.gedcom.GedcomFormatter;
 import ch.thn.gedcom.GedcomHelper;
+import ch.thn.gedcom.data.NodeKey;
 import ch.thn.gedcom.printer.GedcomStorePrinter;
 import ch.thn.stringutil.StringUtil;
 
@@ -44,6 +45,12 @@ public class GedcomStoreLine {
   private int min = 0;
   private int max = 0;
 
+  /** The position of this line in its block, assigned when the line is added */
+  private int pos = -1;
+
+  /** The ID of this line in the store, assigned when the store is compiled */
+  private int lineId = -1;
+
   private LinkedHashSet<String> xrefNames = null;
   private LinkedHashSet<String> valueNames = null;
   private LinkedHashSet<String> tagNames1 = null;
@@ -53,6 +60,20 @@ public class GedcomStoreLine {
   private String structureName = null;
   private String originalGedcomDefinitionLine = null;
 
+  /** The symbol table of the store, set when the store is compiled */
+  private GedcomSymbolTable symbols = null;
+  private int structureNameSymbol = GedcomSymbolTable.NO_SYMBOL;
+  private int[] tagSymbols = null;
+  private int[] xrefNameSymbols = null;
+  private int[] valueNameSymbols = null;
+
+  /**
+   * The node keys of the lines of this store line, one for each tag name or
+   * one for the structure name. Created when the store is compiled and shared
+   * by all nodes of this line.
+   */
+  private NodeKey[] nodeKeys = null;
+
 
   private GedcomStoreBlock parentBlock = null;
   private GedcomStoreBlock childBlock = null;
@@ -209,13 +230,238 @@ public class GedcomStoreLine {
 
   }
 
+  /**
+   * Sets the definition of this line, if the line is not parsed but loaded
+   * in another way. The tag, xref and value names are added to the sets
+   * returned by the getters.
+   *
+   * @param min
+   * @param max
+   * @param structureName
+   * @param originalGedcomDefinitionLine
+   */
+  protected void setDefinition(int min, int max, String structureName, String originalGedcomDefinitionLine) {
+    this.min = min;
+    this.max = max;
+    this.structureName = structureName;
+    this.originalGedcomDefinitionLine = originalGedcomDefinitionLine;
+  }
+
   /**
    * Returns the position of this store line in the block
    *
    * @return
    */
   public int getPos() {
-    return parentBlock.getStoreLines().indexOf(this);
+    return pos;
+  }
+
+  /**
+   * Sets the position of this store line in the block. Called when the line
+   * is added to the block.
+   *
+   * @param pos
+   */
+  protected void setPos(int pos) {
+    this.pos = pos;
+  }
+
+  /**
+   * Sets the ID of this line in the store. Called when the store is compiled.
+   *
+   * @param lineId
+   */
+  protected void setLineId(int lineId) {
+    this.lineId = lineId;
+  }
+
+  /**
+   * Returns the ID of this line in the store (see {@link GedcomStore#getStoreLine(int)}),
+   * or -1 if the store has not been compiled yet
+   *
+   * @return
+   */
+  public int getLineId() {
+    return lineId;
+  }
+
+  /**
+   * Interns all the names of this line in the given symbol table and keeps
+   * their symbols.
+   *
+   * @param symbols
+   */
+  protected void compile(GedcomSymbolTable symbols) {
+    this.symbols = symbols;
+
+    structureName = symbols.intern(structureName);
+    structureNameSymbol = symbols.getSymbol(structureName);
+
+    tagNames1 = intern(tagNames1, symbols);
+    tagNames2 = intern(tagNames2, symbols);
+    xrefNames = intern(xrefNames, symbols);
+    valueNames = intern(valueNames, symbols);
+
+    tagSymbols = getSymbols(getTagNames(), symbols);
+    xrefNameSymbols = getSymbols(xrefNames, symbols);
+    valueNameSymbols = getSymbols(valueNames, symbols);
+
+    if (hasStructureName()) {
+      nodeKeys = new NodeKey[] {new NodeKey(structureName, this)};
+    } else {
+      nodeKeys = new NodeKey[tagSymbols.length];
+      int i = 0;
+
+      for (String tagName : getTagNames()) {
+        nodeKeys[i++] = new NodeKey(tagName, this);
+      }
+    }
+  }
+
+  /**
+   * Returns a new set with the interned instances of all the given names
+   *
+   * @param names
+   * @param symbols
+   * @return
+   */
+  private static LinkedHashSet<String> intern(LinkedHashSet<String> names, GedcomSymbolTable symbols) {
+    LinkedHashSet<String> internedNames = new LinkedHashSet<String>();
+
+    for (String name : names) {
+      internedNames.add(symbols.intern(name));
+    }
+
+    return internedNames;
+  }
+
+  /**
+   * Returns the symbols of all the given names, in the same order
+   *
+   * @param names
+   * @param symbols
+   * @return
+   */
+  private static int[] getSymbols(LinkedHashSet<String> names, GedcomSymbolTable symbols) {
+    int[] nameSymbols = new int[names.size()];
+    int i = 0;
+
+    for (String name : names) {
+      nameSymbols[i++] = symbols.getSymbol(name);
+    }
+
+    return nameSymbols;
+  }
+
+  /**
+   * Returns the symbol table of the compiled store, or <code>null</code> if
+   * the store has not been compiled yet
+   *
+   * @return
+   */
+  public GedcomSymbolTable getSymbolTable() {
+    return symbols;
+  }
+
+  /**
+   * Returns the symbol of the structure name, or {@link GedcomSymbolTable#NO_SYMBOL}
+   * if this is not a structure line or if the store has not been compiled yet
+   *
+   * @return
+   */
+  public int getStructureNameSymbol() {
+    return structureNameSymbol;
+  }
+
+  /**
+   * Returns the symbols of all the possible tag names, in the same order
+   * as {@link #getTagNames()}. The returned array must not be modified.
+   *
+   * @return
+   */
+  public int[] getTagSymbols() {
+    return tagSymbols;
+  }
+
+  /**
+   * Returns the symbols of all the xref names, in the same order
+   * as {@link #getXRefNames()}. The returned array must not be modified.
+   *
+   * @return
+   */
+  public int[] getXRefNameSymbols() {
+    return xrefNameSymbols;
+  }
+
+  /**
+   * Returns the symbols of all the value names, in the same order
+   * as {@link #getValueNames()}. The returned array must not be modified.
+   *
+   * @return
+   */
+  public int[] getValueNameSymbols() {
+    return valueNameSymbols;
+  }
+
+  /**
+   * Returns the node key of the lines of this store line with the given tag
+   * or structure name. All lines with the same name share the same key.
+   *
+   * @param tagOrStructureNameSymbol
+   * @return The key, or <code>null</code> if the store has not been compiled
+   * yet or if the name is not a name of this line
+   */
+  public NodeKey getNodeKey(int tagOrStructureNameSymbol) {
+    if (nodeKeys == null || tagOrStructureNameSymbol == GedcomSymbolTable.NO_SYMBOL) {
+      return null;
+    }
+
+    if (hasStructureName()) {
+      return tagOrStructureNameSymbol == structureNameSymbol ? nodeKeys[0] : null;
+    }
+
+    for (int i = 0; i < tagSymbols.length; i++) {
+      if (tagSymbols[i] == tagOrStructureNameSymbol) {
+        return nodeKeys[i];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Like {@link #getNodeKey(int)}, with the name instead of its symbol
+   *
+   * @param tagOrStructureName
+   * @return
+   */
+  public NodeKey getNodeKey(String tagOrStructureName) {
+    if (symbols == null) {
+      return null;
+    }
+
+    return getNodeKey(symbols.getSymbol(tagOrStructureName));
+  }
+
+  /**
+   * Returns <code>true</code> if the tag with the given symbol is a possible
+   * tag name for this line
+   *
+   * @param tagSymbol
+   * @return
+   */
+  public boolean hasTag(int tagSymbol) {
+    if (tagSymbols == null || tagSymbol == GedcomSymbolTable.NO_SYMBOL) {
+      return false;
+    }
+
+    for (int symbol : tagSymbols) {
+      if (symbol == tagSymbol) {
+        return true;
+      }
+    }
+
+    return false;
   }
 
   /**
@@ -436,6 +682,24 @@ public class GedcomStoreLine {
     return tagNames2;
   }
 
+  /**
+   * Returns the tag names which appear before the xref
+   *
+   * @return
+   */
+  protected LinkedHashSet<String> getTagNamesBeforeXRef() {
+    return tagNames1;
+  }
+
+  /**
+   * Returns the tag names which appear after the xref
+   *
+   * @return
+   */
+  protected LinkedHashSet<String> getTagNamesAfterXRef() {
+    return tagNames2;
+  }
+
   /**
    * Returns a list of all the xref names on this line
    *
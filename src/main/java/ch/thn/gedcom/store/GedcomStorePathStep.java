@@ -0,0 +1,165 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.store;
+
+import ch.thn.gedcom.data.GedcomNode;
+
+/**
+ * One step of a path to a store line, as resolved by
+ * {@link GedcomStoreBlock#getPathStepsToStoreLine(String, boolean, boolean)}.
+ * The step is parsed once when the path is resolved, and it can not be
+ * changed, thus the same steps can be shared by all threads which use the
+ * store.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public final class GedcomStorePathStep {
+
+  private final String tagOrStructureName;
+  private final String tag;
+  private final boolean lookForXRefAndValueVariation;
+  private final boolean withXRef;
+  private final boolean withValue;
+
+  /**
+   * Parses the given path step, which has the format "tag or structure name",
+   * "structure name;tag" or "structure name;tag;with xref;with value"
+   *
+   * @param pathStep
+   */
+  protected GedcomStorePathStep(String pathStep) {
+    String[] parts = pathStep.split(GedcomNode.PATH_OPTION_DELIMITER);
+
+    tagOrStructureName = parts[0];
+    tag = parts.length > 1 ? parts[1] : null;
+    lookForXRefAndValueVariation = parts.length >= 4;
+    withXRef = lookForXRefAndValueVariation && Boolean.parseBoolean(parts[2]);
+    withValue = lookForXRefAndValueVariation && Boolean.parseBoolean(parts[3]);
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public String getTagOrStructureName() {
+    return tagOrStructureName;
+  }
+
+  /**
+   * Returns the tag of the structure variation, or <code>null</code> if the
+   * step does not have a variation
+   *
+   * @return
+   */
+  public String getTag() {
+    return tag;
+  }
+
+  /**
+   * Returns <code>true</code> if the step selects a structure variation
+   * with the xref and value flags
+   *
+   * @return
+   */
+  public boolean getLookForXRefAndValueVariation() {
+    return lookForXRefAndValueVariation;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean getWithXRef() {
+    return withXRef;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean getWithValue() {
+    return withValue;
+  }
+
+  /**
+   * Adds a new line for this step to the given node
+   *
+   * @param node
+   * @return The new line, or <code>null</code> if the maximum number of
+   * lines has been reached
+   */
+  public GedcomNode addChildLine(GedcomNode node) {
+    if (tag == null) {
+      return node.addChildLine(tagOrStructureName);
+    } else if (!lookForXRefAndValueVariation) {
+      return node.addChildLine(tagOrStructureName, tag);
+    } else {
+      return node.addChildLine(tagOrStructureName, tag, withXRef, withValue);
+    }
+  }
+
+  /**
+   * Returns the child line of the given node which matches this step
+   *
+   * @param node
+   * @param lineNumber
+   * @return
+   */
+  public GedcomNode getChildLine(GedcomNode node, int lineNumber) {
+    if (tag == null) {
+      return node.getChildLine(tagOrStructureName, lineNumber);
+    } else if (!lookForXRefAndValueVariation) {
+      return node.getChildLine(tagOrStructureName, tag, lineNumber);
+    } else {
+      return node.getChildLine(tagOrStructureName, tag, withXRef, withValue, lineNumber);
+    }
+  }
+
+  /**
+   * Returns the number of child lines of the given node which match this step
+   *
+   * @param node
+   * @return
+   */
+  public int getNumberOfChildLines(GedcomNode node) {
+    if (tag == null) {
+      return node.getNumberOfChildLines(tagOrStructureName);
+    } else if (!lookForXRefAndValueVariation) {
+      return node.getNumberOfChildLines(tagOrStructureName, tag);
+    } else {
+      return node.getNumberOfChildLines(tagOrStructureName, tag, withXRef, withValue);
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (tag == null) {
+      return tagOrStructureName;
+    } else if (!lookForXRefAndValueVariation) {
+      return tagOrStructureName + GedcomNode.PATH_OPTION_DELIMITER + tag;
+    } else {
+      return tagOrStructureName + GedcomNode.PATH_OPTION_DELIMITER + tag
+          + GedcomNode.PATH_OPTION_DELIMITER + withXRef
+          + GedcomNode.PATH_OPTION_DELIMITER + withValue;
+    }
+  }
+
+}
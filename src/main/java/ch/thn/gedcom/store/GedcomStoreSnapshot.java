@@ -0,0 +1,384 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.store;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes and reads the parsed structures of a {@link GedcomStore} as compact
+ * binary snapshot. All the names (structure, tag, xref and value names and the
+ * original definition lines) are written once in a string table, and the
+ * structures, blocks and lines only refer to them by their index. Reading
+ * a snapshot builds the structures, blocks and lines directly, without
+ * any of the text processing which is needed to parse a lineage-linked grammar
+ * file.<br>
+ * <br>
+ * The snapshot has the following format (numbers are written with 7 bits per byte,
+ * string references are the index in the string table + 1, with 0 for
+ * <code>null</code>):
+ * <pre>
+ * magic, version
+ * number of strings, strings
+ * file version reference, file source reference
+ * number of description lines, description line references
+ * number of structures, structures (structure name reference, block)
+ *
+ * block: number of lines, lines
+ * line: min, max, structure name reference, definition line reference,
+ *       tag names before xref, tag names after xref, xref names, value names,
+ *       value possibilities (each: number of names, name references),
+ *       child block flag, [child block]
+ * </pre>
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+final class GedcomStoreSnapshot {
+
+  private static final int MAGIC = 0x47445353;
+  private static final int VERSION = 1;
+
+
+  private GedcomStoreSnapshot() {
+
+  }
+
+  /**
+   * Writes all structures of the given store to the given output stream. The
+   * stream is flushed, but not closed.
+   *
+   * @param store
+   * @param output
+   * @throws IOException
+   */
+  protected static void write(GedcomStore store, OutputStream output) throws IOException {
+    HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+    ArrayList<String> strings = new ArrayList<String>();
+
+    //Collect all the strings first, so that they can be read before the structures
+    addString(store.getFileVersion(), stringIds, strings);
+    addString(store.getFileSource(), stringIds, strings);
+    addStrings(store.getFileDescription(), stringIds, strings);
+
+    for (GedcomStoreStructure structure : store.getStructures()) {
+      addString(structure.getStructureName(), stringIds, strings);
+      addStrings(structure.getStoreBlock(), stringIds, strings);
+    }
+
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    writeVarInt(out, strings.size());
+
+    for (String string : strings) {
+      out.writeUTF(string);
+    }
+
+    writeString(out, store.getFileVersion(), stringIds);
+    writeString(out, store.getFileSource(), stringIds);
+    writeStrings(out, store.getFileDescription(), stringIds);
+
+    writeVarInt(out, store.getStructures().size());
+
+    for (GedcomStoreStructure structure : store.getStructures()) {
+      writeString(out, structure.getStructureName(), stringIds);
+      writeBlock(out, structure.getStoreBlock(), stringIds);
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Reads the structures from the given input stream and adds them to the
+   * given store. The store is not compiled.
+   *
+   * @param store
+   * @param input
+   * @throws IOException
+   * @throws GedcomParseException If the input is not a snapshot of this version
+   */
+  protected static void read(GedcomStore store, InputStream input) throws IOException, GedcomParseException {
+    DataInputStream in = new DataInputStream(input);
+
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new GedcomParseException("The input is not a grammar snapshot of this version.");
+    }
+
+    String[] strings = new String[readVarInt(in)];
+
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+
+    String fileVersion = readString(in, strings);
+    String fileSource = readString(in, strings);
+    ArrayList<String> fileDescription = new ArrayList<String>();
+    readStrings(in, strings, fileDescription);
+
+    store.setFileHeader(fileVersion, fileSource, fileDescription);
+
+    int numberOfStructures = readVarInt(in);
+
+    for (int i = 0; i < numberOfStructures; i++) {
+      GedcomStoreStructure structure = new GedcomStoreStructure(store, readString(in, strings));
+      structure.setStoreBlock(readBlock(in, strings, structure, null));
+      store.addStructure(structure);
+    }
+  }
+
+  /**
+   * Writes the given block with all its lines and child blocks
+   *
+   * @param out
+   * @param block
+   * @param stringIds
+   * @throws IOException
+   */
+  private static void writeBlock(DataOutput out, GedcomStoreBlock block,
+      HashMap<String, Integer> stringIds) throws IOException {
+    List<GedcomStoreLine> storeLines = block.getStoreLines();
+    writeVarInt(out, storeLines.size());
+
+    for (GedcomStoreLine storeLine : storeLines) {
+      writeVarInt(out, storeLine.getMin());
+      writeVarInt(out, storeLine.getMax());
+      writeString(out, storeLine.getStructureName(), stringIds);
+      writeString(out, storeLine.getOriginalGedcomDefinitionLine(), stringIds);
+      writeStrings(out, storeLine.getTagNamesBeforeXRef(), stringIds);
+      writeStrings(out, storeLine.getTagNamesAfterXRef(), stringIds);
+      writeStrings(out, storeLine.getXRefNames(), stringIds);
+      writeStrings(out, storeLine.getValueNames(), stringIds);
+      writeStrings(out, storeLine.getValuePossibilities(), stringIds);
+
+      out.writeBoolean(storeLine.hasChildBlock());
+
+      if (storeLine.hasChildBlock()) {
+        writeBlock(out, storeLine.getChildBlock(), stringIds);
+      }
+    }
+  }
+
+  /**
+   * Reads a block with all its lines and child blocks
+   *
+   * @param in
+   * @param strings
+   * @param structure
+   * @param parentStoreLine
+   * @return
+   * @throws IOException
+   */
+  private static GedcomStoreBlock readBlock(DataInput in, String[] strings,
+      GedcomStoreStructure structure, GedcomStoreLine parentStoreLine) throws IOException {
+    GedcomStoreBlock block = new GedcomStoreBlock(structure, parentStoreLine);
+    int numberOfLines = readVarInt(in);
+
+    for (int i = 0; i < numberOfLines; i++) {
+      GedcomStoreLine storeLine = new GedcomStoreLine(block);
+
+      int min = readVarInt(in);
+      int max = readVarInt(in);
+      storeLine.setDefinition(min, max, readString(in, strings), readString(in, strings));
+
+      readStrings(in, strings, storeLine.getTagNamesBeforeXRef());
+      readStrings(in, strings, storeLine.getTagNamesAfterXRef());
+      readStrings(in, strings, storeLine.getXRefNames());
+      readStrings(in, strings, storeLine.getValueNames());
+      readStrings(in, strings, storeLine.getValuePossibilities());
+
+      //The line needs all its names before it can be added to the block
+      block.addLine(storeLine);
+
+      if (in.readBoolean()) {
+        storeLine.setChildBlock(readBlock(in, strings, structure, storeLine));
+      }
+    }
+
+    return block;
+  }
+
+  /**
+   * Adds all the strings of the given block and its child blocks to the string table
+   *
+   * @param block
+   * @param stringIds
+   * @param strings
+   */
+  private static void addStrings(GedcomStoreBlock block, HashMap<String, Integer> stringIds,
+      ArrayList<String> strings) {
+    for (GedcomStoreLine storeLine : block.getStoreLines()) {
+      addString(storeLine.getStructureName(), stringIds, strings);
+      addString(storeLine.getOriginalGedcomDefinitionLine(), stringIds, strings);
+      addStrings(storeLine.getTagNamesBeforeXRef(), stringIds, strings);
+      addStrings(storeLine.getTagNamesAfterXRef(), stringIds, strings);
+      addStrings(storeLine.getXRefNames(), stringIds, strings);
+      addStrings(storeLine.getValueNames(), stringIds, strings);
+      addStrings(storeLine.getValuePossibilities(), stringIds, strings);
+
+      if (storeLine.hasChildBlock()) {
+        addStrings(storeLine.getChildBlock(), stringIds, strings);
+      }
+    }
+  }
+
+  /**
+   *
+   *
+   * @param values
+   * @param stringIds
+   * @param strings
+   */
+  private static void addStrings(Collection<String> values, HashMap<String, Integer> stringIds,
+      ArrayList<String> strings) {
+    for (String value : values) {
+      addString(value, stringIds, strings);
+    }
+  }
+
+  /**
+   * Adds the given string to the string table if it is not <code>null</code>
+   * and not yet in the table
+   *
+   * @param value
+   * @param stringIds
+   * @param strings
+   */
+  private static void addString(String value, HashMap<String, Integer> stringIds,
+      ArrayList<String> strings) {
+    if (value != null && !stringIds.containsKey(value)) {
+      stringIds.put(value, strings.size());
+      strings.add(value);
+    }
+  }
+
+  /**
+   *
+   *
+   * @param out
+   * @param values
+   * @param stringIds
+   * @throws IOException
+   */
+  private static void writeStrings(DataOutput out, Collection<String> values,
+      HashMap<String, Integer> stringIds) throws IOException {
+    writeVarInt(out, values.size());
+
+    for (String value : values) {
+      writeString(out, value, stringIds);
+    }
+  }
+
+  /**
+   * Writes the reference to the given string, 0 for <code>null</code>
+   *
+   * @param out
+   * @param value
+   * @param stringIds
+   * @throws IOException
+   */
+  private static void writeString(DataOutput out, String value,
+      HashMap<String, Integer> stringIds) throws IOException {
+    writeVarInt(out, value == null ? 0 : stringIds.get(value) + 1);
+  }
+
+  /**
+   *
+   *
+   * @param in
+   * @param strings
+   * @param values
+   * @throws IOException
+   */
+  private static void readStrings(DataInput in, String[] strings, Collection<String> values) throws IOException {
+    int size = readVarInt(in);
+
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in, strings));
+    }
+  }
+
+  /**
+   *
+   *
+   * @param in
+   * @param strings
+   * @return
+   * @throws IOException
+   */
+  private static String readString(DataInput in, String[] strings) throws IOException {
+    int id = readVarInt(in);
+
+    if (id == 0) {
+      return null;
+    }
+
+    if (id > strings.length) {
+      throw new IOException("Invalid string reference " + id + ". The snapshot has " + strings.length + " strings.");
+    }
+
+    return strings[id - 1];
+  }
+
+  /**
+   * Writes a positive number with 7 bits per byte
+   *
+   * @param out
+   * @param value
+   * @throws IOException
+   */
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    out.writeByte(value);
+  }
+
+  /**
+   *
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  private static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    byte b = 0;
+
+    do {
+      b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return value;
+  }
+
+}
@@ -100,6 +100,16 @@ public class GedcomStoreStructure {
 		return storeBlock.parse(block);		
 	}
 	
+	/**
+	 * Sets the starting store block of this structure, if the structure is 
+	 * not parsed but loaded in another way
+	 * 
+	 * @param storeBlock
+	 */
+	protected void setStoreBlock(GedcomStoreBlock storeBlock) {
+		this.storeBlock = storeBlock;
+	}
+	
 	/**
 	 * Returns the starting store block of this structure
 	 * 
@@ -0,0 +1,174 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * A symbol table which interns all the names of a gedcom grammar (tags, xref
+ * names, value names and structure names) and gives each of them a small
+ * integer symbol. The symbols are assigned in the alphabetical order of the
+ * names, thus comparing two symbols gives the same result as comparing the
+ * two names.<br>
+ * <br>
+ * A symbol table is built once when the store is compiled and it is not
+ * changed afterwards. Looking up symbols and names can therefore be done
+ * from multiple threads.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomSymbolTable {
+
+  /** The symbol which is returned for unknown names and <code>null</code> */
+  public static final int NO_SYMBOL = -1;
+
+  private final HashMap<String, Integer> symbols;
+  private final String[] names;
+
+  /**
+   * Creates a new symbol table with all the given names. Duplicate names
+   * are only added once.
+   *
+   * @param names
+   */
+  public GedcomSymbolTable(Collection<String> names) {
+    TreeSet<String> sortedNames = new TreeSet<String>(names);
+
+    this.symbols = new HashMap<String, Integer>(sortedNames.size() * 2);
+    this.names = new String[sortedNames.size()];
+
+    int symbol = 0;
+    for (String name : sortedNames) {
+      this.symbols.put(name, symbol);
+      this.names[symbol] = name;
+      symbol++;
+    }
+  }
+
+  /**
+   * Returns the symbol of the given name
+   *
+   * @param name
+   * @return The symbol, or {@link #NO_SYMBOL} if the name is not in this table
+   */
+  public int getSymbol(String name) {
+    if (name == null) {
+      return NO_SYMBOL;
+    }
+
+    Integer symbol = symbols.get(name);
+    return symbol == null ? NO_SYMBOL : symbol;
+  }
+
+  /**
+   * Returns the interned name of the given symbol
+   *
+   * @param symbol
+   * @return The name, or <code>null</code> for {@link #NO_SYMBOL}
+   */
+  public String getName(int symbol) {
+    if (symbol == NO_SYMBOL) {
+      return null;
+    }
+
+    return names[symbol];
+  }
+
+  /**
+   * Returns the interned instance of the given name. All the lines which
+   * use the same name can then share the same string.
+   *
+   * @param name
+   * @return The interned name, or the given name if it is not in this table
+   */
+  public String intern(String name) {
+    int symbol = getSymbol(name);
+    return symbol == NO_SYMBOL ? name : names[symbol];
+  }
+
+  /**
+   * Returns <code>true</code> if the given name is in this table
+   *
+   * @param name
+   * @return
+   */
+  public boolean contains(String name) {
+    return name != null && symbols.containsKey(name);
+  }
+
+  /**
+   * Returns the number of symbols in this table. The symbols go from 0 to
+   * size - 1.
+   *
+   * @return
+   */
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * Compares two symbols. If both symbols are known, the symbols are compared
+   * directly. Otherwise the given names are compared, which gives the same
+   * ordering.
+   *
+   * @param symbol1
+   * @param name1
+   * @param symbol2
+   * @param name2
+   * @return
+   */
+  public static int compare(int symbol1, String name1, int symbol2, String name2) {
+    if (symbol1 != NO_SYMBOL && symbol2 != NO_SYMBOL) {
+      return symbol1 < symbol2 ? -1 : (symbol1 == symbol2 ? 0 : 1);
+    }
+
+    return name1.compareTo(name2);
+  }
+
+  /**
+   * Checks two symbols for equality. If both symbols are known, the symbols
+   * are compared directly. Otherwise the given names (which may be
+   * <code>null</code>) are compared.
+   *
+   * @param symbol1
+   * @param name1
+   * @param symbol2
+   * @param name2
+   * @return
+   */
+  public static boolean equals(int symbol1, String name1, int symbol2, String name2) {
+    if (symbol1 != NO_SYMBOL && symbol2 != NO_SYMBOL) {
+      return symbol1 == symbol2;
+    }
+
+    return name1 == null ? name2 == null : name1.equals(name2);
+  }
+
+  /**
+   * Creates an empty symbol table
+   *
+   * @return
+   */
+  public static GedcomSymbolTable empty() {
+    return new GedcomSymbolTable(new ArrayList<String>());
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.GedcomFormatter.GedcomDateFormat;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomDateFormatterTest {
+
+  @Test
+  public void testFormat() {
+    LocalDateTime dateTime = LocalDateTime.of(1995, 2, 3, 14, 5, 9);
+
+    assertEquals("03 FEB 1995", GedcomDateFormatter.getGedcomDate(dateTime, true, true));
+    assertEquals("FEB 1995", GedcomDateFormatter.getGedcomDate(dateTime, true, false));
+    assertEquals("1995", GedcomDateFormatter.getGedcomDate(dateTime.toLocalDate(), false, false));
+    assertEquals("14:05:09", GedcomDateFormatter.getGedcomTime(dateTime));
+    assertEquals("03 FEB 1995 14:05:09", GedcomDateFormatter.getGedcomDateTime(dateTime, true, true));
+    assertEquals("1995 14:05:09", GedcomDateFormatter.getGedcomDateTime(dateTime, false, false));
+    assertNull(GedcomDateFormatter.getGedcomDate(null, true, true));
+  }
+
+  @Test
+  public void testParse() {
+    assertEquals(LocalDate.of(1900, 1, 1), GedcomDateFormatter.getDateFromGedcom("1 JAN 1900"));
+    assertEquals(LocalDate.of(1850, 3, 15), GedcomDateFormatter.getDateFromGedcom("15 MAR 1850"));
+    assertEquals(LocalDate.of(1920, 4, 1), GedcomDateFormatter.getDateFromGedcom("APR 1920"));
+    assertEquals(LocalDate.of(1789, 1, 1), GedcomDateFormatter.getDateFromGedcom("1789"));
+    assertNull(GedcomDateFormatter.getDateFromGedcom("ABT 1789"));
+    assertNull(GedcomDateFormatter.getDateFromGedcom("31 FEB 1900"));
+
+    assertEquals(LocalTime.of(12, 2, 20), GedcomDateFormatter.getTimeFromGedcom("12:02:20"));
+    assertEquals(LocalDateTime.of(1995, 1, 1, 12, 2, 20),
+        GedcomDateFormatter.getDateTimeFromGedcom("1995 12:02:20"));
+    assertEquals(LocalDateTime.of(1995, 12, 24, 12, 2, 20),
+        GedcomDateFormatter.getDateTimeFromGedcom("24 DEC 1995 12:02:20"));
+
+    assertEquals(GedcomDateFormat.YEAR_MONTH, GedcomDateFormatter.getGedcomDateFormat("APR 1920"));
+    assertEquals(GedcomDateFormat.UNKNOWN, GedcomDateFormatter.getGedcomDateFormat(null));
+  }
+
+  @Test
+  public void testConvertAndExtract() {
+    assertEquals("24.12.1995", GedcomDateFormatter.convertGedcomDate("24 DEC 1995", "yyyy", "MM.yyyy", "dd.MM.yyyy"));
+    assertEquals("12.1995", GedcomDateFormatter.convertGedcomDate("DEC 1995", "yyyy", "MM.yyyy", "dd.MM.yyyy"));
+    assertEquals("1995", GedcomDateFormatter.convertGedcomDate("1995", "yyyy", "MM.yyyy", "dd.MM.yyyy"));
+    assertNull(GedcomDateFormatter.convertGedcomDate("unknown", "yyyy", "MM.yyyy", "dd.MM.yyyy"));
+
+    assertEquals(LocalDate.of(1995, 12, 24),
+        GedcomDateFormatter.extractDate("24.12.1995 (baptism)", "dd.MM.yyyy", "yyyy"));
+    assertEquals(LocalDate.of(1995, 1, 1),
+        GedcomDateFormatter.extractDate("1995, place unknown", "dd.MM.yyyy", "yyyy"));
+    assertNull(GedcomDateFormatter.extractDate("unknown", "dd.MM.yyyy", "yyyy"));
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.GedcomDateValue.Calendar;
+import ch.thn.gedcom.GedcomDateValue.Qualifier;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomDateValueTest {
+
+  @Test
+  public void testDates() {
+    assertRange("1 JAN 1900", "1900-01-01", "1900-01-01", Qualifier.EXACT, Calendar.GREGORIAN);
+    assertRange("FEB 1900", "1900-02-01", "1900-02-28", Qualifier.EXACT, Calendar.GREGORIAN);
+    assertRange("1900", "1900-01-01", "1900-12-31", Qualifier.EXACT, Calendar.GREGORIAN);
+    assertRange("10 FEB 1699/00", "1700-02-10", "1700-02-10", Qualifier.EXACT, Calendar.GREGORIAN);
+    assertRange("44 B.C.", "-0043-01-01", "-0043-12-31", Qualifier.EXACT, Calendar.GREGORIAN);
+
+    //Calendar escapes
+    assertRange("@#DJULIAN@ 4 OCT 1582", "1582-10-14", "1582-10-14", Qualifier.EXACT, Calendar.JULIAN);
+    assertRange("@#DJULIAN@ FEB 1700", "1700-02-11", "1700-03-11", Qualifier.EXACT, Calendar.JULIAN);
+    assertRange("@#DHEBREW@ 1 TSH 5780", "2019-09-30", "2019-09-30", Qualifier.EXACT, Calendar.HEBREW);
+    assertRange("@#DHEBREW@ 15 NSN 5779", "2019-04-20", "2019-04-20", Qualifier.EXACT, Calendar.HEBREW);
+    assertRange("@#DHEBREW@ 5780", "2019-09-30", "2020-09-18", Qualifier.EXACT, Calendar.HEBREW);
+    assertRange("@#DFRENCH R@ 18 BRUM 8", "1799-11-09", "1799-11-09", Qualifier.EXACT, Calendar.FRENCH_R);
+
+    long roman = GedcomDateValue.parse("@#DROMAN@ 1900");
+    assertEquals(Calendar.ROMAN, GedcomDateValue.getCalendar(roman));
+    assertEquals(GedcomDateValue.MIN_EPOCH_DAY, GedcomDateValue.getEarliestEpochDay(roman));
+  }
+
+  @Test
+  public void testQualifiers() {
+    assertRange("ABT 1900", "1900-01-01", "1900-12-31", Qualifier.ABOUT, Calendar.GREGORIAN);
+    assertRange("CAL MAR 1900", "1900-03-01", "1900-03-31", Qualifier.CALCULATED, Calendar.GREGORIAN);
+    assertRange("EST 1900", "1900-01-01", "1900-12-31", Qualifier.ESTIMATED, Calendar.GREGORIAN);
+    assertRange("BET MAR 1900 AND 1910", "1900-03-01", "1910-12-31", Qualifier.BETWEEN, Calendar.GREGORIAN);
+    assertRange("FROM 1900 TO 5 MAY 1910", "1900-01-01", "1910-05-05", Qualifier.FROM_TO, Calendar.GREGORIAN);
+    assertRange("INT 1900 (around the turn of the century)", "1900-01-01", "1900-12-31",
+        Qualifier.INTERPRETED, Calendar.GREGORIAN);
+
+    long before = GedcomDateValue.parse("BEF 1900");
+    assertEquals(Qualifier.BEFORE, GedcomDateValue.getQualifier(before));
+    assertEquals(GedcomDateValue.MIN_EPOCH_DAY, GedcomDateValue.getEarliestEpochDay(before));
+    assertEquals(LocalDate.parse("1899-12-31").toEpochDay(), GedcomDateValue.getLatestEpochDay(before));
+
+    long after = GedcomDateValue.parse("AFT 1900");
+    assertEquals(LocalDate.parse("1901-01-01").toEpochDay(), GedcomDateValue.getEarliestEpochDay(after));
+    assertEquals(GedcomDateValue.MAX_EPOCH_DAY, GedcomDateValue.getLatestEpochDay(after));
+
+    long from = GedcomDateValue.parse("FROM 1900");
+    assertEquals(Qualifier.FROM, GedcomDateValue.getQualifier(from));
+    assertEquals(GedcomDateValue.MAX_EPOCH_DAY, GedcomDateValue.getLatestEpochDay(from));
+
+    assertEquals(Qualifier.PHRASE, GedcomDateValue.getQualifier(GedcomDateValue.parse("(sometime)")));
+  }
+
+  @Test
+  public void testInvalid() {
+    String[] invalid = {null, "", "garbage", "31 FEB 1900", "0 JAN 1900", "1 JAN 1900 x",
+        "BET 1900", "BET 1900 AND", "FROM 1910 TO 1900", "@#DMAYA@ 1900", "@#DHEBREW@ 1 JAN 1900"};
+
+    for (String dateValue : invalid) {
+      assertEquals(dateValue, GedcomDateValue.INVALID, GedcomDateValue.parse(dateValue));
+    }
+
+    assertFalse(GedcomDateValue.isValid(GedcomDateValue.INVALID));
+  }
+
+  @Test
+  public void testOrderAndOverlap() {
+    String[] dateValues = {"AFT 1900", "1 JAN 1900", "BEF 1900", "1900", "ABT 1850", "31 DEC 1899"};
+    long[] encoded = new long[dateValues.length];
+
+    for (int i = 0; i < dateValues.length; i++) {
+      encoded[i] = GedcomDateValue.parse(dateValues[i]);
+    }
+
+    Arrays.sort(encoded);
+
+    assertEquals(GedcomDateValue.parse("BEF 1900"), encoded[0]);
+    assertEquals(GedcomDateValue.parse("ABT 1850"), encoded[1]);
+    assertEquals(GedcomDateValue.parse("31 DEC 1899"), encoded[2]);
+    assertEquals(GedcomDateValue.parse("1 JAN 1900"), encoded[3]);
+    assertEquals(GedcomDateValue.parse("1900"), encoded[4]);
+    assertEquals(GedcomDateValue.parse("AFT 1900"), encoded[5]);
+
+    int from = (int)LocalDate.parse("1900-06-01").toEpochDay();
+    int to = (int)LocalDate.parse("1900-06-30").toEpochDay();
+
+    assertTrue(GedcomDateValue.overlaps(GedcomDateValue.parse("1900"), from, to));
+    assertTrue(GedcomDateValue.overlaps(GedcomDateValue.parse("BET 1850 AND 1950"), from, to));
+    assertFalse(GedcomDateValue.overlaps(GedcomDateValue.parse("1 JAN 1900"), from, to));
+    assertFalse(GedcomDateValue.overlaps(GedcomDateValue.INVALID, from, to));
+  }
+
+  /**
+   *
+   *
+   * @param dateValue
+   * @param earliest
+   * @param latest
+   * @param qualifier
+   * @param calendar
+   */
+  private static void assertRange(String dateValue, String earliest, String latest,
+      Qualifier qualifier, Calendar calendar) {
+    long encoded = GedcomDateValue.parse(dateValue);
+
+    assertTrue(dateValue, GedcomDateValue.isValid(encoded));
+    assertEquals(dateValue, LocalDate.parse(earliest).toEpochDay(), GedcomDateValue.getEarliestEpochDay(encoded));
+    assertEquals(dateValue, LocalDate.parse(latest).toEpochDay(), GedcomDateValue.getLatestEpochDay(encoded));
+    assertEquals(dateValue, qualifier, GedcomDateValue.getQualifier(encoded));
+    assertEquals(dateValue, calendar, GedcomDateValue.getCalendar(encoded));
+  }
+
+}
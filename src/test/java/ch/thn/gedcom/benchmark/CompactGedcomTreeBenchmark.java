@@ -0,0 +1,159 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.thn.gedcom.data.CompactGedcomTree;
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.io.GedcomReader;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Measures the heap which is used per line by {@link GedcomTree} records and
+ * by the same records as {@link CompactGedcomTree}. {@link #RECORDS}
+ * individual records are read from memory, with names, events, family links,
+ * notes and a change date. The heap is measured after a garbage collection,
+ * thus the numbers are only estimates. Run it with a fixed heap size (like
+ * -Xms1g -Xmx1g) for more stable numbers.<br>
+ * <br>
+ * This is not a unit test. Run it with the main method.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class CompactGedcomTreeBenchmark {
+
+  private static final int RECORDS = 20000;
+
+  /**
+   *
+   *
+   * @param args
+   * @throws GedcomParseException
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws GedcomParseException, IOException, InterruptedException {
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(CompactGedcomTreeBenchmark.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    byte[] text = createText();
+
+    long before = usedMemory();
+    List<GedcomTree> trees = read(store, text);
+    long treeMemory = usedMemory() - before;
+
+    long lines = 0;
+    List<CompactGedcomTree> compactTrees = new ArrayList<CompactGedcomTree>(trees.size());
+
+    for (GedcomTree tree : trees) {
+      CompactGedcomTree compactTree = new CompactGedcomTree(tree);
+      //Without the head of the tree, like the lines in the text
+      lines += compactTree.getNumberOfLines() - 1;
+      compactTrees.add(compactTree);
+    }
+
+    trees = null;
+    before = usedMemory();
+    compactTrees.clear();
+    long compactMemory = before - usedMemory();
+
+    System.out.println(RECORDS + " records with " + lines + " lines:");
+    System.out.println(String.format("  GedcomTree:        %,d bytes, %.1f bytes/line",
+        treeMemory, treeMemory / (double)lines));
+    System.out.println(String.format("  CompactGedcomTree: %,d bytes, %.1f bytes/line",
+        compactMemory, compactMemory / (double)lines));
+  }
+
+  /**
+   * Returns the used heap after a garbage collection
+   *
+   * @return
+   * @throws InterruptedException
+   */
+  private static long usedMemory() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   *
+   *
+   * @param store
+   * @param text
+   * @return
+   * @throws GedcomParseException
+   * @throws IOException
+   */
+  private static List<GedcomTree> read(GedcomStore store, byte[] text)
+      throws GedcomParseException, IOException {
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(text));
+    List<GedcomTree> trees = new ArrayList<GedcomTree>(RECORDS);
+    GedcomTree record = null;
+
+    while ((record = reader.readRecord()) != null) {
+      trees.add(record);
+    }
+
+    reader.close();
+    return trees;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  private static byte[] createText() {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < RECORDS; i++) {
+      sb.append("0 @I").append(i).append("@ INDI\n");
+      sb.append("1 NAME John /Doe").append(i).append("/\n");
+      sb.append("2 GIVN John\n");
+      sb.append("2 SURN Doe").append(i).append('\n');
+      sb.append("1 SEX M\n");
+      sb.append("1 BIRT\n");
+      sb.append("2 DATE ").append(1 + i % 28).append(" JAN ").append(1800 + i % 200).append('\n');
+      sb.append("2 PLAC Zurich\n");
+      sb.append("1 DEAT Y\n");
+      sb.append("1 FAMS @F").append(i / 2).append("@\n");
+      sb.append("1 FAMC @F").append(i / 4).append("@\n");
+      sb.append("1 NOTE A note about individual ").append(i).append('\n');
+      sb.append("2 CONT with a second line\n");
+      sb.append("1 CHAN\n");
+      sb.append("2 DATE 1 JAN 2017\n");
+      sb.append("3 TIME 12:00:00\n");
+    }
+
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
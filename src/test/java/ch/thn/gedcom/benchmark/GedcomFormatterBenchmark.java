@@ -0,0 +1,173 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.benchmark;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.thn.gedcom.GedcomDateFormatter;
+import ch.thn.gedcom.GedcomFormatter;
+
+/**
+ * Compares the synchronized {@link GedcomFormatter} with the lock-free
+ * {@link GedcomDateFormatter} when several threads format and parse dates at
+ * the same time, like the workers of a parallel import do. Each operation
+ * formats a CHAN date and time and parses a birth date.<br>
+ * <br>
+ * This is not a unit test. Run it with the main method.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomFormatterBenchmark {
+
+  private static final int OPERATIONS_PER_THREAD = 200000;
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int ROUNDS = 5;
+
+  private static final String[] BIRTH_DATES = {"1 JAN 1900", "15 MAR 1850", "APR 1920", "1789"};
+
+  /**
+   *
+   *
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      System.out.println(threads + " thread(s), synchronized GedcomFormatter:");
+      run(threads, false);
+
+      System.out.println(threads + " thread(s), GedcomDateFormatter:");
+      run(threads, true);
+    }
+  }
+
+  /**
+   * Runs the warmup and the measured rounds and prints the result
+   *
+   * @param threads
+   * @param javaTime
+   * @throws Exception
+   */
+  private static void run(int threads, boolean javaTime) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long checksum = 0;
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      checksum += runRound(executor, threads, javaTime);
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      checksum += runRound(executor, threads, javaTime);
+      long time = System.nanoTime() - start;
+
+      best = Math.min(best, time);
+      total += time;
+    }
+
+    executor.shutdown();
+
+    long operations = (long)threads * OPERATIONS_PER_THREAD;
+    System.out.println(String.format("  average %.2f ms, best %.2f ms, %.2f million ops/s (checksum %d)",
+        total / (double)ROUNDS / 1000000, best / 1000000.0, operations * 1000.0 / best, checksum));
+  }
+
+  /**
+   * Runs {@link #OPERATIONS_PER_THREAD} operations on each thread and waits
+   * until all of them are done
+   *
+   * @param executor
+   * @param threads
+   * @param javaTime
+   * @return
+   * @throws Exception
+   */
+  private static long runRound(ExecutorService executor, int threads, final boolean javaTime) throws Exception {
+    List<Future<Long>> results = new ArrayList<>();
+
+    for (int t = 0; t < threads; t++) {
+      results.add(executor.submit(new Callable<Long>() {
+        @Override
+        public Long call() {
+          return javaTime ? runJavaTime() : runSynchronized();
+        }
+      }));
+    }
+
+    long checksum = 0;
+
+    for (Future<Long> result : results) {
+      checksum += result.get();
+    }
+
+    return checksum;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  private static long runSynchronized() {
+    Date changed = new Date();
+    long checksum = 0;
+
+    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+      checksum += GedcomFormatter.getGedcomDate(changed, true, true).length();
+      checksum += GedcomFormatter.getGedcomTime(changed).length();
+
+      Date birth = GedcomFormatter.getDateFromGedcom(BIRTH_DATES[i % BIRTH_DATES.length]);
+      checksum += birth == null ? 0 : 1;
+    }
+
+    return checksum;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  private static long runJavaTime() {
+    LocalDateTime changed = LocalDateTime.now(ZoneId.systemDefault());
+    long checksum = 0;
+
+    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+      checksum += GedcomDateFormatter.getGedcomDate(changed, true, true).length();
+      checksum += GedcomDateFormatter.getGedcomTime(changed).length();
+
+      checksum += GedcomDateFormatter.getDateFromGedcom(BIRTH_DATES[i % BIRTH_DATES.length]) == null ? 0 : 1;
+    }
+
+    return checksum;
+  }
+
+}
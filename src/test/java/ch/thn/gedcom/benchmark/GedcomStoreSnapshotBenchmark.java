@@ -0,0 +1,118 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Compares the startup time of a {@link GedcomStore}: once by parsing the
+ * lineage-linked grammar file of GEDCOM 5.5.1, and once by loading a binary
+ * snapshot of the parsed store. The snapshot is loaded from memory, to only
+ * measure the loading and not the file system.<br>
+ * <br>
+ * This is not a unit test. Run it with the main method.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomStoreSnapshotBenchmark {
+
+  private static final int WARMUP_ROUNDS = 50;
+  private static final int ROUNDS = 100;
+
+  /**
+   *
+   *
+   * @param args
+   * @throws GedcomParseException
+   * @throws IOException
+   */
+  public static void main(String[] args) throws GedcomParseException, IOException {
+    String grammarFile = GedcomStoreSnapshotBenchmark.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath();
+
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(grammarFile);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    store.saveSnapshot(output);
+    byte[] snapshot = output.toByteArray();
+
+    System.out.println("Parsing the grammar file:");
+    run(grammarFile, null);
+
+    System.out.println("Loading the snapshot (" + snapshot.length + " bytes):");
+    run(null, snapshot);
+  }
+
+  /**
+   * Runs the warmup and the measured rounds and prints the result
+   *
+   * @param grammarFile Parses the grammar file if not <code>null</code>
+   * @param snapshot Loads the snapshot if not <code>null</code>
+   * @throws GedcomParseException
+   */
+  private static void run(String grammarFile, byte[] snapshot) throws GedcomParseException {
+    long checksum = 0;
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      checksum += load(grammarFile, snapshot);
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      checksum += load(grammarFile, snapshot);
+      long time = System.nanoTime() - start;
+
+      best = Math.min(best, time);
+      total += time;
+    }
+
+    System.out.println(String.format("  average %.3f ms, best %.3f ms (checksum %d)",
+        total / (double)ROUNDS / 1000000, best / 1000000.0, checksum));
+  }
+
+  /**
+   *
+   *
+   * @param grammarFile
+   * @param snapshot
+   * @return The number of structures in the new store
+   * @throws GedcomParseException
+   */
+  private static int load(String grammarFile, byte[] snapshot) throws GedcomParseException {
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+
+    if (grammarFile != null) {
+      store.parse(grammarFile);
+    } else {
+      store.loadSnapshot(new ByteArrayInputStream(snapshot));
+    }
+
+    return store.getStructures().size();
+  }
+
+}
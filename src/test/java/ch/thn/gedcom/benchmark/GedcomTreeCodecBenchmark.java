@@ -0,0 +1,217 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ch.thn.gedcom.data.CompactGedcomTree;
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.data.GedcomTreeCodec;
+import ch.thn.gedcom.io.GedcomReader;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Compares decoding records with the {@link GedcomTreeCodec} with reading the
+ * same records from gedcom text with the {@link GedcomReader}. The records
+ * are decoded to {@link GedcomTree}s and to {@link CompactGedcomTree}s. All
+ * read from memory, {@link #RECORDS} individual records with names, events,
+ * family links, notes and a change date.<br>
+ * <br>
+ * This is not a unit test. Run it with the main method.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomTreeCodecBenchmark {
+
+  private static final int RECORDS = 10000;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int ROUNDS = 31;
+
+  /**
+   *
+   *
+   * @param args
+   * @throws GedcomParseException
+   * @throws IOException
+   */
+  public static void main(String[] args) throws GedcomParseException, IOException {
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomTreeCodecBenchmark.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    GedcomTreeCodec codec = new GedcomTreeCodec(store);
+
+    byte[] text = createText();
+    byte[] encoded = encode(store, codec, text);
+
+    System.out.println("Reading " + RECORDS + " records from text (" + text.length
+        + " bytes) and decoding them (" + encoded.length + " bytes)");
+
+    long checksum = 0;
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      checksum += read(store, null, text, false);
+      checksum += read(store, codec, encoded, false);
+      checksum += read(store, codec, encoded, true);
+    }
+
+    //All are measured in turns, thus a busy machine slows down all of them
+    long[] textTimes = new long[ROUNDS];
+    long[] decodeTimes = new long[ROUNDS];
+    long[] compactTimes = new long[ROUNDS];
+
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      checksum += read(store, null, text, false);
+      textTimes[i] = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      checksum += read(store, codec, encoded, false);
+      decodeTimes[i] = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      checksum += read(store, codec, encoded, true);
+      compactTimes[i] = System.nanoTime() - start;
+    }
+
+    Arrays.sort(textTimes);
+    Arrays.sort(decodeTimes);
+    Arrays.sort(compactTimes);
+
+    print("Text to GedcomTree", textTimes);
+    print("Decoding to GedcomTree", decodeTimes);
+    print("Decoding to CompactGedcomTree", compactTimes);
+
+    System.out.println(String.format("Decoding to GedcomTree is %.1f times faster (best), %.1f times faster (median)",
+        textTimes[0] / (double)decodeTimes[0], textTimes[ROUNDS / 2] / (double)decodeTimes[ROUNDS / 2]));
+    System.out.println(String.format("Decoding to CompactGedcomTree is %.1f times faster (best), %.1f times faster (median)",
+        textTimes[0] / (double)compactTimes[0], textTimes[ROUNDS / 2] / (double)compactTimes[ROUNDS / 2]));
+    System.out.println("Checksum " + checksum);
+  }
+
+  /**
+   * Prints the best and the median time
+   *
+   * @param name
+   * @param times The sorted times
+   */
+  private static void print(String name, long[] times) {
+    System.out.println(String.format("  %s: best %.2f ms, median %.2f ms, %.2f us/record",
+        name, times[0] / 1000000.0, times[ROUNDS / 2] / 1000000.0,
+        times[0] / (double)RECORDS / 1000));
+  }
+
+  /**
+   *
+   *
+   * @param store
+   * @param codec Decodes the data if not <code>null</code>, otherwise the
+   * data is read as gedcom text
+   * @param data
+   * @param compact Decodes to {@link CompactGedcomTree}s instead of {@link GedcomTree}s
+   * @return The number of records
+   * @throws GedcomParseException
+   * @throws IOException
+   */
+  private static int read(GedcomStore store, GedcomTreeCodec codec, byte[] data, boolean compact)
+      throws GedcomParseException, IOException {
+    InputStream input = new ByteArrayInputStream(data);
+    int count = 0;
+
+    if (codec != null && compact) {
+      while (codec.readCompact(input) != null) {
+        count++;
+      }
+    } else if (codec != null) {
+      while (codec.read(input) != null) {
+        count++;
+      }
+    } else {
+      GedcomReader reader = new GedcomReader(store, input);
+
+      while (reader.readRecord() != null) {
+        count++;
+      }
+
+      reader.close();
+    }
+
+    return count;
+  }
+
+  /**
+   * Reads the text records and encodes them
+   *
+   * @param store
+   * @param codec
+   * @param text
+   * @return
+   * @throws GedcomParseException
+   * @throws IOException
+   */
+  private static byte[] encode(GedcomStore store, GedcomTreeCodec codec, byte[] text)
+      throws GedcomParseException, IOException {
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(text));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomTree record = null;
+
+    while ((record = reader.readRecord()) != null) {
+      codec.write(record, output);
+    }
+
+    reader.close();
+    return output.toByteArray();
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  private static byte[] createText() {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < RECORDS; i++) {
+      sb.append("0 @I").append(i).append("@ INDI\n");
+      sb.append("1 NAME John /Doe").append(i).append("/\n");
+      sb.append("2 GIVN John\n");
+      sb.append("2 SURN Doe").append(i).append('\n');
+      sb.append("1 SEX M\n");
+      sb.append("1 BIRT\n");
+      sb.append("2 DATE ").append(1 + i % 28).append(" JAN ").append(1800 + i % 200).append('\n');
+      sb.append("2 PLAC Zurich\n");
+      sb.append("1 DEAT Y\n");
+      sb.append("1 FAMS @F").append(i / 2).append("@\n");
+      sb.append("1 FAMC @F").append(i / 4).append("@\n");
+      sb.append("1 NOTE A note about individual ").append(i).append('\n');
+      sb.append("2 CONT with a second line\n");
+      sb.append("1 CHAN\n");
+      sb.append("2 DATE 1 JAN 2017\n");
+      sb.append("3 TIME 12:00:00\n");
+    }
+
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.benchmark;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+
+import ch.thn.gedcom.data.GedcomNode;
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.data.NodeKey;
+import ch.thn.gedcom.data.NodeKeyComparator;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+import ch.thn.gedcom.store.GedcomStoreBlock;
+import ch.thn.gedcom.store.GedcomStoreLine;
+
+/**
+ * Measures the cost of inserting nodes with the packed {@link NodeKey} ordering.
+ * It builds a tree with 100'000 nodes, and it inserts 100'000 node keys into
+ * a sorted multimap, once compared by the packed keys and once compared by
+ * the formatted ordering strings (as the keys have been compared before).<br>
+ * <br>
+ * This is not a unit test. Run it with the main method.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class NodeKeyBenchmark {
+
+  private static final int NODES = 100000;
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 10;
+
+  /**
+   *
+   *
+   * @param args
+   * @throws GedcomParseException
+   */
+  public static void main(String[] args) throws GedcomParseException {
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(NodeKeyBenchmark.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    List<NodeKey> keys = createKeys(store);
+
+    Comparator<NodeKey> orderingStringComparator = new Comparator<NodeKey>() {
+      @Override
+      public int compare(NodeKey key1, NodeKey key2) {
+        return key1.getOrderingString().compareTo(key2.getOrderingString());
+      }
+    };
+
+    System.out.println("Building a tree with " + NODES + " nodes:");
+    run(store, null, null);
+
+    System.out.println("Inserting " + NODES + " keys, compared by ordering string:");
+    run(null, keys, orderingStringComparator);
+
+    System.out.println("Inserting " + NODES + " keys, compared by packed key:");
+    run(null, keys, new NodeKeyComparator());
+  }
+
+  /**
+   * Runs the warmup and the measured rounds and prints the result
+   *
+   * @param store Builds a tree if not <code>null</code>
+   * @param keys
+   * @param comparator
+   */
+  private static void run(GedcomStore store, List<NodeKey> keys, Comparator<NodeKey> comparator) {
+    long checksum = 0;
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      checksum += store != null ? buildTree(store) : insertKeys(keys, comparator);
+    }
+
+    long best = Long.MAX_VALUE;
+    long total = 0;
+
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      checksum += store != null ? buildTree(store) : insertKeys(keys, comparator);
+      long time = System.nanoTime() - start;
+
+      best = Math.min(best, time);
+      total += time;
+    }
+
+    System.out.println(String.format("  average %.2f ms, best %.2f ms, %.1f ns/node (checksum %d)",
+        total / (double)ROUNDS / 1000000, best / 1000000.0, best / (double)NODES, checksum));
+  }
+
+  /**
+   * Builds an individual with notes, which gives {@link #NODES} nodes
+   * (a note structure line and a note line per note)
+   *
+   * @param store
+   * @return The number of child lines
+   */
+  private static int buildTree(GedcomStore store) {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode indi = tree.addChildLine("INDI");
+
+    for (int i = 0; i < NODES / 2; i++) {
+      indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true)
+      .addChildLine("NOTE").setTagLineValue("note " + i);
+    }
+
+    return indi.getNumberOfChildLines();
+  }
+
+  /**
+   *
+   *
+   * @param keys
+   * @param comparator
+   * @return
+   */
+  private static int insertKeys(List<NodeKey> keys, Comparator<NodeKey> comparator) {
+    TreeMultimap<NodeKey, Integer> map = TreeMultimap.create(comparator, Ordering.natural());
+
+    for (int i = 0; i < keys.size(); i++) {
+      map.put(keys.get(i), i);
+    }
+
+    return map.keySet().size();
+  }
+
+  /**
+   * Creates node keys of all the lines of the individual block, in random order
+   *
+   * @param store
+   * @return
+   */
+  private static List<NodeKey> createKeys(GedcomStore store) {
+    GedcomStoreBlock block = store.getGedcomTree("INDIVIDUAL_RECORD").getStoreBlock()
+        .getStoreLine("INDI").getChildBlock();
+    List<String> ids = block.getAllLineIDs();
+    List<NodeKey> keys = new ArrayList<NodeKey>(NODES);
+    Random random = new Random(42);
+
+    for (int i = 0; i < NODES; i++) {
+      String id = ids.get(random.nextInt(ids.size()));
+      GedcomStoreLine storeLine = block.getStoreLine(id);
+      keys.add(new NodeKey(id, storeLine));
+    }
+
+    return keys;
+  }
+
+}
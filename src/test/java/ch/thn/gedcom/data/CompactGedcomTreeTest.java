@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.io.GedcomReader;
+import ch.thn.gedcom.io.GedcomReaderTest;
+import ch.thn.gedcom.io.GedcomWriter;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class CompactGedcomTreeTest {
+
+  private static GedcomStore store = null;
+  private static List<GedcomTree> records = null;
+
+  @BeforeClass
+  public static void loadRecords() throws Exception {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(CompactGedcomTreeTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(
+        GedcomReaderTest.GEDCOM_DATA.getBytes(StandardCharsets.UTF_8)));
+    records = new ArrayList<GedcomTree>();
+    GedcomTree record = null;
+
+    while ((record = reader.readRecord()) != null) {
+      records.add(record);
+    }
+
+    reader.close();
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @return
+   * @throws IOException
+   */
+  private static String write(GedcomNode node) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+    writer.write(node);
+    writer.close();
+
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks that the compact line has the same content and child lines as the node
+   *
+   * @param node
+   * @param tree
+   * @param line
+   */
+  private static void assertSameLines(GedcomNode node, CompactGedcomTree tree, int line) {
+    if (line != CompactGedcomTree.ROOT) {
+      assertSame(node.getStoreLine(), tree.getStoreLine(line));
+      assertEquals(node.getTagOrStructureName(), tree.getTagOrStructureName(line));
+      assertEquals(node.getTag(), tree.getTag(line));
+      assertEquals(node.getNodeValue().isTagLine(), tree.isTagLine(line));
+
+      if (tree.isTagLine(line)) {
+        assertEquals(node.getTagLineValue(), tree.getTagLineValue(line));
+        assertEquals(node.getTagLineXRef(), tree.getTagLineXRef(line));
+      }
+    }
+
+    assertEquals(node.getNumberOfChildLines(), tree.getNumberOfChildLines(line));
+
+    Iterator<GedcomNode> childNodes = node.getChildNodes().iterator();
+
+    for (int child = tree.getFirstChildLine(line); child != CompactGedcomTree.NO_LINE;
+        child = tree.getNextSiblingLine(child)) {
+      assertEquals(line, tree.getParentLine(child));
+      assertSameLines(childNodes.next(), tree, child);
+    }
+
+    assertFalse(childNodes.hasNext());
+  }
+
+  @Test
+  public void copy() {
+    for (GedcomTree record : records) {
+      CompactGedcomTree tree = new CompactGedcomTree(record);
+
+      assertSame(record.getStoreStructure(), tree.getStoreStructure());
+      assertEquals(CompactGedcomTree.NO_LINE, tree.getParentLine(CompactGedcomTree.ROOT));
+      assertSameLines(record, tree, CompactGedcomTree.ROOT);
+    }
+  }
+
+  @Test
+  public void toTree() throws IOException {
+    for (GedcomTree record : records) {
+      assertEquals(write(record), write(new CompactGedcomTree(record).toTree()));
+    }
+  }
+
+  @Test
+  public void navigation() {
+    GedcomTree indi = records.get(1);
+    CompactGedcomTree tree = new CompactGedcomTree(indi);
+
+    int birthDate = tree.followPath(CompactGedcomTree.ROOT, "INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT", "BIRT",
+        "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "DATE");
+    assertEquals("1 JAN 1900", tree.getTagLineValue(birthDate));
+    assertEquals(indi.followPath("INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT", "BIRT",
+        "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "DATE").getTagLineValue(), tree.getTagLineValue(birthDate));
+
+    int line = tree.getChildLine(CompactGedcomTree.ROOT, "INDI", 0);
+    assertEquals("I1", tree.getTagLineXRef(line));
+
+    //The two note variations
+    int note = tree.getChildLine(line, "NOTE_STRUCTURE", "NOTE", false, true, 0);
+    assertTrue(tree.getTagLineValue(tree.getChildLine(note, "NOTE", 0)).startsWith("first note"));
+    note = tree.getChildLine(line, "NOTE_STRUCTURE", "NOTE", true, false, 0);
+    assertEquals("N1", tree.getTagLineXRef(tree.getChildLine(note, "NOTE", 0)));
+
+    //Same result as the tree
+    for (int i = 0; i < 3; i++) {
+      GedcomNode node = indi.followPath("INDI").getChildLine("NOTE_STRUCTURE", i);
+      int compactNote = tree.getChildLine(line, "NOTE_STRUCTURE", i);
+
+      if (node == null) {
+        assertEquals(CompactGedcomTree.NO_LINE, compactNote);
+      } else {
+        assertEquals(node.getChildLine("NOTE", 0).getTagLineValue(),
+            tree.getTagLineValue(tree.getChildLine(compactNote, "NOTE", 0)));
+      }
+    }
+
+    assertEquals(CompactGedcomTree.NO_LINE, tree.followPath(CompactGedcomTree.ROOT, "INDI", "DEAT"));
+    assertEquals(CompactGedcomTree.NO_LINE, tree.getChildLine(line, "UNKNOWN", 0));
+  }
+
+  @Test
+  public void valuePool() throws GedcomParseException {
+    GedcomTree indi = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode line = indi.addChildLine("INDI");
+
+    for (int i = 0; i < 10; i++) {
+      line.addChildLine("NOTE_STRUCTURE", "NOTE", false, true)
+      .addChildLine("NOTE").setTagLineValue("same note");
+    }
+
+    CompactGedcomTree tree = new CompactGedcomTree(indi);
+    assertEquals(1, tree.getPoolSize());
+    assertTrue(tree.getNumberOfLines() > 10);
+  }
+
+}
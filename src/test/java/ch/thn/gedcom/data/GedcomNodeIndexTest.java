@@ -0,0 +1,279 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+import ch.thn.gedcom.store.GedcomSymbolTable;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomNodeIndexTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomNodeIndexTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  /**
+   * Creates an individual with the given number of notes of each kind
+   *
+   * @param indexed
+   * @param notes
+   * @return
+   */
+  private static GedcomNode createIndividual(boolean indexed, int notes) {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    tree.setIndexedChildLines(indexed);
+
+    GedcomNode indi = tree.addChildLine("INDI");
+    indi.setTagLineXRef("I1");
+
+    for (int i = 0; i < notes; i++) {
+      indi.addChildLine("NOTE_STRUCTURE", "NOTE", true, false)
+      .addChildLine("NOTE").setTagLineXRef("N" + i);
+      indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true)
+      .addChildLine("NOTE").setTagLineValue("note " + i);
+    }
+
+    return indi;
+  }
+
+  /**
+   * Adds a REFN line with the given value. Like the reader, the line is added
+   * first and the value is set afterwards, which sorts the line in again.
+   *
+   * @param indi
+   * @param value
+   * @return
+   */
+  private static GedcomNode addRefn(GedcomNode indi, String value) {
+    return indi.addChildLine("REFN").setTagLineValue(value);
+  }
+
+  /**
+   * Creates a REFN line with the given value, which is not added yet (like
+   * the lines which are restored by the {@link GedcomTreeCodec})
+   *
+   * @param indi
+   * @param value
+   * @return
+   */
+  private static GedcomNode createRefn(GedcomNode indi, String value) {
+    GedcomNode refn = indi.createChildLine(indi.getStoreBlock().getStoreLine("REFN"),
+        "REFN", store.getNameId("REFN"), null, GedcomSymbolTable.NO_SYMBOL, false, false, false);
+    refn.setTagLineValue(value);
+    return refn;
+  }
+
+  /**
+   * Returns the values of the REFN lines by their line numbers
+   *
+   * @param indi
+   * @return
+   */
+  private static List<String> getRefnValues(GedcomNode indi) {
+    List<String> values = new ArrayList<String>();
+
+    for (int i = 0; i < indi.getNumberOfChildLines("REFN"); i++) {
+      values.add(indi.getChildLine("REFN", i).getTagLineValue());
+    }
+
+    return values;
+  }
+
+  /**
+   * Checks that the line numbers of the indexed node give the same lines as
+   * the sorted child lines of the node (which the lookups without index and
+   * the writer use)
+   *
+   * @param indexed
+   */
+  private static void assertSortedOrder(GedcomNode indexed) {
+    List<GedcomNode> refns = new ArrayList<GedcomNode>();
+    List<GedcomNode> notes = new ArrayList<GedcomNode>();
+
+    for (GedcomNode child : indexed.getChildNodes()) {
+      if (child.getTagOrStructureName().equals("REFN")) {
+        refns.add(child);
+      } else if (child.getTagOrStructureName().equals("NOTE_STRUCTURE")
+          && child.getWithValue()) {
+        notes.add(child);
+      }
+    }
+
+    assertEquals(refns.size(), indexed.getNumberOfChildLines("REFN"));
+    assertEquals(notes.size(), indexed.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", false, true));
+
+    for (int i = 0; i < refns.size(); i++) {
+      assertSame(refns.get(i), indexed.getChildLine("REFN", i));
+    }
+
+    for (int i = 0; i < notes.size(); i++) {
+      assertSame(notes.get(i), indexed.getChildLine("NOTE_STRUCTURE", "NOTE", false, true, i));
+    }
+  }
+
+  @Test
+  public void testIndexedOrder() {
+    GedcomNode indexed = createIndividual(false, 5);
+    GedcomNode plain = createIndividual(false, 5);
+
+    for (GedcomNode indi : new GedcomNode[] {indexed, plain}) {
+      addRefn(indi, "zz");
+      addRefn(indi, "aa");
+    }
+
+    indexed.getHeadNode().setIndexedChildLines(true);
+
+    //Added after the index has been turned on
+    for (GedcomNode indi : new GedcomNode[] {indexed, plain}) {
+      addRefn(indi, "mm");
+      addRefn(indi, "bb");
+      indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true)
+      .addChildLine("NOTE").setTagLineValue("note added");
+    }
+
+    assertEquals("[aa, bb, mm, zz]", getRefnValues(indexed).toString());
+    assertEquals(getRefnValues(plain), getRefnValues(indexed));
+    assertSortedOrder(indexed);
+
+    //Changed value of an existing line
+    for (GedcomNode indi : new GedcomNode[] {indexed, plain}) {
+      indi.getChildLine("REFN", 0).setTagLineValue("yy");
+    }
+
+    assertEquals("[bb, mm, yy, zz]", getRefnValues(indexed).toString());
+    assertEquals(getRefnValues(plain), getRefnValues(indexed));
+    assertSortedOrder(indexed);
+
+    //Removed
+    for (GedcomNode indi : new GedcomNode[] {indexed, plain}) {
+      assertTrue(indi.getChildLine("REFN", 1).removeLine());
+      assertTrue(indi.getChildLine("NOTE_STRUCTURE", "NOTE", false, true, 2).removeLine());
+    }
+
+    assertEquals("[bb, yy, zz]", getRefnValues(indexed).toString());
+    assertEquals(getRefnValues(plain), getRefnValues(indexed));
+    assertSortedOrder(indexed);
+
+    //Replaced
+    for (GedcomNode indi : new GedcomNode[] {indexed, plain}) {
+      indi.getChildLine("REFN", 0).replace(createRefn(indi, "za"));
+      indi.getChildLine("REFN", 1).replace(createRefn(indi, "ab"));
+    }
+
+    assertEquals("[ab, yy, zz]", getRefnValues(indexed).toString());
+    assertEquals(getRefnValues(plain), getRefnValues(indexed));
+    assertSortedOrder(indexed);
+  }
+
+  @Test
+  public void testSameValue() {
+    GedcomNode indi = createIndividual(true, 0);
+    addRefn(indi, "aa");
+    GedcomNode refn = addRefn(indi, "bb");
+
+    try {
+      refn.setTagLineValue("aa");
+      fail("Two lines with the same value");
+    } catch (GedcomAccessError e) {
+      //Expected
+    }
+
+    //Unchanged
+    assertEquals("bb", refn.getTagLineValue());
+    assertSame(indi, refn.getParentNode());
+    assertEquals("[aa, bb]", getRefnValues(indi).toString());
+    assertSortedOrder(indi);
+  }
+
+  @Test
+  public void testIndexedCounts() {
+    GedcomNode indexed = createIndividual(true, 300);
+    GedcomNode plain = createIndividual(false, 300);
+
+    assertTrue(indexed.hasIndexedChildLines());
+    assertFalse(plain.hasIndexedChildLines());
+
+    assertEquals(plain.getNumberOfChildLines("NOTE_STRUCTURE"), indexed.getNumberOfChildLines("NOTE_STRUCTURE"));
+    assertEquals(600, indexed.getNumberOfChildLines("NOTE_STRUCTURE"));
+    assertEquals(plain.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE"), indexed.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE"));
+    assertEquals(300, indexed.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", true, false));
+    assertEquals(plain.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", false, true),
+        indexed.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", false, true));
+    assertEquals(0, indexed.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", true, true));
+
+    assertTrue(indexed.hasChildLine("NOTE_STRUCTURE", "NOTE", true, false));
+    assertFalse(indexed.hasChildLine("NOTE_STRUCTURE", "NOTE", true, true));
+  }
+
+  @Test
+  public void testIndexedAccess() {
+    GedcomNode indi = createIndividual(true, 100);
+
+    //Line numbers are given by the sorted child lines
+    assertSortedOrder(indi);
+    assertNull(indi.getChildLine("NOTE_STRUCTURE", "NOTE", false, true, 100));
+
+    //Removing keeps the order of the other lines
+    GedcomNode note = indi.getChildLine("NOTE_STRUCTURE", "NOTE", false, true, 0);
+    GedcomNode next = indi.getChildLine("NOTE_STRUCTURE", "NOTE", false, true, 1);
+    assertTrue(note.removeLine());
+    assertEquals(99, indi.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", false, true));
+    assertSame(next, indi.getChildLine("NOTE_STRUCTURE", "NOTE", false, true, 0));
+    assertSortedOrder(indi);
+
+    indi.removeAllChildLines();
+    assertEquals(0, indi.getNumberOfChildLines("NOTE_STRUCTURE"));
+    assertNull(indi.getChildLine("NOTE_STRUCTURE", 0));
+  }
+
+  @Test
+  public void testTurnOnIndex() {
+    GedcomNode indi = createIndividual(false, 10);
+    indi.getHeadNode().setIndexedChildLines(true);
+
+    assertTrue(indi.hasIndexedChildLines());
+    assertEquals(20, indi.getNumberOfChildLines("NOTE_STRUCTURE"));
+    assertEquals(10, indi.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", true, false));
+
+    indi.getHeadNode().setIndexedChildLines(false);
+    assertFalse(indi.hasIndexedChildLines());
+    assertEquals(10, indi.getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", true, false));
+  }
+
+}
@@ -0,0 +1,198 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomPathTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomPathTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  @Test
+  public void testCompiledPath() {
+    GedcomTree tree1 = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomPath path = GedcomPath.compile(tree1, "INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT", "BIRT",
+        "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "DATE");
+
+    assertTrue(path.isCompiled());
+    assertEquals(6, path.getNumberOfSteps());
+    assertSame(tree1.getStoreBlock(), path.getStartBlock());
+    assertEquals("DATE", path.getStoreLine(5).getId());
+
+    GedcomNode date1 = tree1.createPath(path);
+    assertNotNull(date1);
+    date1.setTagLineValue("1 JAN 2000");
+
+    //The same compiled path on another tree of the same structure
+    GedcomTree tree2 = store.getGedcomTree("INDIVIDUAL_RECORD");
+    assertNull(tree2.followPath(path));
+    tree2.followPathCreate(path).setTagLineValue("2 FEB 2001");
+
+    assertSame(date1, tree1.followPath(path));
+    assertEquals("1 JAN 2000", tree1.followPath(path).getTagLineValue());
+    assertEquals("2 FEB 2001", tree2.followPath(path).getTagLineValue());
+
+    //Same result as the string path
+    assertSame(date1, tree1.followPath("INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT", "BIRT",
+        "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "DATE"));
+
+    //A new end at the last possible split point
+    GedcomNode date2 = tree1.createPathEnd(path);
+    assertNotNull(date2);
+    assertFalse(date1 == date2);
+
+    assertNotNull(tree1.removePathEnd(path));
+  }
+
+  @Test
+  public void testParsedPath() {
+    GedcomPath path = GedcomPath.parse("INDI", "", null, "NOTE_STRUCTURE;NOTE;false;true;0", "NOTE");
+
+    assertFalse(path.isCompiled());
+    assertEquals(3, path.getNumberOfSteps());
+    assertNull(path.getStoreLine(0));
+    assertEquals(5, path.getPath().length);
+
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    tree.createPath(path).setTagLineValue("a note");
+    assertEquals("a note", tree.followPath(path).getTagLineValue());
+  }
+
+  @Test
+  public void testStructureWithVariations() {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode note = tree.createPath("INDI", "NOTE_STRUCTURE;NOTE;false;true", "NOTE");
+    note.setTagLineValue("a note");
+
+    //NOTE_STRUCTURE has several variations, thus only its store line is resolved
+    GedcomPath structurePath = GedcomPath.compile(tree, "INDI", "NOTE_STRUCTURE");
+    assertTrue(structurePath.isCompiled());
+    assertNotNull(structurePath.getStoreLine(1));
+    assertSame(note.getParentNode(), tree.followPath(structurePath));
+
+    //The steps after it are looked up by name
+    GedcomPath notePath = GedcomPath.compile(tree, "INDI", "NOTE_STRUCTURE", "NOTE");
+    assertNull(notePath.getStoreLine(2));
+    assertSame(note, tree.followPath(notePath));
+    assertNull(store.getGedcomTree("INDIVIDUAL_RECORD").followPath(notePath));
+  }
+
+  @Test
+  public void testInvalidPath() {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+
+    try {
+      GedcomPath.compile(tree, "INDI", "_UNKNOWN");
+      fail("Invalid path compiled");
+    } catch (GedcomPathAccessError e) {
+      assertEquals(1, e.getPathIndex());
+    }
+
+    try {
+      GedcomPath.compile(tree, "INDI", "INDIVIDUAL_EVENT_STRUCTURE;_UNKNOWN", "BIRT");
+      fail("Invalid variation compiled");
+    } catch (GedcomPathAccessError e) {
+      assertEquals(1, e.getPathIndex());
+    }
+
+    GedcomPath path = GedcomPath.compile(tree, "INDI", "SEX");
+
+    try {
+      store.getGedcomTree("FAM_RECORD").followPath(path);
+      fail("Path used on the wrong structure");
+    } catch (GedcomPathAccessError e) {
+      //Expected
+    }
+  }
+
+  @Test
+  public void testCompiledPathUsesStoreLines() throws GedcomParseException {
+    CountingGedcomStore countingStore = new CountingGedcomStore();
+    countingStore.showParsingOutput(false);
+    countingStore.parse(GedcomPathTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    String[] steps = {"INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT", "BIRT",
+        "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "DATE"};
+    GedcomTree tree = countingStore.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomPath path = GedcomPath.compile(tree, steps);
+
+    //Creating and following the compiled path does not look up any names
+    countingStore.nameLookups = 0;
+    GedcomNode date1 = tree.createPath(path);
+    assertSame(date1, tree.followPath(path));
+    assertSame(date1, tree.followPathCreate(path));
+    GedcomNode date2 = tree.createPathEnd(path);
+    assertEquals(0, countingStore.nameLookups);
+
+    //The lines have been created from the resolved store lines
+    assertSame(path.getStoreLine(5), date1.getStoreLine());
+    assertSame(path.getStoreLine(1), date1.getParentNode().getParentNode()
+        .getParentNode().getParentNode().getStoreLine());
+    assertFalse(date1 == date2);
+
+    //The string path finds the same lines, but has to look up the names
+    assertSame(date1, tree.followPath(steps));
+    assertTrue(countingStore.nameLookups > 0);
+
+    //Indexed child lines give the same lines
+    tree.setIndexedChildLines(true);
+    assertSame(date1, tree.followPath(path));
+  }
+
+
+  /**************************************************************************
+   * A store which counts how many times a name is looked up
+   *
+   * @author Thomas Naeff (github.com/thnaeff)
+   *
+   */
+  private static class CountingGedcomStore extends GedcomStore {
+
+    private int nameLookups = 0;
+
+    @Override
+    public int getNameId(String tagOrStructureName) {
+      nameLookups++;
+      return super.getNameId(tagOrStructureName);
+    }
+
+  }
+
+}
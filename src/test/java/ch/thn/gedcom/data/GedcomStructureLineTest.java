@@ -0,0 +1,95 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomStructureLineTest {
+
+  private static final int NUMBER_OF_THREADS = 8;
+  private static final int TREES_PER_THREAD = 50;
+  private static final int NOTES_PER_TREE = 300;
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomStructureLineTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  @Test
+  public void testParallelTreeBuilding() throws Exception {
+    final Set<String> uniqueIds = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    List<Future<Integer>> results = new ArrayList<>();
+
+    for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+      results.add(executor.submit(new Callable<Integer>() {
+
+        @Override
+        public Integer call() {
+          int lost = 0;
+
+          for (int i = 0; i < TREES_PER_THREAD; i++) {
+            GedcomNode indi = store.getGedcomTree("INDIVIDUAL_RECORD").addChildLine("INDI");
+
+            for (int n = 0; n < NOTES_PER_TREE; n++) {
+              GedcomNode note = indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true);
+              note.addChildLine("NOTE").setTagLineValue("note");
+              uniqueIds.add(note.getNodeValue().getUniqueId());
+            }
+
+            //Structure lines with the same ID would replace each other
+            lost += NOTES_PER_TREE - indi.getNumberOfChildLines("NOTE_STRUCTURE");
+          }
+
+          return lost;
+        }
+      }));
+    }
+
+    for (Future<Integer> result : results) {
+      assertEquals(0, result.get().intValue());
+    }
+
+    executor.shutdown();
+
+    assertEquals(NUMBER_OF_THREADS * TREES_PER_THREAD * NOTES_PER_TREE, uniqueIds.size());
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomTagLineTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomTagLineTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  @Test
+  public void testUniqueId() {
+    GedcomNode indi = store.getGedcomTree("INDIVIDUAL_RECORD").addChildLine("INDI");
+    GedcomTagLine line = indi.getNodeValue().getAsTagLine();
+
+    assertEquals("@null@ INDI", line.getUniqueId());
+
+    //Built once and then reused
+    String uniqueId = line.getUniqueId();
+    assertSame(uniqueId, line.getUniqueId());
+
+    line.setXRef("I1");
+    assertNotSame(uniqueId, line.getUniqueId());
+    assertEquals("@I1@ INDI", line.getUniqueId());
+    assertEquals("@I1@ INDI", line.toString());
+
+    GedcomTagLine sex = indi.addChildLine("SEX").setTagLineValue("M").getNodeValue().getAsTagLine();
+    assertEquals("SEX M", sex.toString());
+
+    sex.clear();
+    assertEquals("SEX null", sex.getUniqueId());
+  }
+
+}
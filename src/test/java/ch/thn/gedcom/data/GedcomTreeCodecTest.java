@@ -0,0 +1,309 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.io.GedcomReader;
+import ch.thn.gedcom.io.GedcomReaderTest;
+import ch.thn.gedcom.io.GedcomWriter;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomTreeCodecTest {
+
+  private static GedcomStore store = null;
+  private static GedcomTreeCodec codec = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomTreeCodecTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    codec = new GedcomTreeCodec(store);
+  }
+
+  /**
+   *
+   *
+   * @param store
+   * @return
+   * @throws Exception
+   */
+  private static List<GedcomTree> readRecords(GedcomStore store) throws Exception {
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(
+        GedcomReaderTest.GEDCOM_DATA.getBytes(StandardCharsets.UTF_8)));
+    List<GedcomTree> records = new ArrayList<GedcomTree>();
+    GedcomTree record = null;
+
+    while ((record = reader.readRecord()) != null) {
+      records.add(record);
+    }
+
+    reader.close();
+    return records;
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @return
+   * @throws IOException
+   */
+  private static String write(GedcomNode node) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+    writer.write(node);
+    writer.close();
+
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Checks that the decoded node is the same as the original node
+   *
+   * @param expected
+   * @param actual
+   */
+  private static void assertSameTree(GedcomNode expected, GedcomNode actual) {
+    assertSame(expected.getStoreBlock(), actual.getStoreBlock());
+    assertSame(expected.getStoreLine(), actual.getStoreLine());
+    assertEquals(expected.getTagOrStructureName(), actual.getTagOrStructureName());
+    assertEquals(expected.getTag(), actual.getTag());
+    assertEquals(expected.getLookForXRefAndValueVariation(), actual.getLookForXRefAndValueVariation());
+    assertEquals(expected.getWithXRef(), actual.getWithXRef());
+    assertEquals(expected.getWithValue(), actual.getWithValue());
+
+    if (expected.getNodeValue() != null && expected.getNodeValue().isTagLine()) {
+      GedcomTagLine expectedLine = expected.getNodeValue().getAsTagLine();
+      GedcomTagLine actualLine = actual.getNodeValue().getAsTagLine();
+
+      assertEquals(expectedLine.getTag(), actualLine.getTag());
+      assertEquals(expectedLine.getXRef(), actualLine.getXRef());
+      assertEquals(expectedLine.getValue(), actualLine.getValue());
+      assertEquals(expectedLine.isXRefSet(), actualLine.isXRefSet());
+      assertEquals(expectedLine.isValueSet(), actualLine.isValueSet());
+    }
+
+    assertEquals(expected.getNumberOfChildLines(), actual.getNumberOfChildLines());
+
+    Iterator<GedcomNode> actualChildren = actual.getChildNodes().iterator();
+
+    for (GedcomNode expectedChild : expected.getChildNodes()) {
+      assertSameTree(expectedChild, actualChildren.next());
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for (GedcomTree record : readRecords(store)) {
+      GedcomTree decoded = codec.decode(codec.encode(record));
+
+      assertSame(record.getStoreStructure(), decoded.getStoreStructure());
+      assertSameTree(record, decoded);
+      assertEquals(write(record), write(decoded));
+    }
+  }
+
+  @Test
+  public void testBuiltTree() throws Exception {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode indi = tree.addChildLine("INDI");
+    indi.setTagLineXRef("I1");
+    indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true).addChildLine("NOTE").setTagLineValue("Zürich ☃");
+    indi.addChildLine("INDIVIDUAL_EVENT_STRUCTURE", "BIRT").addChildLine("BIRT");
+    indi.addMandatoryChildLines(true);
+    //A value which has been set to null
+    indi.addChildLine("SEX").setTagLineValue(null);
+
+    byte[] encoded = codec.encode(tree);
+    GedcomTree decoded = codec.decode(encoded);
+
+    assertSameTree(tree, decoded);
+    assertEquals("Zürich ☃", decoded.followPath("INDI", "NOTE_STRUCTURE;NOTE;false;true", "NOTE").getTagLineValue());
+    assertArrayEquals(encoded, codec.encode(decoded));
+  }
+
+  @Test
+  public void testRepeatedStrings() throws Exception {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode indi = tree.addChildLine("INDI");
+    indi.setTagLineXRef("I1");
+    indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true).addChildLine("NOTE").setTagLineValue("I1");
+    indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true).addChildLine("NOTE").setTagLineValue("I1");
+    indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true).addChildLine("NOTE").setTagLineValue("I2");
+
+    byte[] encoded = codec.encode(tree);
+    assertSameTree(tree, codec.decode(encoded));
+
+    CompactGedcomTree compact = codec.decodeCompact(encoded);
+    assertEquals(2, compact.getPoolSize());
+    assertSameTree(tree, compact.toTree());
+  }
+
+  @Test
+  public void testDecodeCompact() throws Exception {
+    for (GedcomTree record : readRecords(store)) {
+      CompactGedcomTree expected = new CompactGedcomTree(record);
+      CompactGedcomTree decoded = codec.decodeCompact(codec.encode(record));
+
+      assertSame(record.getStoreStructure(), decoded.getStoreStructure());
+      assertEquals(expected.getNumberOfLines(), decoded.getNumberOfLines());
+      assertEquals(expected.getPoolSize(), decoded.getPoolSize());
+
+      for (int line = 0; line < expected.getNumberOfLines(); line++) {
+        assertEquals(expected.getParentLine(line), decoded.getParentLine(line));
+        assertEquals(expected.getFirstChildLine(line), decoded.getFirstChildLine(line));
+        assertEquals(expected.getNextSiblingLine(line), decoded.getNextSiblingLine(line));
+        assertSame(expected.getStoreLine(line), decoded.getStoreLine(line));
+        assertEquals(expected.getTagOrStructureName(line), decoded.getTagOrStructureName(line));
+        assertEquals(expected.getTag(line), decoded.getTag(line));
+        assertEquals(expected.isTagLine(line), decoded.isTagLine(line));
+        assertEquals(expected.getTagLineXRef(line), decoded.getTagLineXRef(line));
+        assertEquals(expected.getTagLineValue(line), decoded.getTagLineValue(line));
+      }
+
+      assertSameTree(record, decoded.toTree());
+    }
+  }
+
+  @Test
+  public void testStream() throws Exception {
+    List<GedcomTree> records = readRecords(store);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    for (GedcomTree record : records) {
+      codec.write(record, output);
+    }
+
+    InputStream input = new ByteArrayInputStream(output.toByteArray());
+
+    for (GedcomTree record : records) {
+      assertSameTree(record, codec.read(input));
+    }
+
+    assertNull(codec.read(input));
+  }
+
+  @Test
+  public void testOtherStore() throws Exception {
+    //A store with the same grammar can decode the trees
+    GedcomStore otherStore = new GedcomStore();
+    otherStore.showParsingOutput(false);
+    otherStore.parse(GedcomTreeCodecTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+    GedcomTreeCodec otherCodec = new GedcomTreeCodec(otherStore);
+    assertEquals(store.getGrammarFingerprint(), otherStore.getGrammarFingerprint());
+
+    List<GedcomTree> records = readRecords(store);
+    List<GedcomTree> otherRecords = readRecords(otherStore);
+
+    for (int i = 0; i < records.size(); i++) {
+      GedcomTree decoded = otherCodec.decode(codec.encode(records.get(i)));
+
+      assertSame(otherStore, decoded.getStoreStructure().getStore());
+      assertSameTree(otherRecords.get(i), decoded);
+    }
+  }
+
+  @Test
+  public void testOtherGrammar() throws Exception {
+    //The same names, but RESN and SEX swapped, thus other line IDs
+    String grammar = new String(Files.readAllBytes(Paths.get(GedcomTreeCodecTest.class
+        .getResource("/gedg/gedcomobjects_5.5.1.gedg").toURI())), StandardCharsets.UTF_8);
+    String resn = "  +1 RESN <RESTRICTION_NOTICE>    {0:1}\n";
+    String sex = "  +1 SEX <SEX_VALUE>    {0:1}\n";
+    int start = grammar.indexOf("INDIVIDUAL_RECORD:=");
+    int resnPos = grammar.indexOf(resn, start);
+    int sexPos = grammar.indexOf(sex, start);
+    assertTrue(resnPos != -1 && sexPos > resnPos);
+
+    String swapped = grammar.substring(0, resnPos) + sex
+        + grammar.substring(resnPos + resn.length(), sexPos) + resn
+        + grammar.substring(sexPos + sex.length());
+
+    GedcomStore otherStore = new GedcomStore();
+    otherStore.showParsingOutput(false);
+    otherStore.parse(new ByteArrayInputStream(swapped.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(store.getNumberOfNames(), otherStore.getNumberOfNames());
+    assertFalse(store.getGrammarFingerprint() == otherStore.getGrammarFingerprint());
+
+    try {
+      new GedcomTreeCodec(otherStore).decode(codec.encode(readRecords(store).get(1)));
+      fail("Decoded a tree of another grammar");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+  }
+
+  @Test
+  public void testInvalidData() {
+    byte[] encoded = codec.encode(store.getGedcomTree("INDIVIDUAL_RECORD"));
+
+    //Not complete
+    try {
+      codec.decode(encoded, 0, encoded.length - 1);
+      fail("Decoded an incomplete tree");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+
+    try {
+      codec.decodeCompact(encoded, 0, encoded.length - 1);
+      fail("Decoded an incomplete tree");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+
+    //Another version
+    encoded[0] = 9;
+
+    try {
+      codec.decode(encoded);
+      fail("Decoded another version");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+  }
+
+}
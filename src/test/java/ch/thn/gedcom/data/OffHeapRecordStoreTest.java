@@ -0,0 +1,260 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.io.GedcomReader;
+import ch.thn.gedcom.io.GedcomReaderTest;
+import ch.thn.gedcom.io.GedcomWriter;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class OffHeapRecordStoreTest {
+
+  private static GedcomTreeCodec codec = null;
+  private static List<GedcomTree> records = null;
+  private static List<String> expected = null;
+  private static int largestRecord = 0;
+
+  @BeforeClass
+  public static void loadRecords() throws Exception {
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(OffHeapRecordStoreTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    codec = new GedcomTreeCodec(store);
+
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(
+        GedcomReaderTest.GEDCOM_DATA.getBytes(StandardCharsets.UTF_8)));
+    records = new ArrayList<GedcomTree>();
+    expected = new ArrayList<String>();
+    GedcomTree record = null;
+
+    while ((record = reader.readRecord()) != null) {
+      records.add(record);
+      expected.add(write(record));
+      largestRecord = Math.max(largestRecord, codec.encode(record).length);
+    }
+
+    reader.close();
+  }
+
+  /**
+   *
+   *
+   * @param node
+   * @return
+   * @throws IOException
+   */
+  private static String write(GedcomNode node) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+    writer.write(node);
+    writer.close();
+
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A store with small segments, so that the records are spread over
+   * several segments
+   *
+   * @param copies
+   * @return
+   */
+  private static OffHeapRecordStore createStore(int copies) {
+    int segmentSize = 2 * (largestRecord + 8);
+    return new OffHeapRecordStore(codec, (long)segmentSize * records.size() * copies, records.size() * copies, segmentSize);
+  }
+
+  @Test
+  public void addAndGet() throws Exception {
+    OffHeapRecordStore offHeap = createStore(1);
+    int[] ids = new int[records.size()];
+
+    for (int i = 0; i < records.size(); i++) {
+      ids[i] = offHeap.add(records.get(i));
+    }
+
+    assertEquals(records.size(), offHeap.size());
+
+    for (int i = 0; i < records.size(); i++) {
+      assertEquals(expected.get(i), write(offHeap.get(ids[i])));
+    }
+
+    assertNull(offHeap.get(records.size()));
+    assertNull(offHeap.get(-1));
+  }
+
+  @Test
+  public void removeAndReuseId() throws Exception {
+    OffHeapRecordStore offHeap = createStore(1);
+    int first = offHeap.add(records.get(0));
+    int second = offHeap.add(records.get(1));
+
+    assertTrue(offHeap.remove(first));
+    assertFalse(offHeap.remove(first));
+    assertFalse(offHeap.contains(first));
+    assertNull(offHeap.get(first));
+    assertEquals(1, offHeap.size());
+    assertTrue(offHeap.getRemovedBytes() > 0);
+
+    //The ID of the removed record is given out again
+    assertEquals(first, offHeap.add(records.get(2)));
+    assertEquals(expected.get(2), write(offHeap.get(first)));
+    assertEquals(expected.get(1), write(offHeap.get(second)));
+  }
+
+  @Test
+  public void compact() throws Exception {
+    OffHeapRecordStore offHeap = createStore(3);
+    List<Integer> ids = new ArrayList<Integer>();
+
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < records.size(); i++) {
+        ids.add(offHeap.add(records.get(i)));
+      }
+    }
+
+    long allocated = offHeap.getAllocatedBytes();
+    long used = offHeap.getUsedBytes();
+
+    //Remove every second record
+    for (int i = 0; i < ids.size(); i += 2) {
+      assertTrue(offHeap.remove(ids.get(i)));
+    }
+
+    long removed = offHeap.getRemovedBytes();
+    assertEquals(used - removed, offHeap.getUsedBytes());
+
+    offHeap.compact();
+
+    assertEquals(0, offHeap.getRemovedBytes());
+    assertTrue(offHeap.getAllocatedBytes() < allocated);
+
+    for (int i = 0; i < ids.size(); i++) {
+      if (i % 2 == 0) {
+        assertFalse(offHeap.contains(ids.get(i)));
+      } else {
+        assertEquals(expected.get(i % records.size()), write(offHeap.get(ids.get(i))));
+      }
+    }
+  }
+
+  @Test
+  public void compactWhenFull() throws Exception {
+    int segmentSize = 2 * (largestRecord + 8);
+    OffHeapRecordStore offHeap = new OffHeapRecordStore(codec, 3 * segmentSize, 100, segmentSize);
+    GedcomTree record = records.get(0);
+    List<Integer> ids = new ArrayList<Integer>();
+
+    try {
+      while (true) {
+        ids.add(offHeap.add(record));
+      }
+    } catch (GedcomError e) {
+      //Full
+    }
+
+    assertTrue(ids.size() < 100);
+
+    assertEquals(0, offHeap.getRemovedBytes());
+
+    int removed = ids.remove(0);
+    offHeap.remove(removed);
+
+    //Fits again after the store has been compacted
+    assertEquals(removed, offHeap.add(record));
+    assertEquals(0, offHeap.getRemovedBytes());
+
+    for (int id : ids) {
+      assertEquals(expected.get(0), write(offHeap.get(id)));
+    }
+  }
+
+  @Test
+  public void recordTooLarge() {
+    OffHeapRecordStore offHeap = new OffHeapRecordStore(codec, 1024, 10, 16);
+
+    try {
+      offHeap.add(records.get(0));
+      fail("Record does not fit into a segment");
+    } catch (GedcomError e) {
+      //Expected
+    }
+
+    assertEquals(0, offHeap.size());
+  }
+
+  @Test
+  public void cursor() throws Exception {
+    OffHeapRecordStore offHeap = createStore(1);
+
+    for (int i = 0; i < records.size(); i++) {
+      offHeap.add(records.get(i));
+    }
+
+    offHeap.remove(1);
+
+    OffHeapRecordStore.RecordCursor cursor = offHeap.cursor();
+    int count = 0;
+
+    while (cursor.next()) {
+      int id = cursor.getId();
+      GedcomTree record = records.get(id);
+
+      assertTrue(id != 1);
+      assertEquals(record.getStoreStructure(), cursor.getStoreStructure());
+      assertEquals(expected.get(id), write(cursor.getTree()));
+      count++;
+    }
+
+    assertEquals(records.size() - 1, count);
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  public void clear() throws GedcomParseException {
+    OffHeapRecordStore offHeap = createStore(1);
+    offHeap.add(records.get(0));
+    offHeap.clear();
+
+    assertEquals(0, offHeap.size());
+    assertEquals(0, offHeap.getAllocatedBytes());
+    assertNull(offHeap.get(0));
+  }
+
+}
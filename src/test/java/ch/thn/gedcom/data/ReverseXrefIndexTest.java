@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class ReverseXrefIndexTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(ReverseXrefIndexTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  /**
+   *
+   *
+   * @param xref
+   * @param family
+   * @return
+   */
+  private static GedcomTree createIndividual(String xref, String family) {
+    GedcomTree record = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode indi = record.addChildLine("INDI").setTagLineXRef(xref);
+    indi.addChildLine("SPOUSE_TO_FAMILY_LINK").addChildLine("FAMS").setTagLineXRef(family);
+    return record;
+  }
+
+  @Test
+  public void testReferences() {
+    GedcomTree husband = createIndividual("I1", "F1");
+    GedcomTree wife = createIndividual("I2", "F1");
+
+    ReverseXrefIndex index = new ReverseXrefIndex();
+    index.add(husband);
+    index.add(wife);
+
+    //The record xrefs themselves are not pointers
+    assertFalse(index.isReferenced("I1"));
+    assertEquals(2, index.getNumberOfReferences("F1"));
+    assertEquals(2, index.size());
+
+    List<GedcomNode> references = index.getReferences("F1");
+    assertSame(husband, references.get(0).getHeadNode());
+    assertSame(wife, references.get(1).getHeadNode());
+    assertEquals("FAMS", references.get(0).getNodeValue().getTag());
+
+    //Lines added after the record has been indexed
+    GedcomNode fams = husband.followPath("INDI").addChildLine("SPOUSE_TO_FAMILY_LINK")
+        .addChildLine("FAMS").setTagLineXRef("F2");
+    assertEquals(1, index.getNumberOfReferences("F2"));
+
+    //Changing and clearing the xref
+    fams.setTagLineXRef("F3");
+    assertFalse(index.isReferenced("F2"));
+    assertSame(fams, index.getReferences("F3").get(0));
+
+    fams.getNodeValue().getAsTagLine().clear();
+    assertFalse(index.isReferenced("F3"));
+    assertEquals(2, index.size());
+
+    //Removing lines
+    wife.followPath("INDI", "SPOUSE_TO_FAMILY_LINK").removeLine();
+    assertEquals(1, index.getNumberOfReferences("F1"));
+
+    husband.followPath("INDI").removeAllChildLines();
+    assertFalse(index.isReferenced("F1"));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testAddAndRemoveRecords() {
+    GedcomTree record = createIndividual("I1", "F1");
+
+    ReverseXrefIndex index = new ReverseXrefIndex();
+    index.add(record);
+    assertSame(index, record.getReverseXrefIndex());
+    assertSame(index, record.followPath("INDI", "SPOUSE_TO_FAMILY_LINK", "FAMS").getReverseXrefIndex());
+
+    //A record moves to the other index
+    ReverseXrefIndex other = new ReverseXrefIndex();
+    other.add(record);
+    assertFalse(index.isReferenced("F1"));
+    assertTrue(other.isReferenced("F1"));
+
+    assertFalse(index.remove(record));
+    assertTrue(other.remove(record));
+    assertFalse(other.isReferenced("F1"));
+
+    //Not indexed anymore
+    record.followPath("INDI", "SPOUSE_TO_FAMILY_LINK", "FAMS").setTagLineXRef("F2");
+    assertFalse(other.isReferenced("F2"));
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.io.GedcomReader;
+import ch.thn.gedcom.io.GedcomReaderTest;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class XrefIndexTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(XrefIndexTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  @Test
+  public void testResolve() throws IOException, GedcomParseException {
+    GedcomReader reader = new GedcomReader(store,
+        new ByteArrayInputStream(GedcomReaderTest.GEDCOM_DATA.getBytes(StandardCharsets.UTF_8)));
+    XrefIndex index = new XrefIndex();
+    List<GedcomTree> records = new ArrayList<>();
+    GedcomTree record = null;
+
+    while ((record = reader.readRecord()) != null) {
+      records.add(record);
+      index.add(record);
+    }
+
+    reader.close();
+
+    //HEAD and TRLR do not have an xref
+    assertEquals(3, index.size());
+
+    GedcomTree indi = index.get("I1");
+    GedcomTree fam = index.get("F1");
+    GedcomTree note = index.get("N1");
+
+    assertEquals("INDIVIDUAL_RECORD", indi.getStructureName());
+    assertEquals("FAM_RECORD", fam.getStructureName());
+    assertEquals("NOTE_RECORD", note.getStructureName());
+    assertNull(index.get("I2"));
+
+    GedcomTagLine fams = indi.followPath("INDI", "SPOUSE_TO_FAMILY_LINK", "FAMS").getNodeValue().getAsTagLine();
+    assertSame(fam, index.resolve(fams));
+
+    GedcomTagLine husb = fam.followPath("FAM", "HUSB").getNodeValue().getAsTagLine();
+    assertSame(indi, index.resolve(husb));
+
+    assertEquals(Arrays.asList(fam, note), index.resolveAll(indi));
+
+    GedcomTree[] resolved = index.resolve(Arrays.asList(husb, fams));
+    assertSame(indi, resolved[0]);
+    assertSame(fam, resolved[1]);
+  }
+
+  @Test
+  public void testGrowAndRemove() {
+    XrefIndex index = new XrefIndex(4);
+    List<GedcomTree> records = new ArrayList<>();
+
+    for (int i = 0; i < 5000; i++) {
+      GedcomTree record = store.getGedcomTree("INDIVIDUAL_RECORD");
+      record.addChildLine("INDI").setTagLineXRef("I" + i);
+      records.add(record);
+      assertTrue(index.add(record));
+    }
+
+    assertFalse(index.add(store.getGedcomTree("INDIVIDUAL_RECORD")));
+    assertEquals(5000, index.size());
+
+    for (int i = 0; i < 5000; i += 2) {
+      assertSame(records.get(i), index.remove("I" + i));
+    }
+
+    assertEquals(2500, index.size());
+
+    for (int i = 0; i < 5000; i++) {
+      if (i % 2 == 0) {
+        assertNull(index.get("I" + i));
+      } else {
+        assertSame(records.get(i), index.get("I" + i));
+      }
+    }
+
+    assertNull(index.remove("I0"));
+
+    index.clear();
+    assertEquals(0, index.size());
+    assertNull(index.get("I1"));
+  }
+
+}
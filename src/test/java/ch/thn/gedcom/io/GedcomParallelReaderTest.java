@@ -0,0 +1,228 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.data.XrefIndex;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomParallelReaderTest {
+
+  private static final int NUMBER_OF_INDIVIDUALS = 2000;
+
+  private static GedcomStore store = null;
+  private static File file = null;
+
+  @BeforeClass
+  public static void setUp() throws GedcomParseException, IOException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomParallelReaderTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    file = File.createTempFile("parallel", ".ged");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+    writer.write("0 HEAD\r\n1 CHAR UTF-8\r\n");
+
+    for (int i = 0; i < NUMBER_OF_INDIVIDUALS; i++) {
+      writer.write("0 @I" + i + "@ INDI\r\n"
+          + "1 NAME Jürg /Doe" + i + "/\r\n"
+          + "1 BIRT\r\n"
+          + "2 DATE 1 JAN 1900\r\n"
+          + "2 PLAC Zürich\r\n");
+    }
+
+    writer.write("0 TRLR\r\n");
+    writer.close();
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    file.delete();
+  }
+
+  private static GedcomParallelReader createReader(int sectionSize) {
+    GedcomParallelReader reader = new GedcomParallelReader(store, file);
+    reader.setPool(new ForkJoinPool(4));
+    reader.setSectionSize(sectionSize);
+    return reader;
+  }
+
+  @Test
+  public void testReadAllInOrder() throws Exception {
+    List<GedcomTree> records = createReader(1000).readAll();
+
+    assertEquals(NUMBER_OF_INDIVIDUALS + 2, records.size());
+    assertEquals("HEADER", records.get(0).getStructureName());
+    assertEquals("END_OF_FILE", records.get(records.size() - 1).getStructureName());
+
+    for (int i = 0; i < NUMBER_OF_INDIVIDUALS; i++) {
+      GedcomTree record = records.get(i + 1);
+      assertEquals("I" + i, record.followPath("INDI").getTagLineXRef());
+      assertEquals("Jürg /Doe" + i + "/", record.followPath("INDI",
+          "PERSONAL_NAME_STRUCTURE", "NAME").getTagLineValue());
+    }
+
+    //The same result as with one section
+    assertEquals(records.size(), createReader(0).readAll().size());
+  }
+
+  @Test
+  public void testReadUnordered() throws Exception {
+    final ConcurrentLinkedQueue<String> xrefs = new ConcurrentLinkedQueue<String>();
+
+    GedcomParallelReader reader = createReader(4096);
+    reader.preserveOrder(false);
+    reader.read(new Consumer<GedcomTree>() {
+      @Override
+      public void accept(GedcomTree record) {
+        if (record.getStructureName().equals("INDIVIDUAL_RECORD")) {
+          xrefs.add(record.followPath("INDI").getTagLineXRef());
+        }
+      }
+    });
+
+    ArrayList<String> sorted = new ArrayList<String>(xrefs);
+    Collections.sort(sorted);
+
+    ArrayList<String> expected = new ArrayList<String>();
+    for (int i = 0; i < NUMBER_OF_INDIVIDUALS; i++) {
+      expected.add("I" + i);
+    }
+    Collections.sort(expected);
+
+    assertEquals(expected, sorted);
+  }
+
+  @Test
+  public void testXrefIndex() throws Exception {
+    final AtomicInteger count = new AtomicInteger();
+    XrefIndex index = new XrefIndex(16);
+
+    GedcomParallelReader reader = createReader(4096);
+    reader.preserveOrder(false);
+    reader.setXrefIndex(index);
+    reader.read(new Consumer<GedcomTree>() {
+      @Override
+      public void accept(GedcomTree record) {
+        count.incrementAndGet();
+      }
+    });
+
+    //HEAD and TRLR do not have an xref
+    assertEquals(NUMBER_OF_INDIVIDUALS + 2, count.get());
+    assertEquals(NUMBER_OF_INDIVIDUALS, index.size());
+
+    for (int i = 0; i < NUMBER_OF_INDIVIDUALS; i++) {
+      assertEquals("I" + i, index.get("I" + i).getRecordXRef());
+    }
+  }
+
+  @Test
+  public void testConsumerInOrder() throws Exception {
+    final ArrayList<String> xrefs = new ArrayList<String>();
+
+    //Many more sections than are read ahead at the same time
+    GedcomParallelReader reader = createReader(100);
+    reader.preserveOrder(true);
+    reader.read(new Consumer<GedcomTree>() {
+      @Override
+      public void accept(GedcomTree record) {
+        if (record.getStructureName().equals("INDIVIDUAL_RECORD")) {
+          xrefs.add(record.followPath("INDI").getTagLineXRef());
+        }
+      }
+    });
+
+    assertEquals(NUMBER_OF_INDIVIDUALS, xrefs.size());
+
+    for (int i = 0; i < NUMBER_OF_INDIVIDUALS; i++) {
+      assertEquals("I" + i, xrefs.get(i));
+    }
+  }
+
+  @Test
+  public void testConsumerError() throws Exception {
+    final AtomicInteger count = new AtomicInteger();
+
+    GedcomParallelReader reader = createReader(100);
+
+    try {
+      reader.read(new Consumer<GedcomTree>() {
+        @Override
+        public void accept(GedcomTree record) {
+          if (count.incrementAndGet() == 50) {
+            throw new IllegalStateException("Stop");
+          }
+        }
+      });
+      fail("Consumer error not passed on");
+    } catch (IllegalStateException e) {
+      //Expected
+    }
+
+    //All sections have been stopped before the method returned
+    int countAfterError = count.get();
+    Thread.sleep(200);
+    assertEquals(countAfterError, count.get());
+    assertTrue(countAfterError < NUMBER_OF_INDIVIDUALS);
+  }
+
+  @Test
+  public void testInvalidLine() throws Exception {
+    File invalidFile = File.createTempFile("parallel_invalid", ".ged");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(invalidFile), StandardCharsets.UTF_8);
+    writer.write("0 HEAD\n0 @I1@ INDI\n1 _UID 1\n0 TRLR\n");
+    writer.close();
+
+    try {
+      new GedcomParallelReader(store, invalidFile).readAll();
+      fail("Unknown tag not detected");
+    } catch (GedcomParseException e) {
+      //Expected
+    } finally {
+      invalidFile.delete();
+    }
+  }
+
+}
@@ -0,0 +1,318 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomReaderTest {
+
+  public static final String GEDCOM_DATA = "0 HEAD\n"
+      + "1 SOUR GedcomStore\n"
+      + "1 SUBM @U1@\n"
+      + "1 GEDC\n"
+      + "2 VERS 5.5.1\n"
+      + "2 FORM LINEAGE-LINKED\n"
+      + "1 CHAR UTF-8\n"
+      + "0 @I1@ INDI\n"
+      + "1 NAME John /Doe/\n"
+      + "2 GIVN John\n"
+      + "2 SURN Doe\n"
+      + "1 SEX M\n"
+      + "1 BIRT\n"
+      + "2 DATE 1 JAN 1900\n"
+      + "2 PLAC Zurich\n"
+      + "1 FAMS @F1@\n"
+      + "1 NOTE first note\n"
+      + "2 CONT second line\n"
+      + "1 NOTE @N1@\n"
+      + "1 CHAN\n"
+      + "2 DATE 1 JAN 2017\n"
+      + "3 TIME 12:00:00\n"
+      + "0 @F1@ FAM\n"
+      + "1 HUSB @I1@\n"
+      + "0 @N1@ NOTE A note record\n"
+      + "0 TRLR\n";
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomReaderTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  /**
+   *
+   *
+   * @param data
+   * @return
+   */
+  public static GedcomReader createReader(String data) {
+    return new GedcomReader(store, new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testReadRecords() throws Exception {
+    GedcomReader reader = createReader(GEDCOM_DATA);
+
+    assertEquals("HEADER", reader.readRecord().getStructureName());
+
+    GedcomTree indi = reader.readRecord();
+    assertEquals("INDIVIDUAL_RECORD", indi.getStructureName());
+    assertEquals("I1", indi.followPath("INDI").getTagLineXRef());
+    assertEquals("John /Doe/", indi.followPath("INDI", "PERSONAL_NAME_STRUCTURE", "NAME").getTagLineValue());
+    assertEquals("Doe", indi.followPath("INDI", "PERSONAL_NAME_STRUCTURE", "NAME",
+        "PERSONAL_NAME_PIECES", "SURN").getTagLineValue());
+    assertEquals("M", indi.followPath("INDI", "SEX").getTagLineValue());
+    assertEquals("F1", indi.followPath("INDI", "SPOUSE_TO_FAMILY_LINK", "FAMS").getTagLineXRef());
+    assertEquals("12:00:00", indi.followPath("INDI", "CHANGE_DATE", "CHAN", "DATE", "TIME").getTagLineValue());
+
+    //DATE and PLAC share the same event detail structures
+    assertEquals("1 JAN 1900", indi.followPath("INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT",
+        "BIRT", "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "DATE").getTagLineValue());
+    assertEquals("Zurich", indi.followPath("INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT",
+        "BIRT", "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "PLACE_STRUCTURE", "PLAC").getTagLineValue());
+
+    //Both note variations
+    assertEquals(2, indi.followPath("INDI").getNumberOfChildLines("NOTE_STRUCTURE"));
+    assertEquals(1, indi.followPath("INDI").getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", true, false));
+    assertEquals(1, indi.followPath("INDI").getNumberOfChildLines("NOTE_STRUCTURE", "NOTE", false, true));
+    assertEquals("first note\nsecond line", indi.followPath("INDI").getChildLine("NOTE_STRUCTURE",
+        "NOTE", false, true, 0).followPath("NOTE").getTagLineValue());
+
+    GedcomTree fam = reader.readRecord();
+    assertEquals("FAM_RECORD", fam.getStructureName());
+    assertEquals("I1", fam.followPath("FAM", "HUSB").getTagLineXRef());
+
+    GedcomTree note = reader.readRecord();
+    assertEquals("NOTE_RECORD", note.getStructureName());
+    assertEquals("N1", note.followPath("NOTE").getTagLineXRef());
+    assertEquals("A note record", note.followPath("NOTE").getTagLineValue());
+
+    assertEquals("END_OF_FILE", reader.readRecord().getStructureName());
+    assertNull(reader.readRecord());
+
+    reader.close();
+  }
+
+  @Test
+  public void testInvalidLines() throws Exception {
+    String data = "0 @I1@ INDI\n"
+        + "1 _UID 12345\n"
+        + "2 _SUB something\n"
+        + "1 SEX M\n"
+        + "1 SEX F\n"
+        + "0 _CUSTOM\n"
+        + "1 SEX M\n"
+        + "0 TRLR\n";
+
+    GedcomReader reader = createReader(data);
+
+    try {
+      reader.readRecord();
+      fail("Unknown tag not detected");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+
+    reader.close();
+
+    reader = createReader(data);
+    reader.skipInvalidLines(true);
+
+    GedcomTree indi = reader.readRecord();
+    assertNotNull(indi);
+    assertEquals("M", indi.followPath("INDI", "SEX").getTagLineValue());
+    assertEquals(1, indi.followPath("INDI").getNumberOfChildLines());
+
+    //The custom record is skipped completely
+    assertEquals("END_OF_FILE", reader.readRecord().getStructureName());
+    assertEquals(5, reader.getSkippedLineCount());
+
+    reader.close();
+  }
+
+  @Test
+  public void testRecordIterator() throws Exception {
+    GedcomReader reader = createReader(GEDCOM_DATA);
+    GedcomRecordIterator iterator = reader.records();
+
+    ArrayList<String> structureNames = new ArrayList<String>();
+    while (iterator.hasNext()) {
+      structureNames.add(iterator.next().getStructureName());
+    }
+
+    assertEquals(5, structureNames.size());
+    assertEquals("INDIVIDUAL_RECORD", structureNames.get(1));
+    assertEquals("END_OF_FILE", structureNames.get(4));
+    assertFalse(iterator.hasNext());
+
+    reader.close();
+
+    reader = createReader("0 @I1@ INDI\n1 _UID 12345\n0 TRLR\n");
+    iterator = reader.records();
+
+    try {
+      iterator.next();
+      fail("Unknown tag not detected");
+    } catch (GedcomReadError e) {
+      assertTrue(e.getCause() instanceof GedcomParseException);
+    }
+
+    reader.close();
+  }
+
+  @Test
+  public void testRecordHandler() throws Exception {
+    GedcomReader reader = createReader(GEDCOM_DATA);
+    final StringBuilder events = new StringBuilder();
+
+    GedcomRecordHandler handler = new GedcomRecordHandler() {
+
+      @Override
+      public void startRecord(String structureName, String xref, String tag, String value) {
+        events.append("start " + structureName + " " + xref + "\n");
+      }
+
+      @Override
+      public void line(int level, String xref, String tag, String value) {
+        events.append(level + " " + tag + " " + value + "\n");
+      }
+
+      @Override
+      public void endRecord(String structureName) {
+        events.append("end " + structureName + "\n");
+      }
+    };
+
+    //Skip the header
+    assertTrue(reader.readRecord(handler));
+    events.setLength(0);
+
+    assertTrue(reader.readRecord(handler));
+    String[] lines = events.toString().split("\n");
+    assertEquals("start INDIVIDUAL_RECORD I1", lines[0]);
+    assertEquals("1 NAME John /Doe/", lines[1]);
+    assertEquals("1 FAMS @F1@", lines[8]);
+    assertEquals("end INDIVIDUAL_RECORD", lines[lines.length - 1]);
+
+    //Tree and event reading can be mixed
+    assertEquals("FAM_RECORD", reader.readRecord().getStructureName());
+
+    assertTrue(reader.readRecord(handler));
+    assertTrue(reader.readRecord(handler));
+    assertFalse(reader.readRecord(handler));
+    assertTrue(events.toString().endsWith("end END_OF_FILE\n"));
+
+    reader.close();
+  }
+
+  @Test
+  public void testMappedTokenizer() throws Exception {
+    //With byte order mark and CR LF line endings
+    byte[] data = ("\uFEFF" + GEDCOM_DATA.replace("\n", "\r\n")).getBytes(StandardCharsets.UTF_8);
+
+    GedcomTokenizer stream = new GedcomStreamTokenizer(new ByteArrayInputStream(
+        GEDCOM_DATA.getBytes(StandardCharsets.UTF_8)));
+    GedcomMappedTokenizer mapped = new GedcomMappedTokenizer(ByteBuffer.wrap(data),
+        StandardCharsets.UTF_8);
+
+    while (stream.next()) {
+      assertTrue(mapped.next());
+      assertEquals(stream.getLineNumber(), mapped.getLineNumber());
+      assertEquals(stream.getLevel(), mapped.getLevel());
+      assertEquals(stream.isPointerValue(), mapped.isPointerValue());
+      assertEquals(stream.getPointerValue(), mapped.getPointerValue());
+      assertEquals(stream.hasValue(), mapped.hasValue());
+      assertEquals(stream.getXRef(), mapped.getXRef());
+      assertEquals(stream.getTag(), mapped.getTag());
+      assertEquals(stream.getValue(), mapped.getValue());
+    }
+
+    assertFalse(mapped.next());
+
+    //Slices and cached tags
+    mapped = new GedcomMappedTokenizer(ByteBuffer.wrap(data), StandardCharsets.UTF_8);
+    assertTrue(mapped.next());
+    assertEquals(3 + 2, mapped.getTagOffset());
+    assertEquals(4, mapped.getTagLength());
+    assertEquals(-1, mapped.getValueLength());
+
+    mapped = new GedcomMappedTokenizer(ByteBuffer.wrap(
+        "0 HEAD\n0 HEAD\n1 _X".getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    mapped.next();
+    String tag = mapped.getTag();
+    mapped.next();
+    assertTrue(tag == mapped.getTag());
+
+    //Read records through the mapped tokenizer
+    GedcomReader reader = new GedcomReader(store, new GedcomMappedTokenizer(ByteBuffer.wrap(data),
+        StandardCharsets.UTF_8));
+    reader.readRecord();
+    assertEquals("Zurich", reader.readRecord().followPath("INDI", "INDIVIDUAL_EVENT_STRUCTURE;BIRT",
+        "BIRT", "INDIVIDUAL_EVENT_DETAIL", "EVENT_DETAIL", "PLACE_STRUCTURE", "PLAC").getTagLineValue());
+    reader.close();
+  }
+
+  @Test
+  public void testUnfoldValues() throws Exception {
+    String data = "0 @N1@ NOTE first\n"
+        + "1 CONC  part\n"
+        + "1 CONT\n"
+        + "1 CONT third line\n"
+        + "1 REFN 1\n"
+        + "0 @N2@ NOTE\n"
+        + "1 CONT second line\n";
+
+    GedcomReader reader = createReader(data);
+    GedcomTree note = reader.readRecord();
+    assertEquals("first part\n\nthird line", note.followPath("NOTE").getTagLineValue());
+    assertEquals("1", note.followPath("NOTE", "REFN").getTagLineValue());
+    assertEquals("\nsecond line", reader.readRecord().followPath("NOTE").getTagLineValue());
+    reader.close();
+
+    reader = createReader(data);
+    reader.unfoldValues(false);
+    note = reader.readRecord();
+    assertEquals("first", note.followPath("NOTE").getTagLineValue());
+    assertEquals(" part", note.followPath("NOTE", "CONC").getTagLineValue());
+    reader.close();
+  }
+
+}
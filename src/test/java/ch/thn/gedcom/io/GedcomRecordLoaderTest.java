@@ -0,0 +1,244 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomRecordLoaderTest {
+
+  private static GedcomStore store = null;
+
+  private File file = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomRecordLoaderTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  @Before
+  public void createFile() throws IOException {
+    file = File.createTempFile("loader", ".ged");
+    //With a byte order mark and CR LF line breaks
+    write(file, "\uFEFF" + GedcomReaderTest.GEDCOM_DATA.replace("\n", "\r\n"));
+  }
+
+  @After
+  public void deleteFile() {
+    GedcomRecordLoader.getIndexFile(file).delete();
+    file.delete();
+  }
+
+  /**
+   *
+   *
+   * @param file
+   * @param data
+   * @throws IOException
+   */
+  private static void write(File file, String data) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    out.write(data.getBytes(StandardCharsets.UTF_8));
+    out.close();
+  }
+
+  @Test
+  public void testIndex() throws IOException, GedcomParseException {
+    GedcomRecordIndex index = GedcomRecordIndex.build(store, file, StandardCharsets.UTF_8);
+
+    //HEAD, INDI, FAM, NOTE, TRLR
+    assertEquals(5, index.size());
+    assertNull(index.getXRef(0));
+    assertEquals("HEADER", index.getStructureName(0));
+    assertEquals("I1", index.getXRef(1));
+    assertEquals("INDIVIDUAL_RECORD", index.getStructureName(1));
+    assertEquals(2, index.getRecordNumber("F1"));
+    assertEquals(-1, index.getRecordNumber("X1"));
+
+    //The records follow each other up to the end of the file
+    assertEquals(3, index.getOffset(0));
+    long end = index.getOffset(0);
+
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(end, index.getOffset(i));
+      end += index.getLength(i);
+    }
+
+    assertEquals(file.length(), end);
+
+    //Saved and loaded again
+    File indexFile = GedcomRecordLoader.getIndexFile(file);
+    index.save(indexFile);
+    GedcomRecordIndex loaded = GedcomRecordIndex.load(indexFile);
+
+    assertEquals(index.size(), loaded.size());
+    assertTrue(loaded.isUpToDate(file));
+
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(index.getOffset(i), loaded.getOffset(i));
+      assertEquals(index.getLength(i), loaded.getLength(i));
+      assertEquals(index.getXRef(i), loaded.getXRef(i));
+      assertEquals(index.getStructureName(i), loaded.getStructureName(i));
+    }
+  }
+
+  @Test
+  public void testLoadRecords() throws IOException, GedcomParseException {
+    GedcomRecordLoader loader = new GedcomRecordLoader(store, file);
+    assertTrue(GedcomRecordLoader.getIndexFile(file).exists());
+
+    GedcomTree indi = loader.load("I1");
+    assertEquals("INDIVIDUAL_RECORD", indi.getStructureName());
+    assertEquals("I1", indi.getRecordXRef());
+    assertEquals("F1", indi.followPath("INDI", "SPOUSE_TO_FAMILY_LINK", "FAMS").getTagLineXRef());
+    assertEquals("first note\nsecond line", indi.followPath("INDI", "NOTE_STRUCTURE;NOTE;false;true", "NOTE").getTagLineValue());
+
+    GedcomTree note = loader.load("N1");
+    assertEquals("A note record", note.followPath("NOTE").getTagLineValue());
+
+    assertEquals("HEADER", loader.load(0).getStructureName());
+    assertNull(loader.load("X1"));
+    loader.close();
+
+    //The index file is used the second time
+    GedcomRecordLoader reopened = new GedcomRecordLoader(store, file);
+    assertEquals("FAM_RECORD", reopened.load("F1").getStructureName());
+    reopened.close();
+  }
+
+  @Test
+  public void testOutdatedIndex() throws IOException, GedcomParseException {
+    new GedcomRecordLoader(store, file).close();
+
+    write(file, GedcomReaderTest.GEDCOM_DATA.replace("@N1@", "@N2@"));
+    file.setLastModified(file.lastModified() + 2000);
+
+    GedcomRecordLoader loader = new GedcomRecordLoader(store, file);
+    assertEquals(-1, loader.getIndex().getRecordNumber("N1"));
+    assertSame(null, loader.load("N1"));
+    assertEquals("NOTE_RECORD", loader.load("N2").getStructureName());
+    loader.close();
+  }
+
+  @Test
+  public void testSameXRefHash() throws IOException, GedcomParseException {
+    //"Aa" and "BB" have the same hash code
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    write(file, "0 HEAD\n0 @BB@ NOTE b\n0 @Aa@ NOTE a\n0 @C1@ NOTE c\n0 TRLR\n");
+
+    File indexFile = GedcomRecordLoader.getIndexFile(file);
+    GedcomRecordIndex.build(store, file, StandardCharsets.UTF_8).save(indexFile);
+    GedcomRecordIndex index = GedcomRecordIndex.load(indexFile);
+
+    assertEquals(1, index.getRecordNumber("BB"));
+    assertEquals(2, index.getRecordNumber("Aa"));
+    assertEquals(3, index.getRecordNumber("C1"));
+    assertEquals(-1, index.getRecordNumber("C2"));
+    assertEquals("Aa", index.getXRef(2));
+    assertNull(index.getXRef(4));
+  }
+
+  @Test
+  public void testIndexFileNotWritable() throws IOException, GedcomParseException {
+    //A directory in place of the index file can not be read or written
+    File indexFile = GedcomRecordLoader.getIndexFile(file);
+    assertTrue(indexFile.mkdir());
+
+    GedcomRecordLoader loader = new GedcomRecordLoader(store, file);
+    assertTrue(indexFile.isDirectory());
+    assertEquals("I1", loader.load("I1").getRecordXRef());
+    assertEquals(5, loader.getIndex().size());
+    loader.close();
+  }
+
+  @Test
+  public void testSaveOverLoadedIndex() throws IOException, GedcomParseException {
+    File indexFile = GedcomRecordLoader.getIndexFile(file);
+    GedcomRecordIndex.build(store, file, StandardCharsets.UTF_8).save(indexFile);
+    GedcomRecordIndex loaded = GedcomRecordIndex.load(indexFile);
+
+    //A smaller index saved over the mapped index file
+    write(file, "0 HEAD\n0 TRLR\n");
+    GedcomRecordIndex.build(store, file, StandardCharsets.UTF_8).save(indexFile);
+
+    //The loaded index still sees the old file
+    assertEquals(5, loaded.size());
+    assertEquals(2, loaded.getRecordNumber("F1"));
+    assertEquals("N1", loaded.getXRef(3));
+    assertEquals("NOTE_RECORD", loaded.getStructureName(3));
+
+    assertEquals(2, GedcomRecordIndex.load(indexFile).size());
+
+    //No temporary file is left behind
+    File[] files = indexFile.getAbsoluteFile().getParentFile().listFiles();
+
+    for (File f : files) {
+      assertFalse(f.getName().startsWith(indexFile.getName()) && !f.equals(indexFile.getAbsoluteFile()));
+    }
+  }
+
+  @Test
+  public void testIncompleteIndexFile() throws IOException, GedcomParseException {
+    File indexFile = GedcomRecordLoader.getIndexFile(file);
+    GedcomRecordIndex.build(store, file, StandardCharsets.UTF_8).save(indexFile);
+
+    //Cut off, like after a failed save
+    RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
+    randomAccessFile.setLength(randomAccessFile.length() - 3);
+    randomAccessFile.close();
+
+    try {
+      GedcomRecordIndex.load(indexFile);
+      fail("Incomplete index file loaded");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+
+    //Built again
+    GedcomRecordLoader loader = new GedcomRecordLoader(store, file);
+    assertEquals("F1", loader.load("F1").getRecordXRef());
+    assertFalse(indexFile.length() == 0);
+    loader.close();
+  }
+
+}
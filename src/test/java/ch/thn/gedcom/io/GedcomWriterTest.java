@@ -0,0 +1,188 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomWriterTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomWriterTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  /**
+   * Reads all the records of the given data and writes them again
+   *
+   * @param data
+   * @return
+   * @throws IOException
+   * @throws GedcomParseException
+   */
+  private static String readAndWrite(String data) throws IOException, GedcomParseException {
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(
+        data.getBytes(StandardCharsets.UTF_8)));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+
+    GedcomTree record = null;
+    while ((record = reader.readRecord()) != null) {
+      writer.write(record);
+    }
+
+    reader.close();
+    writer.close();
+
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testWriteRecords() throws Exception {
+    String output = readAndWrite(GedcomReaderTest.GEDCOM_DATA);
+
+    //Lines are written in the order of the grammar
+    assertEquals("0 HEAD\n"
+        + "1 SOUR GedcomStore\n"
+        + "1 SUBM @U1@\n"
+        + "1 GEDC\n"
+        + "2 VERS 5.5.1\n"
+        + "2 FORM LINEAGE-LINKED\n"
+        + "1 CHAR UTF-8\n"
+        + "0 @I1@ INDI\n"
+        + "1 NAME John /Doe/\n"
+        + "2 GIVN John\n"
+        + "2 SURN Doe\n"
+        + "1 SEX M\n"
+        + "1 BIRT\n"
+        + "2 DATE 1 JAN 1900\n"
+        + "2 PLAC Zurich\n"
+        + "1 FAMS @F1@\n"
+        + "1 CHAN\n"
+        + "2 DATE 1 JAN 2017\n"
+        + "3 TIME 12:00:00\n"
+        + "1 NOTE first note\n"
+        + "2 CONT second line\n"
+        + "1 NOTE @N1@\n"
+        + "0 @F1@ FAM\n"
+        + "1 HUSB @I1@\n"
+        + "0 @N1@ NOTE A note record\n"
+        + "0 TRLR\n", output);
+
+    //Writing the written data again gives the same result
+    assertEquals(output, readAndWrite(output));
+  }
+
+  @Test
+  public void testSkipLines() throws Exception {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    tree.addChildLine("INDI").setTagLineXRef("I1");
+    tree.followPathCreate("INDI", "SEX");
+    tree.followPathCreate("INDI", "PERSONAL_NAME_STRUCTURE", "NAME", "PERSONAL_NAME_PIECES", "GIVN")
+    .setTagLineValue("John");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+    writer.setLineSeparator("\r\n");
+    writer.write(tree);
+    writer.flush();
+
+    //SEX has no value, NAME has no value but a sub-line with a value
+    assertEquals("0 @I1@ INDI\r\n"
+        + "1 NAME\r\n"
+        + "2 GIVN John\r\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+    writer.printLinesWithNoValueSet(true);
+    writer.write(tree.followPath("INDI", "SEX"));
+    writer.close();
+
+    assertEquals("1 NAME\r\n2 GIVN John\r\n0 SEX\r\n",
+        new String(output.toByteArray(), StandardCharsets.UTF_8).substring(13));
+  }
+
+  @Test
+  public void testFoldValues() throws Exception {
+    GedcomTree tree = store.getGedcomTree("NOTE_RECORD");
+    tree.addChildLine("NOTE").setTagLineXRef("N1")
+    .setTagLineValue("A value which is too long for one line\nand more\n\nend");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+    writer.setMaxValueLength(15);
+    writer.write(tree);
+    writer.close();
+
+    String data = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+    //Not split next to a space
+    assertEquals("0 @N1@ NOTE A value which i\n"
+        + "1 CONC s too long fo\n"
+        + "1 CONC r one line\n"
+        + "1 CONT and more\n"
+        + "1 CONT\n"
+        + "1 CONT end\n", data);
+
+    GedcomReader reader = new GedcomReader(store, new ByteArrayInputStream(
+        data.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(tree.followPath("NOTE").getTagLineValue(),
+        reader.readRecord().followPath("NOTE").getTagLineValue());
+    reader.close();
+  }
+
+  @Test
+  public void testFoldCarriageReturn() throws Exception {
+    GedcomTree tree = store.getGedcomTree("NOTE_RECORD");
+    tree.addChildLine("NOTE").setTagLineXRef("N1")
+    .setTagLineValue("mac\rwindows\r\nunix\n\r\rend\r");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    GedcomWriter writer = new GedcomWriter(output);
+    writer.write(tree);
+    writer.close();
+
+    String data = new String(output.toByteArray(), StandardCharsets.UTF_8);
+
+    //No line break is written within a line
+    assertEquals("0 @N1@ NOTE mac\n"
+        + "1 CONT windows\n"
+        + "1 CONT unix\n"
+        + "1 CONT\n"
+        + "1 CONT\n"
+        + "1 CONT end\n"
+        + "1 CONT\n", data);
+  }
+
+}
@@ -0,0 +1,282 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.data.GedcomError;
+import ch.thn.gedcom.data.GedcomNode;
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.data.NodeKey;
+import ch.thn.gedcom.data.NodeKeyComparator;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomStoreLookupTest {
+
+  private static GedcomStore store = null;
+
+  @BeforeClass
+  public static void loadStore() throws GedcomParseException {
+    store = new GedcomStore();
+    store.showParsingOutput(false);
+    store.parse(GedcomStoreLookupTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+  }
+
+  /**
+   * Checks the compiled lookups of the given block and all its child blocks
+   * against the lookups by name
+   *
+   * @param block
+   */
+  private static void checkBlock(GedcomStoreBlock block) {
+    for (String id : block.getAllLineIDs()) {
+      assertSame(block.getStoreLine(id), block.getStoreLine(store.getNameId(id)));
+    }
+
+    List<GedcomStoreLine> storeLines = block.getStoreLines();
+    assertTrue(storeLines instanceof RandomAccess);
+
+    for (int i = 0; i < storeLines.size(); i++) {
+      GedcomStoreLine storeLine = storeLines.get(i);
+      assertEquals(i, storeLine.getPos());
+      assertSame(storeLine, store.getStoreLine(storeLine.getLineId()));
+
+      if (storeLine.hasChildBlock()) {
+        checkBlock(storeLine.getChildBlock());
+      }
+    }
+  }
+
+  @Test
+  public void testCompiledLookups() {
+    assertEquals(-1, store.getNameId("_UNKNOWN"));
+    assertEquals("INDI", store.getName(store.getNameId("INDI")));
+    assertNull(store.getGedcomTree("INDIVIDUAL_RECORD").getStoreBlock().getStoreLine(store.getNameId("FAM")));
+
+    for (GedcomStoreStructure structure : store.getStructures()) {
+      checkBlock(structure.getStoreBlock());
+
+      String structureName = structure.getStructureName();
+      int structureId = store.getNameId(structureName);
+
+      for (String tag : store.getVariationTags(structureName)) {
+        int tagId = store.getNameId(tag);
+
+        assertSame(store.getGedcomStructure(structureName, tag, false, false, false),
+            store.getGedcomStructure(structureId, tagId, false, false, false));
+
+        for (int i = 0; i < 4; i++) {
+          boolean withXRef = (i & 2) != 0;
+          boolean withValue = (i & 1) != 0;
+          GedcomStoreStructure expected = null;
+
+          try {
+            expected = store.getGedcomStructure(structureName, tag, true, withXRef, withValue);
+          } catch (GedcomError e) {
+            //Variation does not exist
+          }
+
+          try {
+            assertSame(expected, store.getGedcomStructure(structureId, tagId, true, withXRef, withValue));
+          } catch (GedcomError e) {
+            assertNull(expected);
+          }
+        }
+      }
+
+      if (!store.structureHasVariations(structureName)) {
+        assertSame(store.getGedcomStructure(structureName, null, false, false, false),
+            store.getGedcomStructure(structureId, -1, false, false, false));
+      }
+    }
+
+    try {
+      store.getGedcomTree("INDIVIDUAL_RECORD").getStoreBlock().getStoreLines().clear();
+      fail("Store lines modifiable after compiling");
+    } catch (UnsupportedOperationException e) {
+      //Expected
+    }
+
+    try {
+      store.getGedcomStructure(store.getNameId("INDIVIDUAL_EVENT_STRUCTURE"), -1, false, false, false);
+      fail("Structure with variations returned without a tag");
+    } catch (GedcomError e) {
+      assertTrue(e.getMessage().contains("multiple variations"));
+    }
+  }
+
+  @Test
+  public void testSymbolTable() {
+    GedcomSymbolTable symbols = store.getSymbolTable();
+
+    assertEquals(GedcomSymbolTable.NO_SYMBOL, symbols.getSymbol("_UNKNOWN"));
+    assertEquals(GedcomSymbolTable.NO_SYMBOL, symbols.getSymbol(null));
+
+    //Symbols have the same order as the names
+    for (int i = 1; i < symbols.size(); i++) {
+      assertTrue(symbols.getName(i - 1).compareTo(symbols.getName(i)) < 0);
+    }
+
+    GedcomStoreLine storeLine = store.getGedcomStructure("INDIVIDUAL_RECORD", null, false, false, false)
+        .getStoreBlock().getStoreLine("INDI");
+
+    assertSame(symbols, storeLine.getSymbolTable());
+    assertEquals(symbols.getSymbol("INDI"), storeLine.getTagSymbols()[0]);
+    assertTrue(storeLine.hasTag(symbols.getSymbol("INDI")));
+    assertSame(symbols.getName(symbols.getSymbol("INDI")), storeLine.getTagNames().iterator().next());
+    assertEquals(symbols.getSymbol(storeLine.getXRefNames().iterator().next()), storeLine.getXRefNameSymbols()[0]);
+
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode node = tree.addChildLine("INDI");
+
+    assertEquals(symbols.getSymbol("INDI"), node.getNodeValue().getTagSymbol());
+    assertSame(storeLine.getTagNames().iterator().next(), node.getNodeValue().getTag());
+
+    NodeKeyComparator comparator = new NodeKeyComparator();
+    assertTrue(comparator.compare(new NodeKey("NAME", symbols.getSymbol("NAME"), 1),
+        new NodeKey("SEX", symbols.getSymbol("SEX"), 1)) < 0);
+    assertTrue(comparator.compare(new NodeKey("SEX", symbols.getSymbol("SEX"), 1),
+        new NodeKey("_UNKNOWN", 1)) < 0);
+    assertEquals(0, comparator.compare(new NodeKey("SEX", 2), new NodeKey("SEX", symbols.getSymbol("SEX"), 2)));
+
+    //Packed keys sort by ordering first, then by symbol
+    assertTrue(NodeKey.pack(-1, GedcomSymbolTable.NO_SYMBOL) < NodeKey.pack(0, GedcomSymbolTable.NO_SYMBOL));
+    assertTrue(NodeKey.pack(1, symbols.size() - 1) < NodeKey.pack(2, 0));
+    assertTrue(NodeKey.pack(2, GedcomSymbolTable.NO_SYMBOL) < NodeKey.pack(2, 0));
+    assertTrue(comparator.compare(new NodeKey("SEX", symbols.getSymbol("SEX"), 9),
+        new NodeKey("NAME", symbols.getSymbol("NAME"), 100)) < 0);
+  }
+
+  @Test
+  public void testSharedNodeKeys() {
+    GedcomStoreLine storeLine = store.getGedcomTree("INDIVIDUAL_RECORD").getStoreBlock().getStoreLine("INDI");
+    assertSame(storeLine.getNodeKey("INDI"), storeLine.getNodeKey(store.getNameId("INDI")));
+    assertNull(storeLine.getNodeKey("FAM"));
+
+    GedcomTree tree1 = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomTree tree2 = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode indi1 = tree1.addChildLine("INDI");
+    GedcomNode indi2 = tree2.addChildLine("INDI");
+
+    //All nodes of a store line have the same key
+    assertSame(storeLine.getNodeKey("INDI"), indi1.getNodeKey());
+    assertSame(indi1.getNodeKey(), indi2.getNodeKey());
+    assertSame(indi1.addChildLine("SEX").getNodeKey(), indi2.addChildLine("SEX").getNodeKey());
+
+    GedcomNode chan1 = tree1.followPathCreate("INDI", "CHANGE_DATE", "CHAN");
+    GedcomNode chan2 = tree2.followPathCreate("INDI", "CHANGE_DATE", "CHAN");
+    assertSame(chan1.getNodeKey(), chan2.getNodeKey());
+
+    //The key of the simple tree is a new key, the shared key does not change
+    int ordering = chan1.getNodeKey().getOrdering();
+    NodeKey simpleTreeKey = chan1.getNodeKey().getSimpleTreeKey(chan1);
+
+    assertTrue(simpleTreeKey.asSimpleTree());
+    assertEquals(chan1.getParentNode().getStoreLine().getPos(), simpleTreeKey.getOrdering());
+    assertEquals(ordering, simpleTreeKey.getOriginalOrdering());
+    assertEquals(ordering, chan2.getNodeKey().getOrdering());
+    assertTrue(!chan2.getNodeKey().asSimpleTree());
+  }
+
+  @Test
+  public void testPathCache() throws GedcomParseException {
+    GedcomStore warmStore = new GedcomStore();
+    warmStore.showParsingOutput(false);
+    warmStore.warmPathCacheOnLoad(true);
+    warmStore.parse(GedcomStoreLookupTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    GedcomStoreBlock warmBlock = warmStore.getGedcomTree("INDIVIDUAL_RECORD").getStoreBlock()
+        .getStoreLine("INDI").getChildBlock();
+    GedcomStoreBlock block = store.getGedcomTree("INDIVIDUAL_RECORD").getStoreBlock()
+        .getStoreLine("INDI").getChildBlock();
+
+    int warmSize = warmBlock.getPathCacheSize();
+    assertTrue(warmSize > 0);
+
+    assertEquals(Arrays.asList("CHANGE_DATE", "CHAN"), warmBlock.getPathToStoreLine("CHAN"));
+    assertEquals(block.getPathToStoreLine("CHAN"), warmBlock.getPathToStoreLine("CHAN"));
+    assertEquals(block.getPathToStoreLine("BIRT", false, true), warmBlock.getPathToStoreLine("BIRT", false, true));
+    assertEquals(warmSize, warmBlock.getPathCacheSize());
+
+    //Cached steps are returned as they are, and they can not be changed
+    List<GedcomStorePathStep> steps = block.getPathStepsToStoreLine("CHAN");
+    assertSame(steps, block.getPathStepsToStoreLine("CHAN"));
+    assertEquals(2, steps.size());
+    assertEquals("CHANGE_DATE", steps.get(0).getTagOrStructureName());
+    assertNull(steps.get(0).getTag());
+
+    try {
+      steps.clear();
+      fail("Cached steps modified");
+    } catch (UnsupportedOperationException e) {
+      //Expected
+    }
+
+    //Variations are parsed once
+    List<GedcomStorePathStep> noteSteps = block.getPathStepsToStoreLine("NOTE", true, false);
+    assertEquals("NOTE_STRUCTURE", noteSteps.get(0).getTagOrStructureName());
+    assertEquals("NOTE", noteSteps.get(0).getTag());
+    assertTrue(noteSteps.get(0).getLookForXRefAndValueVariation());
+    assertTrue(noteSteps.get(0).getWithXRef());
+    assertTrue(!noteSteps.get(0).getWithValue());
+    assertEquals("NOTE_STRUCTURE;NOTE;true;false", noteSteps.get(0).toString());
+
+    //Names which are not in the grammar are not cached
+    int size = block.getPathCacheSize();
+
+    for (int i = 0; i < 100; i++) {
+      assertNull(block.getPathToStoreLine("_UNKNOWN" + i));
+      block.getPathToStoreLine("NOTE_STRUCTURE", "_UNKNOWN" + i);
+    }
+
+    assertEquals(size, block.getPathCacheSize());
+
+    //Negative results of names in the grammar are cached
+    assertNull(block.getPathToStoreLine("HEAD"));
+    size = block.getPathCacheSize();
+    assertNull(block.getPathToStoreLine("HEAD"));
+    assertEquals(size, block.getPathCacheSize());
+
+    //A structure which exists, but not with the requested variation, has no
+    //path either. The missing variation is cached like an unknown tag
+    assertEquals(Arrays.asList("INDIVIDUAL_EVENT_STRUCTURE;BIRT;false;true", "BIRT"),
+        block.getPathToStoreLine("BIRT", false, true));
+    assertNull(block.getPathToStoreLine("BIRT", false, false));
+    size = block.getPathCacheSize();
+    assertNull(block.getPathStepsToStoreLine("BIRT", false, false));
+    assertEquals(size, block.getPathCacheSize());
+
+    //The returned path can be modified without changing the cache
+    block.getPathToStoreLine("CHAN").clear();
+    assertEquals(Arrays.asList("CHANGE_DATE", "CHAN"), block.getPathToStoreLine("CHAN"));
+  }
+
+}
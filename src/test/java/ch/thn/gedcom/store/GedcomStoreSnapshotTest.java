@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2017 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ch.thn.gedcom.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ch.thn.gedcom.data.GedcomNode;
+import ch.thn.gedcom.data.GedcomTree;
+import ch.thn.gedcom.printer.GedcomStructureTextPrinter;
+
+/**
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomStoreSnapshotTest {
+
+  private static GedcomStore parsedStore = null;
+  private static GedcomStore loadedStore = null;
+
+  @BeforeClass
+  public static void loadStores() throws GedcomParseException, IOException {
+    parsedStore = new GedcomStore();
+    parsedStore.showParsingOutput(false);
+    parsedStore.parse(GedcomStoreSnapshotTest.class.getResource("/gedg/gedcomobjects_5.5.1.gedg").getPath());
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    parsedStore.saveSnapshot(output);
+
+    loadedStore = new GedcomStore();
+    loadedStore.showParsingOutput(false);
+    loadedStore.loadSnapshot(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  /**
+   * Checks that the loaded block has the same lines as the parsed block
+   *
+   * @param parsed
+   * @param loaded
+   */
+  private static void checkBlock(GedcomStoreBlock parsed, GedcomStoreBlock loaded) {
+    assertEquals(parsed.getLevel(), loaded.getLevel());
+    assertEquals(parsed.getAllLineIDs(), loaded.getAllLineIDs());
+    assertEquals(parsed.getMandatoryLines().size(), loaded.getMandatoryLines().size());
+    assertEquals(parsed.getStoreLines().size(), loaded.getStoreLines().size());
+
+    for (int i = 0; i < parsed.getStoreLines().size(); i++) {
+      GedcomStoreLine parsedLine = parsed.getStoreLines().get(i);
+      GedcomStoreLine loadedLine = loaded.getStoreLines().get(i);
+
+      assertNotSame(parsedLine, loadedLine);
+      assertSame(loaded, loadedLine.getParentBlock());
+      assertEquals(parsedLine.getPos(), loadedLine.getPos());
+      assertEquals(parsedLine.getLineId(), loadedLine.getLineId());
+      assertEquals(parsedLine.getMin(), loadedLine.getMin());
+      assertEquals(parsedLine.getMax(), loadedLine.getMax());
+      assertEquals(parsedLine.getStructureName(), loadedLine.getStructureName());
+      assertEquals(parsedLine.getOriginalGedcomDefinitionLine(), loadedLine.getOriginalGedcomDefinitionLine());
+      assertEquals(parsedLine.hasTagBeforeXRef(), loadedLine.hasTagBeforeXRef());
+      assertEquals(parsedLine.hasTagAfterXRef(), loadedLine.hasTagAfterXRef());
+      assertEquals(list(parsedLine.getTagNames()), list(loadedLine.getTagNames()));
+      assertEquals(list(parsedLine.getXRefNames()), list(loadedLine.getXRefNames()));
+      assertEquals(list(parsedLine.getValueNames()), list(loadedLine.getValueNames()));
+      assertEquals(list(parsedLine.getValuePossibilities()), list(loadedLine.getValuePossibilities()));
+      assertEquals(parsedLine.hasChildBlock(), loadedLine.hasChildBlock());
+
+      if (parsedLine.hasChildBlock()) {
+        assertSame(loadedLine, loadedLine.getChildBlock().getParentStoreLine());
+        checkBlock(parsedLine.getChildBlock(), loadedLine.getChildBlock());
+      }
+    }
+  }
+
+  /**
+   * The sets have to be in the same order
+   *
+   * @param values
+   * @return
+   */
+  private static List<String> list(Iterable<String> values) {
+    List<String> list = new ArrayList<String>();
+
+    for (String value : values) {
+      list.add(value);
+    }
+
+    return list;
+  }
+
+  @Test
+  public void testHeader() {
+    assertEquals(parsedStore.getFileVersion(), loadedStore.getFileVersion());
+    assertEquals(parsedStore.getFileSource(), loadedStore.getFileSource());
+    assertEquals(parsedStore.getFileDescription(), loadedStore.getFileDescription());
+    assertEquals(parsedStore.getGrammarFingerprint(), loadedStore.getGrammarFingerprint());
+  }
+
+  @Test
+  public void testStructures() {
+    assertEquals(parsedStore.getStructures().size(), loadedStore.getStructures().size());
+    assertEquals(parsedStore.getNumberOfNames(), loadedStore.getNumberOfNames());
+
+    for (int i = 0; i < parsedStore.getStructures().size(); i++) {
+      GedcomStoreStructure parsed = parsedStore.getStructures().get(i);
+      GedcomStoreStructure loaded = loadedStore.getStructures().get(i);
+
+      assertEquals(parsed.getStructureName(), loaded.getStructureName());
+      assertSame(loadedStore, loaded.getStore());
+      assertSame(loaded, loaded.getStoreBlock().getStoreStructure());
+      assertEquals(parsed.hasVariations(), loaded.hasVariations());
+      assertEquals(parsedStore.getVariationTags(parsed.getStructureName()),
+          loadedStore.getVariationTags(loaded.getStructureName()));
+
+      checkBlock(parsed.getStoreBlock(), loaded.getStoreBlock());
+    }
+
+    assertEquals(parsedStore.toString(), loadedStore.toString());
+  }
+
+  @Test
+  public void testVariations() {
+    for (String tag : new String[] {"ANUL", "ENGA", "MARR", "EVEN"}) {
+      GedcomStoreStructure parsed = parsedStore.getGedcomStructure("FAMILY_EVENT_STRUCTURE", tag, false, false, false);
+      GedcomStoreStructure loaded = loadedStore.getGedcomStructure("FAMILY_EVENT_STRUCTURE", tag, false, false, false);
+
+      assertEquals(parsedStore.getStructures().indexOf(parsed), loadedStore.getStructures().indexOf(loaded));
+    }
+  }
+
+  @Test
+  public void testTree() {
+    GedcomStructureTextPrinter printer = new GedcomStructureTextPrinter(false);
+
+    assertEquals(printer.print(createIndividual(parsedStore)).toString(),
+        printer.print(createIndividual(loadedStore)).toString());
+  }
+
+  /**
+   *
+   *
+   * @param store
+   * @return
+   */
+  private static GedcomTree createIndividual(GedcomStore store) {
+    GedcomTree tree = store.getGedcomTree("INDIVIDUAL_RECORD");
+    GedcomNode indi = tree.addChildLine("INDI");
+    indi.setTagLineXRef("I1");
+    indi.addChildLine("INDIVIDUAL_EVENT_STRUCTURE", "BIRT").addChildLine("BIRT")
+    .addChildLine("INDIVIDUAL_EVENT_DETAIL").addChildLine("EVENT_DETAIL")
+    .addChildLine("DATE").setTagLineValue("1 JAN 1900");
+    indi.addChildLine("NOTE_STRUCTURE", "NOTE", false, true).addChildLine("NOTE").setTagLineValue("note");
+    indi.addMandatoryChildLines(true);
+
+    return tree;
+  }
+
+  @Test
+  public void testInvalidSnapshot() {
+    GedcomStore store = new GedcomStore();
+
+    try {
+      store.loadSnapshot(new ByteArrayInputStream(new byte[] {'0', ' ', 'H', 'E', 'A', 'D'}));
+      fail("Loaded an invalid snapshot");
+    } catch (GedcomParseException e) {
+      //Expected
+    }
+
+    assertEquals(0, store.getStructures().size());
+  }
+
+}